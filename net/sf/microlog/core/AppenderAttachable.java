@@ -0,0 +1,71 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * The interface for classes that <code>Appender</code> objects could be
+ * attached to, for example appenders that wrap other appenders.
+ * 
+ * When configured by the <code>PropertyConfigurator</code>, the attached
+ * appenders are listed by name in the {@value #APPENDER_REFS_PROPERTY}
+ * property, for example
+ * <code>microlog.appender.F.appenderRefs=S;H</code>. The referenced appenders
+ * are configured in the same way as the appenders of the root logger.
+ * 
+ * @since 2.3
+ */
+public interface AppenderAttachable {
+
+	/**
+	 * The property that lists the names of the attached appenders.
+	 */
+	String APPENDER_REFS_PROPERTY = "appenderRefs";
+
+	/**
+	 * Attach the specified appender.
+	 * 
+	 * @param appender
+	 *            the <code>Appender</code> to add.
+	 * @throws IllegalArgumentException
+	 *             if the <code>appender</code> is <code>null</code>.
+	 */
+	void addAppender(Appender appender) throws IllegalArgumentException;
+
+	/**
+	 * Detach the specified appender.
+	 * 
+	 * @param appender
+	 *            the <code>Appender</code> to remove.
+	 * @throws IllegalArgumentException
+	 *             if the <code>appender</code> is <code>null</code>.
+	 */
+	void removeAppender(Appender appender) throws IllegalArgumentException;
+
+	/**
+	 * Get the number of attached appenders.
+	 * 
+	 * @return the number of appenders.
+	 */
+	int getNumberOfAppenders();
+
+	/**
+	 * Get the specified appender, starting at index = 0.
+	 * 
+	 * @param index
+	 *            the index of the appender.
+	 * @return the appender.
+	 */
+	Appender getAppender(int index);
+}
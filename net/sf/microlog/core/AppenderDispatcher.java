@@ -0,0 +1,323 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+import java.util.Hashtable;
+
+/**
+ * The <code>AppenderDispatcher</code> owns a queue of
+ * <code>LoggingEvent</code> objects and a thread that logs them to one
+ * <code>Appender</code>. This is used by the <code>Logger</code> in the
+ * parallel dispatch mode, so that the appenders are logged to in parallel
+ * while each appender gets the events in the order they were logged.
+ * 
+ * When the queue is full, the logging thread waits until there is room in the
+ * queue.
+ * 
+ * @since 2.3
+ */
+public final class AppenderDispatcher implements Runnable {
+
+	/**
+	 * The default number of events that could be queued for an appender.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 128;
+
+	/**
+	 * The dispatchers with a running thread, used for finding the event that is
+	 * being logged on the current thread.
+	 */
+	private static final Hashtable dispatcherThreads = new Hashtable(7);
+
+	/**
+	 * The events that have been made current with <code>formatEvent()</code>
+	 * or <code>setCurrentEvent()</code>, by thread. They take precedence over
+	 * the event of a dispatcher thread.
+	 */
+	private static final Hashtable formattingThreads = new Hashtable(7);
+
+	private final Appender appender;
+
+	private final LoggingEvent[] queue;
+
+	private int head;
+
+	private int size;
+
+	private boolean stopped = true;
+
+	private Thread thread;
+
+	private LoggingEvent currentEvent;
+
+	/**
+	 * Create an <code>AppenderDispatcher</code> for the specified appender.
+	 * 
+	 * @param appender
+	 *            the <code>Appender</code> to log to.
+	 * @param queueSize
+	 *            the maximum number of queued events.
+	 * @throws IllegalArgumentException
+	 *             if the <code>appender</code> is <code>null</code> or the
+	 *             <code>queueSize</code> is less than 1.
+	 */
+	public AppenderDispatcher(Appender appender, int queueSize)
+			throws IllegalArgumentException {
+		if (appender == null || queueSize < 1) {
+			throw new IllegalArgumentException(
+					"The appender must not be null and the queueSize > 0");
+		}
+
+		this.appender = appender;
+		this.queue = new LoggingEvent[queueSize];
+	}
+
+	/**
+	 * Get the appender that the events are logged to.
+	 * 
+	 * @return the appender.
+	 */
+	public Appender getAppender() {
+		return appender;
+	}
+
+	/**
+	 * Start the dispatcher thread.
+	 */
+	public synchronized void start() {
+		if (stopped) {
+			stopped = false;
+			thread = new Thread(this);
+			dispatcherThreads.put(thread, this);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop the dispatcher thread, after the queued events have been logged.
+	 * This waits for the thread to finish.
+	 */
+	public void stop() {
+		Thread stoppedThread;
+
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+
+			stopped = true;
+			stoppedThread = thread;
+			notifyAll();
+		}
+
+		if (stoppedThread != Thread.currentThread()) {
+			try {
+				stoppedThread.join();
+			} catch (InterruptedException e) {
+				// Continue, the thread ends by itself.
+			}
+		}
+	}
+
+	/**
+	 * Add the event to the queue. If the dispatcher is stopped, the event is
+	 * logged on the calling thread.
+	 * 
+	 * @param event
+	 *            the event to log.
+	 */
+	public void dispatch(LoggingEvent event) {
+		synchronized (this) {
+			while (!stopped && size == queue.length) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// Check the queue again
+				}
+			}
+
+			if (!stopped) {
+				queue[(head + size) % queue.length] = event;
+				size++;
+				notifyAll();
+				return;
+			}
+		}
+
+		event.doLog(appender);
+	}
+
+	/**
+	 * Log the queued events, oldest first. The thread ends when the dispatcher
+	 * is stopped and the queue is empty.
+	 */
+	public void run() {
+		while (true) {
+			LoggingEvent event;
+
+			synchronized (this) {
+				while (!stopped && size == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Check the queue again
+					}
+				}
+
+				if (size == 0) {
+					dispatcherThreads.remove(thread);
+					thread = null;
+					return;
+				}
+
+				event = queue[head];
+				queue[head] = null;
+				head = (head + 1) % queue.length;
+				size--;
+				notifyAll();
+			}
+
+			currentEvent = event;
+			try {
+				event.doLog(appender);
+			} catch (RuntimeException e) {
+				System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+						+ "Failed to log to " + appender + ' ' + e);
+			}
+			currentEvent = null;
+		}
+	}
+
+	/**
+	 * Get the event that is being logged on the current thread, if it is a
+	 * dispatcher thread, or an event has been made current.
+	 * 
+	 * @return the event, or <code>null</code> if there is no such event.
+	 */
+	public static LoggingEvent getCurrentEvent() {
+		if (!formattingThreads.isEmpty()) {
+			LoggingEvent event = (LoggingEvent) formattingThreads.get(Thread
+					.currentThread());
+			if (event != null) {
+				return event;
+			}
+		}
+
+		if (!dispatcherThreads.isEmpty()) {
+			AppenderDispatcher dispatcher = (AppenderDispatcher) dispatcherThreads
+					.get(Thread.currentThread());
+			if (dispatcher != null) {
+				return dispatcher.currentEvent;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Make an event the current event of the current thread, e.g. while an
+	 * event that was kept for later is logged. The format commands then print
+	 * the time, the thread name and the contexts of the event.
+	 * 
+	 * @param event
+	 *            the event, or <code>null</code> to clear it.
+	 * @return the event that was current before, which should be restored.
+	 */
+	public static LoggingEvent setCurrentEvent(LoggingEvent event) {
+		Thread currentThread = Thread.currentThread();
+		LoggingEvent previousEvent = (LoggingEvent) formattingThreads
+				.get(currentThread);
+		if (event != null) {
+			formattingThreads.put(currentThread, event);
+		} else {
+			formattingThreads.remove(currentThread);
+		}
+		return previousEvent;
+	}
+
+	/**
+	 * Format an event on the current thread, as if it was being logged by a
+	 * dispatcher. The format commands then print the thread name and the
+	 * contexts of the event, which is used for formatting events that have
+	 * been received from a client.
+	 * 
+	 * @param event
+	 *            the event to format.
+	 * @param formatter
+	 *            the <code>Formatter</code> to use.
+	 * @return the formatted event.
+	 */
+	public static String formatEvent(LoggingEvent event, Formatter formatter) {
+		LoggingEvent previousEvent = setCurrentEvent(event);
+		try {
+			return formatter.format(event.getClientID(), event.getName(),
+					event.getTime(), event.getLevel(), event.getMessage(),
+					event.getThrowable());
+		} finally {
+			setCurrentEvent(previousEvent);
+		}
+	}
+
+	/**
+	 * Get the time that the event that is being logged was created. On a
+	 * dispatcher thread, or while an event is current, this is the time that
+	 * the <code>Logger</code> was called, otherwise it is the current time.
+	 * 
+	 * @return the time, in milliseconds since the epoch.
+	 */
+	public static long getEventTimestamp() {
+		LoggingEvent event = getCurrentEvent();
+
+		if (event != null) {
+			return event.getTimestamp();
+		}
+
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the thread that created the event that is being logged. On a
+	 * dispatcher thread this is the thread that called the <code>Logger</code>,
+	 * otherwise it is the current thread.
+	 * 
+	 * @return the thread.
+	 */
+	public static Thread getEventThread() {
+		LoggingEvent event = getCurrentEvent();
+
+		if (event != null && event.getThread() != null) {
+			return event.getThread();
+		}
+
+		return Thread.currentThread();
+	}
+
+	/**
+	 * Get the name of the thread that created the event that is being logged.
+	 * On a dispatcher thread this is the thread that called the
+	 * <code>Logger</code>, otherwise it is the current thread.
+	 * 
+	 * @return the thread name.
+	 */
+	public static String getEventThreadName() {
+		LoggingEvent event = getCurrentEvent();
+
+		if (event != null) {
+			return event.getThreadName();
+		}
+
+		return Thread.currentThread().getName();
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * An immutable map of <code>String</code> keys to values, used for the
+ * mapped diagnostic context. A change creates a new <code>ContextMap</code>,
+ * which means that a map could be captured with a reference copy and used on
+ * another thread.
+ * 
+ * The entries are kept in two arrays that are searched linearly. This is
+ * faster than hashing for the small maps that are typical for a diagnostic
+ * context, up to about 8 entries.
+ * 
+ * @see MDC
+ * @since 2.3
+ */
+public final class ContextMap {
+
+	/**
+	 * The empty map.
+	 */
+	public static final ContextMap EMPTY = new ContextMap(new String[0],
+			new Object[0]);
+
+	private final String[] keys;
+
+	private final Object[] values;
+
+	private ContextMap(String[] keys, Object[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * Get the value of the specified key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the value, or <code>null</code> if there is no such key.
+	 */
+	public Object get(String key) {
+		int index = indexOf(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	/**
+	 * Get a map with the specified entry added or replaced.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @return the new map.
+	 * @throws IllegalArgumentException
+	 *             if the <code>key</code> or the <code>value</code> is
+	 *             <code>null</code>.
+	 */
+	public ContextMap put(String key, Object value)
+			throws IllegalArgumentException {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException(
+					"The key and the value must not be null.");
+		}
+
+		int index = indexOf(key);
+		if (index >= 0) {
+			if (values[index] == value) {
+				return this;
+			}
+
+			Object[] newValues = new Object[values.length];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			newValues[index] = value;
+			return new ContextMap(keys, newValues);
+		}
+
+		int length = keys.length;
+		String[] newKeys = new String[length + 1];
+		Object[] newValues = new Object[length + 1];
+		System.arraycopy(keys, 0, newKeys, 0, length);
+		System.arraycopy(values, 0, newValues, 0, length);
+		newKeys[length] = key;
+		newValues[length] = value;
+		return new ContextMap(newKeys, newValues);
+	}
+
+	/**
+	 * Get a map without the specified key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the new map, or this map if it does not have the key.
+	 */
+	public ContextMap remove(String key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return this;
+		}
+
+		int length = keys.length - 1;
+		if (length == 0) {
+			return EMPTY;
+		}
+
+		String[] newKeys = new String[length];
+		Object[] newValues = new Object[length];
+		System.arraycopy(keys, 0, newKeys, 0, index);
+		System.arraycopy(values, 0, newValues, 0, index);
+		System.arraycopy(keys, index + 1, newKeys, index, length - index);
+		System.arraycopy(values, index + 1, newValues, index, length - index);
+		return new ContextMap(newKeys, newValues);
+	}
+
+	/**
+	 * Get the number of entries.
+	 * 
+	 * @return the size of the map.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the key of the specified entry, in the order they were added.
+	 * 
+	 * @param index
+	 *            the index of the entry, starting at 0.
+	 * @return the key.
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * Get the value of the specified entry.
+	 * 
+	 * @param index
+	 *            the index of the entry, starting at 0.
+	 * @return the value.
+	 */
+	public Object getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuffer stringBuffer = new StringBuffer(16 * keys.length + 2);
+		stringBuffer.append('{');
+		for (int index = 0; index < keys.length; index++) {
+			if (index > 0) {
+				stringBuffer.append(", ");
+			}
+			stringBuffer.append(keys[index]);
+			stringBuffer.append('=');
+			stringBuffer.append(values[index]);
+		}
+		stringBuffer.append('}');
+		return stringBuffer.toString();
+	}
+
+	private int indexOf(String key) {
+		for (int index = 0; index < keys.length; index++) {
+			if (keys[index].equals(key)) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+}
@@ -129,41 +129,85 @@ class DefaultLoggerRepository implements LoggerRepository {
 		if (leafNode != null) {
 			leafNode.logger.setLevel(level);
 		} else {
+			getNode(name).level = level;
+		}
+	}
 
-			int beginIndex = 0;
-			int endIndex = name.indexOf('.');
-			int nameLength = name.length();
-			RepositoryNode currentNode = rootNode;
-
-			while (beginIndex < nameLength && currentNode != null) {
+	/**
+	 * Get the node of the specified part of the logging hierarchy. The nodes
+	 * that are missing are added.
+	 */
+	private RepositoryNode getNode(String name) {
+		int beginIndex = 0;
+		int endIndex = name.indexOf('.');
+		int nameLength = name.length();
+		RepositoryNode currentNode = rootNode;
 
-				if (endIndex == -1) {
-					endIndex = nameLength;
-				}
+		while (beginIndex < nameLength && currentNode != null) {
 
-				String pathComponent = name.substring(beginIndex, endIndex);
-				beginIndex = endIndex + 1;
+			if (endIndex == -1) {
+				endIndex = nameLength;
+			}
 
-				RepositoryNode child = currentNode.getChildNode(pathComponent);
+			String pathComponent = name.substring(beginIndex, endIndex);
+			beginIndex = endIndex + 1;
 
-				if (child != null) {
-					// Child found => traverse down the tree.
-					currentNode = child;
-				} else {
-					// No child => add the child
-					RepositoryNode newChild = new RepositoryNode(pathComponent);
-					newChild.setParent(currentNode);
-					currentNode.addChild(newChild);
-					currentNode = newChild;
-				}
+			RepositoryNode child = currentNode.getChildNode(pathComponent);
 
-				endIndex = name.indexOf('.', beginIndex);
+			if (child != null) {
+				// Child found => traverse down the tree.
+				currentNode = child;
+			} else {
+				// No child => add the child
+				RepositoryNode newChild = new RepositoryNode(pathComponent);
+				newChild.setParent(currentNode);
+				currentNode.addChild(newChild);
+				currentNode = newChild;
 			}
 
-			if (currentNode != null) {
-				currentNode.level = level;
+			endIndex = name.indexOf('.', beginIndex);
+		}
+
+		return currentNode;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.LoggerRepository#getRateLimiter(java.lang.String)
+	 */
+	public synchronized RateLimiter getRateLimiter(String name) {
+		RepositoryNode node = (RepositoryNode) leafNodeHashtable.get(name);
+		if (node == null) {
+			node = getNode(name);
+		}
+
+		RateLimiter limiter = node.getRateLimiter();
+		if (limiter == null) {
+			limiter = new RateLimiter();
+			if (node.logger != null) {
+				node.logger.setRateLimiter(limiter);
+			} else {
+				node.rateLimiter = limiter;
+				Logger.rateLimiterChanged();
 			}
 		}
+
+		return limiter;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.LoggerRepository#getEffectiveRateLimiter(Logger)
+	 */
+	public RateLimiter getEffectiveRateLimiter(Logger logger) {
+		RateLimiter effectiveLimiter = null;
+		RepositoryNode currentNode = (RepositoryNode) leafNodeHashtable
+				.get(logger.getName());
+
+		while (effectiveLimiter == null && currentNode != null) {
+			effectiveLimiter = currentNode.getRateLimiter();
+			currentNode = currentNode.parent;
+		}
+
+		return effectiveLimiter;
 	}
 
 	/*
@@ -209,6 +253,7 @@ class DefaultLoggerRepository implements LoggerRepository {
 		Logger rootLogger = rootNode.logger;
 		rootLogger.resetLogger();
 		rootLogger.setLevel(Level.DEBUG);
+		rootLogger.setRateLimiter(null);
 		leafNodeHashtable.clear();
 	}
 	
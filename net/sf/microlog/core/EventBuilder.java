@@ -0,0 +1,277 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * An <code>EventBuilder</code> builds a log entry with typed key-value
+ * fields, for example:
+ * 
+ * <pre>
+ * log.atInfo().kv(&quot;latencyMs&quot;, latency).kv(&quot;user&quot;, id).msg(&quot;done&quot;);
+ * </pre>
+ * 
+ * The <code>long</code>, <code>int</code>, <code>double</code> and
+ * <code>boolean</code> values are not boxed. The log entry is logged as a
+ * <code>StructuredMessage</code> when <code>msg()</code> or
+ * <code>log()</code> is called.
+ * 
+ * The builders are pooled, and a builder goes back to the pool when the log
+ * entry has been logged, so a builder must not be used after that. The
+ * arrays of the fields are handed over to the message, and the builder
+ * creates new ones when it gets fields again, so a log entry with fields
+ * takes the message and at most two arrays. When the
+ * level is not enabled, the <code>Logger</code> returns a shared builder that
+ * does nothing.
+ * 
+ * @since 2.3
+ */
+public final class EventBuilder {
+
+	/**
+	 * The builder that is returned when the level is not enabled.
+	 */
+	static final EventBuilder NOOP = new EventBuilder();
+
+	private static final int POOL_SIZE = 4;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private static final EventBuilder[] pool = new EventBuilder[POOL_SIZE];
+
+	private static int poolCount;
+
+	private Logger logger;
+
+	private Level level;
+
+	private Throwable throwable;
+
+	private int fieldCount;
+
+	/**
+	 * The number of fields that the next arrays are created for.
+	 */
+	private int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * The key of each field, followed by the object value or the type marker,
+	 * see <code>StructuredMessage</code>.
+	 */
+	private Object[] slots;
+
+	private long[] primitives;
+
+	private EventBuilder() {
+	}
+
+	/**
+	 * Get a builder from the pool, or create one if the pool is empty.
+	 */
+	static EventBuilder acquire(Logger logger, Level level) {
+		EventBuilder builder = null;
+
+		synchronized (pool) {
+			if (poolCount > 0) {
+				poolCount--;
+				builder = pool[poolCount];
+				pool[poolCount] = null;
+			}
+		}
+
+		if (builder == null) {
+			builder = new EventBuilder();
+		}
+
+		builder.logger = logger;
+		builder.level = level;
+		return builder;
+	}
+
+	/**
+	 * Add a <code>long</code> field.
+	 * 
+	 * @param key
+	 *            the key of the field.
+	 * @param value
+	 *            the value.
+	 * @return this builder.
+	 */
+	public EventBuilder kv(String key, long value) {
+		if (logger != null) {
+			addField(key, StructuredMessage.TYPE_LONG, value, null);
+		}
+		return this;
+	}
+
+	/**
+	 * Add an <code>int</code> field.
+	 * 
+	 * @param key
+	 *            the key of the field.
+	 * @param value
+	 *            the value.
+	 * @return this builder.
+	 */
+	public EventBuilder kv(String key, int value) {
+		if (logger != null) {
+			addField(key, StructuredMessage.TYPE_INT, value, null);
+		}
+		return this;
+	}
+
+	/**
+	 * Add a <code>double</code> field.
+	 * 
+	 * @param key
+	 *            the key of the field.
+	 * @param value
+	 *            the value.
+	 * @return this builder.
+	 */
+	public EventBuilder kv(String key, double value) {
+		if (logger != null) {
+			addField(key, StructuredMessage.TYPE_DOUBLE, Double
+					.doubleToLongBits(value), null);
+		}
+		return this;
+	}
+
+	/**
+	 * Add a <code>boolean</code> field.
+	 * 
+	 * @param key
+	 *            the key of the field.
+	 * @param value
+	 *            the value.
+	 * @return this builder.
+	 */
+	public EventBuilder kv(String key, boolean value) {
+		if (logger != null) {
+			addField(key, StructuredMessage.TYPE_BOOLEAN, value ? 1 : 0, null);
+		}
+		return this;
+	}
+
+	/**
+	 * Add an object field. The value is printed with its
+	 * <code>toString()</code> method.
+	 * 
+	 * @param key
+	 *            the key of the field.
+	 * @param value
+	 *            the value, which may be <code>null</code>.
+	 * @return this builder.
+	 */
+	public EventBuilder kv(String key, Object value) {
+		if (logger != null) {
+			addField(key, StructuredMessage.TYPE_OBJECT, 0, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Set the <code>Throwable</code> object to log.
+	 * 
+	 * @param t
+	 *            the <code>Throwable</code> object.
+	 * @return this builder.
+	 */
+	public EventBuilder throwable(Throwable t) {
+		if (logger != null) {
+			throwable = t;
+		}
+		return this;
+	}
+
+	/**
+	 * Log the log entry with the specified text, and return the builder to the
+	 * pool.
+	 * 
+	 * @param text
+	 *            the text of the message.
+	 */
+	public void msg(String text) {
+		if (logger == null) {
+			return;
+		}
+
+		StructuredMessage message = new StructuredMessage(text, fieldCount,
+				slots, primitives);
+		slots = null;
+		primitives = null;
+
+		Logger currentLogger = logger;
+		Level currentLevel = level;
+		Throwable currentThrowable = throwable;
+
+		release();
+		currentLogger.log(currentLevel, message, currentThrowable);
+	}
+
+	/**
+	 * Log the log entry without a text, and return the builder to the pool.
+	 */
+	public void log() {
+		msg(null);
+	}
+
+	private void addField(String key, byte type, long primitive, Object object) {
+		if (key == null) {
+			throw new IllegalArgumentException("The key must not be null.");
+		}
+
+		if (slots == null) {
+			slots = new Object[capacity * 2];
+		} else if (fieldCount * 2 == slots.length) {
+			capacity = fieldCount * 2;
+			Object[] newSlots = new Object[capacity * 2];
+			System.arraycopy(slots, 0, newSlots, 0, fieldCount * 2);
+			slots = newSlots;
+		}
+
+		slots[fieldCount * 2] = key;
+		if (type == StructuredMessage.TYPE_OBJECT) {
+			slots[fieldCount * 2 + 1] = object;
+		} else {
+			if (primitives == null) {
+				primitives = new long[capacity];
+			} else if (primitives.length < capacity) {
+				long[] newPrimitives = new long[capacity];
+				System.arraycopy(primitives, 0, newPrimitives, 0, fieldCount);
+				primitives = newPrimitives;
+			}
+			slots[fieldCount * 2 + 1] = StructuredMessage.getTypeMarker(type);
+			primitives[fieldCount] = primitive;
+		}
+		fieldCount++;
+	}
+
+	/**
+	 * Clear the builder and put it back in the pool.
+	 */
+	private void release() {
+		fieldCount = 0;
+		logger = null;
+		level = null;
+		throwable = null;
+
+		synchronized (pool) {
+			if (poolCount < POOL_SIZE) {
+				pool[poolCount] = this;
+				poolCount++;
+			}
+		}
+	}
+}
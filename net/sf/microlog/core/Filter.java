@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * This is the interface for all filters. A <code>Filter</code> decides if a
+ * log entry shall be logged to an <code>Appender</code>. The filters are
+ * called with the raw log entry before it is formatted, which means that a
+ * rejected log entry is never formatted.
+ * 
+ * The filters of an appender are called in order. The first filter that
+ * returns <code>ACCEPT</code> or <code>DENY</code> decides, and a
+ * <code>NEUTRAL</code> answer leaves the decision to the next filter. If all
+ * filters are neutral, the log entry is logged.
+ * 
+ * @since 2.3
+ */
+public interface Filter {
+
+	/**
+	 * The log entry shall be logged, without asking the remaining filters.
+	 */
+	int ACCEPT = 1;
+
+	/**
+	 * The filter has no opinion, the next filter decides.
+	 */
+	int NEUTRAL = 0;
+
+	/**
+	 * The log entry shall not be logged.
+	 */
+	int DENY = -1;
+
+	/**
+	 * Decide if the log entry shall be logged.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 * @return <code>ACCEPT</code>, <code>NEUTRAL</code> or <code>DENY</code>.
+	 */
+	int decide(String clientID, String name, long time, Level level,
+			Object message, Throwable t);
+
+	/**
+	 * Get the filter specific property names. This is workaround for the lack
+	 * of reflection in Java ME and is used for configuration.
+	 * 
+	 * @return an array of the supported properties.
+	 */
+	String[] getPropertyNames();
+
+	/**
+	 * Set the specified property to the supplied value.
+	 * 
+	 * @param name
+	 *            the name of the property to set.
+	 * @param value
+	 *            the value to set.
+	 * @throws IllegalArgumentException
+	 *             if the name or value has an invalid value.
+	 */
+	void setProperty(String name, String value)
+			throws IllegalArgumentException;
+}
@@ -78,6 +78,57 @@ public final class Level {
 		this.levelString = levelString;
 	}
 
+	/**
+	 * Get the <code>Level</code> with the specified name, ignoring case.
+	 * 
+	 * @param levelString
+	 *            the name of the level, for example "ERROR".
+	 * @return the level, or <code>null</code> if it is not a valid level.
+	 * @since 2.3
+	 */
+	public static Level toLevel(String levelString) {
+		Level[] levels = { FATAL, ERROR, WARN, INFO, DEBUG, TRACE };
+
+		if (levelString != null) {
+			String trimmedLevelString = levelString.trim();
+			for (int index = 0; index < levels.length; index++) {
+				if (trimmedLevelString
+						.equalsIgnoreCase(levels[index].levelString)) {
+					return levels[index];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get the <code>Level</code> with the specified integer level.
+	 * 
+	 * @param levelValue
+	 *            the integer level, for example <code>ERROR_INT</code>.
+	 * @return the level, or <code>null</code> if it is not a valid level.
+	 * @since 2.3
+	 */
+	public static Level toLevel(int levelValue) {
+		switch (levelValue) {
+		case FATAL_INT:
+			return FATAL;
+		case ERROR_INT:
+			return ERROR;
+		case WARN_INT:
+			return WARN;
+		case INFO_INT:
+			return INFO;
+		case DEBUG_INT:
+			return DEBUG;
+		case TRACE_INT:
+			return TRACE;
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Return the integer level for this <code>Level</code>.
 	 * 
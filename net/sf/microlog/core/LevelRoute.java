@@ -0,0 +1,48 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+import net.sf.microlog.core.filter.FilterChain;
+
+/**
+ * The appenders that accept one level, as precomputed by the
+ * <code>Logger</code>. The arrays have the same order, and an entry in
+ * <code>filterChains</code> is <code>null</code> if the appender has no
+ * filters.
+ * 
+ * @since 2.3
+ */
+final class LevelRoute {
+
+	static final LevelRoute EMPTY_ROUTE = new LevelRoute(new Appender[0],
+			new FilterChain[0], null);
+
+	final Appender[] appenders;
+
+	final FilterChain[] filterChains;
+
+	/**
+	 * The dispatchers of the appenders, or <code>null</code> unless the log
+	 * is open in the parallel dispatch mode.
+	 */
+	final AppenderDispatcher[] dispatchers;
+
+	LevelRoute(Appender[] appenders, FilterChain[] filterChains,
+			AppenderDispatcher[] dispatchers) {
+		this.appenders = appenders;
+		this.filterChains = filterChains;
+		this.dispatchers = dispatchers;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * The <code>Location</code> of the code that called the <code>Logger</code>,
+ * i.e. the class, the method, the file and the line.
+ * 
+ * Finding the location is expensive, so it is only done when a formatter
+ * requires it, which it tells with <code>setRequired()</code>. Then the
+ * location is found on the logging thread, by the <code>LocationResolver</code>.
+ * A <code>LoggingEvent</code> keeps the location, so that it is right when
+ * the event is formatted later or on a dispatcher thread.
+ * 
+ * CLDC has no way to find the location. On Java SE the
+ * <code>StackTraceLocationResolver</code> is used if it is available.
+ * 
+ * @since 2.3
+ */
+public final class Location {
+
+	static final String STACK_TRACE_RESOLVER_CLASS_NAME = "net.sf.microlog.core.StackTraceLocationResolver";
+
+	private static LocationResolver resolver;
+
+	private static boolean resolverCreated;
+
+	private static int requiredCount;
+
+	private final String className;
+
+	private final String methodName;
+
+	private final String fileName;
+
+	private final int lineNumber;
+
+	/**
+	 * Create a <code>Location</code>.
+	 * 
+	 * @param className
+	 *            the name of the class.
+	 * @param methodName
+	 *            the name of the method.
+	 * @param fileName
+	 *            the name of the file, or <code>null</code> if it is not
+	 *            known.
+	 * @param lineNumber
+	 *            the line number, or a negative number if it is not known.
+	 */
+	public Location(String className, String methodName, String fileName,
+			int lineNumber) {
+		this.className = className;
+		this.methodName = methodName;
+		this.fileName = fileName;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Tell if a formatter requires the location, or no longer requires it.
+	 * Each call with <code>true</code> should be followed by a call with
+	 * <code>false</code> when the formatter no longer requires it, as the
+	 * <code>PatternFormatter</code> does when its pattern is changed or it is
+	 * closed.
+	 * 
+	 * @param required
+	 *            <code>true</code> if the location is required.
+	 */
+	public static synchronized void setRequired(boolean required) {
+		if (required) {
+			requiredCount++;
+		} else if (requiredCount > 0) {
+			requiredCount--;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a formatter requires the location.
+	 */
+	public static boolean isRequired() {
+		return requiredCount > 0;
+	}
+
+	/**
+	 * Set the <code>LocationResolver</code>.
+	 * 
+	 * @param resolver
+	 *            the resolver, or <code>null</code> to not find any location.
+	 */
+	public static synchronized void setResolver(LocationResolver resolver) {
+		Location.resolver = resolver;
+		resolverCreated = true;
+	}
+
+	/**
+	 * Find the location of the caller of the <code>Logger</code> on the
+	 * current thread.
+	 * 
+	 * @return the location, or <code>null</code> if it is not known.
+	 */
+	public static Location resolve() {
+		LocationResolver currentResolver = getResolver();
+		return currentResolver != null ? currentResolver.resolve() : null;
+	}
+
+	/**
+	 * Get the location of the event that is being logged. On a dispatcher
+	 * thread this is the location that the event was created with, otherwise
+	 * it is found on the current thread.
+	 * 
+	 * @return the location, or <code>null</code> if it is not known.
+	 */
+	public static Location getEventLocation() {
+		LoggingEvent event = AppenderDispatcher.getCurrentEvent();
+
+		if (event != null) {
+			return event.getLocation();
+		}
+
+		return resolve();
+	}
+
+	private static synchronized LocationResolver getResolver() {
+		if (!resolverCreated) {
+			try {
+				Class resolverClass = Class
+						.forName(STACK_TRACE_RESOLVER_CLASS_NAME);
+				resolver = (LocationResolver) resolverClass.newInstance();
+			} catch (ClassNotFoundException e) {
+				// This is expected on Java ME.
+			} catch (InstantiationException e) {
+				System.err.println("Could not create the location resolver "
+						+ e);
+			} catch (IllegalAccessException e) {
+				System.err.println("Could not create the location resolver "
+						+ e);
+			} catch (NoClassDefFoundError e) {
+				// The class is there, but not the Java SE methods that it uses.
+			}
+			resolverCreated = true;
+		}
+
+		return resolver;
+	}
+
+	/**
+	 * @return the name of the class.
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return the name of the method.
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * @return the name of the file, or <code>null</code> if it is not known.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the line number, or a negative number if it is not known.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Get the location as <code>class.method(file:line)</code>.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer(64);
+		buffer.append(className);
+		buffer.append('.');
+		buffer.append(methodName);
+		buffer.append('(');
+		buffer.append(fileName != null ? fileName : "Unknown Source");
+		if (lineNumber >= 0) {
+			buffer.append(':');
+			buffer.append(lineNumber);
+		}
+		buffer.append(')');
+		return buffer.toString();
+	}
+}
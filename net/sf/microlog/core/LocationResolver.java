@@ -0,0 +1,33 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * A <code>LocationResolver</code> finds the <code>Location</code> of the
+ * code that called the <code>Logger</code>. It is called on the logging
+ * thread, and is set with <code>Location.setResolver()</code>.
+ * 
+ * @since 2.3
+ */
+public interface LocationResolver {
+
+	/**
+	 * Resolve the location of the caller of the <code>Logger</code> on the
+	 * current thread.
+	 * 
+	 * @return the location, or <code>null</code> if it is not known.
+	 */
+	Location resolve();
+}
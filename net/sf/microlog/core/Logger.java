@@ -16,10 +16,16 @@ package net.sf.microlog.core;
 
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
+import net.sf.microlog.core.appender.AbstractAppender;
 import net.sf.microlog.core.appender.ConsoleAppender;
+import net.sf.microlog.core.filter.FilterChain;
+import net.sf.microlog.core.format.CachingFormatter;
 import net.sf.microlog.core.format.PatternFormatter;
+import net.sf.microlog.core.format.SimpleFormatter;
+import net.sf.microlog.core.format.ThrowableRenderer;
 
 /**
  * The <code>Logger</code> class is used for logging.
@@ -35,22 +41,71 @@ import net.sf.microlog.core.format.PatternFormatter;
  * @author Karsten Ohme
  * @since 0.1
  */
-public final class Logger {
+public final class Logger implements AppenderAttachable {
 
 	public static final Level DEFAULT_LOG_LEVEL = Level.DEBUG;
 
+	/**
+	 * The dispatch mode where the appenders are logged to one after another on
+	 * the logging thread. This is the default.
+	 */
+	public static final int DISPATCH_SYNC = 0;
+
+	/**
+	 * The dispatch mode where each appender has a queue and a thread of its
+	 * own, so that the appenders are logged to in parallel.
+	 */
+	public static final int DISPATCH_PARALLEL = 1;
+
 	private String clientID;
 
 	private String name;
 
 	private Level level;
 
+	private RateLimiter rateLimiter;
+
+	/**
+	 * The number of times that a <code>RateLimiter</code> has been set in the
+	 * hierarchy, which tells the loggers to find their effective limiter
+	 * again.
+	 */
+	private static int rateLimiterChangeCount;
+
+	private RateLimiter effectiveRateLimiter;
+
+	private int effectiveRateLimiterChangeCount = -1;
+
 	private static final StopWatch stopWatch = new StopWatch();
 
 	private final static Vector appenderList = new Vector(4);
 
 	private static boolean firstLogEvent = true;
 
+	private static int dispatchMode = DISPATCH_SYNC;
+
+	private static int dispatchQueueSize = AppenderDispatcher.DEFAULT_QUEUE_SIZE;
+
+	/**
+	 * The <code>AppenderDispatcher</code> objects, one for each appender in
+	 * the same order. This is empty unless the log is open in the parallel
+	 * dispatch mode.
+	 */
+	private final static Vector dispatcherList = new Vector(4);
+
+	/**
+	 * The original formatters of the appenders that share a
+	 * <code>CachingFormatter</code> while the log is open.
+	 */
+	private final static Hashtable sharedFormatterMap = new Hashtable(7);
+
+	/**
+	 * The appenders to log to, indexed by the value of the <code>Level</code>.
+	 * This is rebuilt when the appenders change, so that the logging only
+	 * iterates the appenders that accept the level.
+	 */
+	private static LevelRoute[] routes = createRoutes();
+
 	/**
 	 * Create a logger with the specified <code>name</code>. The
 	 * <code>LoggerFactory</code> should be used for creating
@@ -104,6 +159,61 @@ public final class Logger {
 		return effectiveLevel;
 	}
 
+	/**
+	 * Get the <code>RateLimiter</code> of this logger.
+	 * 
+	 * @return the rate limiter, or <code>null</code> if there is none.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Set a <code>RateLimiter</code> that limits all the logging from this
+	 * logger, and from the loggers below it in the hierarchy that have no
+	 * limiter of their own. The limiter is asked after the level has been
+	 * checked.
+	 * 
+	 * @param rateLimiter
+	 *            the rate limiter, or <code>null</code> for no limit.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		rateLimiterChanged();
+	}
+
+	/**
+	 * Get the effective <code>RateLimiter</code>. This is the limiter of this
+	 * logger, or if it has none, the limiter of the nearest logger above it in
+	 * the hierarchy. It is looked up again only when a limiter has been set.
+	 * 
+	 * @return the effective rate limiter, or <code>null</code> if there is
+	 *         none.
+	 */
+	public RateLimiter getEffectiveRateLimiter() {
+		int changeCount = rateLimiterChangeCount;
+
+		if (effectiveRateLimiterChangeCount != changeCount) {
+			RateLimiter limiter = rateLimiter;
+			if (limiter == null && !name.equals("")) {
+				limiter = DefaultLoggerRepository.getInstance()
+						.getEffectiveRateLimiter(this);
+			}
+			effectiveRateLimiter = limiter;
+			effectiveRateLimiterChangeCount = changeCount;
+		}
+
+		return effectiveRateLimiter;
+	}
+
+	/**
+	 * Tell the loggers that a <code>RateLimiter</code> has been set in the
+	 * hierarchy.
+	 */
+	static synchronized void rateLimiterChanged() {
+		rateLimiterChangeCount++;
+	}
+
 	/**
 	 * Get the client ID.
 	 * 
@@ -148,6 +258,15 @@ public final class Logger {
 
 		if (!appenderList.contains(appender)) {
 			appenderList.addElement(appender);
+
+			if (!dispatcherList.isEmpty()) {
+				AppenderDispatcher dispatcher = new AppenderDispatcher(
+						appender, dispatchQueueSize);
+				dispatcherList.addElement(dispatcher);
+				dispatcher.start();
+			}
+
+			buildRoutes();
 		}
 	}
 
@@ -163,6 +282,18 @@ public final class Logger {
 			throw new IllegalArgumentException("The appender must not be null.");
 		}
 
+		int index = appenderList.indexOf(appender);
+		if (index != -1 && !dispatcherList.isEmpty()) {
+			((AppenderDispatcher) dispatcherList.elementAt(index)).stop();
+			dispatcherList.removeElementAt(index);
+		}
+
+		Formatter sharedFormatter = (Formatter) sharedFormatterMap
+				.remove(appender);
+		if (sharedFormatter != null) {
+			appender.setFormatter(sharedFormatter);
+		}
+
 		if (appender.isLogOpen()) {
 			try {
 				appender.close();
@@ -171,6 +302,7 @@ public final class Logger {
 			}
 		}
 		appenderList.removeElement(appender);
+		buildRoutes();
 	}
 
 	/**
@@ -178,6 +310,9 @@ public final class Logger {
 	 * 
 	 */
 	public void removeAllAppenders() {
+		stopDispatchers();
+		unshareFormatters();
+
 		for (Enumeration enumeration = appenderList.elements(); enumeration
 				.hasMoreElements();) {
 			Appender appender = (Appender) enumeration.nextElement();
@@ -190,6 +325,7 @@ public final class Logger {
 			}
 		}
 		appenderList.removeAllElements();
+		buildRoutes();
 	}
 
 	/**
@@ -212,6 +348,57 @@ public final class Logger {
 		return (Appender) appenderList.elementAt(index);
 	}
 
+	/**
+	 * Get the dispatch mode. The dispatch mode is common for all loggers.
+	 * 
+	 * @return <code>DISPATCH_SYNC</code> or <code>DISPATCH_PARALLEL</code>.
+	 */
+	public int getDispatchMode() {
+		return dispatchMode;
+	}
+
+	/**
+	 * Set the dispatch mode. In the <code>DISPATCH_PARALLEL</code> mode each
+	 * appender gets a queue and a thread of its own, which means that the
+	 * logging takes about the time of the slowest appender instead of the sum
+	 * of all appenders. The appenders still get the logging in order. The
+	 * dispatch mode is common for all loggers, and takes effect the next time
+	 * the log is opened.
+	 * 
+	 * @param dispatchMode
+	 *            <code>DISPATCH_SYNC</code> or <code>DISPATCH_PARALLEL</code>.
+	 * @throws IllegalArgumentException
+	 *             if the <code>dispatchMode</code> is not valid.
+	 */
+	public void setDispatchMode(int dispatchMode)
+			throws IllegalArgumentException {
+		if (dispatchMode != DISPATCH_SYNC && dispatchMode != DISPATCH_PARALLEL) {
+			throw new IllegalArgumentException("Not a valid dispatch mode.");
+		}
+
+		Logger.dispatchMode = dispatchMode;
+	}
+
+	/**
+	 * Set the number of log events that could be queued for each appender in
+	 * the parallel dispatch mode. When the queue is full, the logging waits
+	 * for the appender. This takes effect the next time the log is opened.
+	 * 
+	 * @param dispatchQueueSize
+	 *            the queue size.
+	 * @throws IllegalArgumentException
+	 *             if the <code>dispatchQueueSize</code> is less than 1.
+	 */
+	public void setDispatchQueueSize(int dispatchQueueSize)
+			throws IllegalArgumentException {
+		if (dispatchQueueSize < 1) {
+			throw new IllegalArgumentException(
+					"The dispatchQueueSize must not be less than 1.");
+		}
+
+		Logger.dispatchQueueSize = dispatchQueueSize;
+	}
+
 	/**
 	 * Log the message at the specified level.
 	 * 
@@ -246,32 +433,156 @@ public final class Logger {
 		}
 
 		if (getEffectiveLevel().levelValue <= level.levelValue) {
-			int nofAppenders = appenderList.size();
+			RateLimiter currentLimiter = getEffectiveRateLimiter();
+			if (currentLimiter == null || isPermitted(currentLimiter, level)) {
+				doLog(level, message, t);
+			}
+		}
+	}
 
-			if (firstLogEvent == true) {
-				if (nofAppenders == 0) {
-					System.err
-							.println("Warning! No appender is set, using ConsoleAppender with PatternFormatter");
-					Appender appender = new ConsoleAppender();
-					appender.setFormatter(new PatternFormatter());
-					addAppender(appender);
-					nofAppenders++;
-				}
+	/**
+	 * Log the message and the <code>Throwable</code> object at the specified
+	 * level, if the specified <code>RateLimiter</code> lets it through. This
+	 * is used for limiting the logging from one call site, which should keep
+	 * the limiter in a static field. The <code>RateLimiter</code> of the
+	 * logger, or of the logger above it, if any, is also asked.
+	 * 
+	 * @param limiter
+	 *            the <code>RateLimiter</code> of the call site.
+	 * @param level
+	 *            the log level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the <code>Throwable</code> object.
+	 * @throws IllegalArgumentException
+	 *             if the <code>limiter</code> or the <code>level</code> is
+	 *             <code>null</code>.
+	 */
+	public void log(RateLimiter limiter, Level level, Object message,
+			Throwable t) throws IllegalArgumentException {
+		if (limiter == null || level == null) {
+			throw new IllegalArgumentException(
+					"The limiter and the level must not be null.");
+		}
 
-				try {
-					open();
-				} catch (IOException e) {
-					System.err.println("Failed to open the log. " + e);
-				}
+		if (getEffectiveLevel().levelValue <= level.levelValue
+				&& isPermitted(limiter, level)) {
+			RateLimiter currentLimiter = getEffectiveRateLimiter();
+			if (currentLimiter == null || isPermitted(currentLimiter, level)) {
+				doLog(level, message, t);
+			}
+		}
+	}
+
+	/**
+	 * Log the message at the specified level, if the specified
+	 * <code>RateLimiter</code> lets it through.
+	 * 
+	 * @param limiter
+	 *            the <code>RateLimiter</code> of the call site.
+	 * @param level
+	 *            the log level
+	 * @param message
+	 *            the message to log.
+	 * @throws IllegalArgumentException
+	 *             if the <code>limiter</code> or the <code>level</code> is
+	 *             <code>null</code>.
+	 */
+	public void log(RateLimiter limiter, Level level, Object message)
+			throws IllegalArgumentException {
+		log(limiter, level, message, null);
+	}
+
+	/**
+	 * Ask the limiter if the log entry is let through. If it is, and log
+	 * entries have been suppressed, a line with the number of suppressed log
+	 * entries is logged first, at most once per summary interval of the
+	 * limiter.
+	 */
+	private boolean isPermitted(RateLimiter limiter, Level level) {
+		if (!limiter.tryAcquire()) {
+			return false;
+		}
+
+		int suppressedCount = limiter.takeSuppressedCount();
+		if (suppressedCount > 0) {
+			doLog(level, "Suppressed " + suppressedCount + " log entries", null);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Log to the appenders, after the level and the limits have been checked.
+	 */
+	private void doLog(Level level, Object message, Throwable t) {
+		int nofAppenders = appenderList.size();
 
-				stopWatch.start();
-				firstLogEvent = false;
+		if (firstLogEvent == true) {
+			if (nofAppenders == 0) {
+				System.err
+						.println("Warning! No appender is set, using ConsoleAppender with PatternFormatter");
+				Appender appender = new ConsoleAppender();
+				appender.setFormatter(new PatternFormatter());
+				addAppender(appender);
+				nofAppenders++;
 			}
 
-			for (int index = 0; index < nofAppenders; index++) {
-				Appender appender = (Appender) appenderList.elementAt(index);
-				appender.doLog(clientID, name, stopWatch.getCurrentTime(),
-						level, message, t);
+			try {
+				open();
+			} catch (IOException e) {
+				System.err.println("Failed to open the log. " + e);
+			}
+
+			stopWatch.start();
+			firstLogEvent = false;
+		}
+
+		// The time is taken once, so that all appenders get the same
+		// arguments and a shared formatter only has to format once.
+		long time = stopWatch.getCurrentTime();
+
+		LevelRoute route = routes[level.levelValue];
+		Appender[] appenders = route.appenders;
+		FilterChain[] filterChains = route.filterChains;
+		AppenderDispatcher[] dispatchers = route.dispatchers;
+		LoggingEvent event = null;
+		LoggingEvent previousEvent = null;
+
+		// When the entry goes to several appenders in the calling thread, it
+		// is made the current event while they log it, so that a shared
+		// CachingFormatter can tell this entry from any other entry.
+		if (dispatchers == null && appenders.length > 1) {
+			event = new LoggingEvent(clientID, name, time, level, message, t);
+			previousEvent = AppenderDispatcher.setCurrentEvent(event);
+		}
+
+		try {
+			for (int index = 0; index < appenders.length; index++) {
+				// The filters are asked before the appender formats the
+				// message, on the logging thread.
+				FilterChain filterChain = filterChains[index];
+				if (filterChain != null
+						&& !filterChain.isLoggable(clientID, name, time,
+								level, message, t)) {
+					continue;
+				}
+
+				if (dispatchers != null) {
+					if (event == null) {
+						event = new LoggingEvent(clientID, name, time,
+								level, message, t);
+					}
+					dispatchers[index].dispatch(event);
+				} else {
+					appenders[index].doLog(clientID, name, time, level,
+							message, t);
+				}
+			}
+		} finally {
+			if (dispatchers == null && event != null) {
+				AppenderDispatcher.setCurrentEvent(previousEvent);
 			}
 		}
 	}
@@ -472,6 +783,89 @@ public final class Logger {
 		log(Level.FATAL, message, t);
 	}
 
+	/**
+	 * Start a log entry with key-value fields at the specified level.
+	 * 
+	 * @param level
+	 *            the log level
+	 * @return a pooled <code>EventBuilder</code>, or a builder that does
+	 *         nothing if the level is not enabled.
+	 * @throws IllegalArgumentException
+	 *             if the <code>level</code> is <code>null</code>.
+	 * @see EventBuilder
+	 */
+	public EventBuilder atLevel(Level level) throws IllegalArgumentException {
+		if (level == null) {
+			throw new IllegalArgumentException("The level must not be null.");
+		}
+
+		if (getEffectiveLevel().levelValue <= level.levelValue) {
+			return EventBuilder.acquire(this, level);
+		}
+
+		return EventBuilder.NOOP;
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.TRACE</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atTrace() {
+		return atLevel(Level.TRACE);
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.DEBUG</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atDebug() {
+		return atLevel(Level.DEBUG);
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.INFO</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atInfo() {
+		return atLevel(Level.INFO);
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.WARN</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atWarn() {
+		return atLevel(Level.WARN);
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.ERROR</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atError() {
+		return atLevel(Level.ERROR);
+	}
+
+	/**
+	 * Start a log entry with key-value fields at <code>Level.FATAL</code>.
+	 * 
+	 * @return the <code>EventBuilder</code>.
+	 * @see #atLevel(Level)
+	 */
+	public EventBuilder atFatal() {
+		return atLevel(Level.FATAL);
+	}
+
 	/**
 	 * @see java.lang.Object#toString()
 	 */
@@ -495,7 +889,11 @@ public final class Logger {
 	 * default level.
 	 */
 	synchronized void resetLogger() {
+		stopDispatchers();
+		unshareFormatters();
+		Logger.dispatchMode = DISPATCH_SYNC;
 		Logger.appenderList.removeAllElements();
+		buildRoutes();
 		Logger.stopWatch.stop();
 		Logger.stopWatch.reset();
 		firstLogEvent = true;
@@ -503,6 +901,10 @@ public final class Logger {
 	
 	/**
 	 * Open the log. The logging is now turned on.
+	 * 
+	 * Appenders that share a formatter, or that have equivalent formatters, get
+	 * a common <code>CachingFormatter</code> while the log is open. This way
+	 * each log entry is only formatted once for all of them.
 	 */
 	void open() throws IOException {
 
@@ -512,6 +914,14 @@ public final class Logger {
 			appender.open();
 		}
 
+		shareFormatters();
+
+		if (dispatchMode == DISPATCH_PARALLEL) {
+			startDispatchers();
+		} else {
+			// The thresholds may have changed since the appenders were added.
+			buildRoutes();
+		}
 	}
 
 	/**
@@ -521,12 +931,228 @@ public final class Logger {
 	 *             if the <code>Logger</code> failed to close.
 	 */
 	void close() throws IOException {
+		// The queued logging is done before the appenders are closed.
+		stopDispatchers();
+
 		int nofAppenders = appenderList.size();
 		for (int index = 0; index < nofAppenders; index++) {
 			Appender appender = (Appender) appenderList.elementAt(index);
 			appender.close();
 		}
+		unshareFormatters();
 		stopWatch.stop();
 		Logger.firstLogEvent = true;
 	}
+
+	/**
+	 * Start an <code>AppenderDispatcher</code> for each appender.
+	 */
+	private static synchronized void startDispatchers() {
+		if (dispatcherList.isEmpty()) {
+			int nofAppenders = appenderList.size();
+			for (int index = 0; index < nofAppenders; index++) {
+				AppenderDispatcher dispatcher = new AppenderDispatcher(
+						(Appender) appenderList.elementAt(index),
+						dispatchQueueSize);
+				dispatcherList.addElement(dispatcher);
+				dispatcher.start();
+			}
+		}
+
+		buildRoutes();
+	}
+
+	/**
+	 * Stop the <code>AppenderDispatcher</code> objects, after the queued
+	 * logging has been done.
+	 */
+	private static synchronized void stopDispatchers() {
+		int nofDispatchers = dispatcherList.size();
+		for (int index = 0; index < nofDispatchers; index++) {
+			((AppenderDispatcher) dispatcherList.elementAt(index)).stop();
+		}
+		dispatcherList.removeAllElements();
+		buildRoutes();
+	}
+
+	/**
+	 * Build the routing table from the appenders and their thresholds.
+	 */
+	private static synchronized void buildRoutes() {
+		LevelRoute[] newRoutes = createRoutes();
+		boolean parallel = !dispatcherList.isEmpty();
+
+		int nofAppenders = appenderList.size();
+		for (int levelValue = 0; levelValue < newRoutes.length; levelValue++) {
+			Vector appenders = new Vector(nofAppenders);
+			Vector filterChains = new Vector(nofAppenders);
+			Vector dispatchers = new Vector(nofAppenders);
+
+			for (int index = 0; index < nofAppenders; index++) {
+				Appender appender = (Appender) appenderList.elementAt(index);
+				if (acceptsLevel(appender, levelValue)) {
+					appenders.addElement(appender);
+					if (appender instanceof AbstractAppender) {
+						filterChains.addElement(((AbstractAppender) appender)
+								.getFilterChain());
+					} else {
+						filterChains.addElement(null);
+					}
+					if (parallel) {
+						dispatchers.addElement(dispatcherList.elementAt(index));
+					}
+				}
+			}
+
+			Appender[] appenderArray = new Appender[appenders.size()];
+			appenders.copyInto(appenderArray);
+			FilterChain[] filterChainArray = new FilterChain[filterChains
+					.size()];
+			filterChains.copyInto(filterChainArray);
+			AppenderDispatcher[] dispatcherArray = null;
+			if (parallel) {
+				dispatcherArray = new AppenderDispatcher[dispatchers.size()];
+				dispatchers.copyInto(dispatcherArray);
+			}
+
+			newRoutes[levelValue] = new LevelRoute(appenderArray,
+					filterChainArray, dispatcherArray);
+		}
+
+		routes = newRoutes;
+	}
+
+	/**
+	 * Create an empty routing table, with one entry for each possible level
+	 * value.
+	 */
+	private static LevelRoute[] createRoutes() {
+		LevelRoute[] newRoutes = new LevelRoute[Level.FATAL_INT + 1];
+		for (int levelValue = 0; levelValue < newRoutes.length; levelValue++) {
+			newRoutes[levelValue] = LevelRoute.EMPTY_ROUTE;
+		}
+
+		return newRoutes;
+	}
+
+	/**
+	 * Check if the appender accepts the specified level value, according to
+	 * its threshold.
+	 */
+	private static boolean acceptsLevel(Appender appender, int levelValue) {
+		if (appender instanceof AbstractAppender) {
+			Level threshold = ((AbstractAppender) appender).getThreshold();
+			return threshold == null || threshold.levelValue <= levelValue;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Give the appenders that have the same or equivalent formatters a common
+	 * <code>CachingFormatter</code>.
+	 */
+	private static synchronized void shareFormatters() {
+		if (!sharedFormatterMap.isEmpty()) {
+			return;
+		}
+
+		int nofAppenders = appenderList.size();
+		Hashtable countMap = new Hashtable(7);
+		for (int index = 0; index < nofAppenders; index++) {
+			Object key = getFormatterKey((Appender) appenderList
+					.elementAt(index));
+			if (key != null) {
+				Integer count = (Integer) countMap.get(key);
+				countMap.put(key, new Integer(count == null ? 1 : count
+						.intValue() + 1));
+			}
+		}
+
+		Hashtable cachingFormatterMap = new Hashtable(7);
+		for (int index = 0; index < nofAppenders; index++) {
+			Appender appender = (Appender) appenderList.elementAt(index);
+			Object key = getFormatterKey(appender);
+
+			if (key != null && ((Integer) countMap.get(key)).intValue() > 1) {
+				CachingFormatter cachingFormatter = (CachingFormatter) cachingFormatterMap
+						.get(key);
+				if (cachingFormatter == null) {
+					cachingFormatter = new CachingFormatter(appender
+							.getFormatter());
+					cachingFormatterMap.put(key, cachingFormatter);
+				}
+
+				sharedFormatterMap.put(appender, appender.getFormatter());
+				appender.setFormatter(cachingFormatter);
+			}
+		}
+	}
+
+	/**
+	 * Give the appenders their original formatters back.
+	 */
+	private static synchronized void unshareFormatters() {
+		for (Enumeration enumeration = sharedFormatterMap.keys(); enumeration
+				.hasMoreElements();) {
+			Appender appender = (Appender) enumeration.nextElement();
+			appender.setFormatter((Formatter) sharedFormatterMap
+					.get(appender));
+		}
+		sharedFormatterMap.clear();
+	}
+
+	/**
+	 * Get the key that identifies equivalent formatters. A
+	 * <code>PatternFormatter</code> is identified by its pattern and a
+	 * <code>SimpleFormatter</code> by its delimiter, together with the maximum
+	 * message length and the properties of the <code>ThrowableRenderer</code>,
+	 * other formatters by the instance. A formatter that numbers the stack
+	 * traces that it has printed is also identified by the instance, since the
+	 * numbers only make sense in the output of one appender. The
+	 * <code>RendererMap</code> is the same for all the formatters, so it is
+	 * not a part of the key.
+	 * 
+	 * @param appender
+	 *            the appender to get the formatter from.
+	 * @return the key or <code>null</code> if the appender has no formatter.
+	 */
+	private static Object getFormatterKey(Appender appender) {
+		Formatter formatter = appender.getFormatter();
+		Object key = formatter;
+
+		ThrowableRenderer renderer = ThrowableRenderer.getRenderer(formatter);
+
+		if (formatter == null || formatter instanceof CachingFormatter) {
+			key = null;
+		} else if (renderer != null && renderer.isStackTrace()
+				&& renderer.isDeduplicate()) {
+			key = formatter;
+		} else if (formatter.getClass() == PatternFormatter.class) {
+			PatternFormatter patternFormatter = (PatternFormatter) formatter;
+			key = "PatternFormatter:"
+					+ patternFormatter.getMaxMessageLength() + ':'
+					+ getRendererKey(patternFormatter.getThrowableRenderer())
+					+ patternFormatter.getPattern();
+		} else if (formatter instanceof SimpleFormatter) {
+			SimpleFormatter simpleFormatter = (SimpleFormatter) formatter;
+			key = "SimpleFormatter:" + simpleFormatter.getMaxMessageLength()
+					+ ':'
+					+ getRendererKey(simpleFormatter.getThrowableRenderer())
+					+ simpleFormatter.getDelimiter();
+		}
+
+		return key;
+	}
+
+	/**
+	 * Get the part of the formatter key that identifies the properties of a
+	 * <code>ThrowableRenderer</code>. The package names cannot contain a
+	 * colon, so the key ends where the rest of the formatter key starts.
+	 */
+	private static String getRendererKey(ThrowableRenderer renderer) {
+		return String.valueOf(renderer.isStackTrace()) + ':'
+				+ renderer.getMaxDepth() + ':' + renderer.isDeduplicate()
+				+ ':' + renderer.getExcludedPackages() + ':';
+	}
 }
@@ -50,6 +50,27 @@ public interface LoggerRepository {
 	 */
 	public Level getEffectiveLevel(Logger logger);
 
+	/**
+	 * Get the <code>RateLimiter</code> of the specified part of the logging
+	 * hierarchy, and create it if there is none. The limiter applies to the
+	 * loggers below it that have no limiter of their own.
+	 * 
+	 * @param name
+	 *            the name of the logging hierarchy, or the empty
+	 *            <code>String</code> for the root logger.
+	 * @return the rate limiter.
+	 */
+	public RateLimiter getRateLimiter(String name);
+
+	/**
+	 * Get the effective <code>RateLimiter</code> for the specified logger,
+	 * i.e. the limiter of the nearest part of the hierarchy that has one.
+	 * 
+	 * @return the effective <code>RateLimiter</code>, or <code>null</code> if
+	 *         there is none.
+	 */
+	public RateLimiter getEffectiveRateLimiter(Logger logger);
+
 	/**
 	 * Check if the <code>LoggerRepository</code> contains the specified
 	 * <code>Logger</code> object.
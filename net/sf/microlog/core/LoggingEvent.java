@@ -0,0 +1,293 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * A <code>LoggingEvent</code> holds the data of one logging, as captured on
+ * the logging thread. It is used when the logging is done later or on another
+ * thread than the one that called the <code>Logger</code>.
+ * 
+ * @since 2.3
+ */
+public final class LoggingEvent {
+
+	private final String clientID;
+
+	private final String name;
+
+	private final long time;
+
+	private final long timestamp;
+
+	private final Level level;
+
+	private final Object message;
+
+	private final Throwable throwable;
+
+	private final Thread thread;
+
+	private final String threadName;
+
+	private final ContextMap contextMap;
+
+	private final String nestedContext;
+
+	private final Location location;
+
+	/**
+	 * The formatters that have formatted this event, and the results.
+	 */
+	private Object[] formatKeys;
+
+	private String[] formatResults;
+
+	/**
+	 * Create a <code>LoggingEvent</code>. The current time, the current
+	 * thread, its name and its <code>MDC</code> and <code>NDC</code> contexts
+	 * are captured. The
+	 * contexts are immutable, so this is a reference copy. The location of the
+	 * caller is only captured if a formatter requires it.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param throwable
+	 *            the exception to log.
+	 */
+	public LoggingEvent(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable) {
+		this.clientID = clientID;
+		this.name = name;
+		this.time = time;
+		this.timestamp = System.currentTimeMillis();
+		this.level = level;
+		this.message = message;
+		this.throwable = throwable;
+		this.thread = Thread.currentThread();
+		this.threadName = thread.getName();
+		this.contextMap = MDC.getContext();
+		this.nestedContext = NDC.get();
+		this.location = Location.isRequired() ? Location.resolve() : null;
+	}
+
+	/**
+	 * Create a <code>LoggingEvent</code> that was logged on another device,
+	 * with the thread name and the contexts of the logging thread there. The
+	 * timestamp is the time that it is created here.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param throwable
+	 *            the exception to log.
+	 * @param threadName
+	 *            the name of the logging thread.
+	 * @param contextMap
+	 *            the <code>MDC</code> context, or <code>null</code>.
+	 * @param nestedContext
+	 *            the <code>NDC</code> context, or <code>null</code>.
+	 */
+	public LoggingEvent(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable, String threadName,
+			ContextMap contextMap, String nestedContext) {
+		this.clientID = clientID;
+		this.name = name;
+		this.time = time;
+		this.timestamp = System.currentTimeMillis();
+		this.level = level;
+		this.message = message;
+		this.throwable = throwable;
+		this.thread = null;
+		this.threadName = threadName;
+		this.contextMap = contextMap != null ? contextMap : ContextMap.EMPTY;
+		this.nestedContext = nestedContext;
+		this.location = null;
+	}
+
+	/**
+	 * Log the event to the specified appender.
+	 * 
+	 * @param appender
+	 *            the <code>Appender</code> to log to.
+	 */
+	public void doLog(Appender appender) {
+		appender.doLog(clientID, name, time, level, message, throwable);
+	}
+
+	/**
+	 * Check if the specified arguments are the ones of this event.
+	 * 
+	 * @return <code>true</code> if all the arguments are identical to the
+	 *         ones of this event.
+	 */
+	public boolean isSameEvent(String clientID, String name, long time,
+			Level level, Object message, Throwable throwable) {
+		return this.time == time && this.message == message
+				&& this.level == level && this.name == name
+				&& this.clientID == clientID && this.throwable == throwable;
+	}
+
+	/**
+	 * Get the result of a previous formatting of this event.
+	 * 
+	 * @param formatKey
+	 *            the object that identifies the formatter.
+	 * @return the formatted event, or <code>null</code> if it has not been
+	 *         formatted with the specified key.
+	 */
+	public synchronized String getFormatted(Object formatKey) {
+		if (formatKeys != null) {
+			for (int index = 0; index < formatKeys.length; index++) {
+				if (formatKeys[index] == formatKey) {
+					return formatResults[index];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Remember the result of formatting this event, so that it could be used
+	 * by other appenders.
+	 * 
+	 * @param formatKey
+	 *            the object that identifies the formatter.
+	 * @param formatResult
+	 *            the formatted event.
+	 */
+	public synchronized void setFormatted(Object formatKey, String formatResult) {
+		int length = 0;
+		if (formatKeys != null) {
+			length = formatKeys.length;
+			Object[] newFormatKeys = new Object[length + 1];
+			String[] newFormatResults = new String[length + 1];
+			System.arraycopy(formatKeys, 0, newFormatKeys, 0, length);
+			System.arraycopy(formatResults, 0, newFormatResults, 0, length);
+			formatKeys = newFormatKeys;
+			formatResults = newFormatResults;
+		} else {
+			formatKeys = new Object[1];
+			formatResults = new String[1];
+		}
+
+		formatKeys[length] = formatKey;
+		formatResults[length] = formatResult;
+	}
+
+	/**
+	 * @return the clientID
+	 */
+	public String getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * @return the name of the logger.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the time
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the time that the event was created, in milliseconds since the
+	 *         epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the message
+	 */
+	public Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the throwable
+	 */
+	public Throwable getThrowable() {
+		return throwable;
+	}
+
+	/**
+	 * @return the thread that created the event, or <code>null</code> if it
+	 *         was logged on another device.
+	 */
+	public Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * @return the name of the thread that created the event.
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * @return the <code>MDC</code> context of the thread that created the
+	 *         event.
+	 */
+	public ContextMap getContextMap() {
+		return contextMap;
+	}
+
+	/**
+	 * @return the <code>NDC</code> context of the thread that created the
+	 *         event, or <code>null</code> if it was empty.
+	 */
+	public String getNestedContext() {
+		return nestedContext;
+	}
+
+	/**
+	 * @return the location of the caller of the <code>Logger</code>, or
+	 *         <code>null</code> if it was not captured.
+	 */
+	public Location getLocation() {
+		return location;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * The mapped diagnostic context, MDC, holds a map of values for each thread,
+ * for example the id of the request that the thread is working on. The values
+ * are printed with the <code>%X{key}</code> conversion of the
+ * <code>PatternFormatter</code>.
+ * 
+ * The map of a thread is an immutable <code>ContextMap</code>, which is
+ * replaced when the map is changed. When a log entry is queued for an
+ * appender, the map is captured with a reference copy.
+ * 
+ * Java ME has no thread local variables, so the maps are kept in a table by
+ * thread. A thread should call <code>clear()</code> when it is done, so that
+ * its map is removed; the maps of threads that have ended are otherwise
+ * removed when more threads use the context.
+ * 
+ * @since 2.3
+ */
+public final class MDC {
+
+	private static final ThreadTable contextMaps = new ThreadTable();
+
+	private MDC() {
+	}
+
+	/**
+	 * Put a value in the context of the current thread.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 * @throws IllegalArgumentException
+	 *             if the <code>key</code> or the <code>value</code> is
+	 *             <code>null</code>.
+	 */
+	public static void put(String key, Object value)
+			throws IllegalArgumentException {
+		setContext(getContext().put(key, value));
+	}
+
+	/**
+	 * Get a value from the context of the current thread.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @return the value, or <code>null</code> if there is no such key.
+	 */
+	public static Object get(String key) {
+		return getContext().get(key);
+	}
+
+	/**
+	 * Remove a value from the context of the current thread.
+	 * 
+	 * @param key
+	 *            the key.
+	 */
+	public static void remove(String key) {
+		setContext(getContext().remove(key));
+	}
+
+	/**
+	 * Remove all the values from the context of the current thread.
+	 */
+	public static void clear() {
+		contextMaps.remove(Thread.currentThread());
+	}
+
+	/**
+	 * Get the context of the current thread. The returned map does not
+	 * change, and could for example be handed to a worker thread.
+	 * 
+	 * @return the context, never <code>null</code>.
+	 */
+	public static ContextMap getContext() {
+		ContextMap contextMap = (ContextMap) contextMaps.get(Thread
+				.currentThread());
+		return contextMap != null ? contextMap : ContextMap.EMPTY;
+	}
+
+	/**
+	 * Set the context of the current thread.
+	 * 
+	 * @param contextMap
+	 *            the context, or <code>null</code> to clear the context.
+	 */
+	public static void setContext(ContextMap contextMap) {
+		if (contextMap == null || contextMap.size() == 0) {
+			clear();
+		} else {
+			contextMaps.put(Thread.currentThread(), contextMap);
+		}
+	}
+
+	/**
+	 * Get the context of the log entry that is being logged. On a dispatcher
+	 * thread this is the context that was captured when the
+	 * <code>Logger</code> was called, otherwise it is the context of the
+	 * current thread.
+	 * 
+	 * @return the context, never <code>null</code>.
+	 */
+	public static ContextMap getEventContext() {
+		LoggingEvent event = AppenderDispatcher.getCurrentEvent();
+		if (event != null) {
+			return event.getContextMap();
+		}
+
+		return getContext();
+	}
+}
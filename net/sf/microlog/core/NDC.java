@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * The nested diagnostic context, NDC, holds a stack of messages for each
+ * thread, for example the operations that the thread is in the middle of.
+ * The messages are printed, separated by spaces, with the <code>%x</code>
+ * conversion of the <code>PatternFormatter</code>.
+ * 
+ * Each level of the stack is immutable and holds the whole context as a
+ * <code>String</code>, which means that the context is captured with a
+ * reference copy and is not joined when it is printed.
+ * 
+ * Java ME has no thread local variables, so the stacks are kept in a table by
+ * thread. A thread should call <code>clear()</code> when it is done, so that
+ * its stack is removed; the stacks of threads that have ended are otherwise
+ * removed when more threads use the context.
+ * 
+ * @since 2.3
+ */
+public final class NDC {
+
+	private static final ThreadTable stacks = new ThreadTable();
+
+	/**
+	 * The whole context, from the bottom to this level.
+	 */
+	private final String context;
+
+	private final NDC parent;
+
+	private final int depth;
+
+	private NDC(String context, NDC parent, int depth) {
+		this.context = context;
+		this.parent = parent;
+		this.depth = depth;
+	}
+
+	/**
+	 * Push a message on the context of the current thread.
+	 * 
+	 * @param message
+	 *            the message.
+	 * @throws IllegalArgumentException
+	 *             if the <code>message</code> is <code>null</code>.
+	 */
+	public static void push(String message) throws IllegalArgumentException {
+		if (message == null) {
+			throw new IllegalArgumentException("The message must not be null.");
+		}
+
+		Thread thread = Thread.currentThread();
+		NDC top = (NDC) stacks.get(thread);
+		if (top == null) {
+			stacks.put(thread, new NDC(message, null, 1));
+		} else {
+			stacks.put(thread, new NDC(top.context + ' ' + message, top,
+					top.depth + 1));
+		}
+	}
+
+	/**
+	 * Pop the latest message from the context of the current thread.
+	 */
+	public static void pop() {
+		Thread thread = Thread.currentThread();
+		NDC top = (NDC) stacks.get(thread);
+		if (top != null) {
+			if (top.parent != null) {
+				stacks.put(thread, top.parent);
+			} else {
+				stacks.remove(thread);
+			}
+		}
+	}
+
+	/**
+	 * Get the depth of the context of the current thread.
+	 * 
+	 * @return the number of messages on the stack.
+	 */
+	public static int getDepth() {
+		NDC top = (NDC) stacks.get(Thread.currentThread());
+		return top != null ? top.depth : 0;
+	}
+
+	/**
+	 * Remove all the messages from the context of the current thread.
+	 */
+	public static void clear() {
+		stacks.remove(Thread.currentThread());
+	}
+
+	/**
+	 * Get the context of the current thread.
+	 * 
+	 * @return the messages separated by spaces, or <code>null</code> if the
+	 *         stack is empty.
+	 */
+	public static String get() {
+		NDC top = (NDC) stacks.get(Thread.currentThread());
+		return top != null ? top.context : null;
+	}
+
+	/**
+	 * Get the context of the log entry that is being logged. On a dispatcher
+	 * thread this is the context that was captured when the
+	 * <code>Logger</code> was called, otherwise it is the context of the
+	 * current thread.
+	 * 
+	 * @return the messages separated by spaces, or <code>null</code> if the
+	 *         stack is empty.
+	 */
+	public static String getEventContext() {
+		LoggingEvent event = AppenderDispatcher.getCurrentEvent();
+		if (event != null) {
+			return event.getNestedContext();
+		}
+
+		return get();
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * An <code>ObjectRenderer</code> renders the logged message objects of a
+ * class, instead of their <code>toString()</code> value. It is registered in
+ * the <code>RendererMap</code>.
+ * 
+ * @since 2.3
+ */
+public interface ObjectRenderer {
+
+	/**
+	 * Render the object to the buffer. The rendering could stop when the
+	 * length of the buffer has reached the <code>limit</code>, since the rest
+	 * is cut off.
+	 * 
+	 * @param object
+	 *            the object to render, which is not <code>null</code>.
+	 * @param buffer
+	 *            the buffer to append to.
+	 * @param limit
+	 *            the length of the buffer where the output is cut off.
+	 */
+	void render(Object object, StringBuffer buffer, int limit);
+}
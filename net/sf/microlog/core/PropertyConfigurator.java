@@ -18,7 +18,9 @@ package net.sf.microlog.core;
 import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
+import net.sf.microlog.core.appender.AbstractAppender;
 import net.sf.microproperties.JarFileProperties;
 import net.sf.microproperties.Properties;
 
@@ -33,6 +35,27 @@ public class PropertyConfigurator {
 
 	public static final String FORMATTER_PROPERTY = "formatter";
 
+	/**
+	 * The appender property for setting the lowest level that is logged to
+	 * the appender, for example <code>microlog.appender.X.threshold=ERROR</code>.
+	 */
+	public static final String THRESHOLD_PROPERTY = "threshold";
+
+	/**
+	 * The appender property that lists the names of the filters of the
+	 * appender, in order, for example
+	 * <code>microlog.appender.X.filters=A;B</code>.
+	 */
+	public static final String FILTERS_PROPERTY = "filters";
+
+	/**
+	 * The appender property that sets the class of a named filter, for
+	 * example <code>microlog.appender.X.filter.A=LevelRangeFilter</code>.
+	 * The properties of the filter are set like
+	 * <code>microlog.appender.X.filter.A.levelMin=WARN</code>.
+	 */
+	public static final String FILTER_PROPERTY = "filter";
+
 	public static final String LOGGER_PREFIX_KEY = "microlog.logger";
 
 	/**
@@ -55,6 +78,32 @@ public class PropertyConfigurator {
 	 */
 	public static final String LOG_LEVEL_KEY = "microlog.level";
 
+	/**
+	 * The key for setting the dispatch mode, "sync" or "parallel".
+	 */
+	public static final String DISPATCH_KEY = "microlog.dispatch";
+
+	/**
+	 * The key prefix for limiting the rate of a logger, for example
+	 * <code>microlog.rateLimit.com.acme.net=10;20</code> for 10 log entries
+	 * per second with bursts of 20. The burst is optional. The limit applies
+	 * to the loggers below the named one that have no limit of their own, and
+	 * the key without a logger name is for the root logger, i.e. all loggers.
+	 */
+	public static final String RATE_LIMIT_KEY = "microlog.rateLimit";
+
+	/**
+	 * The key prefix for sampling the log entries of a logger, for example
+	 * <code>microlog.sample.com.acme.net=100</code> for every 100th log entry
+	 * or <code>microlog.sample.com.acme.net=5%</code> for a 5% probability.
+	 * Like the rate limit, it applies to the loggers below the named one.
+	 */
+	public static final String SAMPLE_KEY = "microlog.sample";
+
+	public static final String DISPATCH_SYNC_STRING = "sync";
+
+	public static final String DISPATCH_PARALLEL_STRING = "parallel";
+
 	public static final String LOG4J_PROPERTY_DELIMITER = ",";
 
 	public static final String DEFAULT_PROPERTY_FILE = "/microlog.properties";
@@ -66,18 +115,29 @@ public class PropertyConfigurator {
 	public static final String PROPERTY_DELIMETER = ";";
 
 	public static final String[] FORMATTER_ALIASES = { "SimpleFormatter",
-			"PatternFormatter" };
+			"PatternFormatter", "JsonFormatter" };
 
 	public static final String[] FORMATTER_CLASS_NAMES = {
 			"net.sf.microlog.core.format.SimpleFormatter",
-			"net.sf.microlog.core.format.PatternFormatter" };
+			"net.sf.microlog.core.format.PatternFormatter",
+			"net.sf.microlog.core.format.JsonFormatter" };
+
+	public static final String[] FILTER_ALIASES = { "ClientIDFilter",
+			"LevelRangeFilter", "LoggerNameFilter", "MessageFilter" };
+
+	public static final String[] FILTER_CLASS_NAMES = {
+			"net.sf.microlog.core.filter.ClientIDFilter",
+			"net.sf.microlog.core.filter.LevelRangeFilter",
+			"net.sf.microlog.core.filter.LoggerNameFilter",
+			"net.sf.microlog.core.filter.MessageFilter" };
 
 	public static final String[] APPENDER_ALIASES = { "ConsoleAppender",
 			"MemoryBufferAppender", "BluetoothSerialAppender",
 			"CanvasAppender", "DatagramAppender", "HttpAppender",
 			"FileAppender", "FormAppender", "MMSBufferAppender",
 			"RecordStoreAppender", "SerialAppender", "SMSBufferAppender",
-			"SocketAppender", "SyslogAppender" };
+			"SocketAppender", "SyslogAppender", "FailoverAppender",
+			"DuplicateCollapsingAppender", "TriggeredBufferAppender" };
 
 	public static final String[] APPENDER_CLASS_NAMES = {
 			"net.sf.microlog.core.appender.ConsoleAppender",
@@ -93,14 +153,25 @@ public class PropertyConfigurator {
 			"net.sf.microlog.midp.appender.SerialAppender",
 			"net.sf.microlog.midp.wma.SMSBufferAppender",
 			"net.sf.microlog.midp.appender.SocketAppender",
-			"net.sf.microlog.midp.appender.SyslogAppender", };
+			"net.sf.microlog.midp.appender.SyslogAppender",
+			"net.sf.microlog.core.appender.FailoverAppender",
+			"net.sf.microlog.core.appender.DuplicateCollapsingAppender",
+			"net.sf.microlog.core.appender.TriggeredBufferAppender" };
 
 	static Hashtable formatterMap = new Hashtable(7);
 
 	static Hashtable appenderMap = new Hashtable(37);
 
+	static Hashtable filterMap = new Hashtable(7);
+
 	protected LoggerRepository loggerRepository;
 
+	/**
+	 * The names of the appenders that are being configured, used for
+	 * detecting cyclic appender references.
+	 */
+	private final Vector configuringAppenders = new Vector(4);
+
 	{
 		for (int formatterNo = 0; formatterNo < FORMATTER_ALIASES.length; formatterNo++) {
 			formatterMap.put(FORMATTER_ALIASES[formatterNo],
@@ -111,6 +182,10 @@ public class PropertyConfigurator {
 			appenderMap.put(APPENDER_ALIASES[appenderNo],
 					APPENDER_CLASS_NAMES[appenderNo]);
 		}
+
+		for (int filterNo = 0; filterNo < FILTER_ALIASES.length; filterNo++) {
+			filterMap.put(FILTER_ALIASES[filterNo], FILTER_CLASS_NAMES[filterNo]);
+		}
 	}
 
 	/**
@@ -162,6 +237,100 @@ public class PropertyConfigurator {
 		} else {
 			configureMicrologClassicStyle(properties);
 		}
+
+		doConfigureDispatchMode(properties);
+		doConfigureRateLimiters(properties);
+	}
+
+	/**
+	 * Configure the rate limits and the sampling of the loggers.
+	 * 
+	 * @param properties
+	 *            the properties object to get the limits from.
+	 */
+	protected void doConfigureRateLimiters(Properties properties) {
+		Enumeration propertyEnumeration = properties.keys();
+		while (propertyEnumeration.hasMoreElements()) {
+			String propertyKey = (String) propertyEnumeration.nextElement();
+			String value = properties.getProperty(propertyKey).trim();
+
+			try {
+				if (isKeyOrChildKey(propertyKey, RATE_LIMIT_KEY)) {
+					RateLimiter limiter = getRateLimiter(propertyKey,
+							RATE_LIMIT_KEY);
+					int delimiterIndex = value.indexOf(PROPERTY_DELIMETER);
+					if (delimiterIndex != -1) {
+						limiter.setRate(Integer.parseInt(value.substring(0,
+								delimiterIndex).trim()), Integer
+								.parseInt(value.substring(delimiterIndex + 1)
+										.trim()));
+					} else {
+						int rate = Integer.parseInt(value);
+						limiter.setRate(rate, Math.max(rate, 1));
+					}
+				} else if (isKeyOrChildKey(propertyKey, SAMPLE_KEY)) {
+					RateLimiter limiter = getRateLimiter(propertyKey,
+							SAMPLE_KEY);
+					if (value.endsWith("%")) {
+						limiter.setSampleProbability(Double.parseDouble(value
+								.substring(0, value.length() - 1).trim()) / 100);
+					} else {
+						limiter.setSampleInterval(Integer.parseInt(value));
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// Also thrown for numbers that could not be parsed.
+				System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+						+ "Not a valid limit " + propertyKey + "=" + value);
+			}
+		}
+	}
+
+	/**
+	 * Check if the key is the prefix key or a key below it.
+	 */
+	private static boolean isKeyOrChildKey(String key, String prefixKey) {
+		int prefixLength = prefixKey.length();
+		return key.equals(prefixKey)
+				|| (key.startsWith(prefixKey) && key.length() > prefixLength + 1 && key
+						.charAt(prefixLength) == MicrologConstants.DOT_CHAR);
+	}
+
+	/**
+	 * Get the <code>RateLimiter</code> of the part of the logging hierarchy
+	 * that is named by the key, and create it if there is none.
+	 */
+	private RateLimiter getRateLimiter(String key, String prefixKey) {
+		String name = "";
+		if (key.length() > prefixKey.length()) {
+			name = key.substring(prefixKey.length() + 1);
+		}
+
+		return loggerRepository.getRateLimiter(name);
+	}
+
+	/**
+	 * Configure the dispatch mode.
+	 * 
+	 * @param properties
+	 *            the properties object to get the dispatch mode from.
+	 */
+	protected void doConfigureDispatchMode(Properties properties) {
+		String dispatchString = properties
+				.getProperty(PropertyConfigurator.DISPATCH_KEY);
+
+		if (dispatchString != null) {
+			Logger rootLogger = loggerRepository.getRootLogger();
+
+			if (dispatchString.equalsIgnoreCase(DISPATCH_PARALLEL_STRING)) {
+				rootLogger.setDispatchMode(Logger.DISPATCH_PARALLEL);
+			} else if (dispatchString.equalsIgnoreCase(DISPATCH_SYNC_STRING)) {
+				rootLogger.setDispatchMode(Logger.DISPATCH_SYNC);
+			} else {
+				System.err.println("Dispatch mode " + dispatchString
+						+ " is not a valid dispatch mode.");
+			}
+		}
 	}
 
 	/**
@@ -191,6 +360,20 @@ public class PropertyConfigurator {
 		formatterMap.put(aliasName, fullyQualifiedClassName);
 	}
 
+	/**
+	 * Add a filter alias for the specified <code>Filter</code>. The alias
+	 * could be used when calling the <code>configure()</code> method.
+	 * 
+	 * @param filter
+	 *            the <code>Filter</code> to add an alias for.
+	 */
+	public static void addFilterAlias(Filter filter) {
+		String fullyQualifiedClassName = filter.getClass().getName();
+		String aliasName = StringUtil.extractPartialClassName(
+				fullyQualifiedClassName, 1);
+		filterMap.put(aliasName, fullyQualifiedClassName);
+	}
+
 	/**
 	 * Configure using the Log4j style.
 	 * 
@@ -290,6 +473,32 @@ public class PropertyConfigurator {
 	 */
 	protected void doConfigureAppender(Logger logger, String appenderName,
 			Properties properties) {
+		Appender appender = createConfiguredAppender(appenderName, properties);
+
+		if (appender != null) {
+			logger.addAppender(appender);
+		}
+	}
+
+	/**
+	 * Create the specified appender and configure its formatter, its
+	 * properties and the appenders that it refers to.
+	 * 
+	 * @param appenderName
+	 *            the name of the appender to configure
+	 * @param properties
+	 *            the properties to be used for configuration.
+	 * @return the configured <code>Appender</code>, or <code>null</code> if
+	 *         it could not be created.
+	 */
+	private Appender createConfiguredAppender(String appenderName,
+			Properties properties) {
+		if (configuringAppenders.contains(appenderName)) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "Cyclic reference to appender " + appenderName);
+			return null;
+		}
+
 		Appender appender = createAppender(appenderName, properties);
 
 		if (appender != null) {
@@ -302,7 +511,206 @@ public class PropertyConfigurator {
 
 			setAppenderSpecificProperties(appenderName, properties, appender);
 
-			logger.addAppender(appender);
+			if (appender instanceof AbstractAppender) {
+				doConfigureThreshold(appenderName, properties,
+						(AbstractAppender) appender);
+				doConfigureFilters(appenderName, properties,
+						(AbstractAppender) appender);
+			}
+
+			if (appender instanceof AppenderAttachable) {
+				configuringAppenders.addElement(appenderName);
+				doConfigureAppenderRefs(appenderName, properties,
+						(AppenderAttachable) appender);
+				configuringAppenders.removeElement(appenderName);
+			}
+		}
+
+		return appender;
+	}
+
+	/**
+	 * Configure the threshold of the specified appender.
+	 * 
+	 * @param appenderName
+	 *            the name of the appender.
+	 * @param properties
+	 *            the properties to be used for configuration.
+	 * @param appender
+	 *            the appender to set the threshold on.
+	 */
+	protected void doConfigureThreshold(String appenderName,
+			Properties properties, AbstractAppender appender) {
+		String thresholdString = properties
+				.getProperty(PropertyConfigurator.APPENDER_KEY
+						+ MicrologConstants.DOT_CHAR + appenderName
+						+ MicrologConstants.DOT_CHAR
+						+ PropertyConfigurator.THRESHOLD_PROPERTY);
+
+		if (thresholdString != null) {
+			Level threshold = stringToLevel(thresholdString.trim());
+
+			if (threshold != null) {
+				appender.setThreshold(threshold);
+			} else {
+				System.err.println("Threshold " + thresholdString
+						+ " is not a valid level.");
+			}
+		}
+	}
+
+	/**
+	 * Configure the filters of the specified appender.
+	 * 
+	 * @param appenderName
+	 *            the name of the appender.
+	 * @param properties
+	 *            the properties to be used for configuration.
+	 * @param appender
+	 *            the appender to add the filters to.
+	 */
+	protected void doConfigureFilters(String appenderName,
+			Properties properties, AbstractAppender appender) {
+		String appenderKey = PropertyConfigurator.APPENDER_KEY
+				+ MicrologConstants.DOT_CHAR + appenderName
+				+ MicrologConstants.DOT_CHAR;
+		String filterNames = properties.getProperty(appenderKey
+				+ PropertyConfigurator.FILTERS_PROPERTY);
+
+		if (filterNames != null) {
+			int beginIndex = 0;
+			while (beginIndex < filterNames.length()) {
+				int endIndex = filterNames.indexOf(PROPERTY_DELIMETER,
+						beginIndex);
+				if (endIndex == -1) {
+					endIndex = filterNames.length();
+				}
+
+				String filterName = filterNames.substring(beginIndex, endIndex)
+						.trim();
+				if (filterName.length() > 0) {
+					Filter filter = createFilter(appenderKey
+							+ PropertyConfigurator.FILTER_PROPERTY
+							+ MicrologConstants.DOT_CHAR + filterName,
+							properties);
+					if (filter != null) {
+						appender.addFilter(filter);
+					}
+				}
+
+				beginIndex = endIndex + 1;
+			}
+		}
+	}
+
+	/**
+	 * Create and configure the filter that is defined by the specified key.
+	 * 
+	 * @param filterKey
+	 *            the key of the filter class, which is also the prefix of the
+	 *            filter properties.
+	 * @param properties
+	 *            the properties to be used for configuration.
+	 * @return the configured <code>Filter</code>, or <code>null</code> if it
+	 *         could not be created.
+	 */
+	private Filter createFilter(String filterKey, Properties properties) {
+		String filterClassName = properties.getProperty(filterKey);
+
+		if (filterClassName == null) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "No filter class defined for " + filterKey);
+			return null;
+		}
+
+		String aliasClassName = (String) filterMap.get(filterClassName.trim());
+		if (aliasClassName != null) {
+			filterClassName = aliasClassName;
+		}
+
+		Filter filter = null;
+		try {
+			Class filterClass = Class.forName(filterClassName.trim());
+			filter = (Filter) filterClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "Could not find the filter class " + filterClassName);
+		} catch (InstantiationException e) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "Could not instantiate the filter class "
+					+ filterClassName);
+		} catch (IllegalAccessException e) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "Not allowed to create the filter class "
+					+ filterClassName);
+		}
+
+		if (filter != null) {
+			String[] filterProperties = filter.getPropertyNames();
+			if (filterProperties != null) {
+				for (int index = 0; index < filterProperties.length; index++) {
+					String propertyValue = properties.getProperty(filterKey
+							+ MicrologConstants.DOT_CHAR
+							+ filterProperties[index]);
+					if (propertyValue != null) {
+						try {
+							filter.setProperty(filterProperties[index],
+									propertyValue);
+						} catch (IllegalArgumentException e) {
+							System.err
+									.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+											+ "Invalid filter property "
+											+ filterProperties[index] + ' '
+											+ e.getMessage());
+						}
+					}
+				}
+			}
+		}
+
+		return filter;
+	}
+
+	/**
+	 * Configure the appenders that are referred to by the specified
+	 * <code>AppenderAttachable</code>.
+	 * 
+	 * @param appenderName
+	 *            the name of the appender that refers to the other appenders.
+	 * @param properties
+	 *            the properties to be used for configuration.
+	 * @param attachable
+	 *            the appender to attach the referred appenders to.
+	 */
+	protected void doConfigureAppenderRefs(String appenderName,
+			Properties properties, AppenderAttachable attachable) {
+		String appenderRefs = properties
+				.getProperty(PropertyConfigurator.APPENDER_KEY
+						+ MicrologConstants.DOT_CHAR + appenderName
+						+ MicrologConstants.DOT_CHAR
+						+ AppenderAttachable.APPENDER_REFS_PROPERTY);
+
+		if (appenderRefs != null) {
+			int beginIndex = 0;
+			while (beginIndex < appenderRefs.length()) {
+				int endIndex = appenderRefs.indexOf(PROPERTY_DELIMETER,
+						beginIndex);
+				if (endIndex == -1) {
+					endIndex = appenderRefs.length();
+				}
+
+				String refName = appenderRefs.substring(beginIndex, endIndex)
+						.trim();
+				if (refName.length() > 0) {
+					Appender appender = createConfiguredAppender(refName,
+							properties);
+					if (appender != null) {
+						attachable.addAppender(appender);
+					}
+				}
+
+				beginIndex = endIndex + 1;
+			}
 		}
 	}
 
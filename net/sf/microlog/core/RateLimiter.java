@@ -0,0 +1,302 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * A <code>RateLimiter</code> limits the number of log entries from a logger
+ * or a call site. It could sample the log entries, every Nth or with a
+ * probability, and limit the rate with a token bucket. The sampling is done
+ * first, and the sampled log entries use tokens.
+ * 
+ * The <code>Logger</code> asks the limiter before anything else is done with
+ * the log entry. When a log entry is let through after some have been
+ * suppressed, the <code>Logger</code> first logs one line with the number of
+ * suppressed log entries. This line is logged at most once per
+ * <code>summaryInterval</code>, so that a sampler does not double the
+ * number of log entries; the count is kept until the line is logged.
+ * 
+ * The limiter does not lock, since it is called for every log entry in hot
+ * code. When several threads use the same limiter at the same time a few
+ * extra log entries may get through, and the suppressed count may be off by
+ * a few, which is fine for limiting.
+ * 
+ * A call site could keep a limiter of its own in a static field:
+ * 
+ * <pre>
+ * private static final RateLimiter LOOP_LIMITER = RateLimiter.createTokenBucket(10, 10);
+ * ...
+ * log.log(LOOP_LIMITER, Level.WARN, &quot;Retrying&quot;);
+ * </pre>
+ * 
+ * @since 2.3
+ */
+public final class RateLimiter {
+
+	/**
+	 * The tokens are counted in thousandths, so that the refill is exact for
+	 * any rate without floating point.
+	 */
+	private static final long TOKEN_SCALE = 1000;
+
+	/**
+	 * The default minimum time between the lines with the number of
+	 * suppressed log entries, in milliseconds.
+	 */
+	public static final long DEFAULT_SUMMARY_INTERVAL = 10000;
+
+	private int ratePerSecond;
+
+	private long maxTokens;
+
+	private long tokens;
+
+	private long lastRefillTime;
+
+	private int sampleInterval = 1;
+
+	private int sampleCounter;
+
+	/**
+	 * The sample probability scaled to 0..Integer.MAX_VALUE, or -1 if there is
+	 * no probabilistic sampling.
+	 */
+	private int sampleThreshold = -1;
+
+	private int randomState = (int) System.currentTimeMillis() | 1;
+
+	private int suppressedCount;
+
+	private long summaryInterval = DEFAULT_SUMMARY_INTERVAL;
+
+	private long lastSummaryTime;
+
+	/**
+	 * Create a <code>RateLimiter</code> that lets all log entries through,
+	 * until a rate or a sampling is set.
+	 */
+	public RateLimiter() {
+	}
+
+	/**
+	 * Create a token bucket <code>RateLimiter</code>.
+	 * 
+	 * @param ratePerSecond
+	 *            the number of log entries per second that are let through.
+	 * @param burst
+	 *            the number of log entries that could be let through at once.
+	 * @return the created <code>RateLimiter</code>.
+	 */
+	public static RateLimiter createTokenBucket(int ratePerSecond, int burst) {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setRate(ratePerSecond, burst);
+		return limiter;
+	}
+
+	/**
+	 * Create a <code>RateLimiter</code> that lets every Nth log entry
+	 * through.
+	 * 
+	 * @param sampleInterval
+	 *            N, where 1 lets all log entries through.
+	 * @return the created <code>RateLimiter</code>.
+	 */
+	public static RateLimiter createSampler(int sampleInterval) {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setSampleInterval(sampleInterval);
+		return limiter;
+	}
+
+	/**
+	 * Create a <code>RateLimiter</code> that lets log entries through with
+	 * the specified probability.
+	 * 
+	 * @param probability
+	 *            the probability, from 0 to 1.
+	 * @return the created <code>RateLimiter</code>.
+	 */
+	public static RateLimiter createRandomSampler(double probability) {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setSampleProbability(probability);
+		return limiter;
+	}
+
+	/**
+	 * Set the token bucket rate. The bucket starts full.
+	 * 
+	 * @param ratePerSecond
+	 *            the number of log entries per second that are let through,
+	 *            or 0 for no rate limit.
+	 * @param burst
+	 *            the number of log entries that could be let through at once.
+	 * @throws IllegalArgumentException
+	 *             if the <code>ratePerSecond</code> is negative or the
+	 *             <code>burst</code> is less than 1.
+	 */
+	public void setRate(int ratePerSecond, int burst)
+			throws IllegalArgumentException {
+		if (ratePerSecond < 0 || burst < 1) {
+			throw new IllegalArgumentException(
+					"The ratePerSecond must be >= 0 and the burst > 0");
+		}
+
+		this.ratePerSecond = ratePerSecond;
+		this.maxTokens = burst * TOKEN_SCALE;
+		this.tokens = maxTokens;
+		this.lastRefillTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Let every Nth log entry through.
+	 * 
+	 * @param sampleInterval
+	 *            N, where 1 lets all log entries through.
+	 * @throws IllegalArgumentException
+	 *             if the <code>sampleInterval</code> is less than 1.
+	 */
+	public void setSampleInterval(int sampleInterval)
+			throws IllegalArgumentException {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException(
+					"The sampleInterval must not be less than 1.");
+		}
+
+		this.sampleInterval = sampleInterval;
+		this.sampleCounter = 0;
+	}
+
+	/**
+	 * Let log entries through with the specified probability.
+	 * 
+	 * @param probability
+	 *            the probability, from 0 to 1. The value 1 turns off the
+	 *            probabilistic sampling.
+	 * @throws IllegalArgumentException
+	 *             if the <code>probability</code> is not from 0 to 1.
+	 */
+	public void setSampleProbability(double probability)
+			throws IllegalArgumentException {
+		if (probability < 0 || probability > 1) {
+			throw new IllegalArgumentException(
+					"The probability must be from 0 to 1.");
+		}
+
+		if (probability == 1) {
+			sampleThreshold = -1;
+		} else {
+			sampleThreshold = (int) (probability * Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Get the minimum time between the lines with the number of suppressed log
+	 * entries.
+	 * 
+	 * @return the interval in milliseconds.
+	 */
+	public long getSummaryInterval() {
+		return summaryInterval;
+	}
+
+	/**
+	 * Set the minimum time between the lines with the number of suppressed log
+	 * entries.
+	 * 
+	 * @param summaryInterval
+	 *            the interval in milliseconds, or 0 for a line before each
+	 *            log entry that is let through after a suppressed one.
+	 * @throws IllegalArgumentException
+	 *             if the <code>summaryInterval</code> is negative.
+	 */
+	public void setSummaryInterval(long summaryInterval)
+			throws IllegalArgumentException {
+		if (summaryInterval < 0) {
+			throw new IllegalArgumentException(
+					"The summaryInterval must not be negative.");
+		}
+
+		this.summaryInterval = summaryInterval;
+	}
+
+	/**
+	 * Check if a log entry is let through. If it is not, it is counted as
+	 * suppressed.
+	 * 
+	 * @return <code>true</code> if the log entry shall be logged.
+	 */
+	public boolean tryAcquire() {
+		if (sampleInterval > 1 && (sampleCounter++ % sampleInterval) != 0) {
+			suppressedCount++;
+			return false;
+		}
+
+		if (sampleThreshold >= 0) {
+			// Xorshift, which is much cheaper than a synchronized Random.
+			int random = randomState;
+			random ^= random << 13;
+			random ^= random >>> 17;
+			random ^= random << 5;
+			randomState = random;
+
+			if ((random >>> 1) >= sampleThreshold) {
+				suppressedCount++;
+				return false;
+			}
+		}
+
+		if (ratePerSecond > 0) {
+			long now = System.currentTimeMillis();
+			long elapsed = now - lastRefillTime;
+			if (elapsed > 0) {
+				lastRefillTime = now;
+				tokens += elapsed * ratePerSecond;
+				if (tokens > maxTokens) {
+					tokens = maxTokens;
+				}
+			}
+
+			if (tokens < TOKEN_SCALE) {
+				suppressedCount++;
+				return false;
+			}
+			tokens -= TOKEN_SCALE;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the number of log entries that have been suppressed since the count
+	 * was last taken, and reset the count. The count is only taken when the
+	 * <code>summaryInterval</code> has passed since the last time.
+	 * 
+	 * @return the number of suppressed log entries, or 0 if none have been
+	 *         suppressed or the interval has not passed.
+	 */
+	public int takeSuppressedCount() {
+		if (suppressedCount == 0) {
+			return 0;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastSummaryTime < summaryInterval) {
+			return 0;
+		}
+		lastSummaryTime = now;
+
+		int count = suppressedCount;
+		suppressedCount -= count;
+		return count;
+	}
+}
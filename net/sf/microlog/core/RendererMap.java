@@ -0,0 +1,303 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * The <code>RendererMap</code> keeps the <code>ObjectRenderer</code> for each
+ * class of logged message objects. A renderer that is registered for a class
+ * or an interface is also used for its subclasses; the most specific one is
+ * used. This is resolved once for each class of message, and then cached.
+ * 
+ * The formatters render the message with <code>render()</code>, which could
+ * cut the output off at a maximum length. A registered renderer stops when
+ * the maximum length has been reached, so that a large object does not have
+ * to be rendered in full. Renderers for <code>Vector</code>,
+ * <code>Hashtable</code> and <code>Object[]</code> are registered by
+ * default. Other objects are rendered with <code>toString()</code>.
+ * 
+ * @since 2.3
+ */
+public final class RendererMap {
+
+	/**
+	 * The marker that is appended when the output is cut off.
+	 */
+	public static final String TRUNCATION_MARKER = "...";
+
+	private static final ObjectRenderer NO_RENDERER = new ObjectRenderer() {
+		public void render(Object object, StringBuffer buffer, int limit) {
+			// Only used as a marker in the resolved map.
+		}
+	};
+
+	private static final Hashtable rendererMap = new Hashtable(7);
+
+	/**
+	 * The resolved renderer of each class that has been rendered, or
+	 * <code>NO_RENDERER</code>.
+	 */
+	private static final Hashtable resolvedMap = new Hashtable(31);
+
+	static {
+		registerDefaults();
+	}
+
+	private RendererMap() {
+	}
+
+	/**
+	 * Register a renderer for a class or an interface.
+	 * 
+	 * @param renderedClass
+	 *            the class of the objects to render.
+	 * @param renderer
+	 *            the renderer.
+	 * @throws IllegalArgumentException
+	 *             if the <code>renderedClass</code> or the
+	 *             <code>renderer</code> is <code>null</code>.
+	 */
+	public static synchronized void put(Class renderedClass,
+			ObjectRenderer renderer) throws IllegalArgumentException {
+		if (renderedClass == null || renderer == null) {
+			throw new IllegalArgumentException(
+					"The renderedClass and the renderer must not be null.");
+		}
+
+		rendererMap.put(renderedClass, renderer);
+		resolvedMap.clear();
+	}
+
+	/**
+	 * Remove the renderer of a class or an interface.
+	 * 
+	 * @param renderedClass
+	 *            the class of the objects.
+	 */
+	public static synchronized void remove(Class renderedClass) {
+		if (renderedClass != null) {
+			rendererMap.remove(renderedClass);
+			resolvedMap.clear();
+		}
+	}
+
+	/**
+	 * Remove all the renderers, and register the default renderers again.
+	 */
+	public static synchronized void reset() {
+		rendererMap.clear();
+		resolvedMap.clear();
+		registerDefaults();
+	}
+
+	/**
+	 * Get the renderer for the objects of a class.
+	 * 
+	 * @param objectClass
+	 *            the class of the objects.
+	 * @return the most specific renderer, or <code>null</code> if there is
+	 *         none.
+	 */
+	public static ObjectRenderer get(Class objectClass) {
+		ObjectRenderer renderer = (ObjectRenderer) resolvedMap.get(objectClass);
+
+		if (renderer == null) {
+			renderer = resolve(objectClass);
+		}
+
+		return renderer != NO_RENDERER ? renderer : null;
+	}
+
+	/**
+	 * Render the object to the buffer.
+	 * 
+	 * @param object
+	 *            the object to render.
+	 * @param buffer
+	 *            the buffer to append to.
+	 * @param maxLength
+	 *            the maximum number of characters to append, not counting the
+	 *            <code>TRUNCATION_MARKER</code>, or 0 for no maximum.
+	 */
+	public static void render(Object object, StringBuffer buffer, int maxLength) {
+		int startLength = buffer.length();
+		int limit = maxLength > 0 ? startLength + maxLength : Integer.MAX_VALUE;
+
+		if (object == null) {
+			buffer.append("null");
+		} else if (object instanceof String) {
+			appendString(buffer, (String) object, limit);
+		} else {
+			ObjectRenderer renderer = get(object.getClass());
+			if (renderer != null) {
+				renderer.render(object, buffer, limit);
+			} else {
+				appendString(buffer, object.toString(), limit);
+			}
+		}
+
+		if (buffer.length() > limit) {
+			buffer.setLength(limit);
+			buffer.append(TRUNCATION_MARKER);
+		}
+	}
+
+	/**
+	 * Render the object.
+	 * 
+	 * @param object
+	 *            the object to render.
+	 * @param maxLength
+	 *            the maximum number of characters, not counting the
+	 *            <code>TRUNCATION_MARKER</code>, or 0 for no maximum.
+	 * @return the rendered object.
+	 */
+	public static String render(Object object, int maxLength) {
+		if (object instanceof String
+				&& (maxLength <= 0 || ((String) object).length() <= maxLength)) {
+			return (String) object;
+		}
+
+		StringBuffer buffer = new StringBuffer(64);
+		render(object, buffer, maxLength);
+		return buffer.toString();
+	}
+
+	/**
+	 * Append the string, but only one character more than the limit, which
+	 * tells <code>render()</code> to cut it off. Without a limit the length of
+	 * the buffer is not asked for, as each call on it is synchronized.
+	 */
+	private static void appendString(StringBuffer buffer, String string,
+			int limit) {
+		if (limit == Integer.MAX_VALUE) {
+			buffer.append(string);
+			return;
+		}
+
+		int room = limit - buffer.length();
+		if (room >= 0 && string.length() > room) {
+			buffer.append(string.substring(0, room + 1));
+		} else {
+			buffer.append(string);
+		}
+	}
+
+	/**
+	 * Find the most specific renderer for a class, and cache it. CLDC has no
+	 * <code>getSuperclass()</code>, so each registered class is checked with
+	 * <code>isAssignableFrom()</code>.
+	 */
+	private static synchronized ObjectRenderer resolve(Class objectClass) {
+		Class bestClass = null;
+		ObjectRenderer bestRenderer = NO_RENDERER;
+
+		for (Enumeration enumeration = rendererMap.keys(); enumeration
+				.hasMoreElements();) {
+			Class renderedClass = (Class) enumeration.nextElement();
+			if (renderedClass.isAssignableFrom(objectClass)
+					&& (bestClass == null || bestClass
+							.isAssignableFrom(renderedClass))) {
+				bestClass = renderedClass;
+				bestRenderer = (ObjectRenderer) rendererMap.get(renderedClass);
+			}
+		}
+
+		resolvedMap.put(objectClass, bestRenderer);
+		return bestRenderer;
+	}
+
+	private static void registerDefaults() {
+		ObjectRenderer elementsRenderer = new ElementsRenderer();
+		rendererMap.put(Vector.class, elementsRenderer);
+		rendererMap.put(Hashtable.class, elementsRenderer);
+		rendererMap.put(Object[].class, elementsRenderer);
+	}
+
+	/**
+	 * Renders the elements of a <code>Vector</code>, a <code>Hashtable</code>
+	 * or an <code>Object[]</code> until the limit is reached. Each element is
+	 * rendered with the <code>RendererMap</code>.
+	 */
+	private static final class ElementsRenderer implements ObjectRenderer {
+
+		public void render(Object object, StringBuffer buffer, int limit) {
+			if (object instanceof Hashtable) {
+				renderHashtable((Hashtable) object, buffer, limit);
+				return;
+			}
+
+			buffer.append('[');
+			if (object instanceof Vector) {
+				Vector vector = (Vector) object;
+				for (int index = 0; index < vector.size()
+						&& !isFull(buffer, limit); index++) {
+					appendElement(object, vector.elementAt(index), index,
+							buffer, limit);
+				}
+			} else if (object instanceof Object[]) {
+				Object[] array = (Object[]) object;
+				for (int index = 0; index < array.length
+						&& !isFull(buffer, limit); index++) {
+					appendElement(object, array[index], index, buffer, limit);
+				}
+			}
+			buffer.append(']');
+		}
+
+		private void renderHashtable(Hashtable hashtable, StringBuffer buffer,
+				int limit) {
+			buffer.append('{');
+			int index = 0;
+			for (Enumeration keys = hashtable.keys(); keys.hasMoreElements()
+					&& !isFull(buffer, limit); index++) {
+				Object key = keys.nextElement();
+				appendElement(hashtable, key, index, buffer, limit);
+				buffer.append('=');
+				appendElement(hashtable, hashtable.get(key), 0, buffer, limit);
+			}
+			buffer.append('}');
+		}
+
+		private static boolean isFull(StringBuffer buffer, int limit) {
+			return limit != Integer.MAX_VALUE && buffer.length() > limit;
+		}
+
+		private static void appendElement(Object container, Object element,
+				int index, StringBuffer buffer, int limit) {
+			if (index > 0) {
+				buffer.append(", ");
+			}
+
+			if (element == container) {
+				buffer.append("(this)");
+			} else if (element instanceof String) {
+				appendString(buffer, (String) element, limit);
+			} else if (element != null) {
+				ObjectRenderer renderer = get(element.getClass());
+				if (renderer != null) {
+					renderer.render(element, buffer, limit);
+				} else {
+					appendString(buffer, element.toString(), limit);
+				}
+			} else {
+				buffer.append("null");
+			}
+		}
+	}
+}
@@ -34,6 +34,8 @@ class RepositoryNode {
 	
 	protected Level level;
 
+	protected RateLimiter rateLimiter;
+
 	/**
 	 * Create a <code>TreeNode</code> with the specified name.
 	 * 
@@ -104,6 +106,22 @@ class RepositoryNode {
 		return nodeLevel;
 	}
 
+	/**
+	 * Get the <code>RateLimiter</code> of the logger of this node, or of this
+	 * part of the hierarchy if there is no logger.
+	 * 
+	 * @return the rate limiter, or <code>null</code> if there is none.
+	 */
+	public RateLimiter getRateLimiter() {
+		RateLimiter nodeLimiter = rateLimiter;
+
+		if (logger != null) {
+			nodeLimiter = logger.getRateLimiter();
+		}
+
+		return nodeLimiter;
+	}
+
 	public RepositoryNode getChildNode(String name) {
 		return (RepositoryNode) children.get(name);
 	}
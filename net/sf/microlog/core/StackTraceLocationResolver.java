@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * A <code>LocationResolver</code> for Java SE, which finds the location in
+ * the stack trace of a new <code>Throwable</code>. The caller is the frame
+ * after the frames of the <code>Logger</code> and the
+ * <code>EventBuilder</code>.
+ * 
+ * The stack trace has to be taken to know the call site, so the location is
+ * not cached; creating a <code>Location</code> is cheap next to that. This
+ * class uses methods that are not available on CLDC, and is only loaded by
+ * name by <code>Location</code>, so it should be left out of a Java ME build.
+ * 
+ * @since 2.3
+ */
+public class StackTraceLocationResolver implements LocationResolver {
+
+	private static final String LOGGER_CLASS_NAME = Logger.class.getName();
+
+	private static final String EVENT_BUILDER_CLASS_NAME = EventBuilder.class
+			.getName();
+
+	/**
+	 * @see net.sf.microlog.core.LocationResolver#resolve()
+	 */
+	public Location resolve() {
+		StackTraceElement[] frames = new Throwable().getStackTrace();
+
+		boolean inLogger = false;
+		for (int index = 0; index < frames.length; index++) {
+			String className = frames[index].getClassName();
+			if (className.equals(LOGGER_CLASS_NAME)
+					|| className.equals(EVENT_BUILDER_CLASS_NAME)) {
+				inLogger = true;
+			} else if (inLogger) {
+				StackTraceElement frame = frames[index];
+				return new Location(frame.getClassName(), frame
+						.getMethodName(), frame.getFileName(), frame
+						.getLineNumber());
+			}
+		}
+
+		return null;
+	}
+}
@@ -22,6 +22,9 @@ package net.sf.microlog.core;
  */
 public class StringUtil {
 
+	private static final char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5',
+			'6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
 	/**
 	 * Extract a partial name of a class name, starting from the end.
 	 * 
@@ -57,4 +60,128 @@ public class StringUtil {
 		return partialCategoryName;
 	}
 
+	/**
+	 * Append the specified <code>String</code> as a JSON string, with quotes
+	 * and with the special characters escaped.
+	 * 
+	 * @param buffer
+	 *            the <code>StringBuffer</code> to append to.
+	 * @param string
+	 *            the <code>String</code> to append.
+	 */
+	public static void appendJsonString(StringBuffer buffer, String string) {
+		appendJsonString(buffer, string, null);
+	}
+
+	/**
+	 * Append the specified <code>String</code> as a JSON string, with quotes
+	 * and with the special characters escaped. A string without special
+	 * characters is appended at once. Otherwise the characters are copied to
+	 * the scratch array, and the runs between the special characters are
+	 * appended from it.
+	 * 
+	 * @param buffer
+	 *            the <code>StringBuffer</code> to append to.
+	 * @param string
+	 *            the <code>String</code> to append.
+	 * @param scratch
+	 *            a scratch array to reuse, or <code>null</code>.
+	 * @return the scratch array, which is a new one if the specified one was
+	 *         <code>null</code> or too small and it was needed.
+	 */
+	public static char[] appendJsonString(StringBuffer buffer, String string,
+			char[] scratch) {
+		buffer.append('"');
+
+		int length = string.length();
+		int index = 0;
+		while (index < length && !needsJsonEscape(string.charAt(index))) {
+			index++;
+		}
+
+		if (index == length) {
+			buffer.append(string);
+			buffer.append('"');
+			return scratch;
+		}
+
+		if (scratch == null || scratch.length < length) {
+			scratch = new char[Math.max(length, 64)];
+		}
+		string.getChars(0, length, scratch, 0);
+
+		int runStart = 0;
+		for (; index < length; index++) {
+			char c = scratch[index];
+			if (!needsJsonEscape(c)) {
+				continue;
+			}
+
+			if (index > runStart) {
+				buffer.append(scratch, runStart, index - runStart);
+			}
+			runStart = index + 1;
+
+			switch (c) {
+			case '"':
+				buffer.append("\\\"");
+				break;
+			case '\\':
+				buffer.append("\\\\");
+				break;
+			case '\n':
+				buffer.append("\\n");
+				break;
+			case '\r':
+				buffer.append("\\r");
+				break;
+			case '\t':
+				buffer.append("\\t");
+				break;
+			default:
+				buffer.append("\\u00");
+				buffer.append(HEX_DIGITS[c >> 4]);
+				buffer.append(HEX_DIGITS[c & 0xF]);
+				break;
+			}
+		}
+
+		if (length > runStart) {
+			buffer.append(scratch, runStart, length - runStart);
+		}
+
+		buffer.append('"');
+		return scratch;
+	}
+
+	private static boolean needsJsonEscape(char c) {
+		return c < 0x20 || c == '"' || c == '\\';
+	}
+
+	/**
+	 * Write the characters of a <code>String</code> as ASCII bytes, with '?'
+	 * for each character that is not ASCII, as <code>getBytes()</code> does
+	 * for the ASCII encoding. Only the bytes that fit in the array are
+	 * written.
+	 * 
+	 * @param string
+	 *            the <code>String</code> to write.
+	 * @param bytes
+	 *            the array to write into.
+	 * @param offset
+	 *            the offset of the first byte.
+	 * @return the offset after the string, which is larger than the length of
+	 *         the array if the string did not fit.
+	 */
+	public static int writeAscii(String string, byte[] bytes, int offset) {
+		int length = string.length();
+		int end = Math.min(offset + length, bytes.length);
+		for (int index = offset; index < end; index++) {
+			char c = string.charAt(index - offset);
+			bytes[index] = (byte) (c < 0x80 ? c : '?');
+		}
+
+		return offset + length;
+	}
+
 }
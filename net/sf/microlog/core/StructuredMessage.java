@@ -0,0 +1,406 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+/**
+ * A <code>StructuredMessage</code> is a message with typed key-value fields.
+ * It is created with an <code>EventBuilder</code>, and is logged as the
+ * message object, so appenders and formatters that do not know about it print
+ * the <code>toString()</code> value, which is the text followed by the fields
+ * as <code>key=value</code> pairs.
+ * 
+ * The primitive values are kept unboxed in a <code>long</code> array, a
+ * <code>double</code> as its bits, so that formatters and encoders could
+ * read them with the typed getters. The keys and the object values are kept
+ * in one array, where a primitive field has a marker of its type instead of
+ * the value, so a message with fields takes the message and at most two
+ * arrays, which the <code>EventBuilder</code> hands over without copying.
+ * A <code>StructuredMessage</code> is
+ * immutable, and two messages are equal if they have the same text and the
+ * same fields.
+ * 
+ * @since 2.3
+ */
+public final class StructuredMessage {
+
+	public static final byte TYPE_OBJECT = 0;
+
+	public static final byte TYPE_LONG = 1;
+
+	public static final byte TYPE_INT = 2;
+
+	public static final byte TYPE_DOUBLE = 3;
+
+	public static final byte TYPE_BOOLEAN = 4;
+
+	/**
+	 * The markers of the primitive types, by type.
+	 */
+	private static final Object[] TYPE_MARKERS = { null, new Object(),
+			new Object(), new Object(), new Object() };
+
+	private final String text;
+
+	private final int fieldCount;
+
+	/**
+	 * The key of each field, followed by the value of an object field or the
+	 * type marker of a primitive field.
+	 */
+	private final Object[] slots;
+
+	private final long[] primitives;
+
+	private String stringValue;
+
+	/**
+	 * Create a <code>StructuredMessage</code>. This is used by decoders; a
+	 * message is normally created with an <code>EventBuilder</code>. The
+	 * arrays are not copied, and must not be changed afterwards.
+	 * 
+	 * @param text
+	 *            the text, or <code>null</code>.
+	 * @param fieldCount
+	 *            the number of fields.
+	 * @param keys
+	 *            the keys of the fields.
+	 * @param types
+	 *            the <code>TYPE_</code> of each field.
+	 * @param primitives
+	 *            the values of the primitive fields, with a
+	 *            <code>double</code> as its bits.
+	 * @param objects
+	 *            the values of the object fields.
+	 */
+	public StructuredMessage(String text, int fieldCount, String[] keys,
+			byte[] types, long[] primitives, Object[] objects) {
+		this.text = text;
+		this.fieldCount = fieldCount;
+		this.slots = new Object[fieldCount * 2];
+		this.primitives = primitives;
+
+		for (int index = 0; index < fieldCount; index++) {
+			slots[index * 2] = keys[index];
+			slots[index * 2 + 1] = types[index] == TYPE_OBJECT ? objects[index]
+					: getTypeMarker(types[index]);
+		}
+	}
+
+	/**
+	 * Create a <code>StructuredMessage</code> with the arrays of an
+	 * <code>EventBuilder</code>, which are not copied.
+	 * 
+	 * @param slots
+	 *            the key of each field, followed by the object value or the
+	 *            type marker.
+	 * @param primitives
+	 *            the values of the primitive fields, or <code>null</code> if
+	 *            there are none.
+	 */
+	StructuredMessage(String text, int fieldCount, Object[] slots,
+			long[] primitives) {
+		this.text = text;
+		this.fieldCount = fieldCount;
+		this.slots = slots;
+		this.primitives = primitives;
+	}
+
+	/**
+	 * Get the marker that takes the place of the value of a primitive field.
+	 * 
+	 * @param type
+	 *            one of the primitive <code>TYPE_</code> constants.
+	 * @return the marker.
+	 */
+	static Object getTypeMarker(byte type) {
+		return TYPE_MARKERS[type];
+	}
+
+	/**
+	 * Get the text of the message, without the fields.
+	 * 
+	 * @return the text, or <code>null</code> if there is no text.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Get the number of fields.
+	 * 
+	 * @return the number of fields.
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Get the key of the specified field.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the key.
+	 */
+	public String getKey(int index) {
+		return (String) slots[index * 2];
+	}
+
+	/**
+	 * Get the type of the specified field.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return one of the <code>TYPE_</code> constants.
+	 */
+	public byte getType(int index) {
+		Object value = slots[index * 2 + 1];
+		for (byte type = TYPE_LONG; type <= TYPE_BOOLEAN; type++) {
+			if (value == TYPE_MARKERS[type]) {
+				return type;
+			}
+		}
+
+		return TYPE_OBJECT;
+	}
+
+	/**
+	 * Get the value of a <code>TYPE_LONG</code>, <code>TYPE_INT</code> or
+	 * <code>TYPE_BOOLEAN</code> field. A <code>boolean</code> is 1 for
+	 * <code>true</code>.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the value.
+	 */
+	public long getLong(int index) {
+		return primitives[index];
+	}
+
+	/**
+	 * Get the value of a <code>TYPE_DOUBLE</code> field.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the value.
+	 */
+	public double getDouble(int index) {
+		return Double.longBitsToDouble(primitives[index]);
+	}
+
+	/**
+	 * Get the value of a <code>TYPE_BOOLEAN</code> field.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the value.
+	 */
+	public boolean getBoolean(int index) {
+		return primitives[index] != 0;
+	}
+
+	/**
+	 * Get the value of a <code>TYPE_OBJECT</code> field.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the value, which may be <code>null</code>.
+	 */
+	public Object getObject(int index) {
+		return getType(index) == TYPE_OBJECT ? slots[index * 2 + 1] : null;
+	}
+
+	/**
+	 * Get the value of the specified field as a <code>String</code>.
+	 * 
+	 * @param index
+	 *            the index of the field.
+	 * @return the value, or <code>"null"</code> for a <code>null</code>
+	 *         object.
+	 */
+	public String getValueString(int index) {
+		switch (getType(index)) {
+		case TYPE_LONG:
+		case TYPE_INT:
+			return String.valueOf(primitives[index]);
+		case TYPE_DOUBLE:
+			return String.valueOf(getDouble(index));
+		case TYPE_BOOLEAN:
+			return primitives[index] != 0 ? "true" : "false";
+		default:
+			return String.valueOf(slots[index * 2 + 1]);
+		}
+	}
+
+	/**
+	 * Append the fields as <code>key=value</code> pairs, separated by
+	 * spaces. A value with spaces, '=' or '"' is quoted.
+	 * 
+	 * @param buffer
+	 *            the <code>StringBuffer</code> to append to.
+	 */
+	public void appendKeyValues(StringBuffer buffer) {
+		for (int index = 0; index < fieldCount; index++) {
+			if (index > 0) {
+				buffer.append(' ');
+			}
+			buffer.append(getKey(index));
+			buffer.append('=');
+
+			String value = getValueString(index);
+			if (getType(index) == TYPE_OBJECT && needsQuotes(value)) {
+				buffer.append('"');
+				int length = value.length();
+				for (int charIndex = 0; charIndex < length; charIndex++) {
+					char c = value.charAt(charIndex);
+					if (c == '"' || c == '\\') {
+						buffer.append('\\');
+					}
+					buffer.append(c);
+				}
+				buffer.append('"');
+			} else {
+				buffer.append(value);
+			}
+		}
+	}
+
+	/**
+	 * Append the fields as the members of a JSON object, without the braces.
+	 * Numbers and booleans are written as JSON numbers and booleans, other
+	 * values as strings.
+	 * 
+	 * @param buffer
+	 *            the <code>StringBuffer</code> to append to.
+	 */
+	public void appendJsonMembers(StringBuffer buffer) {
+		for (int index = 0; index < fieldCount; index++) {
+			if (index > 0) {
+				buffer.append(',');
+			}
+			StringUtil.appendJsonString(buffer, getKey(index));
+			buffer.append(':');
+
+			switch (getType(index)) {
+			case TYPE_LONG:
+			case TYPE_INT:
+				buffer.append(primitives[index]);
+				break;
+			case TYPE_DOUBLE:
+				double value = getDouble(index);
+				if (Double.isNaN(value) || Double.isInfinite(value)) {
+					StringUtil.appendJsonString(buffer, String.valueOf(value));
+				} else {
+					buffer.append(value);
+				}
+				break;
+			case TYPE_BOOLEAN:
+				buffer.append(primitives[index] != 0);
+				break;
+			default:
+				Object object = slots[index * 2 + 1];
+				if (object == null) {
+					buffer.append("null");
+				} else {
+					StringUtil.appendJsonString(buffer, object.toString());
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the text followed by the fields as <code>key=value</code> pairs.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		if (stringValue == null) {
+			StringBuffer buffer = new StringBuffer(64);
+			if (text != null) {
+				buffer.append(text);
+				if (fieldCount > 0) {
+					buffer.append(' ');
+				}
+			}
+			appendKeyValues(buffer);
+			stringValue = buffer.toString();
+		}
+
+		return stringValue;
+	}
+
+	/**
+	 * Check if the other object is a <code>StructuredMessage</code> with the
+	 * same text and the same fields, in the same order.
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	public boolean equals(Object object) {
+		if (object == this) {
+			return true;
+		} else if (!(object instanceof StructuredMessage)) {
+			return false;
+		}
+
+		StructuredMessage other = (StructuredMessage) object;
+		if (fieldCount != other.fieldCount
+				|| (text == null ? other.text != null : !text
+						.equals(other.text))) {
+			return false;
+		}
+
+		for (int index = 0; index < fieldCount; index++) {
+			Object value = slots[index * 2 + 1];
+			Object otherValue = other.slots[index * 2 + 1];
+			byte type = getType(index);
+			if (type != other.getType(index)
+					|| !getKey(index).equals(other.getKey(index))) {
+				return false;
+			} else if (type == TYPE_OBJECT) {
+				if (value == null ? otherValue != null : !value
+						.equals(otherValue)) {
+					return false;
+				}
+			} else if (primitives[index] != other.primitives[index]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		int hash = text != null ? text.hashCode() : 0;
+		for (int index = 0; index < fieldCount; index++) {
+			Object value = slots[index * 2 + 1];
+			hash = 31 * hash + getKey(index).hashCode();
+			if (getType(index) == TYPE_OBJECT) {
+				hash = 31 * hash + (value != null ? value.hashCode() : 0);
+			} else {
+				long primitive = primitives[index];
+				hash = 31 * hash + (int) (primitive ^ (primitive >>> 32));
+			}
+		}
+		return hash;
+	}
+
+	private static boolean needsQuotes(String value) {
+		return value.length() == 0 || value.indexOf(' ') != -1
+				|| value.indexOf('=') != -1 || value.indexOf('"') != -1;
+	}
+}
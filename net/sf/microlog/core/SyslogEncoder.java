@@ -0,0 +1,453 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The <code>SyslogEncoder</code> encodes syslog messages in the format of
+ * RFC 5424, as UTF-8 bytes:
+ * 
+ * <pre>
+ * &lt;PRI&gt;1 TIMESTAMP HOSTNAME APP-NAME PROCID MSGID [SD-ID key=&quot;value&quot; ...] BOM MSG
+ * </pre>
+ * 
+ * The parts of the header that do not change are encoded once, when they are
+ * set, and the date and time of the timestamp is encoded once per second. The
+ * <code>MDC</code> context is encoded as a structured data element, with the
+ * SD-ID set by <code>setStructuredDataId()</code>. The message is encoded
+ * into a buffer that is reused, so an encoder is not thread safe. A surrogate
+ * pair is encoded as one four byte sequence, and an unpaired surrogate as
+ * U+FFFD, so that the bytes are always valid UTF-8.
+ * 
+ * The <code>SyslogMessage</code> is used for the older format of RFC 3164.
+ * 
+ * @since 2.3
+ */
+public final class SyslogEncoder {
+
+	public static final int VERSION = 1;
+
+	public static final String NILVALUE = "-";
+
+	/**
+	 * The default SD-ID of the <code>MDC</code> element. The enterprise
+	 * number 32473 is reserved for documentation; use the number of your
+	 * organization.
+	 */
+	public static final String DEFAULT_STRUCTURED_DATA_ID = "mdc@32473";
+
+	public static final int MAX_HOSTNAME_LENGTH = 255;
+
+	public static final int MAX_APP_NAME_LENGTH = 48;
+
+	public static final int MAX_PROCID_LENGTH = 128;
+
+	public static final int MAX_MSGID_LENGTH = 32;
+
+	public static final int MAX_SD_NAME_LENGTH = 32;
+
+	private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+	private final Calendar calendar = Calendar.getInstance(TimeZone
+			.getTimeZone("GMT"));
+
+	private byte facility = SyslogMessage.FACILITY_USER_LEVEL_MESSAGE;
+
+	private String hostname = NILVALUE;
+
+	private String appName = MicrologConstants.DEFAULT_SYSLOG_TAG;
+
+	private String procId = NILVALUE;
+
+	private String msgId = NILVALUE;
+
+	private String structuredDataId = DEFAULT_STRUCTURED_DATA_ID;
+
+	/**
+	 * The "&lt;PRI&gt;1 " bytes of each severity.
+	 */
+	private byte[][] priorityBytes;
+
+	/**
+	 * The " HOSTNAME APP-NAME PROCID MSGID " bytes.
+	 */
+	private byte[] headerBytes;
+
+	private byte[] structuredDataIdBytes;
+
+	private long cachedSecond = Long.MIN_VALUE;
+
+	/**
+	 * The "YYYY-MM-DDThh:mm:ss" bytes of the cached second.
+	 */
+	private final byte[] secondBytes = new byte[19];
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	private int position;
+
+	/**
+	 * Encode a message. The encoded bytes are available with
+	 * <code>getBuffer()</code> until the next call.
+	 * 
+	 * @param severity
+	 *            the syslog severity.
+	 * @param time
+	 *            the time of the message, in milliseconds since the epoch.
+	 * @param contextMap
+	 *            the context to encode as structured data, or
+	 *            <code>null</code>.
+	 * @param message
+	 *            the message, or <code>null</code>.
+	 * @return the number of encoded bytes.
+	 * @throws IllegalArgumentException
+	 *             if the <code>severity</code> is not valid.
+	 */
+	public int encode(byte severity, long time, ContextMap contextMap,
+			String message) throws IllegalArgumentException {
+		if (severity < SyslogMessage.SEVERITY_EMERGENCY
+				|| severity > SyslogMessage.SEVERITY_DEBUG) {
+			throw new IllegalArgumentException("Not a valid severity.");
+		}
+
+		if (headerBytes == null) {
+			prepareHeader();
+		}
+
+		position = 0;
+		writeBytes(priorityBytes[severity]);
+		writeTimestamp(time);
+		writeBytes(headerBytes);
+
+		if (contextMap != null && contextMap.size() > 0) {
+			writeStructuredData(contextMap);
+		} else {
+			writeByte('-');
+		}
+
+		if (message != null && message.length() > 0) {
+			writeByte(' ');
+			writeBytes(BOM);
+			writeString(message, false);
+		}
+
+		return position;
+	}
+
+	/**
+	 * Get the buffer with the bytes of the latest encoded message.
+	 * 
+	 * @return the buffer, which is reused.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Set the facility.
+	 * 
+	 * @param facility
+	 *            the facility to set.
+	 * @throws IllegalArgumentException
+	 *             if the facility is not a valid one.
+	 */
+	public void setFacility(byte facility) throws IllegalArgumentException {
+		if (facility < SyslogMessage.FACILITY_KERNAL_MESSAGE
+				|| facility > SyslogMessage.FACILITY_LOCAL_USE_7) {
+			throw new IllegalArgumentException("Not a valid facility.");
+		}
+
+		this.facility = facility;
+		headerBytes = null;
+	}
+
+	/**
+	 * Set the HOSTNAME field.
+	 * 
+	 * @param hostname
+	 *            the hostname, or <code>null</code> for the NILVALUE.
+	 */
+	public void setHostname(String hostname) {
+		this.hostname = toHeaderField(hostname, MAX_HOSTNAME_LENGTH);
+		headerBytes = null;
+	}
+
+	/**
+	 * Set the APP-NAME field.
+	 * 
+	 * @param appName
+	 *            the name of the application, or <code>null</code> for the
+	 *            NILVALUE.
+	 */
+	public void setAppName(String appName) {
+		this.appName = toHeaderField(appName, MAX_APP_NAME_LENGTH);
+		headerBytes = null;
+	}
+
+	/**
+	 * Set the PROCID field.
+	 * 
+	 * @param procId
+	 *            the process id, or <code>null</code> for the NILVALUE.
+	 */
+	public void setProcId(String procId) {
+		this.procId = toHeaderField(procId, MAX_PROCID_LENGTH);
+		headerBytes = null;
+	}
+
+	/**
+	 * Set the MSGID field.
+	 * 
+	 * @param msgId
+	 *            the type of the messages, or <code>null</code> for the
+	 *            NILVALUE.
+	 */
+	public void setMsgId(String msgId) {
+		this.msgId = toHeaderField(msgId, MAX_MSGID_LENGTH);
+		headerBytes = null;
+	}
+
+	/**
+	 * Set the SD-ID of the structured data element with the
+	 * <code>MDC</code> context.
+	 * 
+	 * @param structuredDataId
+	 *            the SD-ID, e.g. "mdc@32473".
+	 * @throws IllegalArgumentException
+	 *             if the <code>structuredDataId</code> is <code>null</code>.
+	 */
+	public void setStructuredDataId(String structuredDataId)
+			throws IllegalArgumentException {
+		if (structuredDataId == null) {
+			throw new IllegalArgumentException(
+					"The structuredDataId must not be null.");
+		}
+
+		this.structuredDataId = structuredDataId;
+		headerBytes = null;
+	}
+
+	/**
+	 * Encode the parts of the header that do not change.
+	 */
+	private void prepareHeader() {
+		priorityBytes = new byte[SyslogMessage.SEVERITY_DEBUG + 1][];
+		for (int severity = 0; severity < priorityBytes.length; severity++) {
+			priorityBytes[severity] = toAscii("<" + (facility * 8 + severity)
+					+ ">" + VERSION + " ");
+		}
+
+		headerBytes = toAscii(" " + hostname + " " + appName + " " + procId
+				+ " " + msgId + " ");
+
+		structuredDataIdBytes = toAscii(toSDName(structuredDataId));
+	}
+
+	/**
+	 * Write the timestamp as "YYYY-MM-DDThh:mm:ss.sssZ". The date and time
+	 * are only calculated when the second changes.
+	 */
+	private void writeTimestamp(long time) {
+		long second = time / 1000;
+		int millis = (int) (time % 1000);
+		if (millis < 0) {
+			second--;
+			millis += 1000;
+		}
+
+		if (second != cachedSecond) {
+			calendar.setTime(new Date(second * 1000));
+			writeDigits(secondBytes, 0, calendar.get(Calendar.YEAR), 4);
+			secondBytes[4] = '-';
+			writeDigits(secondBytes, 5, calendar.get(Calendar.MONTH) + 1, 2);
+			secondBytes[7] = '-';
+			writeDigits(secondBytes, 8, calendar.get(Calendar.DAY_OF_MONTH), 2);
+			secondBytes[10] = 'T';
+			writeDigits(secondBytes, 11, calendar.get(Calendar.HOUR_OF_DAY), 2);
+			secondBytes[13] = ':';
+			writeDigits(secondBytes, 14, calendar.get(Calendar.MINUTE), 2);
+			secondBytes[16] = ':';
+			writeDigits(secondBytes, 17, calendar.get(Calendar.SECOND), 2);
+			cachedSecond = second;
+		}
+
+		ensureCapacity(secondBytes.length + 5);
+		System.arraycopy(secondBytes, 0, buffer, position, secondBytes.length);
+		position += secondBytes.length;
+		buffer[position++] = '.';
+		writeDigits(buffer, position, millis, 3);
+		position += 3;
+		buffer[position++] = 'Z';
+	}
+
+	private void writeStructuredData(ContextMap contextMap) {
+		writeByte('[');
+		writeBytes(structuredDataIdBytes);
+
+		int size = contextMap.size();
+		for (int index = 0; index < size; index++) {
+			writeByte(' ');
+			writeString(toSDName(contextMap.getKey(index)), false);
+			writeByte('=');
+			writeByte('"');
+			Object value = contextMap.getValue(index);
+			writeString(String.valueOf(value), true);
+			writeByte('"');
+		}
+
+		writeByte(']');
+	}
+
+	/**
+	 * Write the string as UTF-8. In a PARAM-VALUE the characters '"', '\' and
+	 * ']' are escaped.
+	 */
+	private void writeString(String string, boolean paramValue) {
+		int length = string.length();
+		// An escaped character takes two bytes and a surrogate pair four.
+		ensureCapacity(length * 3);
+
+		for (int index = 0; index < length; index++) {
+			int c = string.charAt(index);
+			if (c < 0x80) {
+				if (paramValue && (c == '"' || c == '\\' || c == ']')) {
+					buffer[position++] = '\\';
+				}
+				buffer[position++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (isSurrogatePair(string, index)) {
+				index++;
+				c = 0x10000 + ((c - 0xD800) << 10)
+						+ (string.charAt(index) - 0xDC00);
+				buffer[position++] = (byte) (0xF0 | (c >> 18));
+				buffer[position++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				if (c >= 0xD800 && c <= 0xDFFF) {
+					// An unpaired surrogate is not valid UTF-8.
+					c = REPLACEMENT_CHARACTER;
+				}
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the character at the index is a high
+	 *         surrogate that is followed by a low surrogate.
+	 */
+	private static boolean isSurrogatePair(String string, int index) {
+		char c = string.charAt(index);
+		if (c < 0xD800 || c > 0xDBFF || index + 1 == string.length()) {
+			return false;
+		}
+
+		char next = string.charAt(index + 1);
+		return next >= 0xDC00 && next <= 0xDFFF;
+	}
+
+	private void writeBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[position++] = (byte) value;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (position + extra > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, position
+					+ extra)];
+			System.arraycopy(buffer, 0, newBuffer, 0, position);
+			buffer = newBuffer;
+		}
+	}
+
+	private static void writeDigits(byte[] bytes, int offset, int value,
+			int digits) {
+		for (int index = offset + digits - 1; index >= offset; index--) {
+			bytes[index] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Make a header field of PRINTUSASCII characters, or the NILVALUE.
+	 */
+	private static String toHeaderField(String value, int maxLength) {
+		if (value == null || value.length() == 0) {
+			return NILVALUE;
+		}
+
+		int length = Math.min(value.length(), maxLength);
+		StringBuffer field = new StringBuffer(length);
+		for (int index = 0; index < length; index++) {
+			char c = value.charAt(index);
+			field.append(c > 32 && c < 127 ? c : '_');
+		}
+
+		return field.toString();
+	}
+
+	/**
+	 * Make an SD-NAME, which is PRINTUSASCII except '=', ' ', ']' and '"'.
+	 */
+	private static String toSDName(String name) {
+		if (name == null || name.length() == 0) {
+			return "_";
+		}
+
+		int length = Math.min(name.length(), MAX_SD_NAME_LENGTH);
+		StringBuffer sdName = null;
+		for (int index = 0; index < length; index++) {
+			char c = name.charAt(index);
+			if (c <= 32 || c >= 127 || c == '=' || c == ']' || c == '"') {
+				if (sdName == null) {
+					sdName = new StringBuffer(name.substring(0, length));
+				}
+				sdName.setCharAt(index, '_');
+			}
+		}
+
+		if (sdName != null) {
+			return sdName.toString();
+		}
+
+		return length < name.length() ? name.substring(0, length) : name;
+	}
+
+	private static byte[] toAscii(String string) {
+		byte[] bytes = new byte[string.length()];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = (byte) string.charAt(index);
+		}
+		return bytes;
+	}
+}
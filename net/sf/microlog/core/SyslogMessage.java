@@ -17,10 +17,21 @@ package net.sf.microlog.core;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.Vector;
 
 /**
  * The <code>SyslogMessage</code> represent a syslog message.
  * 
+ * The settings are shared, but each call of <code>createMessageData()</code>
+ * uses its own buffer and calendar, which are taken from a small pool. This
+ * makes it safe to create messages from several threads at the same time,
+ * without serializing them. Each pooled buffer keeps the timestamp of the
+ * latest second, so the calendar is only used when the second changes.
+ * 
+ * The message data could also be encoded with <code>encodeMessageData()</code>
+ * straight into a byte array, e.g. the data of a reused
+ * <code>Datagram</code>, without creating a <code>String</code>.
+ * 
  * @author Johan Karlsson
  */
 public class SyslogMessage {
@@ -81,29 +92,75 @@ public class SyslogMessage {
 	public final static String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May",
 			"Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
 
-	private final Calendar calendar = Calendar.getInstance(TimeZone
-			.getTimeZone("GMT"));
+	/**
+	 * The severity of each <code>Level</code>, indexed by the value of the
+	 * level.
+	 */
+	private static final byte[] LEVEL_SEVERITIES = new byte[Level.FATAL_INT + 1];
+
+	/**
+	 * The PRI parts of each facility, indexed by the severity. These are
+	 * created the first time that a facility is used.
+	 */
+	private static final String[][] PRIORITY_PARTS = new String[SyslogMessage.FACILITY_LOCAL_USE_7 + 1][];
+
+	static {
+		for (int index = 0; index < LEVEL_SEVERITIES.length; index++) {
+			LEVEL_SEVERITIES[index] = SyslogMessage.SEVERITY_DEBUG;
+		}
+		LEVEL_SEVERITIES[Level.INFO_INT] = SyslogMessage.SEVERITY_INFORMATIONAL;
+		LEVEL_SEVERITIES[Level.WARN_INT] = SyslogMessage.SEVERITY_WARNING;
+		LEVEL_SEVERITIES[Level.ERROR_INT] = SyslogMessage.SEVERITY_ERROR;
+		LEVEL_SEVERITIES[Level.FATAL_INT] = SyslogMessage.SEVERITY_CRITICAL;
+	}
+
+	/**
+	 * The maximum number of idle message buffers that are kept for reuse.
+	 */
+	public static final int MAX_POOLED_BUFFERS = 4;
 
 	private byte facility = SyslogMessage.FACILITY_USER_LEVEL_MESSAGE;
 
 	private byte severity = SyslogMessage.SEVERITY_DEBUG;
 
-	private boolean header;
+	private String[] priorityParts = getPriorityParts(facility);
 
-	private final StringBuffer messageStringBuffer;
+	private boolean header;
 
 	private String hostname;
 
 	String tag;
 
+	/**
+	 * The idle <code>MessageBuffer</code> objects.
+	 */
+	private final Vector bufferPool = new Vector(MAX_POOLED_BUFFERS);
+
 	public SyslogMessage() {
-		messageStringBuffer = new StringBuffer(
-				SyslogMessage.DEFAULT_MESSAGE_BUFFER_SIZE);
+		bufferPool.addElement(new MessageBuffer());
+	}
+
+	/**
+	 * Get the syslog severity of a <code>Level</code>. TRACE and DEBUG are
+	 * sent as debug, INFO as informational, WARN as warning, ERROR as error
+	 * and FATAL as critical.
+	 * 
+	 * @param level
+	 *            the level.
+	 * @return the syslog severity.
+	 */
+	public static byte toSeverity(Level level) {
+		int levelValue = level.toInt();
+		if (levelValue >= 0 && levelValue < LEVEL_SEVERITIES.length) {
+			return LEVEL_SEVERITIES[levelValue];
+		}
+
+		return SyslogMessage.SEVERITY_DEBUG;
 	}
 
 	/**
 	 * Create the syslog message data, that is consequently wrapped in a
-	 * datagram.
+	 * datagram. The severity that has been set is used.
 	 * 
 	 * @param message
 	 *            the message to include.
@@ -111,65 +168,203 @@ public class SyslogMessage {
 	 *         data.
 	 */
 	public String createMessageData(String message) {
+		return createMessageData(severity, message);
+	}
+
+	/**
+	 * Create the syslog message data, with the severity of the
+	 * <code>Level</code> of the log entry.
+	 * 
+	 * @param level
+	 *            the level of the log entry.
+	 * @param message
+	 *            the message to include.
+	 * @return a <code>String</code> object representing the syslog message
+	 *         data.
+	 */
+	public String createMessageData(Level level, String message) {
+		return createMessageData(toSeverity(level), message);
+	}
+
+	private String createMessageData(byte severity, String message) {
+		MessageBuffer messageBuffer = takeBuffer();
+		StringBuffer messageStringBuffer = messageBuffer.stringBuffer;
 
 		messageStringBuffer.delete(0, messageStringBuffer.length());
 
-		// Create the PRI part
-		messageStringBuffer.append('<');
-		int priority = facility * 8 + severity;
-		messageStringBuffer.append(priority);
-		messageStringBuffer.append('>');
+		// Add the PRI part
+		messageStringBuffer.append(priorityParts[severity]);
 
 		// Create the HEADER part.
 		if (header) {
 			// Add the TIMESTAMP field of the HEADER
-			// Time format is "Mmm dd hh:mm:ss". For more info see rfc3164.
-			long currentTime = System.currentTimeMillis();
+			messageStringBuffer.append(getTimestamp(messageBuffer));
+
+			// Add the HOSTNAME part of the message
+			messageStringBuffer.append(hostname);
+		}
+
+		// Create the MSG part.
+		messageStringBuffer.append(' ');
+		messageStringBuffer.append(tag);
+		messageStringBuffer.append(": ");
+		messageStringBuffer.append(message);
+
+		String messageData = messageStringBuffer.toString();
+		returnBuffer(messageBuffer);
+		return messageData;
+	}
+
+	/**
+	 * Encode the syslog message data as ASCII bytes into an array, e.g. the
+	 * data of a <code>Datagram</code> that is reused. The severity that has
+	 * been set is used. A character that is not ASCII is written as '?'.
+	 * 
+	 * @param message
+	 *            the message to include.
+	 * @param data
+	 *            the array to encode into.
+	 * @return the number of bytes of the message data. If this is larger than
+	 *         the length of the array, only the bytes that fit were written,
+	 *         and the message should be encoded again into a larger array.
+	 */
+	public int encodeMessageData(String message, byte[] data) {
+		return encodeMessageData(severity, message, data);
+	}
+
+	/**
+	 * Encode the syslog message data as ASCII bytes into an array, with the
+	 * severity of the <code>Level</code> of the log entry.
+	 * 
+	 * @param level
+	 *            the level of the log entry.
+	 * @param message
+	 *            the message to include.
+	 * @param data
+	 *            the array to encode into.
+	 * @return the number of bytes of the message data. If this is larger than
+	 *         the length of the array, only the bytes that fit were written,
+	 *         and the message should be encoded again into a larger array.
+	 * @see #encodeMessageData(String, byte[])
+	 */
+	public int encodeMessageData(Level level, String message, byte[] data) {
+		return encodeMessageData(toSeverity(level), message, data);
+	}
+
+	private int encodeMessageData(byte severity, String message, byte[] data) {
+		int position = StringUtil.writeAscii(priorityParts[severity], data, 0);
+
+		if (header) {
+			MessageBuffer messageBuffer = takeBuffer();
+			String timestamp = getTimestamp(messageBuffer);
+			returnBuffer(messageBuffer);
+
+			position = StringUtil.writeAscii(timestamp, data, position);
+			position = StringUtil.writeAscii(String.valueOf(hostname), data,
+					position);
+		}
+
+		position = writeByte(data, position, ' ');
+		position = StringUtil.writeAscii(tag, data, position);
+		position = writeByte(data, position, ':');
+		position = writeByte(data, position, ' ');
+		return StringUtil.writeAscii(message, data, position);
+	}
+
+	private static int writeByte(byte[] data, int position, char c) {
+		if (position < data.length) {
+			data[position] = (byte) c;
+		}
+		return position + 1;
+	}
+
+	/**
+	 * Get the TIMESTAMP field of the HEADER, followed by a space. The time
+	 * format is "Mmm dd hh:mm:ss", for more info see rfc3164. The timestamp is
+	 * only created again when the second changes.
+	 */
+	private static String getTimestamp(MessageBuffer messageBuffer) {
+		long currentTime = AppenderDispatcher.getEventTimestamp();
+		long currentSecond = currentTime / 1000;
+
+		if (currentSecond != messageBuffer.timestampSecond) {
+			Calendar calendar = messageBuffer.calendar;
 			calendar.setTime(new Date(currentTime));
+			StringBuffer timestampBuffer = new StringBuffer(16);
 
-			messageStringBuffer.append(SyslogMessage.MONTHS[calendar
+			timestampBuffer.append(SyslogMessage.MONTHS[calendar
 					.get(Calendar.MONTH)]);
-			messageStringBuffer.append(' ');
+			timestampBuffer.append(' ');
 
 			int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
 			if (dayOfMonth < MicrologConstants.TEN) {
-				messageStringBuffer.append('0');
+				timestampBuffer.append('0');
 			}
-			messageStringBuffer.append(dayOfMonth);
-			messageStringBuffer.append(' ');
+			timestampBuffer.append(dayOfMonth);
+			timestampBuffer.append(' ');
 
 			int hour = calendar.get(Calendar.HOUR_OF_DAY);
 			if (hour < MicrologConstants.TEN) {
-				messageStringBuffer.append('0');
+				timestampBuffer.append('0');
 			}
-			messageStringBuffer.append(hour);
-			messageStringBuffer.append(':');
+			timestampBuffer.append(hour);
+			timestampBuffer.append(':');
 
 			int minute = calendar.get(Calendar.MINUTE);
 			if (minute < MicrologConstants.TEN) {
-				messageStringBuffer.append('0');
+				timestampBuffer.append('0');
 			}
-			messageStringBuffer.append(minute);
-			messageStringBuffer.append(':');
+			timestampBuffer.append(minute);
+			timestampBuffer.append(':');
 
 			int second = calendar.get(Calendar.SECOND);
 			if (second < MicrologConstants.TEN) {
-				messageStringBuffer.append('0');
+				timestampBuffer.append('0');
 			}
-			messageStringBuffer.append(second);
-			messageStringBuffer.append(' ');
+			timestampBuffer.append(second);
+			timestampBuffer.append(' ');
 
-			// Add the HOSTNAME part of the message
-			messageStringBuffer.append(hostname);
+			messageBuffer.timestamp = timestampBuffer.toString();
+			messageBuffer.timestampSecond = currentSecond;
 		}
 
-		// Create the MSG part.
-		messageStringBuffer.append(' ');
-		messageStringBuffer.append(tag);
-		messageStringBuffer.append(": ");
-		messageStringBuffer.append(message);
+		return messageBuffer.timestamp;
+	}
+
+	private static String[] getPriorityParts(byte facility) {
+		synchronized (PRIORITY_PARTS) {
+			String[] parts = PRIORITY_PARTS[facility];
+			if (parts == null) {
+				parts = new String[SyslogMessage.SEVERITY_DEBUG + 1];
+				for (int severity = 0; severity < parts.length; severity++) {
+					parts[severity] = "<" + (facility * 8 + severity) + ">";
+				}
+				PRIORITY_PARTS[facility] = parts;
+			}
+			return parts;
+		}
+	}
+
+	private MessageBuffer takeBuffer() {
+		synchronized (bufferPool) {
+			int size = bufferPool.size();
+			if (size > 0) {
+				MessageBuffer messageBuffer = (MessageBuffer) bufferPool
+						.elementAt(size - 1);
+				bufferPool.removeElementAt(size - 1);
+				return messageBuffer;
+			}
+		}
 
-		return messageStringBuffer.toString();
+		return new MessageBuffer();
+	}
+
+	private void returnBuffer(MessageBuffer messageBuffer) {
+		synchronized (bufferPool) {
+			if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+				bufferPool.addElement(messageBuffer);
+			}
+		}
 	}
 
 	/**
@@ -187,6 +382,7 @@ public class SyslogMessage {
 		}
 
 		this.facility = facility;
+		priorityParts = getPriorityParts(facility);
 	}
 	
 	
@@ -263,4 +459,21 @@ public class SyslogMessage {
 
 		this.tag = tag;
 	}
+
+	/**
+	 * The buffer and the calendar that are used for creating one message, and
+	 * the timestamp of the latest second.
+	 */
+	private static final class MessageBuffer {
+
+		final StringBuffer stringBuffer = new StringBuffer(
+				SyslogMessage.DEFAULT_MESSAGE_BUFFER_SIZE);
+
+		final Calendar calendar = Calendar.getInstance(TimeZone
+				.getTimeZone("GMT"));
+
+		long timestampSecond = Long.MIN_VALUE;
+
+		String timestamp;
+	}
 }
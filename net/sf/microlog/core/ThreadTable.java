@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A table of values by thread, which is used for the contexts of the
+ * <code>MDC</code> and the <code>NDC</code> and for the rings of the
+ * <code>TriggeredBufferAppender</code>, since Java ME has no thread local
+ * variables. The entries of the threads that have ended without
+ * clearing their context are removed when a thread is added and the number of
+ * entries has doubled since the last sweep.
+ * 
+ * @since 2.3
+ */
+public final class ThreadTable {
+
+	private static final int MIN_SWEEP_SIZE = 8;
+
+	private final Hashtable table = new Hashtable(7);
+
+	/**
+	 * The number of entries when the entries of ended threads are removed.
+	 */
+	private int sweepSize = MIN_SWEEP_SIZE;
+
+	/**
+	 * Get the value of a thread.
+	 * 
+	 * @param thread
+	 *            the thread.
+	 * @return the value, or <code>null</code> if the thread has none.
+	 */
+	public Object get(Thread thread) {
+		return table.get(thread);
+	}
+
+	/**
+	 * Set the value of a thread. The entries of the threads that have ended
+	 * are removed first if the number of entries has doubled.
+	 * 
+	 * @param thread
+	 *            the thread.
+	 * @param value
+	 *            the value.
+	 */
+	public synchronized void put(Thread thread, Object value) {
+		if (table.size() >= sweepSize && !table.containsKey(thread)) {
+			sweep();
+		}
+		table.put(thread, value);
+	}
+
+	/**
+	 * Remove the value of a thread.
+	 * 
+	 * @param thread
+	 *            the thread.
+	 */
+	public synchronized void remove(Thread thread) {
+		table.remove(thread);
+	}
+
+	/**
+	 * Remove the values of all the threads.
+	 */
+	public synchronized void clear() {
+		table.clear();
+		sweepSize = MIN_SWEEP_SIZE;
+	}
+
+	private void sweep() {
+		Vector endedThreads = new Vector(table.size());
+		for (Enumeration enumeration = table.keys(); enumeration
+				.hasMoreElements();) {
+			Thread thread = (Thread) enumeration.nextElement();
+			if (!thread.isAlive()) {
+				endedThreads.addElement(thread);
+			}
+		}
+
+		for (int index = 0; index < endedThreads.size(); index++) {
+			table.remove(endedThreads.elementAt(index));
+		}
+		sweepSize = Math.max(MIN_SWEEP_SIZE, table.size() * 2);
+	}
+}
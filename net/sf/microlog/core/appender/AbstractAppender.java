@@ -17,9 +17,14 @@ package net.sf.microlog.core.appender;
 import java.io.IOException;
 
 import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.Filter;
 import net.sf.microlog.core.Formatter;
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.filter.FilterChain;
+import net.sf.microlog.core.format.CachingFormatter;
+import net.sf.microlog.core.format.PatternFormatter;
 import net.sf.microlog.core.format.SimpleFormatter;
+import net.sf.microlog.core.format.ThrowableRenderer;
 
 /**
  * This is the abstract super class of all the appenders.
@@ -41,9 +46,21 @@ public abstract class AbstractAppender implements Appender {
 	 */
 	protected boolean logOpen;
 
+	/**
+	 * The lowest level that is logged to this appender, or <code>null</code>
+	 * if all levels are logged.
+	 */
+	protected Level threshold;
+
+	/**
+	 * The filters that are asked before the logging is done.
+	 */
+	protected final FilterChain filterChain = new FilterChain();
+
 	/**
 	 * Set the <code>Formatter</code> object that is used for formatting the
-	 * output.
+	 * output. A <code>PatternFormatter</code> that is replaced is closed,
+	 * unless the new formatter is a <code>CachingFormatter</code> for it.
 	 * 
 	 * @see net.sf.microlog.core.Appender#setFormatter(net.sf.microlog.core.Formatter)
 	 * @throws IllegalArgumentException
@@ -56,8 +73,15 @@ public abstract class AbstractAppender implements Appender {
 					"The formatter must not be null.");
 		}
 
+		Formatter previousFormatter = this.formatter;
 		this.formatter = formatter;
 
+		if (previousFormatter instanceof PatternFormatter
+				&& previousFormatter != formatter
+				&& !(formatter instanceof CachingFormatter && ((CachingFormatter) formatter)
+						.getFormatter() == previousFormatter)) {
+			((PatternFormatter) previousFormatter).close();
+		}
 	}
 
 	/**
@@ -70,6 +94,78 @@ public abstract class AbstractAppender implements Appender {
 		return formatter;
 	}
 
+	/**
+	 * Forget the stack traces that the formatter has printed, so that the
+	 * next traces are printed in full. This should be called when the log is
+	 * sent over a new connection, where the earlier traces are not known.
+	 */
+	protected void resetThrowableRenderer() {
+		ThrowableRenderer renderer = ThrowableRenderer.getRenderer(formatter);
+		if (renderer != null) {
+			renderer.reset();
+		}
+	}
+
+	/**
+	 * Get the threshold of this appender.
+	 * 
+	 * @return the lowest <code>Level</code> that is logged to this appender,
+	 *         or <code>null</code> if all levels are logged.
+	 */
+	public Level getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Set the threshold of this appender. The <code>Logger</code> only logs
+	 * to this appender at the threshold level or above, for example only
+	 * errors to an expensive appender. The <code>Logger</code> reads the
+	 * threshold when the appender is added or the log is opened, so it should
+	 * be set before that.
+	 * 
+	 * @param threshold
+	 *            the lowest <code>Level</code> to log, or <code>null</code> to
+	 *            log all levels.
+	 */
+	public void setThreshold(Level threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Check if the specified level is at or above the threshold.
+	 * 
+	 * @param level
+	 *            the level to check.
+	 * @return <code>true</code> if the level should be logged to this
+	 *         appender.
+	 */
+	public boolean isAsSevereAsThreshold(Level level) {
+		return threshold == null || threshold.toInt() <= level.toInt();
+	}
+
+	/**
+	 * Add a filter to the end of the filter chain. The <code>Logger</code>
+	 * asks the filters before it logs to this appender, which means that a
+	 * rejected log entry is never formatted.
+	 * 
+	 * @param filter
+	 *            the <code>Filter</code> to add.
+	 * @throws IllegalArgumentException
+	 *             if the <code>filter</code> is <code>null</code>.
+	 */
+	public void addFilter(Filter filter) throws IllegalArgumentException {
+		filterChain.addFilter(filter);
+	}
+
+	/**
+	 * Get the filter chain of this appender.
+	 * 
+	 * @return the <code>FilterChain</code>.
+	 */
+	public FilterChain getFilterChain() {
+		return filterChain;
+	}
+
 	/**
 	 * Check if the log is open.
 	 * 
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.appender;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.AppenderAttachable;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MicrologConstants;
+
+/**
+ * This is the abstract super class of the appenders that decorate other
+ * appenders. The decorated appenders are set with the
+ * <code>appenderRefs</code> property, and are opened, closed and cleared
+ * together with this appender. The threshold and the filters of a decorated
+ * appender are respected.
+ * 
+ * @see AppenderAttachable
+ * @since 2.3
+ */
+public abstract class AbstractDelegatingAppender extends AbstractAppender
+		implements AppenderAttachable {
+
+	protected final Vector appenderList = new Vector(4);
+
+	/**
+	 * @see AppenderAttachable#addAppender(Appender)
+	 */
+	public synchronized void addAppender(Appender appender)
+			throws IllegalArgumentException {
+		if (appender == null) {
+			throw new IllegalArgumentException("The appender must not be null.");
+		}
+
+		if (!appenderList.contains(appender)) {
+			appenderList.addElement(appender);
+		}
+	}
+
+	/**
+	 * @see AppenderAttachable#removeAppender(Appender)
+	 */
+	public synchronized void removeAppender(Appender appender)
+			throws IllegalArgumentException {
+		if (appender == null) {
+			throw new IllegalArgumentException("The appender must not be null.");
+		}
+
+		appenderList.removeElement(appender);
+	}
+
+	/**
+	 * @see AppenderAttachable#getNumberOfAppenders()
+	 */
+	public synchronized int getNumberOfAppenders() {
+		return appenderList.size();
+	}
+
+	/**
+	 * @see AppenderAttachable#getAppender(int)
+	 */
+	public synchronized Appender getAppender(int index) {
+		return (Appender) appenderList.elementAt(index);
+	}
+
+	/**
+	 * Open the decorated appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
+	 */
+	public synchronized void open() throws IOException {
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			((Appender) appenderList.elementAt(index)).open();
+		}
+
+		logOpen = true;
+	}
+
+	/**
+	 * Close the decorated appenders. All of them are closed even if one of
+	 * them fails.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#close()
+	 */
+	public synchronized void close() throws IOException {
+		logOpen = false;
+
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			Appender appender = (Appender) appenderList.elementAt(index);
+			try {
+				appender.close();
+			} catch (IOException e) {
+				System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+						+ "Failed to close the appender " + appender + ' ' + e);
+			}
+		}
+	}
+
+	/**
+	 * Clear the log of the decorated appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#clear()
+	 */
+	public synchronized void clear() {
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			((Appender) appenderList.elementAt(index)).clear();
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getLogSize()
+	 */
+	public long getLogSize() {
+		return SIZE_UNDEFINED;
+	}
+
+	/**
+	 * Log to the decorated appenders that accept the log entry.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 */
+	protected void appendToAll(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			Appender appender = (Appender) appenderList.elementAt(index);
+
+			if (isAccepted(appender, clientID, name, time, level, message, t)) {
+				appender.doLog(clientID, name, time, level, message, t);
+			}
+		}
+	}
+
+	/**
+	 * Check if the threshold and the filters of a decorated appender accept
+	 * the log entry.
+	 * 
+	 * @param appender
+	 *            the decorated appender.
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 * @return <code>true</code> if the appender should get the log entry.
+	 */
+	protected static boolean isAccepted(Appender appender, String clientID,
+			String name, long time, Level level, Object message, Throwable t) {
+		if (appender instanceof AbstractAppender) {
+			AbstractAppender abstractAppender = (AbstractAppender) appender;
+			return abstractAppender.isAsSevereAsThreshold(level)
+					&& abstractAppender.getFilterChain().isLoggable(clientID,
+							name, time, level, message, t);
+		}
+
+		return true;
+	}
+}
@@ -18,19 +18,40 @@ package net.sf.microlog.core.appender;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
 
 import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.AppenderDispatcher;
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.BinaryEventDecoder;
+import net.sf.microlog.core.format.BinaryEventEncoder;
+import net.sf.microlog.core.spool.Spool;
+import net.sf.microlog.core.spool.SpoolForwarder;
+import net.sf.microlog.core.spool.SpoolTarget;
 
 /**
  * The <code>AbstractHttpAppender</code> contains everything that is common for
  * all HTTP appenders.
  * 
+ * A <code>Spool</code> could be set to store the log entries that could not be
+ * posted to the server. The spooled entries are posted in order when the
+ * server is reachable again.
+ * 
+ * In the binary mode each log entry is posted in the format of the
+ * <code>BinaryEventEncoder</code>, as a stream of its own, and is formatted by
+ * the server. No formatter is needed then. The log entries are spooled in the
+ * binary format too, and are posted as they were logged. Entries that were
+ * spooled as text, before the binary mode was turned on, are posted as text
+ * records, and binary entries are formatted if the binary mode has been
+ * turned off.
+ * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @since 2.0
  */
-public abstract class AbstractHttpAppender extends AbstractAppender {
+public abstract class AbstractHttpAppender extends AbstractAppender
+		implements SpoolTarget {
+
+	public static final String BINARY_PROPERTY = "binary";
 
 	/**
 	 * Create an <code>AbstractHttpAppender</code>.
@@ -45,6 +66,18 @@ public abstract class AbstractHttpAppender extends AbstractAppender {
 	 */
 	protected String postURL;
 
+	/**
+	 * The <code>SpoolForwarder</code> that is used if a <code>Spool</code> has
+	 * been set.
+	 */
+	protected SpoolForwarder spoolForwarder;
+
+	/**
+	 * The encoder that is used in the binary mode, otherwise
+	 * <code>null</code>.
+	 */
+	protected BinaryEventEncoder encoder;
+
 	/**
 	 * Set the URL that is used for posting the messages to the server.
 	 * 
@@ -64,7 +97,12 @@ public abstract class AbstractHttpAppender extends AbstractAppender {
 	/**
 	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
 	 */
-	public void open() throws IOException {
+	public synchronized void open() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.open();
+		}
+
+		resetThrowableRenderer();
 		logOpen = true;
 	}
 
@@ -78,7 +116,11 @@ public abstract class AbstractHttpAppender extends AbstractAppender {
 	/**
 	 * @see net.sf.microlog.core.appender.AbstractAppender#close()
 	 */
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.close();
+		}
+
 		logOpen = false;
 	}
 
@@ -87,30 +129,155 @@ public abstract class AbstractHttpAppender extends AbstractAppender {
 	 *      java.lang.String, long, net.sf.microlog.core.Level,
 	 *      java.lang.Object, java.lang.Throwable)
 	 */
-	public void doLog(String clientID, String name, long time, Level level,
-			Object message, Throwable t) {
+	public synchronized void doLog(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
 
-		if (logOpen && formatter != null) {
-			try {
-				OutputStream outputStream = connect();	
-				PrintStream printStream = new PrintStream(outputStream);
+		if (encoder != null && spoolForwarder != null) {
+			if (logOpen) {
+				spoolForwarder.forward(createEntry(clientID, name, time,
+						level, message, t));
+			}
+		} else if (encoder != null) {
+			if (logOpen) {
+				encoder.reset();
+				int length = encoder.encodeEvent(clientID, name,
+						AppenderDispatcher.getEventThreadName(), time, level,
+						message, t);
+				try {
+					post(encoder.getBuffer(), length);
+				} catch (IOException e) {
+					System.err.println("Failed to write log to server " + e);
+				}
+			}
+		} else if (logOpen && formatter != null) {
+			String logString = formatter.format(clientID, name, time, level,
+					message, t);
 
-				String logString = formatter.format(clientID, name, time,
-						level, message, t);
-				
-				printStream.print(logString);
+			if (spoolForwarder != null) {
+				spoolForwarder.forward(logString);
+			} else {
+				try {
+					deliver(logString);
+				} catch (IOException e) {
+					System.err.println("Failed to write log to server " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.SpoolTarget#createEntry(String, String,
+	 *      long, Level, Object, Throwable)
+	 */
+	public synchronized String createEntry(String clientID, String name,
+			long time, Level level, Object message, Throwable t) {
+		if (encoder != null) {
+			return encoder.encodeEntry(clientID, name, AppenderDispatcher
+					.getEventThreadName(), time, level, message, t);
+		} else if (formatter != null) {
+			return formatter.format(clientID, name, time, level, message, t);
+		}
 
-				getResponse();
+		return null;
+	}
 
-				disconnect();
+	/**
+	 * Post the log entry to the server.
+	 * 
+	 * @see net.sf.microlog.core.spool.SpoolTarget#deliver(java.lang.String)
+	 */
+	public synchronized void deliver(String entry) throws IOException {
+		BinaryEvent event;
+		try {
+			event = BinaryEventDecoder.decodeEntry(entry);
+		} catch (IOException e) {
+			// Retrying would not help, so the entry is dropped.
+			System.err.println("Dropping a log entry that is not valid " + e);
+			return;
+		}
 
-			} catch (IOException e) {
-				System.err.println("Failed to write log to server " + e);
+		if (encoder != null) {
+			encoder.reset();
+			post(encoder.getBuffer(), event != null ? encoder
+					.encodeEvent(event) : encoder.encodeText(entry));
+		} else {
+			if (event != null) {
+				entry = formatter != null ? AppenderDispatcher.formatEvent(
+						event.toLoggingEvent(), formatter) : event.toString();
 			}
 
+			byte[] data = entry.getBytes();
+			post(data, data.length);
+		}
+	}
+
+	/**
+	 * Post the data to the server.
+	 */
+	private void post(byte[] data, int length) throws IOException {
+		try {
+			OutputStream outputStream = connect();
+			outputStream.write(data, 0, length);
+			outputStream.flush();
+
+			getResponse();
+		} finally {
+			disconnect();
+		}
+	}
+
+	/**
+	 * Check if the log entries are posted in the binary format.
+	 * 
+	 * @return <code>true</code> if the binary format is used.
+	 */
+	public synchronized boolean isBinary() {
+		return encoder != null;
+	}
+
+	/**
+	 * Set if the log entries are posted in the binary format of the
+	 * <code>BinaryEventEncoder</code>. This is ignored if the log is open.
+	 * 
+	 * @param binary
+	 *            <code>true</code> to use the binary format.
+	 */
+	public synchronized void setBinary(boolean binary) {
+		if (!logOpen) {
+			encoder = binary ? new BinaryEventEncoder() : null;
 		}
 	}
 
+	/**
+	 * Set the <code>Spool</code> that is used for storing the log entries
+	 * while the server is unreachable. This is ignored if the log is open.
+	 * 
+	 * @param spool
+	 *            the spool to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>spool</code> is <code>null</code>.
+	 */
+	public synchronized void setSpool(Spool spool)
+			throws IllegalArgumentException {
+		if (spool == null) {
+			throw new IllegalArgumentException("The spool must not be null.");
+		}
+
+		if (!logOpen) {
+			spoolForwarder = new SpoolForwarder(spool, this);
+		}
+	}
+
+	/**
+	 * Get the <code>SpoolForwarder</code> that is used, if a
+	 * <code>Spool</code> has been set.
+	 * 
+	 * @return the spoolForwarder or <code>null</code> if no spool is used.
+	 */
+	public synchronized SpoolForwarder getSpoolForwarder() {
+		return spoolForwarder;
+	}
+
 	abstract protected OutputStream connect() throws IOException;
 
 	abstract protected InputStream getResponse() throws IOException;
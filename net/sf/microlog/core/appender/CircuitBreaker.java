@@ -0,0 +1,338 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.appender;
+
+/**
+ * A <code>CircuitBreaker</code> keeps track of the outcome of the latest calls
+ * to a target. A call that fails, or that takes longer than the
+ * <code>slowCallThreshold</code>, counts as a failure. When the failure rate
+ * of the latest <code>windowSize</code> calls reaches the
+ * <code>failureRateThreshold</code> the breaker is opened, which means that no
+ * calls are permitted.
+ * 
+ * An open breaker is probed when the <code>openInterval</code> has passed. If
+ * the probe succeeds the breaker is half open, and the next call decides
+ * whether it is closed or opened again.
+ * 
+ * @since 2.3
+ */
+public class CircuitBreaker {
+
+	public static final int CLOSED = 0;
+
+	public static final int OPEN = 1;
+
+	public static final int HALF_OPEN = 2;
+
+	public static final int DEFAULT_WINDOW_SIZE = 10;
+
+	public static final int DEFAULT_MINIMUM_CALLS = 5;
+
+	public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+
+	public static final long DEFAULT_SLOW_CALL_THRESHOLD = 5000;
+
+	public static final long DEFAULT_OPEN_INTERVAL = 30000;
+
+	private int state = CLOSED;
+
+	/**
+	 * The outcome of the latest calls, <code>true</code> for a failure.
+	 */
+	private boolean[] window = new boolean[DEFAULT_WINDOW_SIZE];
+
+	private int windowIndex;
+
+	private int windowCount;
+
+	private int windowFailures;
+
+	private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+	private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+	private long slowCallThreshold = DEFAULT_SLOW_CALL_THRESHOLD;
+
+	private long openInterval = DEFAULT_OPEN_INTERVAL;
+
+	private long openedAt;
+
+	private long averageLatency;
+
+	private long callCount;
+
+	private long failureCount;
+
+	private int tripCount;
+
+	/**
+	 * Check if a call is permitted, i.e. the breaker is closed or half open.
+	 * 
+	 * @return <code>true</code> if a call is permitted.
+	 */
+	public synchronized boolean isCallPermitted() {
+		return state != OPEN;
+	}
+
+	/**
+	 * Record the outcome of a call.
+	 * 
+	 * @param success
+	 *            <code>true</code> if the call succeeded.
+	 * @param latency
+	 *            the time the call took, in milliseconds.
+	 */
+	public synchronized void record(boolean success, long latency) {
+		boolean failure = !success || latency > slowCallThreshold;
+
+		callCount++;
+		if (failure) {
+			failureCount++;
+		}
+
+		// The average latency is smoothed over the latest 8 calls or so.
+		averageLatency += (latency - averageLatency) / 8;
+
+		if (state == HALF_OPEN) {
+			if (failure) {
+				trip();
+			} else {
+				state = CLOSED;
+				resetWindow();
+			}
+			return;
+		}
+
+		if (windowCount == window.length) {
+			if (window[windowIndex]) {
+				windowFailures--;
+			}
+		} else {
+			windowCount++;
+		}
+
+		window[windowIndex] = failure;
+		if (failure) {
+			windowFailures++;
+		}
+		windowIndex = (windowIndex + 1) % window.length;
+
+		// A full window is enough, even if minimumCalls is larger.
+		if (state == CLOSED
+				&& windowCount >= Math.min(minimumCalls, window.length)
+				&& getFailureRate() >= failureRateThreshold) {
+			trip();
+		}
+	}
+
+	/**
+	 * Open the breaker.
+	 */
+	public synchronized void trip() {
+		state = OPEN;
+		openedAt = System.currentTimeMillis();
+		tripCount++;
+		resetWindow();
+	}
+
+	/**
+	 * Check if the breaker is open and the <code>openInterval</code> has
+	 * passed.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds.
+	 * @return <code>true</code> if the target should be probed.
+	 */
+	public synchronized boolean isProbeDue(long now) {
+		return state == OPEN && now - openedAt >= openInterval;
+	}
+
+	/**
+	 * Get the time left until the target should be probed.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds.
+	 * @return the time left in milliseconds, or -1 if the breaker is not open.
+	 */
+	public synchronized long getTimeToProbe(long now) {
+		if (state != OPEN) {
+			return -1;
+		}
+
+		return Math.max(0, openedAt + openInterval - now);
+	}
+
+	/**
+	 * Report the result of a probe. A successful probe makes the breaker half
+	 * open, a failed probe keeps it open for another <code>openInterval</code>.
+	 * 
+	 * @param success
+	 *            <code>true</code> if the probe succeeded.
+	 */
+	public synchronized void probed(boolean success) {
+		if (state == OPEN) {
+			if (success) {
+				state = HALF_OPEN;
+			} else {
+				openedAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Get the state of the breaker.
+	 * 
+	 * @return <code>CLOSED</code>, <code>OPEN</code> or
+	 *         <code>HALF_OPEN</code>.
+	 */
+	public synchronized int getState() {
+		return state;
+	}
+
+	/**
+	 * Get the failure rate of the calls in the current window.
+	 * 
+	 * @return the failure rate in percent.
+	 */
+	public synchronized int getFailureRate() {
+		if (windowCount == 0) {
+			return 0;
+		}
+
+		return windowFailures * 100 / windowCount;
+	}
+
+	/**
+	 * Get the smoothed average latency of the calls.
+	 * 
+	 * @return the average latency in milliseconds.
+	 */
+	public synchronized long getAverageLatency() {
+		return averageLatency;
+	}
+
+	/**
+	 * Get the total number of calls that has been recorded.
+	 * 
+	 * @return the number of calls.
+	 */
+	public synchronized long getCallCount() {
+		return callCount;
+	}
+
+	/**
+	 * Get the total number of failed or slow calls.
+	 * 
+	 * @return the number of failures.
+	 */
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * Get the number of times the breaker has been opened.
+	 * 
+	 * @return the trip count.
+	 */
+	public synchronized int getTripCount() {
+		return tripCount;
+	}
+
+	/**
+	 * Set the number of calls that the failure rate is calculated from.
+	 * 
+	 * @param windowSize
+	 *            the window size.
+	 * @throws IllegalArgumentException
+	 *             if the <code>windowSize</code> is less than 1.
+	 */
+	public synchronized void setWindowSize(int windowSize)
+			throws IllegalArgumentException {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException(
+					"The windowSize must not be less than 1.");
+		}
+
+		window = new boolean[windowSize];
+		resetWindow();
+	}
+
+	/**
+	 * Set the minimum number of calls in the window before the breaker could
+	 * be opened. A value larger than the <code>windowSize</code> means a full
+	 * window, since the window never holds more calls than that.
+	 * 
+	 * @param minimumCalls
+	 *            the minimum number of calls.
+	 * @throws IllegalArgumentException
+	 *             if the <code>minimumCalls</code> is less than 1.
+	 */
+	public synchronized void setMinimumCalls(int minimumCalls)
+			throws IllegalArgumentException {
+		if (minimumCalls < 1) {
+			throw new IllegalArgumentException(
+					"The minimumCalls must not be less than 1.");
+		}
+
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * Set the failure rate that opens the breaker.
+	 * 
+	 * @param failureRateThreshold
+	 *            the failure rate in percent.
+	 * @throws IllegalArgumentException
+	 *             if the value is not between 1 and 100.
+	 */
+	public synchronized void setFailureRateThreshold(int failureRateThreshold)
+			throws IllegalArgumentException {
+		if (failureRateThreshold < 1 || failureRateThreshold > 100) {
+			throw new IllegalArgumentException(
+					"The failureRateThreshold must be between 1..100");
+		}
+
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Set the latency above which a call counts as a failure.
+	 * 
+	 * @param slowCallThreshold
+	 *            the threshold in milliseconds.
+	 */
+	public synchronized void setSlowCallThreshold(long slowCallThreshold) {
+		this.slowCallThreshold = slowCallThreshold;
+	}
+
+	/**
+	 * Set the time that the breaker is kept open before the target is probed.
+	 * 
+	 * @param openInterval
+	 *            the interval in milliseconds.
+	 */
+	public synchronized void setOpenInterval(long openInterval) {
+		this.openInterval = openInterval;
+	}
+
+	private void resetWindow() {
+		for (int index = 0; index < window.length; index++) {
+			window[index] = false;
+		}
+		windowIndex = 0;
+		windowCount = 0;
+		windowFailures = 0;
+	}
+}
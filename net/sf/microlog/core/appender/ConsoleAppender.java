@@ -18,19 +18,32 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.format.ThrowableRenderer;
 
 /**
  * An appender for the console, i.e. the logs could be appended to System.out
  * (by default). It is possible to re-direct the output to another
  * <code>PrintStream</code>.
  * 
+ * The stack trace of a <code>Throwable</code> is printed with
+ * <code>printStackTrace()</code>, as before, unless the formatter prints the
+ * stack trace itself, see <code>ThrowableRenderer</code>. The
+ * {@value #PRINT_STACK_TRACE_PROPERTY} property could be set to
+ * <code>false</code> to only print the formatted output.
+ * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @since 0.1
  */
 public class ConsoleAppender extends AbstractAppender {
 
+	public static final String PRINT_STACK_TRACE_PROPERTY = "printStackTrace";
+
+	public static final String[] PROPERTY_NAMES = { PRINT_STACK_TRACE_PROPERTY };
+
 	private PrintStream console = System.out;
 
+	private boolean printStackTrace = true;
+
 	public ConsoleAppender() {
 		super();
 	}
@@ -85,14 +98,31 @@ public class ConsoleAppender extends AbstractAppender {
 			console.println(formatter.format(clientID, name, time, level,
 					message, throwable));
 
-			if (throwable != null) {
-				throwable.printStackTrace();
+			if (printStackTrace && throwable != null) {
+				ThrowableRenderer renderer = ThrowableRenderer
+						.getRenderer(formatter);
+				if (renderer == null || !renderer.isStackTrace()) {
+					throwable.printStackTrace();
+				}
 			}
 		} else if (formatter == null) {
 			System.err.println("Please set a formatter.");
 		}
 	}
 
+	/**
+	 * Set whether <code>printStackTrace()</code> is called for each logged
+	 * <code>Throwable</code>, in addition to the formatted output. This is
+	 * the default, but it is not called if the formatter prints the stack
+	 * trace.
+	 * 
+	 * @param printStackTrace
+	 *            <code>true</code> to call <code>printStackTrace()</code>.
+	 */
+	public void setPrintStackTrace(boolean printStackTrace) {
+		this.printStackTrace = printStackTrace;
+	}
+
 	/**
 	 * Do nothing, as this is not applicable for the ConsoleAppender.
 	 * 
@@ -130,4 +160,24 @@ public class ConsoleAppender extends AbstractAppender {
 	public long getLogSize() {
 		return SIZE_UNDEFINED;
 	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.appender.AbstractAppender#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(PRINT_STACK_TRACE_PROPERTY)) {
+			setPrintStackTrace("true".equalsIgnoreCase(value.trim()));
+		}
+	}
 }
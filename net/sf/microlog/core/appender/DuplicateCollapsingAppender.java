@@ -0,0 +1,314 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.appender;
+
+import java.io.IOException;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * The <code>DuplicateCollapsingAppender</code> collapses runs of identical log
+ * entries before they reach the decorated appenders. The first log entry of a
+ * run is logged, the repeats are counted, and when the run ends a single
+ * "Last message repeated N times" line is logged. This is useful in front of
+ * appenders where every line costs bandwidth or money, such as the
+ * <code>SyslogAppender</code>, the <code>DatagramAppender</code> and the
+ * <code>SMSBufferAppender</code>.
+ * 
+ * Two log entries are identical if they have the same logger name, level,
+ * message and exception class. This is checked on the raw log entry, with a
+ * fingerprint of the hash codes, so nothing is formatted. A run ends when a
+ * different log entry is logged, when the {@value #WINDOW_PROPERTY} has passed
+ * since the previous repeat, or when the appender is closed. A background
+ * thread logs the repeats of a run whose window has passed, so the line is
+ * not held back until the next log entry. In a long run, the line is also
+ * logged every {@value #MAX_REPEATS_PROPERTY} repeats.
+ * 
+ * @since 2.3
+ */
+public class DuplicateCollapsingAppender extends AbstractDelegatingAppender
+		implements Runnable {
+
+	public static final String WINDOW_PROPERTY = "window";
+
+	public static final String MAX_REPEATS_PROPERTY = "maxRepeats";
+
+	public static final String[] PROPERTY_NAMES = { WINDOW_PROPERTY,
+			MAX_REPEATS_PROPERTY };
+
+	/**
+	 * The default window in milliseconds.
+	 */
+	public static final long DEFAULT_WINDOW = 30000;
+
+	/**
+	 * The default number of repeats that are counted before they are logged.
+	 */
+	public static final int DEFAULT_MAX_REPEATS = 1000;
+
+	private long window = DEFAULT_WINDOW;
+
+	private int maxRepeats = DEFAULT_MAX_REPEATS;
+
+	private Thread flushThread;
+
+	/**
+	 * The current time when the previous repeat was logged, which the flush
+	 * thread counts the window from.
+	 */
+	private long lastRepeatTime;
+
+	private int lastFingerprint;
+
+	private String lastClientID;
+
+	private String lastName;
+
+	private Level lastLevel;
+
+	private Object lastMessage;
+
+	private Class lastThrowableClass;
+
+	private long lastTime;
+
+	private int repeatCount;
+
+	/**
+	 * Get the window in which a repeat continues a run.
+	 * 
+	 * @return the window in milliseconds.
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set the window in which a repeat continues a run. The window is counted
+	 * from the previous repeat.
+	 * 
+	 * @param window
+	 *            the window in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             if the <code>window</code> is negative.
+	 */
+	public void setWindow(long window) throws IllegalArgumentException {
+		if (window < 0) {
+			throw new IllegalArgumentException(
+					"The window must not be negative.");
+		}
+
+		this.window = window;
+	}
+
+	/**
+	 * Get the number of repeats that are counted before they are logged.
+	 * 
+	 * @return the maximum number of repeats.
+	 */
+	public int getMaxRepeats() {
+		return maxRepeats;
+	}
+
+	/**
+	 * Set the number of repeats that are counted before the
+	 * "Last message repeated N times" line is logged, even if the run goes on.
+	 * 
+	 * @param maxRepeats
+	 *            the maximum number of repeats.
+	 * @throws IllegalArgumentException
+	 *             if <code>maxRepeats</code> is less than 1.
+	 */
+	public void setMaxRepeats(int maxRepeats) throws IllegalArgumentException {
+		if (maxRepeats < 1) {
+			throw new IllegalArgumentException(
+					"The maxRepeats must be at least 1.");
+		}
+
+		this.maxRepeats = maxRepeats;
+	}
+
+	/**
+	 * Open the decorated appenders and start the flush thread.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractDelegatingAppender#open()
+	 */
+	public synchronized void open() throws IOException {
+		if (logOpen) {
+			return;
+		}
+
+		super.open();
+		flushThread = new Thread(this);
+		flushThread.start();
+	}
+
+	/**
+	 * Log the log entry, unless it repeats the previous one.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#doLog(String,
+	 *      String, long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	public synchronized void doLog(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (!logOpen) {
+			return;
+		}
+
+		int fingerprint = fingerprint(name, level, message, t);
+
+		if (lastLevel != null && fingerprint == lastFingerprint
+				&& isRepeat(name, level, message, t)
+				&& time - lastTime <= window) {
+			repeatCount++;
+			lastTime = time;
+			lastRepeatTime = System.currentTimeMillis();
+			if (repeatCount >= maxRepeats) {
+				flushRepeats();
+			} else if (repeatCount == 1) {
+				notifyAll();
+			}
+			return;
+		}
+
+		flushRepeats();
+
+		lastFingerprint = fingerprint;
+		lastClientID = clientID;
+		lastName = name;
+		lastLevel = level;
+		lastMessage = message;
+		lastThrowableClass = t != null ? t.getClass() : null;
+		lastTime = time;
+
+		appendToAll(clientID, name, time, level, message, t);
+	}
+
+	/**
+	 * Log the number of repeats of the current run, and close the decorated
+	 * appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractDelegatingAppender#close()
+	 */
+	public synchronized void close() throws IOException {
+		if (logOpen) {
+			flushRepeats();
+		}
+
+		flushThread = null;
+		notifyAll();
+
+		lastLevel = null;
+		lastMessage = null;
+		super.close();
+	}
+
+	/**
+	 * Log the repeats of the current run when its window has passed. The
+	 * thread ends when the appender is closed.
+	 */
+	public synchronized void run() {
+		Thread thisThread = Thread.currentThread();
+
+		while (flushThread == thisThread) {
+			long waitTime = 0;
+			if (repeatCount > 0) {
+				waitTime = lastRepeatTime + window
+						- System.currentTimeMillis();
+				if (waitTime <= 0) {
+					flushRepeats();
+					lastLevel = null;
+					lastMessage = null;
+					waitTime = 0;
+				}
+			}
+
+			try {
+				wait(waitTime);
+			} catch (InterruptedException e) {
+				// Check the run again
+			}
+		}
+	}
+
+	/**
+	 * Get the number of repeats in the current run.
+	 * 
+	 * @return the number of log entries that have not been logged yet.
+	 */
+	public synchronized int getRepeatCount() {
+		return repeatCount;
+	}
+
+	/**
+	 * Log the "Last message repeated N times" line if there have been repeats.
+	 */
+	private void flushRepeats() {
+		if (repeatCount > 0) {
+			appendToAll(lastClientID, lastName, lastTime, lastLevel,
+					"Last message repeated " + repeatCount + " times", null);
+			repeatCount = 0;
+		}
+	}
+
+	/**
+	 * Check if the log entry repeats the previous one, when the fingerprints
+	 * are equal.
+	 */
+	private boolean isRepeat(String name, Level level, Object message,
+			Throwable t) {
+		return level == lastLevel
+				&& (name == lastName || (name != null && name.equals(lastName)))
+				&& (message == lastMessage || (message != null && message
+						.equals(lastMessage)))
+				&& (t != null ? t.getClass() : null) == lastThrowableClass;
+	}
+
+	/**
+	 * Calculate a fingerprint of the raw log entry. The hash code of a
+	 * <code>String</code> is cached, so this is cheap for the common case.
+	 */
+	private static int fingerprint(String name, Level level, Object message,
+			Throwable t) {
+		int hash = level.toInt();
+		hash = 31 * hash + (name != null ? name.hashCode() : 0);
+		hash = 31 * hash + (message != null ? message.hashCode() : 0);
+		hash = 31 * hash + (t != null ? t.getClass().hashCode() : 0);
+		return hash;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.appender.AbstractAppender#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(WINDOW_PROPERTY)) {
+			setWindow(Long.parseLong(value));
+		} else if (name.equals(MAX_REPEATS_PROPERTY)) {
+			setMaxRepeats(Integer.parseInt(value));
+		}
+	}
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.appender;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MicrologConstants;
+import net.sf.microlog.core.spool.SpoolTarget;
+
+/**
+ * The <code>FailoverAppender</code> logs to the first of an ordered list of
+ * appenders that is available, for example a <code>SocketAppender</code>,
+ * then a <code>HttpAppender</code> and then a <code>FileAppender</code>. An
+ * appender whose threshold or filters do not accept a log entry is passed
+ * over for that entry, without counting as a failure.
+ * 
+ * Each appender has a <code>CircuitBreaker</code> that tracks the failure rate
+ * and the latency. When the breaker is opened, the appender is skipped without
+ * paying for a connection timeout. A background thread probes the appender by
+ * closing and opening it again, and when that succeeds the next log entry is
+ * used as a trial.
+ * 
+ * Appenders that implement <code>SpoolTarget</code>, such as the network
+ * appenders, are called through <code>deliver()</code> with the entry from
+ * their <code>createEntry()</code>, since that reports failures. The entry is
+ * formatted by their own <code>Formatter</code>, or encoded in the binary
+ * format if they use it.
+ * Other appenders are called through <code>doLog()</code>, and only a closed
+ * log or a <code>RuntimeException</code> counts as a failure.
+ * 
+ * The breaker settings are configured with the properties
+ * {@value #FAILURE_RATE_THRESHOLD_PROPERTY},
+ * {@value #SLOW_CALL_THRESHOLD_PROPERTY}, {@value #OPEN_INTERVAL_PROPERTY},
+ * {@value #WINDOW_SIZE_PROPERTY} and {@value #MINIMUM_CALLS_PROPERTY}. The
+ * appenders are set with the <code>appenderRefs</code> property.
+ * 
+ * @since 2.3
+ */
+public class FailoverAppender extends AbstractDelegatingAppender implements
+		Runnable {
+
+	public static final String FAILURE_RATE_THRESHOLD_PROPERTY = "failureRateThreshold";
+
+	public static final String SLOW_CALL_THRESHOLD_PROPERTY = "slowCallThreshold";
+
+	public static final String OPEN_INTERVAL_PROPERTY = "openInterval";
+
+	public static final String WINDOW_SIZE_PROPERTY = "windowSize";
+
+	public static final String MINIMUM_CALLS_PROPERTY = "minimumCalls";
+
+	public static final String[] PROPERTY_NAMES = {
+			FAILURE_RATE_THRESHOLD_PROPERTY, SLOW_CALL_THRESHOLD_PROPERTY,
+			OPEN_INTERVAL_PROPERTY, WINDOW_SIZE_PROPERTY,
+			MINIMUM_CALLS_PROPERTY };
+
+	private final Vector breakerList = new Vector(4);
+
+	private int failureRateThreshold = CircuitBreaker.DEFAULT_FAILURE_RATE_THRESHOLD;
+
+	private long slowCallThreshold = CircuitBreaker.DEFAULT_SLOW_CALL_THRESHOLD;
+
+	private long openInterval = CircuitBreaker.DEFAULT_OPEN_INTERVAL;
+
+	private int windowSize = CircuitBreaker.DEFAULT_WINDOW_SIZE;
+
+	private int minimumCalls = CircuitBreaker.DEFAULT_MINIMUM_CALLS;
+
+	private Thread probeThread;
+
+	private long droppedCount;
+
+	private boolean allFailedReported;
+
+	/**
+	 * Add the appender last, with a <code>CircuitBreaker</code> of its own.
+	 * 
+	 * @see AbstractDelegatingAppender#addAppender(Appender)
+	 */
+	public synchronized void addAppender(Appender appender)
+			throws IllegalArgumentException {
+		int nofAppenders = appenderList.size();
+		super.addAppender(appender);
+
+		if (appenderList.size() > nofAppenders) {
+			breakerList.addElement(createCircuitBreaker());
+		}
+	}
+
+	/**
+	 * @see AbstractDelegatingAppender#removeAppender(Appender)
+	 */
+	public synchronized void removeAppender(Appender appender)
+			throws IllegalArgumentException {
+		int index = appenderList.indexOf(appender);
+		super.removeAppender(appender);
+
+		if (index != -1) {
+			breakerList.removeElementAt(index);
+		}
+	}
+
+	/**
+	 * Get the <code>CircuitBreaker</code> of the specified appender, for
+	 * example to get the failure rate and the latency.
+	 * 
+	 * @param index
+	 *            the index of the appender.
+	 * @return the circuit breaker.
+	 */
+	public synchronized CircuitBreaker getCircuitBreaker(int index) {
+		return (CircuitBreaker) breakerList.elementAt(index);
+	}
+
+	/**
+	 * Get the number of log entries that no appender was able to log.
+	 * 
+	 * @return the number of dropped entries.
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Open the appenders and start the probe thread. An appender that fails
+	 * to open gets its breaker opened.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
+	 */
+	public synchronized void open() throws IOException {
+		if (logOpen) {
+			return;
+		}
+
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			Appender appender = (Appender) appenderList.elementAt(index);
+			try {
+				appender.open();
+			} catch (IOException e) {
+				System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+						+ "Failed to open the failover appender " + appender
+						+ ' ' + e);
+				getCircuitBreaker(index).trip();
+			}
+		}
+
+		logOpen = true;
+		allFailedReported = false;
+		probeThread = new Thread(this);
+		probeThread.start();
+	}
+
+	/**
+	 * Stop the probe thread and close the appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractDelegatingAppender#close()
+	 */
+	public synchronized void close() throws IOException {
+		probeThread = null;
+		notifyAll();
+
+		super.close();
+	}
+
+	/**
+	 * Log to the first appender that accepts the log entry, has a closed or
+	 * half open breaker and succeeds. The entry is only dropped if an
+	 * appender that accepts it has failed.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#doLog(String,
+	 *      String, long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	public synchronized void doLog(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (!logOpen) {
+			return;
+		}
+
+		boolean accepted = false;
+		int nofAppenders = appenderList.size();
+		for (int index = 0; index < nofAppenders; index++) {
+			Appender appender = (Appender) appenderList.elementAt(index);
+			if (!isAccepted(appender, clientID, name, time, level, message,
+					t)) {
+				continue;
+			}
+
+			accepted = true;
+			CircuitBreaker breaker = (CircuitBreaker) breakerList
+					.elementAt(index);
+
+			if (breaker.isCallPermitted()) {
+				long startTime = System.currentTimeMillis();
+				boolean success = append(appender, clientID, name, time, level,
+						message, t);
+				breaker.record(success, System.currentTimeMillis() - startTime);
+
+				if (breaker.getState() == CircuitBreaker.OPEN) {
+					// Wake up the probe thread to schedule the probe.
+					notifyAll();
+				}
+
+				if (success) {
+					allFailedReported = false;
+					return;
+				}
+			}
+		}
+
+		if (!accepted) {
+			return;
+		}
+
+		droppedCount++;
+		if (!allFailedReported) {
+			allFailedReported = true;
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "No failover appender is available, dropping log entries");
+		}
+	}
+
+	private boolean append(Appender appender, String clientID, String name,
+			long time, Level level, Object message, Throwable t) {
+		if (!appender.isLogOpen()) {
+			return false;
+		}
+
+		try {
+			if (appender instanceof SpoolTarget) {
+				SpoolTarget target = (SpoolTarget) appender;
+				String entry = target.createEntry(clientID, name, time, level,
+						message, t);
+				if (entry != null) {
+					target.deliver(entry);
+				}
+			} else {
+				appender.doLog(clientID, name, time, level, message, t);
+			}
+
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Probe the appenders that have an open breaker, when their
+	 * <code>openInterval</code> has passed. The thread ends when the appender
+	 * is closed.
+	 */
+	public void run() {
+		Thread thisThread = Thread.currentThread();
+
+		while (true) {
+			Appender probeAppender = null;
+			CircuitBreaker probeBreaker = null;
+
+			synchronized (this) {
+				if (probeThread != thisThread) {
+					return;
+				}
+
+				long now = System.currentTimeMillis();
+				long waitTime = 0;
+
+				int nofAppenders = appenderList.size();
+				for (int index = 0; index < nofAppenders
+						&& probeBreaker == null; index++) {
+					CircuitBreaker breaker = (CircuitBreaker) breakerList
+							.elementAt(index);
+					long timeToProbe = breaker.getTimeToProbe(now);
+
+					if (timeToProbe == 0) {
+						probeAppender = (Appender) appenderList
+								.elementAt(index);
+						probeBreaker = breaker;
+					} else if (timeToProbe > 0
+							&& (waitTime == 0 || timeToProbe < waitTime)) {
+						waitTime = timeToProbe;
+					}
+				}
+
+				if (probeBreaker == null) {
+					try {
+						wait(waitTime);
+					} catch (InterruptedException e) {
+						// Check the breakers again
+					}
+					continue;
+				}
+			}
+
+			// The probe could block on a connection timeout, which is why it
+			// is done without holding the lock.
+			boolean success = true;
+			try {
+				probeAppender.close();
+				probeAppender.open();
+			} catch (IOException e) {
+				success = false;
+			}
+
+			synchronized (this) {
+				if (probeThread != thisThread) {
+					// The failover appender was closed during the probe,
+					// which could have opened the appender again.
+					if (!logOpen) {
+						try {
+							probeAppender.close();
+						} catch (IOException e) {
+							// The appender is closed anyway.
+						}
+					}
+					return;
+				}
+
+				probeBreaker.probed(success && probeAppender.isLogOpen());
+			}
+		}
+	}
+
+	/**
+	 * @see Appender#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see Appender#setProperty(String, String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(FAILURE_RATE_THRESHOLD_PROPERTY)) {
+			setFailureRateThreshold(Integer.parseInt(value));
+		} else if (name.equals(SLOW_CALL_THRESHOLD_PROPERTY)) {
+			setSlowCallThreshold(Long.parseLong(value));
+		} else if (name.equals(OPEN_INTERVAL_PROPERTY)) {
+			setOpenInterval(Long.parseLong(value));
+		} else if (name.equals(WINDOW_SIZE_PROPERTY)) {
+			setWindowSize(Integer.parseInt(value));
+		} else if (name.equals(MINIMUM_CALLS_PROPERTY)) {
+			setMinimumCalls(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Set the failure rate that opens a breaker.
+	 * 
+	 * @param failureRateThreshold
+	 *            the failure rate in percent.
+	 * @see CircuitBreaker#setFailureRateThreshold(int)
+	 */
+	public synchronized void setFailureRateThreshold(int failureRateThreshold)
+			throws IllegalArgumentException {
+		int nofBreakers = breakerList.size();
+		for (int index = 0; index < nofBreakers; index++) {
+			getCircuitBreaker(index).setFailureRateThreshold(
+					failureRateThreshold);
+		}
+
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Set the latency above which a call counts as a failure.
+	 * 
+	 * @param slowCallThreshold
+	 *            the threshold in milliseconds.
+	 */
+	public synchronized void setSlowCallThreshold(long slowCallThreshold) {
+		int nofBreakers = breakerList.size();
+		for (int index = 0; index < nofBreakers; index++) {
+			getCircuitBreaker(index).setSlowCallThreshold(slowCallThreshold);
+		}
+
+		this.slowCallThreshold = slowCallThreshold;
+	}
+
+	/**
+	 * Set the time that a breaker is kept open before the appender is probed.
+	 * 
+	 * @param openInterval
+	 *            the interval in milliseconds.
+	 */
+	public synchronized void setOpenInterval(long openInterval) {
+		int nofBreakers = breakerList.size();
+		for (int index = 0; index < nofBreakers; index++) {
+			getCircuitBreaker(index).setOpenInterval(openInterval);
+		}
+
+		this.openInterval = openInterval;
+	}
+
+	/**
+	 * Set the number of calls that the failure rate is calculated from.
+	 * 
+	 * @param windowSize
+	 *            the window size.
+	 * @see CircuitBreaker#setWindowSize(int)
+	 */
+	public synchronized void setWindowSize(int windowSize)
+			throws IllegalArgumentException {
+		int nofBreakers = breakerList.size();
+		for (int index = 0; index < nofBreakers; index++) {
+			getCircuitBreaker(index).setWindowSize(windowSize);
+		}
+
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Set the minimum number of calls before a breaker could be opened.
+	 * 
+	 * @param minimumCalls
+	 *            the minimum number of calls.
+	 * @see CircuitBreaker#setMinimumCalls(int)
+	 */
+	public synchronized void setMinimumCalls(int minimumCalls)
+			throws IllegalArgumentException {
+		if (minimumCalls < 1) {
+			throw new IllegalArgumentException(
+					"The minimumCalls must not be less than 1.");
+		}
+
+		int nofBreakers = breakerList.size();
+		for (int index = 0; index < nofBreakers; index++) {
+			getCircuitBreaker(index).setMinimumCalls(minimumCalls);
+		}
+
+		this.minimumCalls = minimumCalls;
+	}
+
+	private CircuitBreaker createCircuitBreaker() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setFailureRateThreshold(failureRateThreshold);
+		breaker.setSlowCallThreshold(slowCallThreshold);
+		breaker.setOpenInterval(openInterval);
+		breaker.setWindowSize(windowSize);
+		breaker.setMinimumCalls(minimumCalls);
+		return breaker;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.appender;
+
+import java.io.IOException;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.CyclicBuffer;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.LoggingEvent;
+import net.sf.microlog.core.ThreadTable;
+
+/**
+ * The <code>TriggeredBufferAppender</code> keeps the latest log entries below
+ * the trigger level in a small ring per thread, and logs them to the decorated
+ * appenders only when the same thread logs at or above the trigger level. This
+ * gives the full debug context of a failing operation, while the operations
+ * that succeed cost little more than keeping a reference to each log entry.
+ * 
+ * The log entries are kept raw, as <code>LoggingEvent</code> objects, and
+ * are only formatted by the decorated appenders if they are triggered. The
+ * trigger level is set with the {@value #TRIGGER_LEVEL_PROPERTY} property and
+ * the size of each ring with the {@value #BUFFER_SIZE_PROPERTY} property.
+ * 
+ * Java ME has no thread local variables, so the rings are kept in a
+ * <code>ThreadTable</code>, like the contexts of the <code>MDC</code>. The
+ * rings of threads that have ended are removed when a new ring is created.
+ * 
+ * @since 2.3
+ */
+public class TriggeredBufferAppender extends AbstractDelegatingAppender {
+
+	public static final String TRIGGER_LEVEL_PROPERTY = "triggerLevel";
+
+	public static final String BUFFER_SIZE_PROPERTY = "bufferSize";
+
+	public static final String[] PROPERTY_NAMES = { TRIGGER_LEVEL_PROPERTY,
+			BUFFER_SIZE_PROPERTY };
+
+	public static final int DEFAULT_BUFFER_SIZE = 32;
+
+	private Level triggerLevel = Level.ERROR;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * The rings of the threads, by thread.
+	 */
+	private final ThreadTable bufferMap = new ThreadTable();
+
+	/**
+	 * Get the trigger level.
+	 * 
+	 * @return the level that triggers the logging of the buffered log entries.
+	 */
+	public Level getTriggerLevel() {
+		return triggerLevel;
+	}
+
+	/**
+	 * Set the trigger level.
+	 * 
+	 * @param triggerLevel
+	 *            the level that triggers the logging of the buffered log
+	 *            entries.
+	 * @throws IllegalArgumentException
+	 *             if the <code>triggerLevel</code> is <code>null</code>.
+	 */
+	public void setTriggerLevel(Level triggerLevel)
+			throws IllegalArgumentException {
+		if (triggerLevel == null) {
+			throw new IllegalArgumentException(
+					"The triggerLevel must not be null.");
+		}
+
+		this.triggerLevel = triggerLevel;
+	}
+
+	/**
+	 * Get the number of log entries that are kept for each thread.
+	 * 
+	 * @return the size of each ring.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Set the number of log entries that are kept for each thread. This is
+	 * used for the rings that are created after the call.
+	 * 
+	 * @param bufferSize
+	 *            the size of each ring.
+	 * @throws IllegalArgumentException
+	 *             if the <code>bufferSize</code> is less than 1.
+	 */
+	public void setBufferSize(int bufferSize) throws IllegalArgumentException {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException(
+					"The bufferSize must not be less than 1.");
+		}
+
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Keep the log entry in the ring of the logging thread if it is below the
+	 * trigger level. Otherwise the ring is logged, oldest first, followed by
+	 * the log entry.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#doLog(String,
+	 *      String, long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	public synchronized void doLog(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (!logOpen) {
+			return;
+		}
+
+		// In the parallel dispatch mode this is the thread that called the
+		// Logger, not the dispatcher thread.
+		Thread thread = AppenderDispatcher.getEventThread();
+		CyclicBuffer buffer = (CyclicBuffer) bufferMap.get(thread);
+
+		if (level.toInt() < triggerLevel.toInt()) {
+			if (buffer == null) {
+				buffer = new CyclicBuffer(bufferSize);
+				bufferMap.put(thread, buffer);
+			}
+			// In the parallel dispatch mode the event of the Logger holds the
+			// contexts and the location of the logging thread.
+			LoggingEvent event = AppenderDispatcher.getCurrentEvent();
+			if (event == null
+					|| !event.isSameEvent(clientID, name, time, level, message,
+							t)) {
+				event = new LoggingEvent(clientID, name, time, level, message,
+						t);
+			}
+			buffer.add(event);
+		} else {
+			if (buffer != null) {
+				LoggingEvent event = (LoggingEvent) buffer.get();
+				while (event != null) {
+					// The formatters print the time and the context of the
+					// buffered log entry, not the ones of the trigger.
+					LoggingEvent previousEvent = AppenderDispatcher
+							.setCurrentEvent(event);
+					try {
+						appendToAll(event.getClientID(), event.getName(),
+								event.getTime(), event.getLevel(), event
+										.getMessage(), event.getThrowable());
+					} finally {
+						AppenderDispatcher.setCurrentEvent(previousEvent);
+					}
+					event = (LoggingEvent) buffer.get();
+				}
+			}
+
+			appendToAll(clientID, name, time, level, message, t);
+		}
+	}
+
+	/**
+	 * Drop the buffered log entries and close the decorated appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractDelegatingAppender#close()
+	 */
+	public synchronized void close() throws IOException {
+		bufferMap.clear();
+		super.close();
+	}
+
+	/**
+	 * Drop the buffered log entries and clear the decorated appenders.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractDelegatingAppender#clear()
+	 */
+	public synchronized void clear() {
+		bufferMap.clear();
+		super.clear();
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.appender.AbstractAppender#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(TRIGGER_LEVEL_PROPERTY)) {
+			setTriggerLevel(stringToLevel(value));
+		} else if (name.equals(BUFFER_SIZE_PROPERTY)) {
+			setBufferSize(Integer.parseInt(value.trim()));
+		}
+	}
+
+	private static Level stringToLevel(String levelString)
+			throws IllegalArgumentException {
+		Level level = Level.toLevel(levelString);
+		if (level == null) {
+			throw new IllegalArgumentException(levelString
+					+ " is not a valid level.");
+		}
+
+		return level;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import java.util.Vector;
+
+import net.sf.microlog.core.Filter;
+import net.sf.microlog.core.Level;
+
+/**
+ * This is the abstract super class of the filters that check a condition. The
+ * <code>onMatch</code> and <code>onMismatch</code> properties decide what
+ * the filter returns when the condition is met or not. By default a match is
+ * accepted and a mismatch is denied.
+ * 
+ * @since 2.3
+ */
+public abstract class AbstractFilter implements Filter {
+
+	public static final String ON_MATCH_PROPERTY = "onMatch";
+
+	public static final String ON_MISMATCH_PROPERTY = "onMismatch";
+
+	public static final String ACCEPT_STRING = "ACCEPT";
+
+	public static final String NEUTRAL_STRING = "NEUTRAL";
+
+	public static final String DENY_STRING = "DENY";
+
+	/**
+	 * The separator between the values in a list property.
+	 */
+	public static final String LIST_DELIMITER = ";";
+
+	protected int onMatch = ACCEPT;
+
+	protected int onMismatch = DENY;
+
+	/**
+	 * Decide by checking if the log entry matches the condition of the
+	 * filter.
+	 * 
+	 * @see net.sf.microlog.core.Filter#decide(String, String, long,
+	 *      net.sf.microlog.core.Level, java.lang.Object, java.lang.Throwable)
+	 */
+	public int decide(String clientID, String name, long time, Level level,
+			Object message, Throwable t) {
+		if (matches(clientID, name, time, level, message, t)) {
+			return onMatch;
+		}
+
+		return onMismatch;
+	}
+
+	/**
+	 * Check if the log entry matches the condition of the filter.
+	 * 
+	 * @return <code>true</code> if the log entry matches.
+	 */
+	protected abstract boolean matches(String clientID, String name,
+			long time, Level level, Object message, Throwable t);
+
+	/**
+	 * @return the decision on a match.
+	 */
+	public int getOnMatch() {
+		return onMatch;
+	}
+
+	/**
+	 * @param onMatch
+	 *            the decision on a match.
+	 */
+	public void setOnMatch(int onMatch) {
+		this.onMatch = onMatch;
+	}
+
+	/**
+	 * @return the decision on a mismatch.
+	 */
+	public int getOnMismatch() {
+		return onMismatch;
+	}
+
+	/**
+	 * @param onMismatch
+	 *            the decision on a mismatch.
+	 */
+	public void setOnMismatch(int onMismatch) {
+		this.onMismatch = onMismatch;
+	}
+
+	/**
+	 * Set the <code>onMatch</code> or <code>onMismatch</code> property. The
+	 * subclasses handle their own properties and call this for the others.
+	 * 
+	 * @see net.sf.microlog.core.Filter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		if (name == null || value == null) {
+			throw new IllegalArgumentException(
+					"Name and value must not be null");
+		}
+
+		if (name.equals(ON_MATCH_PROPERTY)) {
+			onMatch = stringToDecision(value);
+		} else if (name.equals(ON_MISMATCH_PROPERTY)) {
+			onMismatch = stringToDecision(value);
+		}
+	}
+
+	/**
+	 * Convert "ACCEPT", "NEUTRAL" or "DENY" to a decision.
+	 * 
+	 * @param value
+	 *            the <code>String</code> to convert.
+	 * @return the decision.
+	 * @throws IllegalArgumentException
+	 *             if the <code>value</code> is not a decision.
+	 */
+	protected static int stringToDecision(String value)
+			throws IllegalArgumentException {
+		String trimmedValue = value.trim();
+
+		if (trimmedValue.equalsIgnoreCase(ACCEPT_STRING)) {
+			return ACCEPT;
+		} else if (trimmedValue.equalsIgnoreCase(NEUTRAL_STRING)) {
+			return NEUTRAL;
+		} else if (trimmedValue.equalsIgnoreCase(DENY_STRING)) {
+			return DENY;
+		}
+
+		throw new IllegalArgumentException(value + " is not a valid decision.");
+	}
+
+	/**
+	 * Split a list property into its trimmed, non-empty values.
+	 * 
+	 * @param value
+	 *            the list, with the values separated by ';'.
+	 * @return the values.
+	 */
+	protected static String[] splitList(String value) {
+		Vector values = new Vector(4);
+
+		int beginIndex = 0;
+		while (beginIndex < value.length()) {
+			int endIndex = value.indexOf(LIST_DELIMITER, beginIndex);
+			if (endIndex == -1) {
+				endIndex = value.length();
+			}
+
+			String item = value.substring(beginIndex, endIndex).trim();
+			if (item.length() > 0) {
+				values.addElement(item);
+			}
+
+			beginIndex = endIndex + 1;
+		}
+
+		String[] valueArray = new String[values.size()];
+		values.copyInto(valueArray);
+		return valueArray;
+	}
+}
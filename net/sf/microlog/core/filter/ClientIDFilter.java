@@ -0,0 +1,85 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import java.util.Hashtable;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A filter that matches the client ID against a list of client IDs, for
+ * example <code>clientIDs=phone1;phone2</code>.
+ * 
+ * @since 2.3
+ */
+public class ClientIDFilter extends AbstractFilter {
+
+	public static final String CLIENT_IDS_PROPERTY = "clientIDs";
+
+	public static final String[] PROPERTY_NAMES = { CLIENT_IDS_PROPERTY,
+			ON_MATCH_PROPERTY, ON_MISMATCH_PROPERTY };
+
+	private final Hashtable clientIDs = new Hashtable(7);
+
+	/**
+	 * Add a client ID to match.
+	 * 
+	 * @param clientID
+	 *            the client ID.
+	 * @throws IllegalArgumentException
+	 *             if the <code>clientID</code> is <code>null</code>.
+	 */
+	public void addClientID(String clientID) throws IllegalArgumentException {
+		if (clientID == null) {
+			throw new IllegalArgumentException(
+					"The clientID must not be null.");
+		}
+
+		clientIDs.put(clientID, clientID);
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#matches(String, String,
+	 *      long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	protected boolean matches(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		return clientID != null && clientIDs.containsKey(clientID);
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Filter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(CLIENT_IDS_PROPERTY)) {
+			String[] values = splitList(value);
+			for (int index = 0; index < values.length; index++) {
+				addClientID(values[index]);
+			}
+		}
+	}
+}
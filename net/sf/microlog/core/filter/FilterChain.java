@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import net.sf.microlog.core.Filter;
+import net.sf.microlog.core.Level;
+
+/**
+ * The ordered <code>Filter</code> objects of an appender. The filters are
+ * kept in an array that is replaced when a filter is added or removed, so that
+ * the filters could be called without locking while another thread changes
+ * them.
+ * 
+ * @since 2.3
+ */
+public final class FilterChain {
+
+	private static final Filter[] NO_FILTERS = new Filter[0];
+
+	private Filter[] filters = NO_FILTERS;
+
+	/**
+	 * Add a filter to the end of the chain.
+	 * 
+	 * @param filter
+	 *            the <code>Filter</code> to add.
+	 * @throws IllegalArgumentException
+	 *             if the <code>filter</code> is <code>null</code>.
+	 */
+	public synchronized void addFilter(Filter filter)
+			throws IllegalArgumentException {
+		if (filter == null) {
+			throw new IllegalArgumentException("The filter must not be null.");
+		}
+
+		Filter[] newFilters = new Filter[filters.length + 1];
+		System.arraycopy(filters, 0, newFilters, 0, filters.length);
+		newFilters[filters.length] = filter;
+		filters = newFilters;
+	}
+
+	/**
+	 * Remove the specified filter from the chain.
+	 * 
+	 * @param filter
+	 *            the <code>Filter</code> to remove.
+	 */
+	public synchronized void removeFilter(Filter filter) {
+		for (int index = 0; index < filters.length; index++) {
+			if (filters[index] == filter) {
+				Filter[] newFilters = new Filter[filters.length - 1];
+				System.arraycopy(filters, 0, newFilters, 0, index);
+				System.arraycopy(filters, index + 1, newFilters, index,
+						newFilters.length - index);
+				filters = newFilters;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the filters.
+	 */
+	public synchronized void clearFilters() {
+		filters = NO_FILTERS;
+	}
+
+	/**
+	 * Get the number of filters.
+	 * 
+	 * @return the number of filters.
+	 */
+	public int getNumberOfFilters() {
+		return filters.length;
+	}
+
+	/**
+	 * Get the specified filter, starting at index = 0.
+	 * 
+	 * @param index
+	 *            the index of the filter.
+	 * @return the filter.
+	 */
+	public Filter getFilter(int index) {
+		return filters[index];
+	}
+
+	/**
+	 * Ask the filters if the log entry shall be logged. The first filter that
+	 * does not return <code>Filter.NEUTRAL</code> decides.
+	 * 
+	 * @return <code>true</code> if the log entry shall be logged.
+	 */
+	public boolean isLoggable(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		Filter[] currentFilters = filters;
+
+		for (int index = 0; index < currentFilters.length; index++) {
+			int decision = currentFilters[index].decide(clientID, name, time,
+					level, message, t);
+			if (decision != Filter.NEUTRAL) {
+				return decision == Filter.ACCEPT;
+			}
+		}
+
+		return true;
+	}
+}
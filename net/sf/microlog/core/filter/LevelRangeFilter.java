@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A filter that matches the levels from <code>levelMin</code> to
+ * <code>levelMax</code>, both included. By default all levels are matched.
+ * 
+ * @since 2.3
+ */
+public class LevelRangeFilter extends AbstractFilter {
+
+	public static final String LEVEL_MIN_PROPERTY = "levelMin";
+
+	public static final String LEVEL_MAX_PROPERTY = "levelMax";
+
+	public static final String[] PROPERTY_NAMES = { LEVEL_MIN_PROPERTY,
+			LEVEL_MAX_PROPERTY, ON_MATCH_PROPERTY, ON_MISMATCH_PROPERTY };
+
+	private Level levelMin = Level.TRACE;
+
+	private Level levelMax = Level.FATAL;
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#matches(String, String,
+	 *      long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	protected boolean matches(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		int levelValue = level.toInt();
+		return levelMin.toInt() <= levelValue && levelValue <= levelMax.toInt();
+	}
+
+	/**
+	 * @return the lowest level that is matched.
+	 */
+	public Level getLevelMin() {
+		return levelMin;
+	}
+
+	/**
+	 * @param levelMin
+	 *            the lowest level to match.
+	 * @throws IllegalArgumentException
+	 *             if the <code>levelMin</code> is <code>null</code>.
+	 */
+	public void setLevelMin(Level levelMin) throws IllegalArgumentException {
+		if (levelMin == null) {
+			throw new IllegalArgumentException(
+					"The levelMin must not be null.");
+		}
+
+		this.levelMin = levelMin;
+	}
+
+	/**
+	 * @return the highest level that is matched.
+	 */
+	public Level getLevelMax() {
+		return levelMax;
+	}
+
+	/**
+	 * @param levelMax
+	 *            the highest level to match.
+	 * @throws IllegalArgumentException
+	 *             if the <code>levelMax</code> is <code>null</code>.
+	 */
+	public void setLevelMax(Level levelMax) throws IllegalArgumentException {
+		if (levelMax == null) {
+			throw new IllegalArgumentException(
+					"The levelMax must not be null.");
+		}
+
+		this.levelMax = levelMax;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Filter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(LEVEL_MIN_PROPERTY)) {
+			setLevelMin(stringToLevel(value));
+		} else if (name.equals(LEVEL_MAX_PROPERTY)) {
+			setLevelMax(stringToLevel(value));
+		}
+	}
+
+	/**
+	 * Convert a <code>String</code> to a <code>Level</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the <code>String</code> is not a level.
+	 */
+	private static Level stringToLevel(String levelString)
+			throws IllegalArgumentException {
+		Level level = Level.toLevel(levelString);
+		if (level == null) {
+			throw new IllegalArgumentException(levelString
+					+ " is not a valid level.");
+		}
+
+		return level;
+	}
+}
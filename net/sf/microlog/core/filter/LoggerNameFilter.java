@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A filter that matches the logger name against a list of prefixes, for
+ * example <code>prefixes=com.acme.net;com.acme.ui</code>. The prefixes are
+ * kept in a <code>PrefixTrie</code>, which means that the check is one walk
+ * over the logger name even with hundreds of prefixes.
+ * 
+ * @see PrefixTrie
+ * @since 2.3
+ */
+public class LoggerNameFilter extends AbstractFilter {
+
+	public static final String PREFIXES_PROPERTY = "prefixes";
+
+	public static final String[] PROPERTY_NAMES = { PREFIXES_PROPERTY,
+			ON_MATCH_PROPERTY, ON_MISMATCH_PROPERTY };
+
+	private final PrefixTrie prefixTrie = new PrefixTrie();
+
+	/**
+	 * Add a logger name prefix.
+	 * 
+	 * @param prefix
+	 *            the prefix to add.
+	 * @throws IllegalArgumentException
+	 *             if the <code>prefix</code> is <code>null</code>.
+	 */
+	public void addPrefix(String prefix) throws IllegalArgumentException {
+		prefixTrie.add(prefix);
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#matches(String, String,
+	 *      long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	protected boolean matches(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		return prefixTrie.matches(name);
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Filter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(PREFIXES_PROPERTY)) {
+			String[] prefixes = splitList(value);
+			for (int index = 0; index < prefixes.length; index++) {
+				prefixTrie.add(prefixes[index]);
+			}
+		}
+	}
+}
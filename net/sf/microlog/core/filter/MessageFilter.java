@@ -0,0 +1,144 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A filter that matches the message against a wildcard pattern, where '*'
+ * matches any sequence of characters and '?' matches one character. For
+ * example <code>pattern=*timeout*</code> matches all messages that contain
+ * "timeout". The message is converted with <code>toString()</code> only if
+ * the filter is reached, i.e. before and instead of the formatting.
+ * 
+ * Java ME has no regular expressions, which is why wildcards are used.
+ * 
+ * @since 2.3
+ */
+public class MessageFilter extends AbstractFilter {
+
+	public static final String PATTERN_PROPERTY = "pattern";
+
+	public static final String[] PROPERTY_NAMES = { PATTERN_PROPERTY,
+			ON_MATCH_PROPERTY, ON_MISMATCH_PROPERTY };
+
+	private String pattern = "*";
+
+	/**
+	 * @return the wildcard pattern.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @param pattern
+	 *            the wildcard pattern to match the messages against.
+	 * @throws IllegalArgumentException
+	 *             if the <code>pattern</code> is <code>null</code>.
+	 */
+	public void setPattern(String pattern) throws IllegalArgumentException {
+		if (pattern == null) {
+			throw new IllegalArgumentException("The pattern must not be null.");
+		}
+
+		this.pattern = pattern;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#matches(String, String,
+	 *      long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	protected boolean matches(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (message == null) {
+			return false;
+		}
+
+		return matchesWildcard(pattern, message.toString());
+	}
+
+	/**
+	 * Match the text against a wildcard pattern. This backtracks to the last
+	 * '*' on a mismatch, which does not need recursion.
+	 * 
+	 * @param pattern
+	 *            the pattern with '*' and '?' wildcards.
+	 * @param text
+	 *            the text to match.
+	 * @return <code>true</code> if the whole text matches.
+	 */
+	public static boolean matchesWildcard(String pattern, String text) {
+		int patternIndex = 0;
+		int textIndex = 0;
+		int starIndex = -1;
+		int starTextIndex = 0;
+		int patternLength = pattern.length();
+		int textLength = text.length();
+
+		while (textIndex < textLength) {
+			if (patternIndex < patternLength) {
+				char p = pattern.charAt(patternIndex);
+
+				if (p == '*') {
+					starIndex = patternIndex++;
+					starTextIndex = textIndex;
+					continue;
+				}
+
+				if (p == '?' || p == text.charAt(textIndex)) {
+					patternIndex++;
+					textIndex++;
+					continue;
+				}
+			}
+
+			if (starIndex == -1) {
+				return false;
+			}
+
+			patternIndex = starIndex + 1;
+			textIndex = ++starTextIndex;
+		}
+
+		while (patternIndex < patternLength
+				&& pattern.charAt(patternIndex) == '*') {
+			patternIndex++;
+		}
+
+		return patternIndex == patternLength;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Filter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.filter.AbstractFilter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(PATTERN_PROPERTY)) {
+			setPattern(value);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.filter;
+
+/**
+ * A trie of logger name prefixes. Checking a logger name against all the
+ * prefixes is one walk over the characters of the name, no matter how many
+ * prefixes there are.
+ * 
+ * A prefix matches a logger name that is equal to the prefix or is below it
+ * in the hierarchy, i.e. the prefix "com.acme" matches "com.acme" and
+ * "com.acme.net" but not "com.acmeweb". The empty prefix matches all names.
+ * 
+ * The prefixes should be added before the trie is used for matching.
+ * 
+ * @since 2.3
+ */
+public final class PrefixTrie {
+
+	private static final char[] NO_KEYS = new char[0];
+
+	private static final PrefixTrie[] NO_CHILDREN = new PrefixTrie[0];
+
+	/**
+	 * The characters of the children, sorted.
+	 */
+	private char[] keys = NO_KEYS;
+
+	private PrefixTrie[] children = NO_CHILDREN;
+
+	/**
+	 * Set if a prefix ends at this node.
+	 */
+	private boolean prefixEnd;
+
+	/**
+	 * Add a prefix to the trie. Trailing dots are ignored.
+	 * 
+	 * @param prefix
+	 *            the prefix to add.
+	 * @throws IllegalArgumentException
+	 *             if the <code>prefix</code> is <code>null</code>.
+	 */
+	public synchronized void add(String prefix) throws IllegalArgumentException {
+		if (prefix == null) {
+			throw new IllegalArgumentException("The prefix must not be null.");
+		}
+
+		int length = prefix.length();
+		while (length > 0 && prefix.charAt(length - 1) == '.') {
+			length--;
+		}
+
+		PrefixTrie node = this;
+		for (int index = 0; index < length; index++) {
+			node = node.getOrAddChild(prefix.charAt(index));
+		}
+		node.prefixEnd = true;
+	}
+
+	/**
+	 * Check if the logger name is matched by any of the prefixes.
+	 * 
+	 * @param name
+	 *            the logger name to check.
+	 * @return <code>true</code> if a prefix matches.
+	 */
+	public boolean matches(String name) {
+		if (name == null) {
+			return prefixEnd;
+		}
+
+		PrefixTrie node = this;
+		int length = name.length();
+
+		for (int index = 0; index < length; index++) {
+			char c = name.charAt(index);
+			if (node.prefixEnd && (index == 0 || c == '.')) {
+				return true;
+			}
+
+			node = node.getChild(c);
+			if (node == null) {
+				return false;
+			}
+		}
+
+		return node.prefixEnd;
+	}
+
+	/**
+	 * Check if there are no prefixes in the trie.
+	 * 
+	 * @return <code>true</code> if the trie is empty.
+	 */
+	public boolean isEmpty() {
+		return !prefixEnd && keys.length == 0;
+	}
+
+	private PrefixTrie getChild(char c) {
+		int index = indexOf(c);
+		return index >= 0 ? children[index] : null;
+	}
+
+	private PrefixTrie getOrAddChild(char c) {
+		int index = indexOf(c);
+		if (index >= 0) {
+			return children[index];
+		}
+
+		int insertIndex = -(index + 1);
+		char[] newKeys = new char[keys.length + 1];
+		PrefixTrie[] newChildren = new PrefixTrie[keys.length + 1];
+		System.arraycopy(keys, 0, newKeys, 0, insertIndex);
+		System.arraycopy(children, 0, newChildren, 0, insertIndex);
+		System.arraycopy(keys, insertIndex, newKeys, insertIndex + 1,
+				keys.length - insertIndex);
+		System.arraycopy(children, insertIndex, newChildren, insertIndex + 1,
+				keys.length - insertIndex);
+
+		PrefixTrie child = new PrefixTrie();
+		newKeys[insertIndex] = c;
+		newChildren[insertIndex] = child;
+
+		children = newChildren;
+		keys = newKeys;
+
+		return child;
+	}
+
+	/**
+	 * Binary search for the character among the keys.
+	 * 
+	 * @return the index, or (-(insertion point) - 1) if it is not found.
+	 */
+	private int indexOf(char c) {
+		int low = 0;
+		int high = keys.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char key = keys[middle];
+
+			if (key < c) {
+				low = middle + 1;
+			} else if (key > c) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import net.sf.microlog.core.ContextMap;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.LoggingEvent;
+
+/**
+ * A log entry that has been decoded by a <code>BinaryEventDecoder</code>. A
+ * TEXT record, which was formatted on the client, only has a message.
+ * 
+ * @since 2.3
+ */
+public final class BinaryEvent {
+
+	private final boolean text;
+
+	private final String clientID;
+
+	private final String name;
+
+	private final String threadName;
+
+	private final long time;
+
+	private final Level level;
+
+	private final Object message;
+
+	private final String throwable;
+
+	private final ContextMap contextMap;
+
+	private final String nestedContext;
+
+	BinaryEvent(boolean text, String clientID, String name, String threadName,
+			long time, Level level, Object message, String throwable,
+			ContextMap contextMap, String nestedContext) {
+		this.text = text;
+		this.clientID = clientID;
+		this.name = name;
+		this.threadName = threadName;
+		this.time = time;
+		this.level = level;
+		this.message = message;
+		this.throwable = throwable;
+		this.contextMap = contextMap;
+		this.nestedContext = nestedContext;
+	}
+
+	/**
+	 * Create a log entry for a line that was formatted on the client, e.g. a
+	 * line that a server has read from a text stream.
+	 * 
+	 * @param line
+	 *            the formatted line.
+	 * @return the created log entry.
+	 */
+	public static BinaryEvent createTextEvent(String line) {
+		return new BinaryEvent(true, null, null, null, 0, null, line, null,
+				ContextMap.EMPTY, null);
+	}
+
+	/**
+	 * @return <code>true</code> if this is a line that was formatted on the
+	 *         client.
+	 */
+	public boolean isText() {
+		return text;
+	}
+
+	/**
+	 * @return the clientID
+	 */
+	public String getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * @return the name of the logger.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the name of the logging thread.
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * @return the time since the first logging on the client (in
+	 *         milliseconds).
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the message, which is a <code>String</code> or a
+	 *         <code>StructuredMessage</code>.
+	 */
+	public Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the <code>toString()</code> value of the logged throwable, or
+	 *         <code>null</code>.
+	 */
+	public String getThrowable() {
+		return throwable;
+	}
+
+	/**
+	 * @return the <code>MDC</code> context of the logging thread.
+	 */
+	public ContextMap getContextMap() {
+		return contextMap;
+	}
+
+	/**
+	 * @return the <code>NDC</code> context of the logging thread, or
+	 *         <code>null</code>.
+	 */
+	public String getNestedContext() {
+		return nestedContext;
+	}
+
+	/**
+	 * Create a <code>LoggingEvent</code> of this log entry, which could be
+	 * formatted with <code>AppenderDispatcher.formatEvent()</code>. The
+	 * throwable is represented by a <code>RemoteThrowable</code>.
+	 * 
+	 * @return the <code>LoggingEvent</code>.
+	 */
+	public LoggingEvent toLoggingEvent() {
+		return new LoggingEvent(clientID, name, time, level, message,
+				throwable != null ? new RemoteThrowable(throwable) : null,
+				threadName, contextMap, nestedContext);
+	}
+
+	/**
+	 * Get the log entry as a line, in the same format as the
+	 * <code>SimpleFormatter</code>.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		if (text) {
+			return String.valueOf(message);
+		}
+
+		StringBuffer buffer = new StringBuffer(64);
+		if (clientID != null) {
+			buffer.append(clientID);
+			buffer.append(' ');
+		}
+		buffer.append(time);
+		buffer.append(':');
+		if (level != null) {
+			buffer.append('[');
+			buffer.append(level);
+			buffer.append(']');
+		}
+		if (message != null) {
+			buffer.append('-');
+			buffer.append(message);
+		}
+		if (throwable != null) {
+			buffer.append('-');
+			buffer.append(throwable);
+		}
+
+		return buffer.toString();
+	}
+}
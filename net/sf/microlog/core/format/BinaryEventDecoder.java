@@ -0,0 +1,434 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.util.Vector;
+
+import net.sf.microlog.core.ContextMap;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.StructuredMessage;
+
+/**
+ * The <code>BinaryEventDecoder</code> decodes a stream that has been written
+ * with a <code>BinaryEventEncoder</code>. A decoder keeps the dictionary of
+ * one connection.
+ * 
+ * @see BinaryEventEncoder
+ * @since 2.3
+ */
+public final class BinaryEventDecoder {
+
+	/**
+	 * The largest string that is accepted, in bytes, which is also the largest
+	 * record that the socket server buffers. A count of fields or context
+	 * entries must fit in it too, at two bytes each. A larger length or count
+	 * means that the stream is not valid.
+	 */
+	public static final int MAX_LENGTH = 1024 * 1024;
+
+	/**
+	 * The smallest number of bytes of a field or a context entry: a string
+	 * reference and a type byte, or two string references.
+	 */
+	private static final int MIN_ENTRY_SIZE = 2;
+
+	private final InputStream inputStream;
+
+	private final Vector dictionary = new Vector(31);
+
+	private boolean headerRead;
+
+	private long previousTime;
+
+	private byte[] stringBuffer = new byte[128];
+
+	private char[] charBuffer = new char[128];
+
+	private int markedDictionarySize;
+
+	private long markedPreviousTime;
+
+	private boolean markedHeaderRead;
+
+	/**
+	 * Create a <code>BinaryEventDecoder</code> for the specified stream.
+	 * 
+	 * @param inputStream
+	 *            the stream to decode, which should be buffered.
+	 * @throws IllegalArgumentException
+	 *             if the <code>inputStream</code> is <code>null</code>.
+	 */
+	public BinaryEventDecoder(InputStream inputStream)
+			throws IllegalArgumentException {
+		if (inputStream == null) {
+			throw new IllegalArgumentException(
+					"The inputStream must not be null.");
+		}
+
+		this.inputStream = inputStream;
+	}
+
+	/**
+	 * Check if the stream starts with the header of a binary stream, without
+	 * consuming it. This is used by servers that accept both binary and text
+	 * streams.
+	 * 
+	 * @param inputStream
+	 *            a stream that supports <code>mark()</code>.
+	 * @return <code>true</code> if the stream is binary.
+	 * @throws IOException
+	 *             if the stream could not be read.
+	 */
+	public static boolean isBinaryStream(InputStream inputStream)
+			throws IOException {
+		byte[] header = BinaryEventEncoder.HEADER;
+		inputStream.mark(header.length);
+
+		try {
+			for (int index = 0; index < header.length - 1; index++) {
+				if (inputStream.read() != (header[index] & 0xFF)) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			inputStream.reset();
+		}
+	}
+
+	/**
+	 * Decode a log entry that was encoded with
+	 * <code>BinaryEventEncoder.encodeEntry()</code>, e.g. an entry that has
+	 * been spooled.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @return the decoded log entry, or <code>null</code> if the entry does
+	 *         not start with the header, i.e. it is a line of text.
+	 * @throws IOException
+	 *             if the entry starts with the header but is not valid.
+	 */
+	public static BinaryEvent decodeEntry(String entry) throws IOException {
+		byte[] header = BinaryEventEncoder.HEADER;
+		int length = entry.length();
+		for (int index = 0; index < header.length - 1; index++) {
+			if (index == length
+					|| entry.charAt(index) != (header[index] & 0xFF)) {
+				return null;
+			}
+		}
+
+		byte[] data = new byte[length];
+		for (int index = 0; index < length; index++) {
+			char character = entry.charAt(index);
+			if (character > 0xFF) {
+				throw new IOException("Not a binary log entry.");
+			}
+			data[index] = (byte) character;
+		}
+
+		BinaryEvent event = new BinaryEventDecoder(new ByteArrayInputStream(
+				data)).readEvent();
+		if (event == null) {
+			throw new EOFException();
+		}
+		return event;
+	}
+
+	/**
+	 * Read the next record.
+	 * 
+	 * @return the decoded log entry, or <code>null</code> if the stream has
+	 *         ended.
+	 * @throws IOException
+	 *             if the stream could not be read or is not valid.
+	 */
+	public BinaryEvent readEvent() throws IOException {
+		if (!headerRead) {
+			readHeader();
+		}
+
+		int tag = inputStream.read();
+		if (tag == -1) {
+			return null;
+		}
+
+		if (tag == BinaryEventEncoder.TEXT_TAG) {
+			return BinaryEvent.createTextEvent(readString());
+		} else if (tag != BinaryEventEncoder.EVENT_TAG) {
+			throw new IOException("Unknown record " + tag);
+		}
+
+		long delta = readVarLong();
+		long time = previousTime + ((delta >>> 1) ^ -(delta & 1));
+		previousTime = time;
+
+		int levelValue = readByte();
+		Level level = levelValue != BinaryEventEncoder.NO_LEVEL ? Level
+				.toLevel(levelValue) : null;
+		String clientID = readReference();
+		String name = readReference();
+		String threadName = readReference();
+
+		int flags = readByte();
+		String text = null;
+		if ((flags & BinaryEventEncoder.TEXT_FLAG) != 0) {
+			text = readString();
+		}
+
+		Object message = text;
+		if ((flags & BinaryEventEncoder.FIELDS_FLAG) != 0) {
+			message = readFields(text);
+		}
+
+		String throwable = null;
+		if ((flags & BinaryEventEncoder.THROWABLE_FLAG) != 0) {
+			throwable = readString();
+		}
+
+		ContextMap contextMap = ContextMap.EMPTY;
+		if ((flags & BinaryEventEncoder.MDC_FLAG) != 0) {
+			int size = readLength(MIN_ENTRY_SIZE);
+			for (int index = 0; index < size; index++) {
+				String key = readReference();
+				String value = readReference();
+				if (key != null && value != null) {
+					contextMap = contextMap.put(key, value);
+				}
+			}
+		}
+
+		String nestedContext = null;
+		if ((flags & BinaryEventEncoder.NDC_FLAG) != 0) {
+			nestedContext = readString();
+		}
+
+		return new BinaryEvent(false, clientID, name, threadName, time, level,
+				message, throwable, contextMap, nestedContext);
+	}
+
+	/**
+	 * Remember the state of the decoder before a record is read. A server
+	 * that decodes without blocking reads from the bytes that have arrived so
+	 * far; if a record has only arrived in part, <code>readEvent()</code>
+	 * throws an <code>EOFException</code>, and the server calls
+	 * <code>reset()</code> and reads the record again when more has arrived.
+	 */
+	public void mark() {
+		markedDictionarySize = dictionary.size();
+		markedPreviousTime = previousTime;
+		markedHeaderRead = headerRead;
+	}
+
+	/**
+	 * Restore the state of the decoder to the latest <code>mark()</code>,
+	 * i.e. forget the strings and the time of a record that was read in part.
+	 */
+	public void reset() {
+		dictionary.setSize(markedDictionarySize);
+		previousTime = markedPreviousTime;
+		headerRead = markedHeaderRead;
+	}
+
+	private void readHeader() throws IOException {
+		byte[] header = BinaryEventEncoder.HEADER;
+		for (int index = 0; index < header.length - 1; index++) {
+			if (readByte() != (header[index] & 0xFF)) {
+				throw new IOException("Not a binary log stream.");
+			}
+		}
+
+		int version = readByte();
+		if (version != BinaryEventEncoder.VERSION) {
+			throw new IOException("Unsupported version " + version);
+		}
+
+		headerRead = true;
+	}
+
+	private StructuredMessage readFields(String text) throws IOException {
+		int fieldCount = readLength(MIN_ENTRY_SIZE);
+		String[] keys = new String[fieldCount];
+		byte[] types = new byte[fieldCount];
+		long[] primitives = new long[fieldCount];
+		Object[] objects = new Object[fieldCount];
+
+		for (int index = 0; index < fieldCount; index++) {
+			keys[index] = readReference();
+			types[index] = (byte) readByte();
+
+			switch (types[index]) {
+			case StructuredMessage.TYPE_LONG:
+			case StructuredMessage.TYPE_INT:
+				long value = readVarLong();
+				primitives[index] = (value >>> 1) ^ -(value & 1);
+				break;
+			case StructuredMessage.TYPE_DOUBLE:
+				long bits = 0;
+				for (int byteIndex = 0; byteIndex < 8; byteIndex++) {
+					bits = (bits << 8) | readByte();
+				}
+				primitives[index] = bits;
+				break;
+			case StructuredMessage.TYPE_BOOLEAN:
+				primitives[index] = readByte();
+				break;
+			default:
+				objects[index] = readReference();
+				break;
+			}
+		}
+
+		return new StructuredMessage(text, fieldCount, keys, types,
+				primitives, objects);
+	}
+
+	private String readReference() throws IOException {
+		long reference = readVarLong();
+
+		if (reference == BinaryEventEncoder.NULL_REFERENCE) {
+			return null;
+		} else if (reference == BinaryEventEncoder.LITERAL_REFERENCE) {
+			return readString();
+		}
+
+		long id = reference - BinaryEventEncoder.FIRST_ID_REFERENCE;
+		if (id >= 0 && id < dictionary.size()) {
+			return (String) dictionary.elementAt((int) id);
+		} else if (id == dictionary.size()
+				&& id < BinaryEventEncoder.MAX_DICTIONARY_SIZE) {
+			String string = readString();
+			dictionary.addElement(string);
+			return string;
+		}
+
+		throw new IOException("Unknown string id " + id);
+	}
+
+	private String readString() throws IOException {
+		int byteLength = readLength(1);
+		if (byteLength > stringBuffer.length) {
+			stringBuffer = new byte[byteLength];
+			charBuffer = new char[byteLength];
+		}
+
+		int offset = 0;
+		while (offset < byteLength) {
+			int count = inputStream.read(stringBuffer, offset, byteLength
+					- offset);
+			if (count == -1) {
+				throw new EOFException();
+			}
+			offset += count;
+		}
+
+		int length = 0;
+		int index = 0;
+		while (index < byteLength) {
+			int b = stringBuffer[index++] & 0xFF;
+			if (b < 0x80) {
+				charBuffer[length++] = (char) b;
+				continue;
+			}
+
+			int followingCount;
+			int minimum;
+			int c;
+			if (b >= 0xC2 && b <= 0xDF) {
+				followingCount = 1;
+				minimum = 0x80;
+				c = b & 0x1F;
+			} else if (b >= 0xE0 && b <= 0xEF) {
+				followingCount = 2;
+				minimum = 0x800;
+				c = b & 0x0F;
+			} else if (b >= 0xF0 && b <= 0xF4) {
+				followingCount = 3;
+				minimum = 0x10000;
+				c = b & 0x07;
+			} else {
+				throw new UTFDataFormatException("Invalid UTF-8 byte " + b);
+			}
+
+			if (index + followingCount > byteLength) {
+				throw new UTFDataFormatException("Truncated UTF-8 sequence");
+			}
+			for (int count = 0; count < followingCount; count++) {
+				int following = stringBuffer[index++] & 0xFF;
+				if ((following & 0xC0) != 0x80) {
+					throw new UTFDataFormatException("Invalid UTF-8 byte "
+							+ following);
+				}
+				c = (c << 6) | (following & 0x3F);
+			}
+
+			if (c < minimum || c > 0x10FFFF || (c >= 0xD800 && c <= 0xDFFF)) {
+				throw new UTFDataFormatException("Invalid UTF-8 character "
+						+ c);
+			}
+
+			if (c >= 0x10000) {
+				c -= 0x10000;
+				charBuffer[length++] = (char) (0xD800 | (c >> 10));
+				charBuffer[length++] = (char) (0xDC00 | (c & 0x3FF));
+			} else {
+				charBuffer[length++] = (char) c;
+			}
+		}
+
+		return new String(charBuffer, 0, length);
+	}
+
+	/**
+	 * Read a length or a count, and check that it is not negative, and that
+	 * the bytes that it takes fit in <code>MAX_LENGTH</code>.
+	 * 
+	 * @param entrySize
+	 *            the smallest number of bytes of each counted entry.
+	 */
+	private int readLength(int entrySize) throws IOException {
+		long length = readVarLong();
+		if (length < 0 || length > MAX_LENGTH / entrySize) {
+			throw new IOException("Invalid length " + length);
+		}
+		return (int) length;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed varint");
+	}
+
+	private int readByte() throws IOException {
+		int b = inputStream.read();
+		if (b == -1) {
+			throw new EOFException();
+		}
+		return b;
+	}
+}
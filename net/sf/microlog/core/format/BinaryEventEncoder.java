@@ -0,0 +1,478 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import java.util.Hashtable;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.ContextMap;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.LoggingEvent;
+import net.sf.microlog.core.MDC;
+import net.sf.microlog.core.NDC;
+import net.sf.microlog.core.StructuredMessage;
+
+/**
+ * The <code>BinaryEventEncoder</code> encodes log entries in a compact binary
+ * format, for sending them over a connection instead of formatted text. An
+ * encoder keeps state for one connection, and <code>reset()</code> must be
+ * called when a new connection is made. The stream is decoded with a
+ * <code>BinaryEventDecoder</code>.
+ * 
+ * The stream starts with the header <code>0xFF 'M' 'L' version</code>,
+ * followed by records. Each record starts with a tag byte:
+ * 
+ * <pre>
+ * EVENT: tag 1
+ *   time      varint, zigzag coded difference from the previous event
+ *   level     byte, the integer level, or 0xFF if there is no level
+ *   clientID  string reference
+ *   name      string reference, the name of the logger
+ *   thread    string reference, the name of the logging thread
+ *   flags     byte, 1 = text, 2 = throwable, 4 = fields, 8 = MDC, 16 = NDC
+ *   text      string, if flag 1
+ *   fields    if flag 4: varint count, then for each field a string reference
+ *             to the key, a type byte (see StructuredMessage) and the value:
+ *             zigzag varint for long and int, 8 bytes for double, 1 byte for
+ *             boolean, and a literal string reference for objects (0 for
+ *             null)
+ *   throwable string, if flag 2
+ *   MDC       if flag 8: varint count, then a string reference to each key
+ *             and a literal string reference to the value
+ *   NDC       string, if flag 16
+ * TEXT: tag 2
+ *   line      string, a line that was formatted on the client
+ * </pre>
+ * 
+ * A string is a varint byte length followed by the characters as UTF-8. A
+ * surrogate pair is written as one four byte sequence, and an unpaired
+ * surrogate as U+FFFD, so that the bytes are always valid UTF-8.
+ * A string reference is a varint: 0 for <code>null</code>, 1 for a string
+ * that follows, and otherwise the id + 2 of a string in the dictionary of the
+ * connection. If the id is the next free id, the string follows and is added
+ * to the dictionary. This means that each logger name, client id and thread
+ * name is sent once per connection, and then takes one or two bytes. The
+ * values of the fields and the <code>MDC</code> are sent as literal
+ * references, 1 followed by the string, since they seldom repeat and would
+ * only fill the dictionary.
+ * 
+ * The <code>MDC</code> and <code>NDC</code> contexts of the logging thread
+ * are included, so that a server could format the log entries with any
+ * pattern.
+ * 
+ * An encoder is not thread safe; it should be used by one appender, which
+ * synchronizes the logging.
+ * 
+ * @since 2.3
+ */
+public final class BinaryEventEncoder {
+
+	public static final int VERSION = 1;
+
+	public static final byte[] HEADER = { (byte) 0xFF, 'M', 'L', VERSION };
+
+	public static final int EVENT_TAG = 1;
+
+	public static final int TEXT_TAG = 2;
+
+	public static final int TEXT_FLAG = 1;
+
+	public static final int THROWABLE_FLAG = 2;
+
+	public static final int FIELDS_FLAG = 4;
+
+	public static final int MDC_FLAG = 8;
+
+	public static final int NDC_FLAG = 16;
+
+	public static final int NO_LEVEL = 0xFF;
+
+	public static final int NULL_REFERENCE = 0;
+
+	public static final int LITERAL_REFERENCE = 1;
+
+	public static final int FIRST_ID_REFERENCE = 2;
+
+	/**
+	 * The maximum number of strings in the dictionary. Later strings are sent
+	 * as literals.
+	 */
+	public static final int MAX_DICTIONARY_SIZE = 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 128;
+
+	private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+	private final Hashtable dictionary = new Hashtable(31);
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	private int position;
+
+	private boolean headerWritten;
+
+	private long previousTime;
+
+	/**
+	 * Forget the state of the connection, so that the next encoded record
+	 * starts a new stream with the header.
+	 */
+	public void reset() {
+		dictionary.clear();
+		headerWritten = false;
+		previousTime = 0;
+	}
+
+	/**
+	 * Encode a log entry as an EVENT record. The encoded bytes are available
+	 * with <code>getBuffer()</code> until the next call.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param threadName
+	 *            the name of the logging thread.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 * @return the number of encoded bytes.
+	 */
+	public int encodeEvent(String clientID, String name, String threadName,
+			long time, Level level, Object message, Throwable t) {
+		startRecord(EVENT_TAG);
+
+		long delta = time - previousTime;
+		previousTime = time;
+		writeVarLong((delta << 1) ^ (delta >> 63));
+		writeByte(level != null ? level.toInt() : NO_LEVEL);
+		writeReference(clientID);
+		writeReference(name);
+		writeReference(threadName);
+
+		StructuredMessage structuredMessage = null;
+		String text = null;
+		if (message instanceof StructuredMessage) {
+			structuredMessage = (StructuredMessage) message;
+			text = structuredMessage.getText();
+		} else if (message != null) {
+			text = message.toString();
+		}
+
+		int flags = 0;
+		if (text != null) {
+			flags |= TEXT_FLAG;
+		}
+		if (t != null) {
+			flags |= THROWABLE_FLAG;
+		}
+		if (structuredMessage != null && structuredMessage.getFieldCount() > 0) {
+			flags |= FIELDS_FLAG;
+		}
+		ContextMap contextMap = MDC.getEventContext();
+		if (contextMap.size() > 0) {
+			flags |= MDC_FLAG;
+		}
+		String nestedContext = NDC.getEventContext();
+		if (nestedContext != null) {
+			flags |= NDC_FLAG;
+		}
+		writeByte(flags);
+
+		if (text != null) {
+			writeString(text);
+		}
+
+		if ((flags & FIELDS_FLAG) != 0) {
+			writeFields(structuredMessage);
+		}
+
+		if (t != null) {
+			writeString(t.toString());
+		}
+
+		if ((flags & MDC_FLAG) != 0) {
+			int size = contextMap.size();
+			writeVarLong(size);
+			for (int index = 0; index < size; index++) {
+				writeReference(contextMap.getKey(index));
+				writeLiteral(String.valueOf(contextMap.getValue(index)));
+			}
+		}
+
+		if (nestedContext != null) {
+			writeString(nestedContext);
+		}
+
+		return position;
+	}
+
+	/**
+	 * Encode a log entry that has been decoded, e.g. an entry that was
+	 * spooled, as a record of the connection of this encoder. The
+	 * <code>MDC</code> and <code>NDC</code> contexts of the entry are encoded,
+	 * not the ones of the current thread.
+	 * 
+	 * @param event
+	 *            the log entry.
+	 * @return the number of encoded bytes.
+	 */
+	public int encodeEvent(BinaryEvent event) {
+		if (event.isText()) {
+			return encodeText(String.valueOf(event.getMessage()));
+		}
+
+		LoggingEvent loggingEvent = event.toLoggingEvent();
+		LoggingEvent previousEvent = AppenderDispatcher
+				.setCurrentEvent(loggingEvent);
+		try {
+			return encodeEvent(event.getClientID(), event.getName(), event
+					.getThreadName(), event.getTime(), event.getLevel(), event
+					.getMessage(), loggingEvent.getThrowable());
+		} finally {
+			AppenderDispatcher.setCurrentEvent(previousEvent);
+		}
+	}
+
+	/**
+	 * Encode a log entry as a stream of its own, the header followed by one
+	 * EVENT record, with one character for each byte. This is how a log entry
+	 * is stored in a <code>Spool</code>, which keeps <code>String</code>
+	 * entries. The state of the encoder is reset, so this should not be used
+	 * with the encoder of a connection.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param threadName
+	 *            the name of the logging thread.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 * @return the entry, which is decoded with
+	 *         <code>BinaryEventDecoder.decodeEntry()</code>.
+	 */
+	public String encodeEntry(String clientID, String name, String threadName,
+			long time, Level level, Object message, Throwable t) {
+		reset();
+		int length = encodeEvent(clientID, name, threadName, time, level,
+				message, t);
+		reset();
+
+		char[] chars = new char[length];
+		for (int index = 0; index < length; index++) {
+			chars[index] = (char) (buffer[index] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Encode a line that has been formatted on the client as a TEXT record.
+	 * This is used for log entries that have been spooled as text, e.g. before
+	 * the binary format was turned on.
+	 * 
+	 * @param line
+	 *            the formatted line.
+	 * @return the number of encoded bytes.
+	 */
+	public int encodeText(String line) {
+		startRecord(TEXT_TAG);
+		writeString(line);
+		return position;
+	}
+
+	/**
+	 * Get the buffer with the encoded bytes of the latest record.
+	 * 
+	 * @return the buffer, which is reused.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	private void startRecord(int tag) {
+		position = 0;
+
+		if (!headerWritten) {
+			for (int index = 0; index < HEADER.length; index++) {
+				writeByte(HEADER[index]);
+			}
+			headerWritten = true;
+		}
+
+		writeByte(tag);
+	}
+
+	private void writeFields(StructuredMessage message) {
+		int fieldCount = message.getFieldCount();
+		writeVarLong(fieldCount);
+
+		for (int index = 0; index < fieldCount; index++) {
+			writeReference(message.getKey(index));
+
+			byte type = message.getType(index);
+			writeByte(type);
+
+			switch (type) {
+			case StructuredMessage.TYPE_LONG:
+			case StructuredMessage.TYPE_INT:
+				long value = message.getLong(index);
+				writeVarLong((value << 1) ^ (value >> 63));
+				break;
+			case StructuredMessage.TYPE_DOUBLE:
+				long bits = Double.doubleToLongBits(message.getDouble(index));
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					writeByte((int) (bits >>> shift));
+				}
+				break;
+			case StructuredMessage.TYPE_BOOLEAN:
+				writeByte(message.getBoolean(index) ? 1 : 0);
+				break;
+			default:
+				Object object = message.getObject(index);
+				writeLiteral(object != null ? object.toString() : null);
+				break;
+			}
+		}
+	}
+
+	private void writeReference(String string) {
+		if (string == null) {
+			writeByte(NULL_REFERENCE);
+			return;
+		}
+
+		Integer id = (Integer) dictionary.get(string);
+		if (id != null) {
+			writeVarLong(id.intValue() + FIRST_ID_REFERENCE);
+		} else if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+			int newId = dictionary.size();
+			dictionary.put(string, new Integer(newId));
+			writeVarLong(newId + FIRST_ID_REFERENCE);
+			writeString(string);
+		} else {
+			writeByte(LITERAL_REFERENCE);
+			writeString(string);
+		}
+	}
+
+	/**
+	 * Write a string reference that is not added to the dictionary.
+	 */
+	private void writeLiteral(String string) {
+		if (string == null) {
+			writeByte(NULL_REFERENCE);
+		} else {
+			writeByte(LITERAL_REFERENCE);
+			writeString(string);
+		}
+	}
+
+	private void writeString(String string) {
+		int length = string.length();
+
+		int byteLength = 0;
+		for (int index = 0; index < length; index++) {
+			char c = string.charAt(index);
+			if (c < 0x80) {
+				byteLength++;
+			} else if (c < 0x800) {
+				byteLength += 2;
+			} else if (isSurrogatePair(string, index)) {
+				byteLength += 4;
+				index++;
+			} else {
+				byteLength += 3;
+			}
+		}
+
+		writeVarLong(byteLength);
+		ensureCapacity(byteLength);
+
+		for (int index = 0; index < length; index++) {
+			int c = string.charAt(index);
+			if (c < 0x80) {
+				buffer[position++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (isSurrogatePair(string, index)) {
+				index++;
+				c = 0x10000 + ((c - 0xD800) << 10)
+						+ (string.charAt(index) - 0xDC00);
+				buffer[position++] = (byte) (0xF0 | (c >> 18));
+				buffer[position++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				if (c >= 0xD800 && c <= 0xDFFF) {
+					// An unpaired surrogate is not valid UTF-8.
+					c = REPLACEMENT_CHARACTER;
+				}
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the character at the index is a high
+	 *         surrogate that is followed by a low surrogate.
+	 */
+	private static boolean isSurrogatePair(String string, int index) {
+		char c = string.charAt(index);
+		if (c < 0xD800 || c > 0xDBFF || index + 1 == string.length()) {
+			return false;
+		}
+
+		char next = string.charAt(index + 1);
+		return next >= 0xDC00 && next <= 0xDFFF;
+	}
+
+	private void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[position++] = (byte) value;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (position + extra > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, position
+					+ extra)];
+			System.arraycopy(buffer, 0, newBuffer, 0, position);
+			buffer = newBuffer;
+		}
+	}
+}
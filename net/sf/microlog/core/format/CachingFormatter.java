@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.Formatter;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.LoggingEvent;
+
+/**
+ * A <code>Formatter</code> that remembers the formatted log entry of another
+ * <code>Formatter</code>. When several appenders share a
+ * <code>CachingFormatter</code>, the log entry is only formatted by the first
+ * appender, and the others get the same <code>String</code> object.
+ * 
+ * The result is stored in the current <code>LoggingEvent</code>, which the
+ * <code>Logger</code> makes current while an entry is logged to several
+ * appenders, and which a dispatcher thread has while it logs an entry. Without
+ * a current event the log entry is always formatted, since it can not be told
+ * from another entry with the same arguments.
+ * 
+ * @since 2.3
+ */
+public final class CachingFormatter implements Formatter {
+
+	private final Formatter formatter;
+
+	private long hitCount;
+
+	private long missCount;
+
+	/**
+	 * Create a <code>CachingFormatter</code> for the specified formatter.
+	 * 
+	 * @param formatter
+	 *            the <code>Formatter</code> that does the actual formatting.
+	 * @throws IllegalArgumentException
+	 *             if the <code>formatter</code> is <code>null</code>.
+	 */
+	public CachingFormatter(Formatter formatter)
+			throws IllegalArgumentException {
+		if (formatter == null) {
+			throw new IllegalArgumentException(
+					"The formatter must not be null.");
+		}
+
+		this.formatter = formatter;
+	}
+
+	/**
+	 * Get the <code>Formatter</code> that does the actual formatting.
+	 * 
+	 * @return the formatter.
+	 */
+	public Formatter getFormatter() {
+		return formatter;
+	}
+
+	/**
+	 * Return the remembered result if the current event has been formatted,
+	 * otherwise the log entry is formatted and remembered in the event.
+	 * 
+	 * @see net.sf.microlog.core.Formatter#format(String, String, long,
+	 *      net.sf.microlog.core.Level, java.lang.Object, java.lang.Throwable)
+	 */
+	public synchronized String format(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		LoggingEvent event = AppenderDispatcher.getCurrentEvent();
+		if (event != null
+				&& event.isSameEvent(clientID, name, time, level, message, t)) {
+			String result = event.getFormatted(this);
+			if (result != null) {
+				hitCount++;
+			} else {
+				missCount++;
+				result = formatter.format(clientID, name, time, level,
+						message, t);
+				event.setFormatted(this, result);
+			}
+			return result;
+		}
+
+		missCount++;
+		return formatter.format(clientID, name, time, level, message, t);
+	}
+
+	/**
+	 * Get the number of times a remembered result has been used.
+	 * 
+	 * @return the number of cache hits.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Get the number of times the log entry had to be formatted.
+	 * 
+	 * @return the number of cache misses.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Formatter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return formatter.getPropertyNames();
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Formatter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public synchronized void setProperty(String name, String value) {
+		formatter.setProperty(name, value);
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.ContextMap;
+import net.sf.microlog.core.Formatter;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MDC;
+import net.sf.microlog.core.NDC;
+import net.sf.microlog.core.RendererMap;
+import net.sf.microlog.core.StringUtil;
+import net.sf.microlog.core.StructuredMessage;
+
+/**
+ * A formatter that formats each log entry as one JSON object, for example:
+ * 
+ * <pre>
+ * {&quot;timestamp&quot;:1262300400000,&quot;time&quot;:12,&quot;level&quot;:&quot;INFO&quot;,&quot;logger&quot;:&quot;com.acme.Main&quot;,&quot;thread&quot;:&quot;main&quot;,&quot;message&quot;:&quot;done&quot;,&quot;latencyMs&quot;:12}
+ * </pre>
+ * 
+ * The fields of a <code>StructuredMessage</code> are written as members of
+ * the object, with their JSON types. The <code>MDC</code> is written as a
+ * nested object and the <code>NDC</code> as a string. Fields that have no
+ * value are left out.
+ * 
+ * The name of each field could be set with a property, for example
+ * <code>microlog.formatter.JsonFormatter.levelField=severity</code>. An
+ * empty name leaves the field out.
+ * 
+ * The message is rendered by the <code>RendererMap</code>, and is cut off at
+ * the maxMessageLength property, if it is set. The text of a
+ * <code>StructuredMessage</code> is cut off the same way.
+ * 
+ * The object is written into a buffer that is reused, and the strings are
+ * only copied character by character where they need escaping.
+ * 
+ * @since 2.3
+ */
+public final class JsonFormatter implements Formatter {
+
+	public static final String TIMESTAMP_FIELD_PROPERTY = "timestampField";
+
+	public static final String TIME_FIELD_PROPERTY = "timeField";
+
+	public static final String LEVEL_FIELD_PROPERTY = "levelField";
+
+	public static final String LOGGER_FIELD_PROPERTY = "loggerField";
+
+	public static final String CLIENT_ID_FIELD_PROPERTY = "clientIDField";
+
+	public static final String THREAD_FIELD_PROPERTY = "threadField";
+
+	public static final String MESSAGE_FIELD_PROPERTY = "messageField";
+
+	public static final String THROWABLE_FIELD_PROPERTY = "throwableField";
+
+	public static final String MDC_FIELD_PROPERTY = "mdcField";
+
+	public static final String NDC_FIELD_PROPERTY = "ndcField";
+
+	public static final String MAX_MESSAGE_LENGTH_PROPERTY = "maxMessageLength";
+
+	public static final String[] PROPERTY_NAMES = { TIMESTAMP_FIELD_PROPERTY,
+			TIME_FIELD_PROPERTY, LEVEL_FIELD_PROPERTY, LOGGER_FIELD_PROPERTY,
+			CLIENT_ID_FIELD_PROPERTY, THREAD_FIELD_PROPERTY,
+			MESSAGE_FIELD_PROPERTY, THROWABLE_FIELD_PROPERTY,
+			MDC_FIELD_PROPERTY, NDC_FIELD_PROPERTY,
+			MAX_MESSAGE_LENGTH_PROPERTY, ThrowableRenderer.STACK_TRACE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEPTH_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_EXCLUDE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEDUPLICATE_PROPERTY };
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private final StringBuffer buffer = new StringBuffer(INITIAL_BUFFER_SIZE);
+
+	private char[] scratch;
+
+	private String timestampField = "timestamp";
+
+	private String timeField = "time";
+
+	private String levelField = "level";
+
+	private String loggerField = "logger";
+
+	private String clientIDField = "clientID";
+
+	private String threadField = "thread";
+
+	private String messageField = "message";
+
+	private String throwableField = "throwable";
+
+	private String mdcField = "mdc";
+
+	private String ndcField = "ndc";
+
+	private int maxMessageLength;
+
+	private final ThrowableRenderer throwableRenderer = ThrowableRenderer
+			.createRenderer();
+
+	/**
+	 * Create a <code>JsonFormatter</code> with the default field names.
+	 */
+	public JsonFormatter() {
+	}
+
+	/**
+	 * Get the <code>ThrowableRenderer</code> that renders the throwables, e.g.
+	 * for its properties.
+	 * 
+	 * @return the renderer.
+	 */
+	public ThrowableRenderer getThrowableRenderer() {
+		return throwableRenderer;
+	}
+
+	/**
+	 * Get the maximum length of the message.
+	 * 
+	 * @return the maximum number of characters, or 0 for no maximum.
+	 */
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * Set the maximum length of the message. A longer message is cut off,
+	 * without rendering the rest of it.
+	 * 
+	 * @param maxMessageLength
+	 *            the maximum number of characters, or 0 for no maximum.
+	 * @throws IllegalArgumentException
+	 *             if the <code>maxMessageLength</code> is negative.
+	 */
+	public synchronized void setMaxMessageLength(int maxMessageLength)
+			throws IllegalArgumentException {
+		if (maxMessageLength < 0) {
+			throw new IllegalArgumentException(
+					"The maxMessageLength must not be negative.");
+		}
+
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	/**
+	 * Format the log entry as a JSON object.
+	 * 
+	 * @see net.sf.microlog.core.Formatter#format(String, String, long,
+	 *      net.sf.microlog.core.Level, java.lang.Object, java.lang.Throwable)
+	 */
+	public synchronized String format(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		buffer.setLength(0);
+		buffer.append('{');
+
+		if (timestampField.length() > 0) {
+			appendName(timestampField);
+			buffer.append(AppenderDispatcher.getEventTimestamp());
+		}
+
+		if (timeField.length() > 0) {
+			appendName(timeField);
+			buffer.append(time);
+		}
+
+		if (level != null) {
+			appendStringField(levelField, level.toString());
+		}
+
+		appendStringField(loggerField, name);
+		appendStringField(clientIDField, clientID);
+		appendStringField(threadField, AppenderDispatcher.getEventThreadName());
+
+		if (message instanceof StructuredMessage) {
+			StructuredMessage structuredMessage = (StructuredMessage) message;
+			String text = structuredMessage.getText();
+			if (text != null) {
+				appendStringField(messageField, RendererMap.render(text,
+						maxMessageLength));
+			}
+			if (structuredMessage.getFieldCount() > 0) {
+				appendSeparator();
+				structuredMessage.appendJsonMembers(buffer);
+			}
+		} else if (message != null) {
+			appendStringField(messageField, RendererMap.render(message,
+					maxMessageLength));
+		}
+
+		if (t != null) {
+			appendStringField(throwableField, throwableRenderer.render(t));
+		}
+
+		if (mdcField.length() > 0) {
+			ContextMap contextMap = MDC.getEventContext();
+			int size = contextMap.size();
+			if (size > 0) {
+				appendName(mdcField);
+				buffer.append('{');
+				for (int index = 0; index < size; index++) {
+					if (index > 0) {
+						buffer.append(',');
+					}
+					scratch = StringUtil.appendJsonString(buffer, contextMap
+							.getKey(index), scratch);
+					buffer.append(':');
+					scratch = StringUtil.appendJsonString(buffer, String
+							.valueOf(contextMap.getValue(index)), scratch);
+				}
+				buffer.append('}');
+			}
+		}
+
+		appendStringField(ndcField, NDC.getEventContext());
+
+		buffer.append('}');
+		return buffer.toString();
+	}
+
+	/**
+	 * Append a string member, if the name is not empty and there is a value.
+	 */
+	private void appendStringField(String fieldName, String value) {
+		if (value != null && fieldName.length() > 0) {
+			appendName(fieldName);
+			scratch = StringUtil.appendJsonString(buffer, value, scratch);
+		}
+	}
+
+	private void appendName(String fieldName) {
+		appendSeparator();
+		scratch = StringUtil.appendJsonString(buffer, fieldName, scratch);
+		buffer.append(':');
+	}
+
+	private void appendSeparator() {
+		if (buffer.length() > 1) {
+			buffer.append(',');
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Formatter#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * Set the name of a field, or the maximum length of the message. An empty
+	 * name leaves the field out. The properties of the
+	 * <code>ThrowableRenderer</code> are also accepted.
+	 * 
+	 * @see net.sf.microlog.core.Formatter#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public synchronized void setProperty(String name, String value) {
+		if (value != null && throwableRenderer.setProperty(name, value)) {
+			return;
+		}
+
+		if (name.equals(MAX_MESSAGE_LENGTH_PROPERTY)) {
+			setMaxMessageLength(value != null ? Integer.parseInt(value.trim())
+					: 0);
+			return;
+		}
+
+		String fieldName = value != null ? value.trim() : "";
+
+		if (name.equals(TIMESTAMP_FIELD_PROPERTY)) {
+			timestampField = fieldName;
+		} else if (name.equals(TIME_FIELD_PROPERTY)) {
+			timeField = fieldName;
+		} else if (name.equals(LEVEL_FIELD_PROPERTY)) {
+			levelField = fieldName;
+		} else if (name.equals(LOGGER_FIELD_PROPERTY)) {
+			loggerField = fieldName;
+		} else if (name.equals(CLIENT_ID_FIELD_PROPERTY)) {
+			clientIDField = fieldName;
+		} else if (name.equals(THREAD_FIELD_PROPERTY)) {
+			threadField = fieldName;
+		} else if (name.equals(MESSAGE_FIELD_PROPERTY)) {
+			messageField = fieldName;
+		} else if (name.equals(THROWABLE_FIELD_PROPERTY)) {
+			throwableField = fieldName;
+		} else if (name.equals(MDC_FIELD_PROPERTY)) {
+			mdcField = fieldName;
+		} else if (name.equals(NDC_FIELD_PROPERTY)) {
+			ndcField = fieldName;
+		}
+	}
+}
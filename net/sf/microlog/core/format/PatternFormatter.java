@@ -19,11 +19,16 @@ import java.util.Vector;
 
 import net.sf.microlog.core.Formatter;
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.Location;
 import net.sf.microlog.core.format.command.CategoryFormatCommand;
 import net.sf.microlog.core.format.command.ClientIdFormatCommand;
 import net.sf.microlog.core.format.command.DateFormatCommand;
 import net.sf.microlog.core.format.command.FormatCommandInterface;
+import net.sf.microlog.core.format.command.KeyValueFormatCommand;
+import net.sf.microlog.core.format.command.LocationFormatCommand;
+import net.sf.microlog.core.format.command.MDCFormatCommand;
 import net.sf.microlog.core.format.command.MessageFormatCommand;
+import net.sf.microlog.core.format.command.NDCFormatCommand;
 import net.sf.microlog.core.format.command.NoFormatCommand;
 import net.sf.microlog.core.format.command.PriorityFormatCommand;
 import net.sf.microlog.core.format.command.ThreadFormatCommand;
@@ -54,9 +59,27 @@ import net.sf.microlog.core.format.command.TimeFormatCommand;
  *  %r : prints the relative time of the logging. (The first logging is done at time 0.)
  *  %t : prints the thread name.
  *  %T : prints the Throwable object.
+ *  %X{key} : prints the value of the key in the MDC. Without a key the whole MDC is printed.
+ *  %x : prints the NDC.
+ *  %K : prints the fields of a structured message as key=value pairs, and %m then prints only its text.
+ *  %K{json} : prints the fields of a structured message as a JSON object.
+ *  %C : prints the class of the caller. %C{1} prints the last part of the class name.
+ *  %F : prints the file of the caller.
+ *  %L : prints the line of the caller.
+ *  %M : prints the method of the caller.
  *  %% : prints the '%' sign.
  * </pre>
  * 
+ * The stack trace of the Throwable object is printed if the stackTrace property
+ * is set, see <code>ThrowableRenderer</code>.
+ * 
+ * The message is rendered by the <code>RendererMap</code>, and is cut off at
+ * the maxMessageLength property, if it is set.
+ * 
+ * The location of the caller (%C, %F, %L and %M) is expensive to find, and is
+ * only found when the pattern has one of these conversions, see
+ * <code>Location</code>. It is not available on Java ME.
+ * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @since 0.6
  */
@@ -64,6 +87,8 @@ public class PatternFormatter implements Formatter {
 
 	public static final String PATTERN_PROPERTY = "pattern";
 
+	public static final String MAX_MESSAGE_LENGTH_PROPERTY = "maxMessageLength";
+
 	/**
 	 * This is the default pattern that is used for the
 	 * <code>PatternFormatter</code>.
@@ -82,15 +107,35 @@ public class PatternFormatter implements Formatter {
 	public static final char RELATIVE_TIME_CONVERSION_CHAR = 'r';
 	public static final char THREAD_CONVERSION_CHAR = 't';
 	public static final char THROWABLE_CONVERSION_CHAR = 'T';
+	public static final char MDC_CONVERSION_CHAR = 'X';
+	public static final char NDC_CONVERSION_CHAR = 'x';
+	public static final char KEY_VALUE_CONVERSION_CHAR = 'K';
+	public static final char CLASS_CONVERSION_CHAR = 'C';
+	public static final char FILE_CONVERSION_CHAR = 'F';
+	public static final char LINE_CONVERSION_CHAR = 'L';
+	public static final char METHOD_CONVERSION_CHAR = 'M';
 	public static final char PERCENT_CONVERSION_CHAR = '%';
 
-	private static final String[] PROPERTY_NAMES = { PatternFormatter.PATTERN_PROPERTY };
+	private static final String[] PROPERTY_NAMES = {
+			PatternFormatter.PATTERN_PROPERTY,
+			PatternFormatter.MAX_MESSAGE_LENGTH_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEPTH_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_EXCLUDE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEDUPLICATE_PROPERTY };
 
 	private String pattern = DEFAULT_CONVERSION_PATTERN;
 	private FormatCommandInterface[] commandArray;
 
 	private boolean patternParsed;
 
+	private boolean locationRequired;
+
+	private int maxMessageLength;
+
+	private final ThrowableRenderer throwableRenderer = ThrowableRenderer
+			.createRenderer();
+
 	/**
 	 * Create a <code>PatternFormatter</code> with the default pattern.
 	 */
@@ -111,13 +156,23 @@ public class PatternFormatter implements Formatter {
 			parsePattern(pattern);
 		}
 
+		// The location is found once, for all the location conversions.
+		Location location = null;
+		if (locationRequired) {
+			location = Location.getEventLocation();
+		}
+
 		StringBuffer formattedStringBuffer = new StringBuffer(64);
 		if (commandArray != null) {
 			int length = commandArray.length;
 
 			for (int index = 0; index < length; index++) {
 				FormatCommandInterface currentConverter = commandArray[index];
-				if (currentConverter != null) {
+				if (currentConverter instanceof LocationFormatCommand) {
+					formattedStringBuffer
+							.append(((LocationFormatCommand) currentConverter)
+									.execute(location));
+				} else if (currentConverter != null) {
 					formattedStringBuffer.append(currentConverter.execute(
 							clientID, name, time, level, message, t));
 				}
@@ -153,6 +208,47 @@ public class PatternFormatter implements Formatter {
 		parsePattern(this.pattern);
 	}
 
+	/**
+	 * Get the maximum length of the message.
+	 * 
+	 * @return the maximum number of characters, or 0 for no maximum.
+	 */
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * Get the <code>ThrowableRenderer</code> that renders the throwables, e.g.
+	 * for its properties.
+	 * 
+	 * @return the renderer.
+	 */
+	public ThrowableRenderer getThrowableRenderer() {
+		return throwableRenderer;
+	}
+
+	/**
+	 * Set the maximum length of the message. A longer message is cut off,
+	 * without rendering the rest of it.
+	 * 
+	 * @param maxMessageLength
+	 *            the maximum number of characters, or 0 for no maximum.
+	 * @throws IllegalArgumentException
+	 *             if the <code>maxMessageLength</code> is negative.
+	 */
+	public void setMaxMessageLength(int maxMessageLength)
+			throws IllegalArgumentException {
+		if (maxMessageLength < 0) {
+			throw new IllegalArgumentException(
+					"The maxMessageLength must not be negative.");
+		}
+
+		this.maxMessageLength = maxMessageLength;
+		if (commandArray != null) {
+			setMessageOptions(commandArray, hasKeyValueCommand(commandArray));
+		}
+	}
+
 	/**
 	 * Parse the pattern.
 	 * 
@@ -164,6 +260,8 @@ public class PatternFormatter implements Formatter {
 		int currentIndex = 0;
 		int patternLength = pattern.length();
 		Vector converterVector = new Vector(20);
+		boolean hasKeyValueCommand = false;
+		boolean hasLocationCommand = false;
 
 		while (currentIndex < patternLength) {
 			char currentChar = pattern.charAt(currentIndex);
@@ -214,7 +312,69 @@ public class PatternFormatter implements Formatter {
 					break;
 
 				case THROWABLE_CONVERSION_CHAR:
-					converterVector.addElement(new ThrowableFormatCommand());
+					ThrowableFormatCommand throwableFormatCommand = new ThrowableFormatCommand();
+					throwableFormatCommand.setThrowableRenderer(throwableRenderer);
+					converterVector.addElement(throwableFormatCommand);
+					break;
+
+				case MDC_CONVERSION_CHAR:
+					MDCFormatCommand mdcFormatCommand = new MDCFormatCommand();
+					// The specifier is optional, and only belongs to this
+					// conversion if it follows right after it.
+					if (currentIndex + 1 < patternLength
+							&& pattern.charAt(currentIndex + 1) == '{') {
+						specifier = extraxtSpecifier(pattern, currentIndex);
+						mdcFormatCommand.init(specifier);
+						currentIndex = currentIndex + specifier.length() + 2;
+					}
+					converterVector.addElement(mdcFormatCommand);
+					break;
+
+				case NDC_CONVERSION_CHAR:
+					converterVector.addElement(new NDCFormatCommand());
+					break;
+
+				case KEY_VALUE_CONVERSION_CHAR:
+					KeyValueFormatCommand keyValueFormatCommand = new KeyValueFormatCommand();
+					if (currentIndex + 1 < patternLength
+							&& pattern.charAt(currentIndex + 1) == '{') {
+						specifier = extraxtSpecifier(pattern, currentIndex);
+						keyValueFormatCommand.init(specifier);
+						currentIndex = currentIndex + specifier.length() + 2;
+					}
+					converterVector.addElement(keyValueFormatCommand);
+					hasKeyValueCommand = true;
+					break;
+
+				case CLASS_CONVERSION_CHAR:
+					LocationFormatCommand classFormatCommand = new LocationFormatCommand(
+							LocationFormatCommand.CLASS);
+					if (currentIndex + 1 < patternLength
+							&& pattern.charAt(currentIndex + 1) == '{') {
+						specifier = extraxtSpecifier(pattern, currentIndex);
+						classFormatCommand.init(specifier);
+						currentIndex = currentIndex + specifier.length() + 2;
+					}
+					converterVector.addElement(classFormatCommand);
+					hasLocationCommand = true;
+					break;
+
+				case FILE_CONVERSION_CHAR:
+					converterVector.addElement(new LocationFormatCommand(
+							LocationFormatCommand.FILE));
+					hasLocationCommand = true;
+					break;
+
+				case LINE_CONVERSION_CHAR:
+					converterVector.addElement(new LocationFormatCommand(
+							LocationFormatCommand.LINE));
+					hasLocationCommand = true;
+					break;
+
+				case METHOD_CONVERSION_CHAR:
+					converterVector.addElement(new LocationFormatCommand(
+							LocationFormatCommand.METHOD));
+					hasLocationCommand = true;
 					break;
 
 				case PERCENT_CONVERSION_CHAR:
@@ -255,9 +415,53 @@ public class PatternFormatter implements Formatter {
 		commandArray = new FormatCommandInterface[converterVector.size()];
 		converterVector.copyInto(commandArray);
 
+		setMessageOptions(commandArray, hasKeyValueCommand);
+
+		synchronized (this) {
+			if (hasLocationCommand != locationRequired) {
+				Location.setRequired(hasLocationCommand);
+				locationRequired = hasLocationCommand;
+			}
+		}
+
 		patternParsed = true;
 	}
 
+	/**
+	 * Tell that this formatter is no longer used, e.g. because the appender
+	 * got another formatter, so that the location is no longer found for it.
+	 * If the formatter is used again, the pattern is parsed again and the
+	 * location is required again.
+	 */
+	public synchronized void close() {
+		if (locationRequired) {
+			Location.setRequired(false);
+			locationRequired = false;
+			patternParsed = false;
+		}
+	}
+
+	private void setMessageOptions(FormatCommandInterface[] commands,
+			boolean textOnly) {
+		for (int index = 0; index < commands.length; index++) {
+			if (commands[index] instanceof MessageFormatCommand) {
+				MessageFormatCommand messageFormatCommand = (MessageFormatCommand) commands[index];
+				messageFormatCommand.setTextOnly(textOnly);
+				messageFormatCommand.setMaxLength(maxMessageLength);
+			}
+		}
+	}
+
+	private static boolean hasKeyValueCommand(FormatCommandInterface[] commands) {
+		for (int index = 0; index < commands.length; index++) {
+			if (commands[index] instanceof KeyValueFormatCommand) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
 	String extraxtSpecifier(String pattern, int index) {
 		String specifier = "";
 
@@ -283,6 +487,10 @@ public class PatternFormatter implements Formatter {
 
 		if (name.equals(PatternFormatter.PATTERN_PROPERTY)) {
 			this.setPattern(value);
+		} else if (name.equals(PatternFormatter.MAX_MESSAGE_LENGTH_PROPERTY)) {
+			this.setMaxMessageLength(Integer.parseInt(value.trim()));
+		} else {
+			throwableRenderer.setProperty(name, value);
 		}
 
 	}
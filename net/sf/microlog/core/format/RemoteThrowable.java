@@ -0,0 +1,49 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+/**
+ * A <code>RemoteThrowable</code> stands in for a <code>Throwable</code> that
+ * was logged on another device, so that a <code>Formatter</code> prints it as
+ * it was printed there.
+ * 
+ * @since 2.3
+ */
+public final class RemoteThrowable extends Throwable {
+
+	private final String description;
+
+	/**
+	 * Create a <code>RemoteThrowable</code>.
+	 * 
+	 * @param description
+	 *            the <code>toString()</code> value of the original
+	 *            <code>Throwable</code>.
+	 */
+	public RemoteThrowable(String description) {
+		super(description);
+		this.description = description;
+	}
+
+	/**
+	 * Get the <code>toString()</code> value of the original
+	 * <code>Throwable</code>.
+	 * 
+	 * @see java.lang.Throwable#toString()
+	 */
+	public String toString() {
+		return description;
+	}
+}
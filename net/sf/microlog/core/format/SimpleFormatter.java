@@ -16,10 +16,14 @@ package net.sf.microlog.core.format;
 
 import net.sf.microlog.core.Formatter;
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.RendererMap;
 
 /**
  * A simple formatter that only outputs the level, the message and the Throwable
- * object if available.
+ * object if available. The stack trace is printed if the stackTrace property
+ * is set, see <code>ThrowableRenderer</code>. The message is rendered by the
+ * <code>RendererMap</code>, and is cut off at the maxMessageLength property,
+ * if it is set.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @since 0.1
@@ -28,12 +32,26 @@ public final class SimpleFormatter implements Formatter {
 
 	public static final String DEFAULT_DELIMITER = "-";
 
+	public static final String MAX_MESSAGE_LENGTH_PROPERTY = "maxMessageLength";
+
+	private static final String[] PROPERTY_NAMES = {
+			MAX_MESSAGE_LENGTH_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEPTH_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_EXCLUDE_PROPERTY,
+			ThrowableRenderer.STACK_TRACE_DEDUPLICATE_PROPERTY };
+
 	private static final int INITIAL_BUFFER_SIZE = 256;
 
 	StringBuffer buffer = new StringBuffer(INITIAL_BUFFER_SIZE);
 
 	private String delimiter = DEFAULT_DELIMITER;
 
+	private int maxMessageLength;
+
+	private final ThrowableRenderer throwableRenderer = ThrowableRenderer
+			.createRenderer();
+
 	/**
 	 * Create a SimpleFormatter.
 	 */
@@ -59,6 +77,44 @@ public final class SimpleFormatter implements Formatter {
 		this.delimiter = delimiter;
 	}
 
+	/**
+	 * Get the maximum length of the message.
+	 * 
+	 * @return the maximum number of characters, or 0 for no maximum.
+	 */
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * Get the <code>ThrowableRenderer</code> that renders the throwables, e.g.
+	 * for its properties.
+	 * 
+	 * @return the renderer.
+	 */
+	public ThrowableRenderer getThrowableRenderer() {
+		return throwableRenderer;
+	}
+
+	/**
+	 * Set the maximum length of the message. A longer message is cut off,
+	 * without rendering the rest of it.
+	 * 
+	 * @param maxMessageLength
+	 *            the maximum number of characters, or 0 for no maximum.
+	 * @throws IllegalArgumentException
+	 *             if the <code>maxMessageLength</code> is negative.
+	 */
+	public void setMaxMessageLength(int maxMessageLength)
+			throws IllegalArgumentException {
+		if (maxMessageLength < 0) {
+			throw new IllegalArgumentException(
+					"The maxMessageLength must not be negative.");
+		}
+
+		this.maxMessageLength = maxMessageLength;
+	}
+
 	/**
 	 * Format the given message and the Throwable object. The format is
 	 * <code>{Level}{-message.toString()}{-t}</code>
@@ -91,24 +147,27 @@ public final class SimpleFormatter implements Formatter {
 
 		if (message != null) {
 			buffer.append(delimiter);
-			buffer.append(message);
+			RendererMap.render(message, buffer, maxMessageLength);
 		}
 
 		if (t != null) {
 			buffer.append(delimiter);
-			buffer.append(t);
+			throwableRenderer.render(t, buffer);
 		}
 
 		return buffer.toString();
 	}
 
 	public String[] getPropertyNames() {
-		// We have no properties that can be set.
-		return null;
+		return PROPERTY_NAMES;
 	}
 
 	public void setProperty(String name, String value) {
-		// We have no properties that can be set.
+		if (name.equals(MAX_MESSAGE_LENGTH_PROPERTY)) {
+			setMaxMessageLength(Integer.parseInt(value.trim()));
+		} else {
+			throwableRenderer.setProperty(name, value);
+		}
 	}
 	
 	
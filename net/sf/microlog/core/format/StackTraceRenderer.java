@@ -0,0 +1,80 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+/**
+ * A <code>ThrowableRenderer</code> for Java SE, which renders the frames and
+ * the causes of a <code>Throwable</code>. This class uses methods that are not
+ * available on CLDC, and is only loaded by name by
+ * <code>ThrowableRenderer.createRenderer()</code>, so it should be left out
+ * of a Java ME build.
+ * 
+ * @since 2.3
+ */
+public class StackTraceRenderer extends ThrowableRenderer {
+
+	/**
+	 * @see net.sf.microlog.core.format.ThrowableRenderer#getFrames(java.lang.Throwable)
+	 */
+	protected String[] getFrames(Throwable throwable) {
+		// The frames of a RemoteThrowable are the frames of the server.
+		if (throwable instanceof RemoteThrowable) {
+			return null;
+		}
+
+		StackTraceElement[] elements = throwable.getStackTrace();
+		String[] frames = new String[elements.length];
+		StringBuffer buffer = new StringBuffer(64);
+		for (int index = 0; index < elements.length; index++) {
+			buffer.setLength(0);
+			appendFrame(buffer, elements[index]);
+			frames[index] = buffer.toString();
+		}
+
+		return frames;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.format.ThrowableRenderer#getCause(java.lang.Throwable)
+	 */
+	protected Throwable getCause(Throwable throwable) {
+		return throwable.getCause();
+	}
+
+	/**
+	 * Append the frame as <code>class.method(file:line)</code>. Newer versions
+	 * of Java prefix <code>StackTraceElement.toString()</code> with the
+	 * module, which would not match the excluded packages.
+	 */
+	private static void appendFrame(StringBuffer buffer,
+			StackTraceElement element) {
+		buffer.append(element.getClassName());
+		buffer.append('.');
+		buffer.append(element.getMethodName());
+		buffer.append('(');
+		if (element.isNativeMethod()) {
+			buffer.append("Native Method");
+		} else if (element.getFileName() != null) {
+			buffer.append(element.getFileName());
+			if (element.getLineNumber() >= 0) {
+				buffer.append(':');
+				buffer.append(element.getLineNumber());
+			}
+		} else {
+			buffer.append("Unknown Source");
+		}
+		buffer.append(')');
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.sf.microlog.core.Formatter;
+
+/**
+ * The <code>ThrowableRenderer</code> renders a <code>Throwable</code> for a
+ * <code>Formatter</code>. By default only the <code>toString()</code> value
+ * is rendered, as before. When the {@value #STACK_TRACE_PROPERTY} property is
+ * set, the stack trace is rendered with the chain of causes, at most
+ * {@value #STACK_TRACE_DEPTH_PROPERTY} frames for each throwable, and without
+ * the frames of the packages in {@value #STACK_TRACE_EXCLUDE_PROPERTY}.
+ * 
+ * Each distinct stack trace gets a fingerprint, which is calculated from the
+ * class names and the frames, but not the messages. The first time a trace is
+ * rendered it is rendered in full and marked with <code>[trace#id]</code>.
+ * A repeat is rendered as the <code>toString()</code> value followed by the
+ * same reference, so that a storm of identical exceptions does not produce a
+ * full trace for each of them. The ids are kept by each renderer, i.e. by the
+ * formatter of an appender, and <code>reset()</code> starts over. The
+ * <code>Logger</code> does not share such a formatter between appenders, since
+ * an appender could then refer to a trace that it has never printed.
+ * 
+ * CLDC has no way to get the frames or the cause of a <code>Throwable</code>,
+ * so this class only renders the <code>toString()</code> values. On Java SE
+ * the <code>StackTraceRenderer</code> subclass is used, which is created by
+ * <code>createRenderer()</code> if it is available.
+ * 
+ * @since 2.3
+ */
+public class ThrowableRenderer {
+
+	public static final String STACK_TRACE_PROPERTY = "stackTrace";
+
+	public static final String STACK_TRACE_DEPTH_PROPERTY = "stackTraceDepth";
+
+	public static final String STACK_TRACE_EXCLUDE_PROPERTY = "stackTraceExclude";
+
+	public static final String STACK_TRACE_DEDUPLICATE_PROPERTY = "stackTraceDeduplicate";
+
+	public static final String[] PROPERTY_NAMES = { STACK_TRACE_PROPERTY,
+			STACK_TRACE_DEPTH_PROPERTY, STACK_TRACE_EXCLUDE_PROPERTY,
+			STACK_TRACE_DEDUPLICATE_PROPERTY };
+
+	public static final int DEFAULT_MAX_DEPTH = 64;
+
+	/**
+	 * The maximum number of causes that are rendered. This also stops a cause
+	 * chain with a loop.
+	 */
+	public static final int MAX_CAUSES = 8;
+
+	/**
+	 * The maximum number of fingerprints that are kept. When this is reached
+	 * the fingerprints are forgotten, and the traces are rendered in full
+	 * again.
+	 */
+	public static final int MAX_FINGERPRINTS = 256;
+
+	static final String STACK_TRACE_RENDERER_CLASS_NAME = "net.sf.microlog.core.format.StackTraceRenderer";
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private boolean stackTrace;
+
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+
+	private String[] excludedPackages = new String[0];
+
+	private boolean deduplicate = true;
+
+	private final Hashtable fingerprints = new Hashtable(31);
+
+	private int nextId = 1;
+
+	/**
+	 * Create a <code>ThrowableRenderer</code> for the platform. This is a
+	 * <code>StackTraceRenderer</code> if that class is available, otherwise a
+	 * <code>ThrowableRenderer</code>.
+	 * 
+	 * @return the renderer.
+	 */
+	public static ThrowableRenderer createRenderer() {
+		try {
+			Class rendererClass = Class
+					.forName(STACK_TRACE_RENDERER_CLASS_NAME);
+			return (ThrowableRenderer) rendererClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			// This is expected on Java ME.
+		} catch (InstantiationException e) {
+			System.err.println("Could not create the stack trace renderer " + e);
+		} catch (IllegalAccessException e) {
+			System.err.println("Could not create the stack trace renderer " + e);
+		} catch (NoClassDefFoundError e) {
+			// The class is there, but not the Java SE methods that it uses.
+		}
+
+		return new ThrowableRenderer();
+	}
+
+	/**
+	 * Get the <code>ThrowableRenderer</code> of a formatter.
+	 * 
+	 * @param formatter
+	 *            the formatter, which may be a <code>CachingFormatter</code>.
+	 * @return the renderer, or <code>null</code> if the formatter does not use
+	 *         a <code>ThrowableRenderer</code>.
+	 */
+	public static ThrowableRenderer getRenderer(Formatter formatter) {
+		if (formatter instanceof CachingFormatter) {
+			formatter = ((CachingFormatter) formatter).getFormatter();
+		}
+
+		if (formatter instanceof PatternFormatter) {
+			return ((PatternFormatter) formatter).getThrowableRenderer();
+		} else if (formatter instanceof SimpleFormatter) {
+			return ((SimpleFormatter) formatter).getThrowableRenderer();
+		} else if (formatter instanceof JsonFormatter) {
+			return ((JsonFormatter) formatter).getThrowableRenderer();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> if the stack traces are rendered.
+	 */
+	public boolean isStackTrace() {
+		return stackTrace;
+	}
+
+	/**
+	 * Set whether the stack traces are rendered, or only the
+	 * <code>toString()</code> values.
+	 * 
+	 * @param stackTrace
+	 *            <code>true</code> to render the stack traces.
+	 */
+	public void setStackTrace(boolean stackTrace) {
+		this.stackTrace = stackTrace;
+	}
+
+	/**
+	 * @return the maximum number of frames that are rendered for each
+	 *         throwable.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Set the maximum number of frames that are rendered for each throwable.
+	 * The filtered frames are not counted.
+	 * 
+	 * @param maxDepth
+	 *            the maximum number of frames.
+	 * @throws IllegalArgumentException
+	 *             if the <code>maxDepth</code> is negative.
+	 */
+	public void setMaxDepth(int maxDepth) throws IllegalArgumentException {
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException(
+					"The maxDepth must not be negative.");
+		}
+
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @return the comma separated names of the packages whose frames are left
+	 *         out, each ending with a period.
+	 */
+	public String getExcludedPackages() {
+		StringBuffer buffer = new StringBuffer();
+		String[] packages = excludedPackages;
+		for (int index = 0; index < packages.length; index++) {
+			if (index > 0) {
+				buffer.append(',');
+			}
+			buffer.append(packages[index]);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Set the packages whose frames are left out, e.g.
+	 * <code>java.lang.reflect,sun.reflect</code>.
+	 * 
+	 * @param packages
+	 *            the comma separated package names.
+	 * @throws IllegalArgumentException
+	 *             if the <code>packages</code> is <code>null</code>.
+	 */
+	public void setExcludedPackages(String packages)
+			throws IllegalArgumentException {
+		if (packages == null) {
+			throw new IllegalArgumentException(
+					"The packages must not be null.");
+		}
+
+		Vector packageVector = new Vector(4);
+		int startIndex = 0;
+		while (startIndex <= packages.length()) {
+			int endIndex = packages.indexOf(',', startIndex);
+			if (endIndex == -1) {
+				endIndex = packages.length();
+			}
+
+			String packageName = packages.substring(startIndex, endIndex)
+					.trim();
+			if (packageName.length() > 0) {
+				packageVector.addElement(packageName.endsWith(".") ? packageName
+						: packageName + '.');
+			}
+			startIndex = endIndex + 1;
+		}
+
+		String[] newExcludedPackages = new String[packageVector.size()];
+		packageVector.copyInto(newExcludedPackages);
+		excludedPackages = newExcludedPackages;
+	}
+
+	/**
+	 * @return <code>true</code> if the repeated stack traces are rendered as
+	 *         references.
+	 */
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * Set whether the repeated stack traces are rendered as references.
+	 * 
+	 * @param deduplicate
+	 *            <code>true</code> to render the repeats as references.
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * Set a property of the renderer. This is called by the formatters for
+	 * their properties.
+	 * 
+	 * @param name
+	 *            the name of the property.
+	 * @param value
+	 *            the value of the property.
+	 * @return <code>true</code> if this was a property of the renderer.
+	 * @throws IllegalArgumentException
+	 *             if the value is not valid.
+	 */
+	public boolean setProperty(String name, String value)
+			throws IllegalArgumentException {
+		if (name.equals(STACK_TRACE_PROPERTY)) {
+			setStackTrace("true".equalsIgnoreCase(value.trim()));
+		} else if (name.equals(STACK_TRACE_DEPTH_PROPERTY)) {
+			setMaxDepth(Integer.parseInt(value.trim()));
+		} else if (name.equals(STACK_TRACE_EXCLUDE_PROPERTY)) {
+			setExcludedPackages(value);
+		} else if (name.equals(STACK_TRACE_DEDUPLICATE_PROPERTY)) {
+			setDeduplicate("true".equalsIgnoreCase(value.trim()));
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Forget the fingerprints, so that the next traces are rendered in full.
+	 * This should be called when the log is sent over a new connection.
+	 */
+	public synchronized void reset() {
+		fingerprints.clear();
+		nextId = 1;
+	}
+
+	/**
+	 * Render the throwable.
+	 * 
+	 * @param throwable
+	 *            the throwable to render.
+	 * @return the rendered throwable, which is an empty <code>String</code>
+	 *         if the <code>throwable</code> is <code>null</code>.
+	 */
+	public String render(Throwable throwable) {
+		if (throwable == null) {
+			return "";
+		} else if (!stackTrace) {
+			return throwable.toString();
+		}
+
+		StringBuffer buffer = new StringBuffer(256);
+		render(throwable, buffer);
+		return buffer.toString();
+	}
+
+	/**
+	 * Render the throwable to the buffer.
+	 * 
+	 * @param throwable
+	 *            the throwable to render.
+	 * @param buffer
+	 *            the buffer to append to.
+	 */
+	public synchronized void render(Throwable throwable, StringBuffer buffer) {
+		if (throwable == null) {
+			return;
+		} else if (!stackTrace) {
+			buffer.append(throwable);
+			return;
+		}
+
+		Throwable[] chain = getChain(throwable);
+		String[][] frames = new String[chain.length][];
+		for (int index = 0; index < chain.length; index++) {
+			frames[index] = getFrames(chain[index]);
+		}
+
+		buffer.append(throwable);
+
+		if (deduplicate) {
+			Long fingerprint = new Long(fingerprint(chain, frames));
+			Integer id = (Integer) fingerprints.get(fingerprint);
+			if (id != null) {
+				buffer.append(" [trace#");
+				buffer.append(id.intValue());
+				buffer.append(']');
+				return;
+			}
+
+			if (fingerprints.size() >= MAX_FINGERPRINTS) {
+				fingerprints.clear();
+			}
+			id = new Integer(nextId++);
+			fingerprints.put(fingerprint, id);
+			buffer.append(" [trace#");
+			buffer.append(id.intValue());
+			buffer.append(']');
+		}
+
+		appendFrames(buffer, frames[0], 0);
+		for (int index = 1; index < chain.length; index++) {
+			buffer.append("\nCaused by: ");
+			buffer.append(chain[index]);
+			appendFrames(buffer, frames[index], commonFrameCount(
+					frames[index], frames[index - 1]));
+		}
+	}
+
+	/**
+	 * Calculate the fingerprint of the stack trace of a throwable, from the
+	 * class names and the frames of the chain of causes.
+	 * 
+	 * @param throwable
+	 *            the throwable.
+	 * @return the fingerprint.
+	 */
+	public long fingerprint(Throwable throwable) {
+		Throwable[] chain = getChain(throwable);
+		String[][] frames = new String[chain.length][];
+		for (int index = 0; index < chain.length; index++) {
+			frames[index] = getFrames(chain[index]);
+		}
+
+		return fingerprint(chain, frames);
+	}
+
+	/**
+	 * Get the frames of a throwable. CLDC does not have the frames, so this
+	 * returns <code>null</code>.
+	 * 
+	 * @param throwable
+	 *            the throwable.
+	 * @return the frames, most recent first, as
+	 *         <code>class.method(file:line)</code>, or <code>null</code> if
+	 *         the frames are not available.
+	 */
+	protected String[] getFrames(Throwable throwable) {
+		return null;
+	}
+
+	/**
+	 * Get the cause of a throwable. CLDC does not have the cause, so this
+	 * returns <code>null</code>.
+	 * 
+	 * @param throwable
+	 *            the throwable.
+	 * @return the cause, or <code>null</code>.
+	 */
+	protected Throwable getCause(Throwable throwable) {
+		return null;
+	}
+
+	private Throwable[] getChain(Throwable throwable) {
+		Vector chain = new Vector(2);
+		Throwable current = throwable;
+		while (current != null && chain.size() <= MAX_CAUSES
+				&& !chain.contains(current)) {
+			chain.addElement(current);
+			current = getCause(current);
+		}
+
+		Throwable[] chainArray = new Throwable[chain.size()];
+		chain.copyInto(chainArray);
+		return chainArray;
+	}
+
+	/**
+	 * Append the frames, leaving out the excluded packages and the frames in
+	 * common with the enclosing trace.
+	 */
+	private void appendFrames(StringBuffer buffer, String[] frames,
+			int commonCount) {
+		if (frames == null) {
+			return;
+		}
+
+		int frameCount = frames.length - commonCount;
+		int rendered = 0;
+		int filtered = 0;
+		int index = 0;
+
+		for (; index < frameCount && rendered < maxDepth; index++) {
+			if (isExcluded(frames[index])) {
+				filtered++;
+				continue;
+			}
+
+			appendFiltered(buffer, filtered);
+			filtered = 0;
+			buffer.append("\n\tat ");
+			buffer.append(frames[index]);
+			rendered++;
+		}
+		appendFiltered(buffer, filtered);
+
+		if (index < frameCount) {
+			buffer.append("\n\t... ");
+			buffer.append(frameCount - index);
+			buffer.append(" more frames");
+		}
+
+		if (commonCount > 0) {
+			buffer.append("\n\t... ");
+			buffer.append(commonCount);
+			buffer.append(" more");
+		}
+	}
+
+	private static void appendFiltered(StringBuffer buffer, int filtered) {
+		if (filtered > 0) {
+			buffer.append("\n\t... ");
+			buffer.append(filtered);
+			buffer.append(" filtered");
+		}
+	}
+
+	private boolean isExcluded(String frame) {
+		for (int index = 0; index < excludedPackages.length; index++) {
+			if (frame.startsWith(excludedPackages[index])) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Count the frames at the end of a cause that are the same as the frames
+	 * at the end of the enclosing trace.
+	 */
+	private static int commonFrameCount(String[] frames,
+			String[] enclosingFrames) {
+		if (frames == null || enclosingFrames == null) {
+			return 0;
+		}
+
+		int count = 0;
+		int index = frames.length - 1;
+		int enclosingIndex = enclosingFrames.length - 1;
+		while (index >= 0 && enclosingIndex >= 0
+				&& frames[index].equals(enclosingFrames[enclosingIndex])) {
+			count++;
+			index--;
+			enclosingIndex--;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Calculate a 64 bit FNV-1a hash of the class names and the frames. If
+	 * there are no frames the whole <code>toString()</code> value is used,
+	 * since that is all there is.
+	 */
+	private static long fingerprint(Throwable[] chain, String[][] frames) {
+		long hash = FNV_OFFSET_BASIS;
+
+		for (int index = 0; index < chain.length; index++) {
+			if (frames[index] != null) {
+				hash = hash(hash, chain[index].getClass().getName());
+				for (int frameIndex = 0; frameIndex < frames[index].length; frameIndex++) {
+					hash = hash(hash, frames[index][frameIndex]);
+				}
+			} else {
+				hash = hash(hash, chain[index].toString());
+			}
+		}
+
+		return hash;
+	}
+
+	private static long hash(long hash, String string) {
+		int length = string.length();
+		for (int index = 0; index < length; index++) {
+			hash = (hash ^ string.charAt(index)) * FNV_PRIME;
+		}
+
+		// Separate the strings, so that "ab" + "c" differs from "a" + "bc".
+		return (hash ^ 0xFFFF) * FNV_PRIME;
+	}
+}
@@ -18,6 +18,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
 
+import net.sf.microlog.core.AppenderDispatcher;
 import net.sf.microlog.core.Level;
 
 /**
@@ -59,7 +60,7 @@ public class DateFormatCommand implements FormatCommandInterface {
 			Object message, Throwable throwable) {
 
 		String dateString = "";
-		long currentTime = System.currentTimeMillis();
+		long currentTime = AppenderDispatcher.getEventTimestamp();
 
 		switch (format) {
 		case ABSOLUTE_FORMAT:
@@ -76,7 +77,7 @@ public class DateFormatCommand implements FormatCommandInterface {
 
 		default:
 			System.err.println("Unrecognized format, using default format.");
-			dateString = toAbsoluteFormat(System.currentTimeMillis());
+			dateString = toAbsoluteFormat(currentTime);
 			break;
 		}
 
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.microlog.core.format.command;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.StructuredMessage;
+
+/**
+ * A converter that is used for printing the key-value fields of a
+ * <code>StructuredMessage</code>. The fields are printed as
+ * <code>key=value</code> pairs, or as a JSON object with the
+ * <code>json</code> specifier, as in <code>%K{json}</code>. Nothing is
+ * printed for other messages.
+ * 
+ * Minimum requirements: CLDC 1.1
+ * 
+ * @since 2.3
+ */
+public class KeyValueFormatCommand implements FormatCommandInterface {
+
+	public static final String JSON_SPECIFIER = "json";
+
+	private boolean json;
+
+	/**
+	 * Set the style of the fields.
+	 * 
+	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
+	 */
+	public void init(String initString) {
+		json = JSON_SPECIFIER.equals(initString);
+	}
+
+	/**
+	 * Execute the <code>KeyValueFormatCommand</code>.
+	 */
+	public String execute(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable) {
+		if (!(message instanceof StructuredMessage)) {
+			return json ? "{}" : "";
+		}
+
+		StructuredMessage structuredMessage = (StructuredMessage) message;
+		StringBuffer buffer = new StringBuffer(64);
+		if (json) {
+			buffer.append('{');
+			structuredMessage.appendJsonMembers(buffer);
+			buffer.append('}');
+		} else {
+			structuredMessage.appendKeyValues(buffer);
+		}
+
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.format.command;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.Location;
+import net.sf.microlog.core.StringUtil;
+
+/**
+ * A converter that is used for printing a part of the <code>Location</code>
+ * of the caller, i.e. the class, the file, the line or the method. The class
+ * name could be shortened with a precision specifier, as in <code>%C{1}</code>.
+ * A '?' is printed if the location is not known, which is always the case on
+ * CLDC.
+ * 
+ * The <code>PatternFormatter</code> finds the location once for each log
+ * entry, and calls <code>execute(Location)</code>.
+ * 
+ * @since 2.3
+ */
+public class LocationFormatCommand implements FormatCommandInterface {
+
+	public static final int CLASS = 0;
+
+	public static final int FILE = 1;
+
+	public static final int LINE = 2;
+
+	public static final int METHOD = 3;
+
+	private static final String UNKNOWN = "?";
+
+	private final int part;
+
+	private int precisionSpecifier = CategoryFormatCommand.FULL_CLASS_NAME_SPECIFIER;
+
+	/**
+	 * Create a <code>LocationFormatCommand</code>.
+	 * 
+	 * @param part
+	 *            the part of the location to print, e.g. <code>LINE</code>.
+	 * @throws IllegalArgumentException
+	 *             if the <code>part</code> is not valid.
+	 */
+	public LocationFormatCommand(int part) throws IllegalArgumentException {
+		if (part < CLASS || part > METHOD) {
+			throw new IllegalArgumentException("Not a valid location part.");
+		}
+
+		this.part = part;
+	}
+
+	/**
+	 * Set the precision specifier of the class name.
+	 * 
+	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
+	 */
+	public void init(String initString) {
+		try {
+			precisionSpecifier = Integer.parseInt(initString);
+		} catch (NumberFormatException e) {
+			System.err
+					.println("Failed to parse the specifier for the %C pattern "
+							+ e);
+		}
+	}
+
+	/**
+	 * Execute the <code>LocationFormatCommand</code> with the location of the
+	 * event that is being logged.
+	 * 
+	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#execute(String,
+	 *      String, long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	public String execute(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable) {
+		return execute(Location.getEventLocation());
+	}
+
+	/**
+	 * Execute the <code>LocationFormatCommand</code> with a location that has
+	 * already been found.
+	 * 
+	 * @param location
+	 *            the location, or <code>null</code> if it is not known.
+	 * @return the converted <code>String</code>.
+	 */
+	public String execute(Location location) {
+		if (location == null) {
+			return UNKNOWN;
+		}
+
+		switch (part) {
+		case CLASS:
+			if (precisionSpecifier == CategoryFormatCommand.FULL_CLASS_NAME_SPECIFIER) {
+				return location.getClassName();
+			}
+			return StringUtil.extractPartialClassName(location.getClassName(),
+					precisionSpecifier);
+		case FILE:
+			return location.getFileName() != null ? location.getFileName()
+					: UNKNOWN;
+		case LINE:
+			return location.getLineNumber() >= 0 ? String.valueOf(location
+					.getLineNumber()) : UNKNOWN;
+		default:
+			return location.getMethodName();
+		}
+	}
+}
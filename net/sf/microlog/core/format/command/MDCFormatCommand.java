@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.microlog.core.format.command;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MDC;
+
+/**
+ * A converter that is used for printing a value of the <code>MDC</code>. The
+ * key is set with the specifier, as in <code>%X{requestId}</code>. Without a
+ * specifier the whole context is printed. If the logging is done by an
+ * <code>AppenderDispatcher</code>, the context of the thread that did the
+ * logging is printed.
+ * 
+ * Minimum requirements: CLDC 1.1
+ * 
+ * @since 2.3
+ */
+public class MDCFormatCommand implements FormatCommandInterface {
+
+	private String key;
+
+	/**
+	 * Set the key of the value to print.
+	 * 
+	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
+	 */
+	public void init(String initString) {
+		key = initString;
+	}
+
+	/**
+	 * Execute the <code>MDCFormatCommand</code>.
+	 */
+	public String execute(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable) {
+		if (key == null) {
+			return MDC.getEventContext().toString();
+		}
+
+		Object value = MDC.getEventContext().get(key);
+		return value != null ? value.toString() : "";
+	}
+
+}
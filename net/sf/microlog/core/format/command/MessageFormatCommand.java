@@ -16,15 +16,22 @@
 package net.sf.microlog.core.format.command;
 
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.RendererMap;
+import net.sf.microlog.core.StructuredMessage;
 
 /**
- * Convert the logged message.
+ * Convert the logged message. If the fields of a
+ * <code>StructuredMessage</code> are printed by another command, only its text
+ * is printed. The message is rendered by the <code>RendererMap</code>, which
+ * cuts it off at the maximum length, if it has been set.
  *
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  */
 public class MessageFormatCommand implements FormatCommandInterface {
 	
-	
+	private boolean textOnly;
+
+	private int maxLength;
 	
 	/**
 	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
@@ -39,11 +46,39 @@ public class MessageFormatCommand implements FormatCommandInterface {
 	public String execute(String clientID, String name, long time, Level level, Object message, Throwable throwable) {
 	
 		String convertedData = "";
-		if (message != null) {
-			convertedData = message.toString();
+		if (textOnly && message instanceof StructuredMessage) {
+			String text = ((StructuredMessage) message).getText();
+			if (text != null) {
+				convertedData = RendererMap.render(text, maxLength);
+			}
+		} else if (message != null) {
+			convertedData = RendererMap.render(message, maxLength);
 		}
 		
 		return convertedData;
 	}
+
+	/**
+	 * Set if only the text of a <code>StructuredMessage</code> is printed.
+	 * 
+	 * @param textOnly
+	 *            <code>true</code> if the fields are printed by another
+	 *            command.
+	 * @since 2.3
+	 */
+	public void setTextOnly(boolean textOnly) {
+		this.textOnly = textOnly;
+	}
+
+	/**
+	 * Set the maximum length of the printed message.
+	 * 
+	 * @param maxLength
+	 *            the maximum number of characters, or 0 for no maximum.
+	 * @since 2.3
+	 */
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
 	
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.microlog.core.format.command;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.NDC;
+
+/**
+ * A converter that is used for printing the <code>NDC</code>. If the logging
+ * is done by an <code>AppenderDispatcher</code>, the context of the thread
+ * that did the logging is printed.
+ * 
+ * Minimum requirements: CLDC 1.1
+ * 
+ * @since 2.3
+ */
+public class NDCFormatCommand implements FormatCommandInterface {
+
+	/**
+	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
+	 */
+	public void init(String preFormatString) {
+		// Do nothing.
+	}
+
+	/**
+	 * Execute the <code>NDCFormatCommand</code>.
+	 */
+	public String execute(String clientID, String name, long time, Level level,
+			Object message, Throwable throwable) {
+		String nestedContext = NDC.getEventContext();
+		return nestedContext != null ? nestedContext : "";
+	}
+
+}
@@ -15,10 +15,13 @@
 
 package net.sf.microlog.core.format.command;
 
+import net.sf.microlog.core.AppenderDispatcher;
 import net.sf.microlog.core.Level;
 
 /**
- * A converter that is used for printing the current thread name.
+ * A converter that is used for printing the current thread name. If the
+ * logging is done by an <code>AppenderDispatcher</code>, the name of the thread
+ * that did the logging is printed.
  * 
  * Minimum requirements: CLDC 1.1
  * 
@@ -38,7 +41,7 @@ public class ThreadFormatCommand implements FormatCommandInterface {
 	 */
 	public String execute(String clientID, String name, long time, Level level,
 			Object message, Throwable throwable) {
-		return Thread.currentThread().getName();
+		return AppenderDispatcher.getEventThreadName();
 	}
 
 }
@@ -16,13 +16,29 @@
 package net.sf.microlog.core.format.command;
 
 import net.sf.microlog.core.Level;
+import net.sf.microlog.core.format.ThrowableRenderer;
 
 /**
- * Converts the <code>Throwable</code> to a message.
+ * Converts the <code>Throwable</code> to a message. The
+ * <code>Throwable</code> is rendered by the <code>ThrowableRenderer</code> of
+ * the formatter, if it has been set.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  */
 public class ThrowableFormatCommand implements FormatCommandInterface {
+
+	private ThrowableRenderer throwableRenderer;
+
+	/**
+	 * Set the renderer of the <code>Throwable</code>. Without a renderer the
+	 * <code>toString()</code> value is used.
+	 * 
+	 * @param throwableRenderer
+	 *            the renderer to use.
+	 */
+	public void setThrowableRenderer(ThrowableRenderer throwableRenderer) {
+		this.throwableRenderer = throwableRenderer;
+	}
 	
 	/**
 	 * @see net.sf.microlog.core.format.command.FormatCommandInterface#init(String)
@@ -39,7 +55,9 @@ public class ThrowableFormatCommand implements FormatCommandInterface {
 	public String execute(String clientID, String name, long time, Level level, Object message, Throwable throwable) {
 
 		String throwableMessage = "";
-		if (throwable != null) {
+		if (throwableRenderer != null) {
+			throwableMessage = throwableRenderer.render(throwable);
+		} else if (throwable != null) {
 			throwableMessage = throwable.toString();
 		}
 
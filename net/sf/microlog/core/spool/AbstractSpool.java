@@ -0,0 +1,139 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.spool;
+
+import java.io.IOException;
+
+/**
+ * The abstract super class of the <code>Spool</code> implementations. It
+ * takes care of the bound and the drop policy, the subclasses only have to
+ * store the entries.
+ * 
+ * @since 2.3
+ */
+public abstract class AbstractSpool implements Spool {
+
+	/**
+	 * The default maximum number of entries.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 100;
+
+	public static final String DROP_NEWEST_STRING = "DROP_NEWEST";
+
+	public static final String DROP_OLDEST_STRING = "DROP_OLDEST";
+
+	protected int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	protected int dropPolicy = DROP_OLDEST;
+
+	private long droppedCount;
+
+	/**
+	 * @see Spool#add(String)
+	 */
+	public synchronized boolean add(String entry) throws IOException {
+		if (entry == null) {
+			throw new IllegalArgumentException("The entry must not be null.");
+		}
+
+		if (size() >= maxEntries) {
+			droppedCount++;
+
+			if (dropPolicy == DROP_NEWEST) {
+				return false;
+			}
+
+			while (size() >= maxEntries) {
+				remove();
+			}
+		}
+
+		store(entry);
+		return true;
+	}
+
+	/**
+	 * Store the entry at the end of the spool. There is always room for the
+	 * entry when this is called.
+	 * 
+	 * @param entry
+	 *            the entry to store.
+	 * @throws IOException
+	 *             if the entry could not be stored.
+	 */
+	protected abstract void store(String entry) throws IOException;
+
+	/**
+	 * @see Spool#setMaxEntries(int)
+	 */
+	public synchronized void setMaxEntries(int maxEntries)
+			throws IllegalArgumentException {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException(
+					"The maxEntries must not be less than 1.");
+		}
+
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Get the maximum number of entries.
+	 * 
+	 * @return the maximum number of entries.
+	 */
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @see Spool#setDropPolicy(int)
+	 */
+	public synchronized void setDropPolicy(int dropPolicy)
+			throws IllegalArgumentException {
+		if (dropPolicy != DROP_NEWEST && dropPolicy != DROP_OLDEST) {
+			throw new IllegalArgumentException("Not a valid drop policy.");
+		}
+
+		this.dropPolicy = dropPolicy;
+	}
+
+	/**
+	 * @see Spool#getDroppedCount()
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Convert a drop policy <code>String</code> to the corresponding constant.
+	 * 
+	 * @param dropPolicyString
+	 *            either "DROP_NEWEST" or "DROP_OLDEST".
+	 * @return the drop policy.
+	 * @throws IllegalArgumentException
+	 *             if the <code>String</code> is not a valid drop policy.
+	 */
+	public static int stringToDropPolicy(String dropPolicyString)
+			throws IllegalArgumentException {
+		if (DROP_NEWEST_STRING.equalsIgnoreCase(dropPolicyString)) {
+			return DROP_NEWEST;
+		} else if (DROP_OLDEST_STRING.equalsIgnoreCase(dropPolicyString)) {
+			return DROP_OLDEST;
+		}
+
+		throw new IllegalArgumentException("Not a valid drop policy: "
+				+ dropPolicyString);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.spool;
+
+import java.io.IOException;
+
+/**
+ * A <code>Spool</code> is a bounded, persistent first-in-first-out store for
+ * log entries that could not be delivered to a server. The entries are kept in
+ * the order they were added.
+ * 
+ * @since 2.3
+ */
+public interface Spool {
+
+	/**
+	 * Drop the entry that is being added when the spool is full.
+	 */
+	int DROP_NEWEST = 0;
+
+	/**
+	 * Drop the oldest entry in the spool to make room for the new entry.
+	 */
+	int DROP_OLDEST = 1;
+
+	/**
+	 * Open the spool. Entries that were stored by a previous session are
+	 * available after the spool has been opened.
+	 * 
+	 * @throws IOException
+	 *             if the spool could not be opened.
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Close the spool. The stored entries are kept.
+	 * 
+	 * @throws IOException
+	 *             if the spool could not be closed.
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Add an entry at the end of the spool. If the spool is full, the drop
+	 * policy decides which entry is dropped.
+	 * 
+	 * @param entry
+	 *            the entry to add.
+	 * @return <code>true</code> if the entry was stored, <code>false</code> if
+	 *         it was dropped.
+	 * @throws IOException
+	 *             if the entry could not be stored.
+	 */
+	boolean add(String entry) throws IOException;
+
+	/**
+	 * Get the oldest entry without removing it.
+	 * 
+	 * @return the oldest entry, or <code>null</code> if the spool is empty.
+	 * @throws IOException
+	 *             if the entry could not be read.
+	 */
+	String peek() throws IOException;
+
+	/**
+	 * Remove the oldest entry.
+	 * 
+	 * @throws IOException
+	 *             if the entry could not be removed.
+	 */
+	void remove() throws IOException;
+
+	/**
+	 * Get the number of entries in the spool.
+	 * 
+	 * @return the number of entries.
+	 */
+	int size();
+
+	/**
+	 * Set the maximum number of entries that are kept in the spool.
+	 * 
+	 * @param maxEntries
+	 *            the maximum number of entries.
+	 * @throws IllegalArgumentException
+	 *             if <code>maxEntries</code> is less than 1.
+	 */
+	void setMaxEntries(int maxEntries) throws IllegalArgumentException;
+
+	/**
+	 * Set the policy to use when the spool is full.
+	 * 
+	 * @param dropPolicy
+	 *            one of <code>DROP_NEWEST</code> or <code>DROP_OLDEST</code>.
+	 * @throws IllegalArgumentException
+	 *             if the <code>dropPolicy</code> is not valid.
+	 */
+	void setDropPolicy(int dropPolicy) throws IllegalArgumentException;
+
+	/**
+	 * Get the number of entries that has been dropped since the spool was
+	 * created.
+	 * 
+	 * @return the number of dropped entries.
+	 */
+	long getDroppedCount();
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.spool;
+
+import java.io.IOException;
+
+import net.sf.microlog.core.MicrologConstants;
+
+/**
+ * The <code>SpoolForwarder</code> delivers log entries to a
+ * <code>SpoolTarget</code>. As long as the target is reachable the entries are
+ * delivered directly on the calling thread. When a delivery fails the entry is
+ * stored in the <code>Spool</code>, and so are all following entries, until a
+ * background thread has managed to replay the whole spool to the target. This
+ * way the entries are always delivered in the order they were logged.
+ * 
+ * The replay thread waits <code>retryInterval</code> milliseconds after a
+ * failed attempt. The wait time is doubled for each failed attempt, up to
+ * <code>MAX_RETRY_INTERVAL</code>.
+ * 
+ * @since 2.3
+ */
+public class SpoolForwarder implements Runnable {
+
+	/**
+	 * The appender property for the location of the spool.
+	 */
+	public static final String SPOOL_PROPERTY = "spool";
+
+	/**
+	 * The appender property for the maximum number of spooled entries.
+	 */
+	public static final String SPOOL_MAX_ENTRIES_PROPERTY = "spoolMaxEntries";
+
+	/**
+	 * The appender property for the drop policy, "DROP_OLDEST" or
+	 * "DROP_NEWEST".
+	 */
+	public static final String SPOOL_DROP_POLICY_PROPERTY = "spoolDropPolicy";
+
+	/**
+	 * The appender property for the retry interval in milliseconds.
+	 */
+	public static final String SPOOL_RETRY_INTERVAL_PROPERTY = "spoolRetryInterval";
+
+	public static final long DEFAULT_RETRY_INTERVAL = 5000;
+
+	public static final long MAX_RETRY_INTERVAL = 5 * 60 * 1000;
+
+	private final Spool spool;
+
+	private final SpoolTarget target;
+
+	private long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+	private boolean spooling;
+
+	private boolean stopped = true;
+
+	private Thread replayThread;
+
+	private long spooledCount;
+
+	private long replayedCount;
+
+	/**
+	 * The number of entries that have been dropped from the head of the spool
+	 * to make room for new entries. The replay thread compares this before and
+	 * after a delivery, to know whether the head is still the delivered entry.
+	 */
+	private long headDropCount;
+
+	/**
+	 * Create a <code>SpoolForwarder</code>.
+	 * 
+	 * @param spool
+	 *            the <code>Spool</code> to store undeliverable entries in.
+	 * @param target
+	 *            the <code>SpoolTarget</code> to deliver the entries to.
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is <code>null</code>.
+	 */
+	public SpoolForwarder(Spool spool, SpoolTarget target)
+			throws IllegalArgumentException {
+		if (spool == null || target == null) {
+			throw new IllegalArgumentException(
+					"The spool and the target must not be null.");
+		}
+
+		this.spool = spool;
+		this.target = target;
+	}
+
+	/**
+	 * Open the spool. If there are entries left from a previous session, the
+	 * replay of these is started.
+	 * 
+	 * @throws IOException
+	 *             if the spool could not be opened.
+	 */
+	public synchronized void open() throws IOException {
+		if (stopped) {
+			spool.open();
+			stopped = false;
+
+			if (spool.size() > 0) {
+				spooling = true;
+				startReplay();
+			}
+		}
+	}
+
+	/**
+	 * Close the spool. The replay is stopped and the spooled entries are kept
+	 * until the spool is opened again.
+	 * 
+	 * @throws IOException
+	 *             if the spool could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		if (!stopped) {
+			stopped = true;
+			notifyAll();
+			spool.close();
+		}
+	}
+
+	/**
+	 * Forward the entry to the target. If the target could not be reached, or
+	 * if older entries are still waiting in the spool, the entry is spooled.
+	 * 
+	 * @param entry
+	 *            the entry to forward.
+	 */
+	public synchronized void forward(String entry) {
+		if (!spooling) {
+			try {
+				target.deliver(entry);
+				return;
+			} catch (IOException e) {
+				System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+						+ "Failed to deliver log entry, spooling. " + e);
+				spooling = true;
+			}
+		}
+
+		try {
+			int size = spool.size();
+			boolean stored = spool.add(entry);
+			if (stored) {
+				spooledCount++;
+			}
+
+			// Any entries that were removed were dropped from the head.
+			int dropped = size + (stored ? 1 : 0) - spool.size();
+			if (dropped > 0) {
+				headDropCount += dropped;
+			}
+		} catch (IOException e) {
+			System.err.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+					+ "Failed to spool log entry " + e);
+		}
+
+		startReplay();
+	}
+
+	/**
+	 * Start the replay thread, if it is not already running.
+	 */
+	private void startReplay() {
+		if (replayThread == null && !stopped) {
+			replayThread = new Thread(this);
+			replayThread.start();
+		}
+	}
+
+	/**
+	 * Replay the spooled entries to the target, oldest entry first. The thread
+	 * ends when the spool is empty or the forwarder is closed.
+	 */
+	public void run() {
+		long waitTime = retryInterval;
+
+		while (true) {
+			String entry = null;
+			long dropCount;
+
+			synchronized (this) {
+				dropCount = headDropCount;
+				if (!stopped) {
+					try {
+						entry = spool.peek();
+					} catch (IOException e) {
+						System.err
+								.println(MicrologConstants.MICROLOG_MESSAGE_PREFIX
+										+ "Failed to read the spool " + e);
+					}
+				}
+
+				if (entry == null) {
+					if (!stopped) {
+						spooling = false;
+					}
+					replayThread = null;
+					return;
+				}
+			}
+
+			try {
+				target.deliver(entry);
+				waitTime = retryInterval;
+
+				synchronized (this) {
+					// The entry could have been dropped while we were
+					// delivering it, if the spool was full. Comparing the
+					// entries is not enough, since the next entry could be
+					// equal to the delivered one.
+					if (!stopped && dropCount == headDropCount) {
+						spool.remove();
+					}
+					replayedCount++;
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					if (!stopped) {
+						try {
+							wait(waitTime);
+						} catch (InterruptedException ie) {
+							// Try again
+						}
+					}
+				}
+
+				waitTime = Math.min(waitTime * 2, MAX_RETRY_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * Check if the entries are currently spooled, i.e. the target is not
+	 * reachable.
+	 * 
+	 * @return <code>true</code> if the entries are spooled.
+	 */
+	public synchronized boolean isSpooling() {
+		return spooling;
+	}
+
+	/**
+	 * Get the <code>Spool</code> that is used.
+	 * 
+	 * @return the spool.
+	 */
+	public Spool getSpool() {
+		return spool;
+	}
+
+	/**
+	 * Get the number of entries that has been stored in the spool.
+	 * 
+	 * @return the number of spooled entries.
+	 */
+	public synchronized long getSpooledCount() {
+		return spooledCount;
+	}
+
+	/**
+	 * Get the number of entries that has been replayed from the spool.
+	 * 
+	 * @return the number of replayed entries.
+	 */
+	public synchronized long getReplayedCount() {
+		return replayedCount;
+	}
+
+	/**
+	 * Get the retry interval.
+	 * 
+	 * @return the retry interval in milliseconds.
+	 */
+	public synchronized long getRetryInterval() {
+		return retryInterval;
+	}
+
+	/**
+	 * Set the time to wait before the first retry after a failed delivery.
+	 * 
+	 * @param retryInterval
+	 *            the retry interval in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             if the <code>retryInterval</code> is less than 1.
+	 */
+	public synchronized void setRetryInterval(long retryInterval)
+			throws IllegalArgumentException {
+		if (retryInterval < 1) {
+			throw new IllegalArgumentException(
+					"The retryInterval must not be less than 1.");
+		}
+
+		this.retryInterval = retryInterval;
+	}
+
+	/**
+	 * Set the spool specific properties. The <code>SPOOL_PROPERTY</code> is
+	 * not handled here, since the creation of the <code>Spool</code> is
+	 * platform specific.
+	 * 
+	 * @param name
+	 *            the name of the property.
+	 * @param value
+	 *            the value of the property.
+	 * @return <code>true</code> if the property was a spool property.
+	 * @throws IllegalArgumentException
+	 *             if the value is not valid.
+	 */
+	public boolean setProperty(String name, String value)
+			throws IllegalArgumentException {
+		boolean spoolProperty = true;
+
+		if (name.equals(SPOOL_MAX_ENTRIES_PROPERTY)) {
+			spool.setMaxEntries(Integer.parseInt(value));
+		} else if (name.equals(SPOOL_DROP_POLICY_PROPERTY)) {
+			spool.setDropPolicy(AbstractSpool.stringToDropPolicy(value));
+		} else if (name.equals(SPOOL_RETRY_INTERVAL_PROPERTY)) {
+			setRetryInterval(Long.parseLong(value));
+		} else {
+			spoolProperty = false;
+		}
+
+		return spoolProperty;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.core.spool;
+
+import java.io.IOException;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * The interface that is used by the <code>SpoolForwarder</code> to deliver an
+ * entry to the server, and by the <code>FailoverAppender</code> to log an
+ * entry so that a failure is reported.
+ * 
+ * @since 2.3
+ */
+public interface SpoolTarget {
+
+	/**
+	 * Deliver the entry to the server.
+	 * 
+	 * @param entry
+	 *            the entry to deliver.
+	 * @throws IOException
+	 *             if the entry could not be delivered. The entry is then kept
+	 *             in the spool.
+	 */
+	void deliver(String entry) throws IOException;
+
+	/**
+	 * Create the entry that is delivered for a log entry, i.e. the log entry
+	 * formatted by the <code>Formatter</code> or encoded in the binary
+	 * format, as it would be spooled.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @param name
+	 *            the name of the logger.
+	 * @param time
+	 *            the time since the first logging has done (in milliseconds).
+	 * @param level
+	 *            the logging level
+	 * @param message
+	 *            the message to log.
+	 * @param t
+	 *            the exception to log.
+	 * @return the entry, or <code>null</code> if nothing is delivered, e.g.
+	 *         if there is no formatter.
+	 */
+	String createEntry(String clientID, String name, long time, Level level,
+			Object message, Throwable t);
+}
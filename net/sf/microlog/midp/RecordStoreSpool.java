@@ -0,0 +1,249 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.midp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+import net.sf.microlog.core.spool.AbstractSpool;
+
+/**
+ * A <code>Spool</code> that stores the entries in a <code>RecordStore</code>.
+ * Each record contains a sequence number followed by the entry, written with
+ * <code>writeUTF()</code>. The sequence number is used for restoring the order
+ * when the spool is opened again.
+ * 
+ * @since 2.3
+ */
+public class RecordStoreSpool extends AbstractSpool {
+
+	/**
+	 * The default name of the spool <code>RecordStore</code>.
+	 */
+	public static final String DEFAULT_SPOOL_NAME = "LogSpool";
+
+	private final String recordStoreName;
+
+	private RecordStore recordStore;
+
+	/**
+	 * The record ids, oldest first, stored as a cyclic queue.
+	 */
+	private int[] recordIds = new int[DEFAULT_MAX_ENTRIES];
+
+	private int head;
+
+	private int size;
+
+	private long nextSequence;
+
+	private String peekedEntry;
+
+	private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(
+			64);
+
+	private final DataOutputStream dataOutputStream = new DataOutputStream(
+			byteArrayOutputStream);
+
+	/**
+	 * Create a <code>RecordStoreSpool</code> with the default name.
+	 */
+	public RecordStoreSpool() {
+		this(DEFAULT_SPOOL_NAME);
+	}
+
+	/**
+	 * Create a <code>RecordStoreSpool</code> with the specified name.
+	 * 
+	 * @param recordStoreName
+	 *            the name of the <code>RecordStore</code>.
+	 * @throws IllegalArgumentException
+	 *             if the name is <code>null</code> or the length is not between
+	 *             1 and 32.
+	 */
+	public RecordStoreSpool(String recordStoreName)
+			throws IllegalArgumentException {
+		if (recordStoreName == null || recordStoreName.length() < 1
+				|| recordStoreName.length() > 32) {
+			throw new IllegalArgumentException(
+					"The recordStoreName must not be null, the length between 1..32");
+		}
+
+		this.recordStoreName = recordStoreName;
+	}
+
+	/**
+	 * Open the <code>RecordStore</code> and load the ids of the stored
+	 * entries, oldest first.
+	 * 
+	 * @see net.sf.microlog.core.spool.Spool#open()
+	 */
+	public synchronized void open() throws IOException {
+		if (recordStore != null) {
+			return;
+		}
+
+		try {
+			recordStore = RecordStore.openRecordStore(recordStoreName, true);
+			RecordEnumeration enumeration = recordStore.enumerateRecords(null,
+					new AscendingComparator(), false);
+
+			head = 0;
+			size = 0;
+			recordIds = new int[Math.max(maxEntries, enumeration.numRecords())];
+			while (enumeration.hasNextElement()) {
+				recordIds[size++] = enumeration.nextRecordId();
+			}
+			enumeration.destroy();
+
+			nextSequence = 0;
+			if (size > 0) {
+				byte[] newest = recordStore.getRecord(recordIds[size - 1]);
+				nextSequence = new DataInputStream(new ByteArrayInputStream(
+						newest)).readLong() + 1;
+			}
+
+			// The bound could have been lowered since the last session.
+			while (size > maxEntries) {
+				remove();
+			}
+		} catch (RecordStoreException e) {
+			recordStore = null;
+			throw new IOException("Failed to open the spool " + e);
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#close()
+	 */
+	public synchronized void close() throws IOException {
+		if (recordStore != null) {
+			try {
+				recordStore.closeRecordStore();
+			} catch (RecordStoreException e) {
+				throw new IOException("Failed to close the spool " + e);
+			} finally {
+				recordStore = null;
+				peekedEntry = null;
+			}
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.AbstractSpool#store(java.lang.String)
+	 */
+	protected void store(String entry) throws IOException {
+		checkOpen();
+
+		byteArrayOutputStream.reset();
+		dataOutputStream.writeLong(nextSequence);
+		dataOutputStream.writeUTF(entry);
+		byte[] data = byteArrayOutputStream.toByteArray();
+
+		try {
+			int recordId = recordStore.addRecord(data, 0, data.length);
+			nextSequence++;
+
+			if (size == recordIds.length) {
+				int[] newRecordIds = new int[size * 2];
+				for (int index = 0; index < size; index++) {
+					newRecordIds[index] = recordIds[(head + index)
+							% recordIds.length];
+				}
+				recordIds = newRecordIds;
+				head = 0;
+			}
+
+			recordIds[(head + size) % recordIds.length] = recordId;
+			size++;
+		} catch (RecordStoreException e) {
+			throw new IOException("Failed to store the entry " + e);
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#peek()
+	 */
+	public synchronized String peek() throws IOException {
+		if (size == 0) {
+			return null;
+		}
+
+		if (peekedEntry == null) {
+			checkOpen();
+			try {
+				byte[] data = recordStore.getRecord(recordIds[head]);
+				DataInputStream dataInputStream = new DataInputStream(
+						new ByteArrayInputStream(data));
+				dataInputStream.readLong();
+				peekedEntry = dataInputStream.readUTF();
+			} catch (RecordStoreException e) {
+				throw new IOException("Failed to read the entry " + e);
+			}
+		}
+
+		return peekedEntry;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#remove()
+	 */
+	public synchronized void remove() throws IOException {
+		if (size == 0) {
+			return;
+		}
+
+		checkOpen();
+		int recordId = recordIds[head];
+		head = (head + 1) % recordIds.length;
+		size--;
+		peekedEntry = null;
+
+		try {
+			recordStore.deleteRecord(recordId);
+		} catch (RecordStoreException e) {
+			throw new IOException("Failed to remove the entry " + e);
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#size()
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Get the name of the <code>RecordStore</code>.
+	 * 
+	 * @return the record store name.
+	 */
+	public String getRecordStoreName() {
+		return recordStoreName;
+	}
+
+	private void checkOpen() throws IOException {
+		if (recordStore == null) {
+			throw new IOException("The spool is not open.");
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.midp;
+
+import net.sf.microlog.core.spool.Spool;
+import net.sf.microlog.midp.file.FileSpool;
+
+/**
+ * The <code>SpoolFactory</code> creates a <code>Spool</code> from the value of
+ * the "spool" appender property. A location that starts with "file:" creates a
+ * <code>FileSpool</code>, which requires JSR-75. Any other location is used as
+ * the name of a <code>RecordStoreSpool</code>.
+ * 
+ * @since 2.3
+ */
+public final class SpoolFactory {
+
+	public static final String FILE_URI_PREFIX = "file:";
+
+	private SpoolFactory() {
+	}
+
+	/**
+	 * Create a <code>Spool</code> for the specified location.
+	 * 
+	 * @param location
+	 *            the file URI or the record store name.
+	 * @return the created <code>Spool</code>.
+	 * @throws IllegalArgumentException
+	 *             if the <code>location</code> is <code>null</code> or not
+	 *             valid.
+	 */
+	public static Spool createSpool(String location)
+			throws IllegalArgumentException {
+		if (location == null) {
+			throw new IllegalArgumentException("The location must not be null.");
+		}
+
+		// The FileSpool class is only loaded if a file is used, so that JSR-75
+		// is not needed for the RecordStoreSpool.
+		if (location.startsWith(FILE_URI_PREFIX)) {
+			return new FileSpool(location);
+		}
+
+		return new RecordStoreSpool(location);
+	}
+}
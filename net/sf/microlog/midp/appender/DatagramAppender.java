@@ -15,6 +15,7 @@
 package net.sf.microlog.midp.appender;
 
 import java.io.IOException;
+import java.util.Vector;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.Datagram;
@@ -23,16 +24,27 @@ import javax.microedition.io.DatagramConnection;
 import net.sf.microlog.core.IOUtil;
 import net.sf.microlog.core.Level;
 import net.sf.microlog.core.MicrologConstants;
+import net.sf.microlog.core.StringUtil;
 import net.sf.microlog.core.appender.AbstractAppender;
+import net.sf.microlog.core.spool.Spool;
+import net.sf.microlog.core.spool.SpoolForwarder;
+import net.sf.microlog.core.spool.SpoolTarget;
+import net.sf.microlog.midp.SpoolFactory;
 
 /**
  * An <code>Appender</code> that logs via UDP (Datagram) to a remote host. Each
  * logging is sent to the host at the time of logging (no buffer). The class
- * uses a <code>Datagram</code> that is re-used and filled with new data each
- * time a message is sent.
+ * keeps a small pool of <code>Datagram</code> objects that are re-used and
+ * filled with new data each time a message is sent, so that several threads
+ * could send at the same time. With the default ASCII encoding the message is
+ * written straight into the data of the <code>Datagram</code>.
  * <p>
  * The appender can be configured with {@value #HOST_PROPERTY} for the
  * host and {@value #PORT_PROPERTY} for the port.
+ * <p>
+ * A <code>Spool</code> could be set to store the messages that could not be
+ * sent, for example when the network is not available. The spooled messages are
+ * sent in order when the network is available again.
  * 
  * 
  * This class requires MIDP 2.0 or better.
@@ -45,14 +57,19 @@ import net.sf.microlog.core.appender.AbstractAppender;
  * @author Marius de Beer
  * @since 0.6
  */
-public class DatagramAppender extends AbstractAppender {
+public class DatagramAppender extends AbstractAppender implements
+		SpoolTarget {
 
 	public static final String HOST_PROPERTY = "host";
 
 	public static final String PORT_PROPERTY = "port";
 
 	public static final String[] PROPERTY_NAMES = {
-			DatagramAppender.HOST_PROPERTY, DatagramAppender.PORT_PROPERTY };
+			DatagramAppender.HOST_PROPERTY, DatagramAppender.PORT_PROPERTY,
+			SpoolForwarder.SPOOL_PROPERTY,
+			SpoolForwarder.SPOOL_MAX_ENTRIES_PROPERTY,
+			SpoolForwarder.SPOOL_DROP_POLICY_PROPERTY,
+			SpoolForwarder.SPOOL_RETRY_INTERVAL_PROPERTY };
 	
 	/**
 	 * The default port to be used for logging.
@@ -64,36 +81,62 @@ public class DatagramAppender extends AbstractAppender {
 	 */
 	static final int DEFAULT_DATAGRAM_SIZE = 128;
 
+	/**
+	 * The maximum number of idle datagrams that are kept for reuse.
+	 */
+	static final int MAX_POOLED_DATAGRAMS = 4;
+
 	String host = MicrologConstants.DEFAULT_HOST;
 
 	int port = DEFAULT_DATAGRAM_PORT;
 
 	private String encoding = "ASCII";
 
+	private boolean asciiEncoding = true;
+
 	private int datagramSize = DEFAULT_DATAGRAM_SIZE;
 	
 	protected DatagramConnection connection;
 
 	/**
-	 * This is one datagram that is used over and over again.
+	 * The idle datagrams of the current connection, which are used over and
+	 * over again.
 	 */
-	private Datagram datagram;
-	
+	private final Vector datagramPool = new Vector(MAX_POOLED_DATAGRAMS);
+
+	private SpoolForwarder spoolForwarder;
+
 
 	/**
 	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
 	 */
-	public void open() throws IOException {
+	public synchronized void open() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.open();
+
+			try {
+				connect();
+			} catch (IOException e) {
+				System.err.println("Could not open the DatagramConnection " + e
+						+ " => spooling");
+			}
+		} else {
+			connect();
+		}
 
-		StringBuffer connectionStringBuffer = new StringBuffer(32);
-		connectionStringBuffer.append("datagram://");
-		connectionStringBuffer.append(host);
-		connectionStringBuffer.append(':');
-		connectionStringBuffer.append(port);
-		connection = (DatagramConnection) Connector.open(connectionStringBuffer
-				.toString());
 		logOpen = true;
+	}
 
+	private void connect() throws IOException {
+		if (connection == null) {
+			StringBuffer connectionStringBuffer = new StringBuffer(32);
+			connectionStringBuffer.append("datagram://");
+			connectionStringBuffer.append(host);
+			connectionStringBuffer.append(':');
+			connectionStringBuffer.append(port);
+			connection = (DatagramConnection) Connector
+					.open(connectionStringBuffer.toString());
+		}
 	}
 
 	/**
@@ -108,32 +151,152 @@ public class DatagramAppender extends AbstractAppender {
 	 */
 	public void doLog(String clientID, String name, long time, Level level,
 			Object message, Throwable t) {
-		if (logOpen && formatter != null) {
-			String logMessage = formatter.format(clientID, name, time, level,
+		if (logOpen) {
+			String logMessage = createEntry(clientID, name, time, level,
 					message, t);
-			sendMessage(logMessage);
+			if (logMessage != null) {
+				sendMessage(logMessage);
+			}
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.SpoolTarget#createEntry(String, String,
+	 *      long, Level, Object, Throwable)
+	 */
+	public String createEntry(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (formatter == null) {
+			return null;
 		}
+
+		return formatter.format(clientID, name, time, level, message, t);
 	}
 
 	/**
-	 * Send the message to the defined host.
+	 * Send the message to the defined host. If a <code>Spool</code> is set,
+	 * the message is spooled if it could not be sent. Without a
+	 * <code>Spool</code> the message is sent by the calling thread, which
+	 * only holds the lock of the appender to take a <code>Datagram</code>.
 	 * 
 	 * @param message
 	 *            the message to send.
 	 */
 	protected void sendMessage(String message) {
+		SpoolForwarder forwarder = getSpoolForwarder();
+		if (forwarder != null) {
+			forwarder.forward(message);
+		} else {
+			try {
+				deliver(message);
+			} catch (IOException e) {
+				System.err.println("Could not send the Datagram: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Send the message in a re-used <code>Datagram</code>. The connection is
+	 * opened again if a previous send failed.
+	 * 
+	 * @see net.sf.microlog.core.spool.SpoolTarget#deliver(java.lang.String)
+	 */
+	public void deliver(String message) throws IOException {
+		send(message, null);
+	}
+
+	/**
+	 * Send a message in a re-used <code>Datagram</code>. The message is
+	 * encoded with <code>encode()</code> into the data of the
+	 * <code>Datagram</code>, which gets a larger array if the message does
+	 * not fit. The connection is opened again if a previous send failed.
+	 * 
+	 * @param message
+	 *            the message to send.
+	 * @param level
+	 *            the level of the message, or <code>null</code> if the message
+	 *            is a complete entry, e.g. from the <code>Spool</code>.
+	 * @throws IOException
+	 *             if the message could not be sent.
+	 */
+	protected void send(String message, Level level) throws IOException {
+		DatagramConnection currentConnection;
+		Datagram datagram = null;
+		synchronized (this) {
+			connect();
+			currentConnection = connection;
+
+			int size = datagramPool.size();
+			if (size > 0) {
+				datagram = (Datagram) datagramPool.elementAt(size - 1);
+				datagramPool.removeElementAt(size - 1);
+			}
+		}
+
 		try {
 			if (datagram == null) {
-				datagram = connection.newDatagram(datagramSize);
+				datagram = currentConnection.newDatagram(datagramSize);
 			}
 
-			datagram.setData(message.getBytes(encoding), 0, message.length());
-			connection.send(datagram);
+			byte[] data = datagram.getData();
+			int length = encode(message, level, data);
+			if (length > data.length) {
+				data = new byte[length];
+				length = encode(message, level, data);
+			}
+			datagram.setData(data, 0, length);
+			currentConnection.send(datagram);
 		} catch (IOException e) {
-			System.err.println("Could not send the Datagram: " + e);
+			synchronized (this) {
+				if (connection == currentConnection) {
+					IOUtil.closeSilent(connection);
+					connection = null;
+					datagramPool.removeAllElements();
+				}
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (connection == currentConnection
+					&& datagramPool.size() < MAX_POOLED_DATAGRAMS) {
+				datagramPool.addElement(datagram);
+			}
 		}
 	}
 
+	/**
+	 * Encode a message into the data of a <code>Datagram</code>. The
+	 * <code>DatagramAppender</code> sends the message as it is. With the ASCII
+	 * encoding the characters are written straight into the array; another
+	 * encoding uses <code>getBytes()</code>.
+	 * 
+	 * @param message
+	 *            the message to encode.
+	 * @param level
+	 *            the level of the message, or <code>null</code> if the message
+	 *            is a complete entry.
+	 * @param data
+	 *            the array to encode into.
+	 * @return the number of bytes of the message. If this is larger than the
+	 *         length of the array, the message did not fit and is encoded
+	 *         again into a larger array.
+	 * @throws IOException
+	 *             if the encoding is not supported.
+	 */
+	protected int encode(String message, Level level, byte[] data)
+			throws IOException {
+		if (asciiEncoding) {
+			return StringUtil.writeAscii(message, data, 0);
+		}
+
+		byte[] bytes = message.getBytes(encoding);
+		if (bytes.length <= data.length) {
+			System.arraycopy(bytes, 0, data, 0, bytes.length);
+		}
+		return bytes.length;
+	}
+
 	/**
 	 * No Effect
 	 * 
@@ -147,8 +310,14 @@ public class DatagramAppender extends AbstractAppender {
 	 * @throws IOException
 	 *             if the close operation failed.
 	 */
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.close();
+		}
+
 		IOUtil.closeSilent(connection);
+		connection = null;
+		datagramPool.removeAllElements();
 		logOpen = false;
 	}
 
@@ -215,6 +384,18 @@ public class DatagramAppender extends AbstractAppender {
 		}
 
 		this.encoding = encoding;
+		asciiEncoding = encoding.equalsIgnoreCase("ASCII")
+				|| encoding.equalsIgnoreCase("US-ASCII");
+	}
+
+	/**
+	 * Tell if the characters are written straight into the data of the
+	 * <code>Datagram</code>, which is done for the ASCII encoding.
+	 * 
+	 * @return <code>true</code> if the encoding is ASCII.
+	 */
+	boolean isAsciiEncoding() {
+		return asciiEncoding;
 	}
 
 	/**
@@ -232,6 +413,36 @@ public class DatagramAppender extends AbstractAppender {
 		}
 	}
 
+	/**
+	 * Set the <code>Spool</code> that is used for storing the messages that
+	 * could not be sent. This is ignored if the log is open.
+	 * 
+	 * @param spool
+	 *            the spool to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>spool</code> is <code>null</code>.
+	 */
+	public synchronized void setSpool(Spool spool)
+			throws IllegalArgumentException {
+		if (spool == null) {
+			throw new IllegalArgumentException("The spool must not be null.");
+		}
+
+		if (!logOpen) {
+			spoolForwarder = new SpoolForwarder(spool, this);
+		}
+	}
+
+	/**
+	 * Get the <code>SpoolForwarder</code> that is used, if a
+	 * <code>Spool</code> has been set.
+	 * 
+	 * @return the spoolForwarder or <code>null</code> if no spool is used.
+	 */
+	public synchronized SpoolForwarder getSpoolForwarder() {
+		return spoolForwarder;
+	}
+
 	public String[] getPropertyNames() {
 		return DatagramAppender.PROPERTY_NAMES;
 	}
@@ -243,6 +454,10 @@ public class DatagramAppender extends AbstractAppender {
 			setHost(value);
 		} else if (name.equals(PORT_PROPERTY)) {
 			setPort(Integer.parseInt(value));
+		} else if (name.equals(SpoolForwarder.SPOOL_PROPERTY)) {
+			setSpool(SpoolFactory.createSpool(value));
+		} else if (spoolForwarder != null) {
+			spoolForwarder.setProperty(name, value);
 		}
 	}
 
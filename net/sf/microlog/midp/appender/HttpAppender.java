@@ -25,6 +25,8 @@ import javax.microedition.io.HttpConnection;
 import net.sf.microlog.core.Appender;
 import net.sf.microlog.core.IOUtil;
 import net.sf.microlog.core.appender.AbstractHttpAppender;
+import net.sf.microlog.core.spool.SpoolForwarder;
+import net.sf.microlog.midp.SpoolFactory;
 
 /**
  * This class uses the HTTP protocol to post the log messages to a server.
@@ -34,7 +36,12 @@ import net.sf.microlog.core.appender.AbstractHttpAppender;
 public class HttpAppender extends AbstractHttpAppender {
 
 	public static final String APPENDER_PROPERTY = "postURL";
-	private static final String[] PROPERTY_NAMES = { APPENDER_PROPERTY };
+	private static final String[] PROPERTY_NAMES = { APPENDER_PROPERTY,
+			BINARY_PROPERTY,
+			SpoolForwarder.SPOOL_PROPERTY,
+			SpoolForwarder.SPOOL_MAX_ENTRIES_PROPERTY,
+			SpoolForwarder.SPOOL_DROP_POLICY_PROPERTY,
+			SpoolForwarder.SPOOL_RETRY_INTERVAL_PROPERTY };
 
 	private HttpConnection connection;
 
@@ -68,7 +75,7 @@ public class HttpAppender extends AbstractHttpAppender {
 	 * 
 	 * @see net.sf.microlog.core.appender.AbstractAppender#close()
 	 */
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
 		IOUtil.closeSilent(connection);
 		super.close();
 	}
@@ -91,7 +98,10 @@ public class HttpAppender extends AbstractHttpAppender {
 	 * Discconnect from the server.
 	 */
 	protected void disconnect() throws IOException {
-		connection.close();
+		if (connection != null) {
+			connection.close();
+			connection = null;
+		}
 	}
 
 	/**
@@ -107,6 +117,12 @@ public class HttpAppender extends AbstractHttpAppender {
 	public void setProperty(String name, String value) {
 		if (name.equals(APPENDER_PROPERTY)) {
 			this.setPostURL(value);
+		} else if (name.equals(BINARY_PROPERTY)) {
+			setBinary("true".equalsIgnoreCase(value.trim()));
+		} else if (name.equals(SpoolForwarder.SPOOL_PROPERTY)) {
+			setSpool(SpoolFactory.createSpool(value));
+		} else if (spoolForwarder != null) {
+			spoolForwarder.setProperty(name, value);
 		}
 	}
 
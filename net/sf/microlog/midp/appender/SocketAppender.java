@@ -22,21 +22,42 @@ import javax.microedition.io.Connector;
 import javax.microedition.io.SocketConnection;
 
 import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.AppenderDispatcher;
 import net.sf.microlog.core.IOUtil;
 import net.sf.microlog.core.Level;
 import net.sf.microlog.core.appender.AbstractAppender;
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.BinaryEventDecoder;
+import net.sf.microlog.core.format.BinaryEventEncoder;
+import net.sf.microlog.core.spool.Spool;
+import net.sf.microlog.core.spool.SpoolForwarder;
+import net.sf.microlog.core.spool.SpoolTarget;
+import net.sf.microlog.midp.SpoolFactory;
 
 /**
  * This appender writes to a socket, using a <code>SocketConnection</code> or a
  * <code>SecureSocketConnection</code>. The log data itself is written using
  * <code>DataOutputStream</code> and the method <code>writeUTF()</code>.
  * 
+ * If the connection to the server is lost, the appender reconnects at the next
+ * logging. A <code>Spool</code> could be set to store the log entries while
+ * the server is unreachable. The spooled entries are sent in order when the
+ * connection is restored.
+ * 
+ * With the <code>binary</code> property set to <code>true</code>, the log
+ * entries are sent in the compact format of the <code>BinaryEventEncoder</code>
+ * instead, and no formatter is needed. The log entries are then spooled in the
+ * binary format too, each as a stream of its own, and are encoded again for the
+ * connection when they are sent. Entries that were spooled as text, before the
+ * binary format was turned on, are sent as text records, and binary entries
+ * are formatted if the binary format has been turned off.
+ * 
  * This class requires MIDP 2.0 or better.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @since 0.6
  */
-public class SocketAppender extends AbstractAppender {
+public class SocketAppender extends AbstractAppender implements SpoolTarget {
 
 	public static final String DEFAULT_SERVER_NAME = "127.0.0.1";
 	public static final int DEFAULT_SOCKET_PORT = 1234;
@@ -48,9 +69,16 @@ public class SocketAppender extends AbstractAppender {
 
 	public static final String SOCKET_PORT_PROPERTY = "socketPort";
 
+	public static final String BINARY_PROPERTY = "binary";
+
 	public static final String[] PROPERTY_NAMES = {
 			SocketAppender.SERVER_NAME_PROPERTY,
-			SocketAppender.SOCKET_PORT_PROPERTY };
+			SocketAppender.SOCKET_PORT_PROPERTY,
+			SocketAppender.BINARY_PROPERTY,
+			SpoolForwarder.SPOOL_PROPERTY,
+			SpoolForwarder.SPOOL_MAX_ENTRIES_PROPERTY,
+			SpoolForwarder.SPOOL_DROP_POLICY_PROPERTY,
+			SpoolForwarder.SPOOL_RETRY_INTERVAL_PROPERTY };
 
 	private String protocol = SOCKET_PROTOCOL_STRING;
 
@@ -61,6 +89,15 @@ public class SocketAppender extends AbstractAppender {
 	private SocketConnection socketConnection;
 	private DataOutputStream dataOutputStream;
 
+	private SpoolForwarder spoolForwarder;
+
+	private BinaryEventEncoder encoder;
+
+	/**
+	 * The encoder of the spooled log entries, which has no connection state.
+	 */
+	private BinaryEventEncoder spoolEncoder;
+
 	/**
 	 * @see net.sf.microlog.core.appender.AbstractAppender#clear()
 	 */
@@ -74,8 +111,11 @@ public class SocketAppender extends AbstractAppender {
 	 * @see net.sf.microlog.core.appender.AbstractAppender#close()
 	 */
 	public synchronized void close() throws IOException {
-		IOUtil.closeSilent(dataOutputStream);
-		IOUtil.closeSilent(socketConnection);
+		if (spoolForwarder != null) {
+			spoolForwarder.close();
+		}
+
+		disconnect();
 		logOpen = false;
 	}
 
@@ -88,35 +128,158 @@ public class SocketAppender extends AbstractAppender {
 	 */
 	public synchronized void doLog(String clientID, String name, long time,
 			Level level, Object message, Throwable t) {
-		if (logOpen && dataOutputStream != null && formatter != null) {
-			try {
-				dataOutputStream.writeUTF(formatter.format(clientID, name,
-						time, level, message, t));
-			} catch (IOException e) {
-				logOpen = false;
-				System.err.println("Could not write data to server " + e
-						+ " => closing the log");
+		if (encoder != null && spoolForwarder != null) {
+			if (logOpen) {
+				spoolForwarder.forward(createEntry(clientID, name, time,
+						level, message, t));
+			}
+		} else if (encoder != null) {
+			if (logOpen) {
+				try {
+					if (dataOutputStream == null) {
+						connect();
+					}
+					int length = encoder.encodeEvent(clientID, name,
+							AppenderDispatcher.getEventThreadName(), time,
+							level, message, t);
+					write(encoder.getBuffer(), length);
+				} catch (IOException e) {
+					System.err.println("Could not write data to server " + e
+							+ " => reconnecting at the next logging");
+				}
+			}
+		} else if (logOpen && formatter != null) {
+			String logString = formatter.format(clientID, name, time, level,
+					message, t);
+
+			if (spoolForwarder != null) {
+				spoolForwarder.forward(logString);
+			} else {
+				try {
+					deliver(logString);
+				} catch (IOException e) {
+					System.err.println("Could not write data to server " + e
+							+ " => reconnecting at the next logging");
+				}
 			}
 		}
 	}
 
 	/**
+	 * @see net.sf.microlog.core.spool.SpoolTarget#createEntry(String, String,
+	 *      long, Level, Object, Throwable)
+	 */
+	public synchronized String createEntry(String clientID, String name,
+			long time, Level level, Object message, Throwable t) {
+		if (spoolEncoder != null) {
+			return spoolEncoder.encodeEntry(clientID, name, AppenderDispatcher
+					.getEventThreadName(), time, level, message, t);
+		} else if (formatter != null) {
+			return formatter.format(clientID, name, time, level, message, t);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Send the log entry to the server. A new connection is made if the
+	 * connection is not open. The connection is closed if the sending fails.
+	 * 
+	 * @see net.sf.microlog.core.spool.SpoolTarget#deliver(java.lang.String)
+	 */
+	public synchronized void deliver(String entry) throws IOException {
+		BinaryEvent event;
+		try {
+			event = BinaryEventDecoder.decodeEntry(entry);
+		} catch (IOException e) {
+			// Retrying would not help, so the entry is dropped.
+			System.err.println("Dropping a log entry that is not valid " + e);
+			return;
+		}
+
+		if (dataOutputStream == null) {
+			connect();
+		}
+
+		if (encoder != null) {
+			write(encoder.getBuffer(), event != null ? encoder
+					.encodeEvent(event) : encoder.encodeText(entry));
+			return;
+		}
+
+		if (event != null) {
+			entry = formatter != null ? AppenderDispatcher.formatEvent(event
+					.toLoggingEvent(), formatter) : event.toString();
+		}
+
+		try {
+			dataOutputStream.writeUTF(entry);
+			dataOutputStream.flush();
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write an encoded record. The connection is closed if the writing fails.
+	 */
+	private void write(byte[] data, int length) throws IOException {
+		try {
+			dataOutputStream.write(data, 0, length);
+			dataOutputStream.flush();
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open the log. If a <code>Spool</code> is set, the log is opened even if
+	 * the server is not reachable.
+	 * 
 	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
 	 */
 	public synchronized void open() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.open();
 
-		if (socketConnection == null && serverName != null) {
+			try {
+				connect();
+			} catch (IOException e) {
+				System.err.println("Could not connect to server " + e
+						+ " => spooling");
+			}
+		} else {
+			connect();
+		}
+
+		logOpen = true;
+	}
+
+	private void connect() throws IOException {
+		if (socketConnection == null) {
 			String connectionString = protocol + serverName + ':' + port;
 
 			socketConnection = (SocketConnection) Connector
 					.open(connectionString);
 			socketConnection.setSocketOption(SocketConnection.LINGER, linger);
 			dataOutputStream = socketConnection.openDataOutputStream();
-			logOpen = true;
 
+			if (encoder != null) {
+				encoder.reset();
+			}
+			resetThrowableRenderer();
 		}
 	}
-	
+
+	private void disconnect() {
+		IOUtil.closeSilent(dataOutputStream);
+		IOUtil.closeSilent(socketConnection);
+		dataOutputStream = null;
+		socketConnection = null;
+	}
+
 
 	/**
 	 * Get the log size which in this case is <code>SIZE_UNDEFINED</code>.
@@ -303,6 +466,59 @@ public class SocketAppender extends AbstractAppender {
 		}
 	}
 
+	/**
+	 * Check if the log entries are sent in the binary format.
+	 * 
+	 * @return <code>true</code> if the binary format is used.
+	 */
+	public synchronized boolean isBinary() {
+		return encoder != null;
+	}
+
+	/**
+	 * Set if the log entries are sent in the binary format of the
+	 * <code>BinaryEventEncoder</code>. This is ignored if the log is open.
+	 * 
+	 * @param binary
+	 *            <code>true</code> to use the binary format.
+	 */
+	public synchronized void setBinary(boolean binary) {
+		if (!logOpen) {
+			encoder = binary ? new BinaryEventEncoder() : null;
+			spoolEncoder = binary ? new BinaryEventEncoder() : null;
+		}
+	}
+
+	/**
+	 * Set the <code>Spool</code> that is used for storing the log entries
+	 * while the server is unreachable. This is ignored if the log is open.
+	 * 
+	 * @param spool
+	 *            the spool to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>spool</code> is <code>null</code>.
+	 */
+	public synchronized void setSpool(Spool spool)
+			throws IllegalArgumentException {
+		if (spool == null) {
+			throw new IllegalArgumentException("The spool must not be null.");
+		}
+
+		if (!logOpen) {
+			spoolForwarder = new SpoolForwarder(spool, this);
+		}
+	}
+
+	/**
+	 * Get the <code>SpoolForwarder</code> that is used, if a
+	 * <code>Spool</code> has been set.
+	 * 
+	 * @return the spoolForwarder or <code>null</code> if no spool is used.
+	 */
+	public synchronized SpoolForwarder getSpoolForwarder() {
+		return spoolForwarder;
+	}
+
 	/**
 	 * @see Appender#getPropertyNames()
 	 */
@@ -318,9 +534,15 @@ public class SocketAppender extends AbstractAppender {
 		super.setProperty(name, value);
 
 		if (name.equals(SocketAppender.SERVER_NAME_PROPERTY)) {
-			setServerName(name);
+			setServerName(value);
 		} else if (name.equals(SocketAppender.SOCKET_PORT_PROPERTY)) {
 			setPort(Integer.parseInt(value));
+		} else if (name.equals(SocketAppender.BINARY_PROPERTY)) {
+			setBinary("true".equalsIgnoreCase(value.trim()));
+		} else if (name.equals(SpoolForwarder.SPOOL_PROPERTY)) {
+			setSpool(SpoolFactory.createSpool(value));
+		} else if (spoolForwarder != null) {
+			spoolForwarder.setProperty(name, value);
 		}
 	}
 
@@ -15,6 +15,8 @@
 
 package net.sf.microlog.midp.appender;
 
+import java.io.IOException;
+
 import net.sf.microlog.core.Level;
 import net.sf.microlog.core.MicrologConstants;
 import net.sf.microlog.core.SyslogMessage;
@@ -24,7 +26,13 @@ import net.sf.microlog.core.SyslogMessage;
  * daemon. It is basically an UDP Datagram that is sent on port 514. The format
  * of the mssage is described in rfc 3164. Each time a message is logged, the
  * message is sent directly to the server. A <code>DatagramConnection</code>
- * is used, which requires MIDP 2.0.
+ * is used, which requires MIDP 2.0. The messages are not serialized; each
+ * logging thread encodes its message straight into its own
+ * <code>Datagram</code>. A message that is spooled, or that is sent with
+ * another encoding than ASCII, is first created as a <code>String</code>.
+ * 
+ * The severity of each message is the severity of its <code>Level</code>,
+ * unless a fixed severity has been set with <code>setSeverity()</code>.
  * 
  * This has been tested with the Kiwi syslog daemon for Windows (freeware
  * edition). For more information: http://www.kiwisyslog.com/ Note: the Kiwi
@@ -42,6 +50,8 @@ public class SyslogAppender extends DatagramAppender {
 	
 	SyslogMessage syslogMessage = new SyslogMessage();
 
+	private boolean fixedSeverity;
+
 	/**
 	 * Create a <code>SyslogAppender</code> with the default port for syslog
 	 * (514).
@@ -51,7 +61,6 @@ public class SyslogAppender extends DatagramAppender {
 		
 		syslogMessage.setTag(MicrologConstants.DEFAULT_SYSLOG_TAG);
 		syslogMessage.setFacility(SyslogMessage.FACILITY_USER_LEVEL_MESSAGE);
-		syslogMessage.setSeverity(SyslogMessage.SEVERITY_DEBUG);
 
 		String hostNameProperty = System.getProperty("microedition.hostname");
 		if (hostNameProperty != null && hostNameProperty.length() > 0) {
@@ -60,18 +69,69 @@ public class SyslogAppender extends DatagramAppender {
 	}
 
 	/**
-	 * Do the logging.
-	 * @param level
-	 *            the level to use for the logging.
-	 * @param message
-	 *            the message to log.
-	 * @param t
-	 *            the exception to log.
+	 * Send the syslog message of the formatted log entry. Without a
+	 * <code>Spool</code> the message is encoded by <code>encode()</code>
+	 * straight into the data of a <code>Datagram</code>.
+	 * 
+	 * @see net.sf.microlog.midp.appender.DatagramAppender#doLog(String,
+	 *      String, long, Level, Object, Throwable)
 	 */
 	public void doLog(String clientID, String name, long time, Level level,
 			Object message, Throwable t) {
-		if (logOpen && formatter != null) {
-			sendMessage(syslogMessage.createMessageData(formatter.format(clientID, name, time, level, message, t)));
+		if (level == null || getSpoolForwarder() != null) {
+			super.doLog(clientID, name, time, level, message, t);
+		} else if (logOpen && formatter != null) {
+			String formattedMessage = formatter.format(clientID, name, time,
+					level, message, t);
+			try {
+				send(formattedMessage, level);
+			} catch (IOException e) {
+				System.err.println("Could not send the Datagram: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Encode the syslog message of a formatted log entry. A complete entry is
+	 * encoded as it is.
+	 * 
+	 * @see net.sf.microlog.midp.appender.DatagramAppender#encode(String,
+	 *      Level, byte[])
+	 */
+	protected int encode(String message, Level level, byte[] data)
+			throws IOException {
+		if (level == null) {
+			return super.encode(message, null, data);
+		} else if (!isAsciiEncoding()) {
+			return super.encode(createMessageData(level, message), null, data);
+		} else if (fixedSeverity) {
+			return syslogMessage.encodeMessageData(message, data);
+		} else {
+			return syslogMessage.encodeMessageData(level, message, data);
+		}
+	}
+
+	/**
+	 * Create the syslog message of the formatted log entry.
+	 * 
+	 * @see net.sf.microlog.core.spool.SpoolTarget#createEntry(String, String,
+	 *      long, Level, Object, Throwable)
+	 */
+	public String createEntry(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (formatter == null) {
+			return null;
+		}
+
+		return createMessageData(level, formatter.format(clientID, name, time,
+				level, message, t));
+	}
+
+	private String createMessageData(Level level, String formattedMessage) {
+		if (fixedSeverity) {
+			return syslogMessage.createMessageData(formattedMessage);
+		} else {
+			return syslogMessage.createMessageData(level, formattedMessage);
 		}
 	}
 
@@ -88,7 +148,8 @@ public class SyslogAppender extends DatagramAppender {
 	}
 
 	/**
-	 * Get the severity at which the message shall be sent.
+	 * Set a fixed severity at which all messages shall be sent, instead of
+	 * the severity of the level of each message.
 	 * 
 	 * @param severity
 	 *            the severity to set
@@ -97,6 +158,7 @@ public class SyslogAppender extends DatagramAppender {
 	 */
 	public void setSeverity(byte severity) throws IllegalArgumentException {
 		syslogMessage.setSeverity(severity);
+		fixedSeverity = true;
 	}
 
 	/**
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.midp.appender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.SocketConnection;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.IOUtil;
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MDC;
+import net.sf.microlog.core.MicrologConstants;
+import net.sf.microlog.core.SyslogEncoder;
+import net.sf.microlog.core.SyslogMessage;
+import net.sf.microlog.core.appender.AbstractAppender;
+
+/**
+ * An <code>Appender</code> that sends RFC 5424 syslog messages over TCP,
+ * with the octet counting framing of RFC 6587, i.e. each message is preceded
+ * by its length in bytes and a space. The messages are encoded by a
+ * <code>SyslogEncoder</code>, with the <code>MDC</code> context as
+ * structured data.
+ * 
+ * The messages are not written by the logging thread. They are put in a
+ * buffer, and a writer thread writes all the messages in the buffer with one
+ * write, while the next messages are put in another buffer. If the connection
+ * fails, the writer thread reconnects every {@value #RECONNECT_INTERVAL_PROPERTY}
+ * milliseconds, and sends the buffered messages again. The messages that do
+ * not fit in {@value #MAX_PENDING_BYTES_PROPERTY} bytes are dropped, and the
+ * number of dropped messages is logged when there is room again.
+ * 
+ * This class requires MIDP 2.0 or better.
+ * 
+ * @since 2.3
+ */
+public class SyslogTcpAppender extends AbstractAppender implements Runnable {
+
+	public static final String HOST_PROPERTY = "host";
+
+	public static final String PORT_PROPERTY = "port";
+
+	public static final String HOSTNAME_PROPERTY = "hostname";
+
+	public static final String APP_NAME_PROPERTY = "appName";
+
+	public static final String FACILITY_PROPERTY = "facility";
+
+	public static final String STRUCTURED_DATA_ID_PROPERTY = "structuredDataId";
+
+	public static final String MAX_PENDING_BYTES_PROPERTY = "maxPendingBytes";
+
+	public static final String RECONNECT_INTERVAL_PROPERTY = "reconnectInterval";
+
+	public static final String[] PROPERTY_NAMES = { HOST_PROPERTY,
+			PORT_PROPERTY, HOSTNAME_PROPERTY, APP_NAME_PROPERTY,
+			FACILITY_PROPERTY, STRUCTURED_DATA_ID_PROPERTY,
+			MAX_PENDING_BYTES_PROPERTY, RECONNECT_INTERVAL_PROPERTY };
+
+	public static final int DEFAULT_MAX_PENDING_BYTES = 64 * 1024;
+
+	/**
+	 * The default reconnect interval in milliseconds.
+	 */
+	public static final long DEFAULT_RECONNECT_INTERVAL = 5000;
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final SyslogEncoder encoder = new SyslogEncoder();
+
+	private String host = MicrologConstants.DEFAULT_HOST;
+
+	private int port = SyslogMessage.DEFAULT_SYSLOG_PORT;
+
+	private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	private long reconnectInterval = DEFAULT_RECONNECT_INTERVAL;
+
+	/**
+	 * The framed messages that are waiting for the writer thread.
+	 */
+	private byte[] pending = new byte[INITIAL_BUFFER_SIZE];
+
+	private int pendingLength;
+
+	/**
+	 * The framed messages that the writer thread is writing.
+	 */
+	private byte[] writing = new byte[INITIAL_BUFFER_SIZE];
+
+	private int droppedCount;
+
+	private Thread writerThread;
+
+	private boolean stopping;
+
+	private SocketConnection socketConnection;
+
+	private OutputStream outputStream;
+
+	/**
+	 * Create a <code>SyslogTcpAppender</code> for the default port for syslog
+	 * (514).
+	 */
+	public SyslogTcpAppender() {
+		String hostNameProperty = System.getProperty("microedition.hostname");
+		if (hostNameProperty != null && hostNameProperty.length() > 0) {
+			encoder.setHostname(hostNameProperty);
+		}
+	}
+
+	/**
+	 * Encode the message and put it in the buffer of the writer thread.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#doLog(String,
+	 *      String, long, net.sf.microlog.core.Level, java.lang.Object,
+	 *      java.lang.Throwable)
+	 */
+	public synchronized void doLog(String clientID, String name, long time,
+			Level level, Object message, Throwable t) {
+		if (!logOpen || formatter == null) {
+			return;
+		}
+
+		long currentTime = System.currentTimeMillis();
+		byte severity = SyslogMessage.toSeverity(level);
+
+		if (droppedCount > 0 && addFrame(encoder.encode(
+				SyslogMessage.SEVERITY_WARNING, currentTime, null,
+				"Dropped " + droppedCount + " log entries"))) {
+			droppedCount = 0;
+		}
+
+		int length = encoder.encode(severity, AppenderDispatcher
+				.getEventTimestamp(), MDC
+				.getEventContext(), formatter.format(clientID, name, time,
+				level, message, t));
+		if (!addFrame(length)) {
+			droppedCount++;
+		}
+	}
+
+	/**
+	 * Add the encoded message to the pending buffer, after its length.
+	 * 
+	 * @return <code>false</code> if there was no room for the message.
+	 */
+	private boolean addFrame(int length) {
+		String lengthString = Integer.toString(length);
+		int frameLength = lengthString.length() + 1 + length;
+
+		if (pendingLength + frameLength > maxPendingBytes) {
+			return false;
+		}
+
+		if (pendingLength + frameLength > pending.length) {
+			byte[] newPending = new byte[Math.min(maxPendingBytes, Math.max(
+					pending.length * 2, pendingLength + frameLength))];
+			System.arraycopy(pending, 0, newPending, 0, pendingLength);
+			pending = newPending;
+		}
+
+		for (int index = 0; index < lengthString.length(); index++) {
+			pending[pendingLength++] = (byte) lengthString.charAt(index);
+		}
+		pending[pendingLength++] = ' ';
+		System.arraycopy(encoder.getBuffer(), 0, pending, pendingLength,
+				length);
+		pendingLength += length;
+
+		notify();
+		return true;
+	}
+
+	/**
+	 * Write the pending messages until the appender is closed.
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (true) {
+			int length;
+			synchronized (this) {
+				while (pendingLength == 0 && !stopping) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Check again.
+					}
+				}
+
+				if (pendingLength == 0) {
+					break;
+				}
+
+				byte[] swap = writing;
+				writing = pending;
+				pending = swap;
+				length = pendingLength;
+				pendingLength = 0;
+			}
+
+			write(length);
+		}
+
+		disconnect();
+	}
+
+	/**
+	 * Write the messages, and reconnect until they have been written or the
+	 * appender is closed.
+	 */
+	private void write(int length) {
+		while (true) {
+			try {
+				if (outputStream == null) {
+					connect();
+				}
+				outputStream.write(writing, 0, length);
+				outputStream.flush();
+				return;
+			} catch (IOException e) {
+				System.err.println("Could not write data to syslog server "
+						+ e + " => reconnecting");
+				disconnect();
+			}
+
+			synchronized (this) {
+				if (stopping) {
+					return;
+				}
+
+				try {
+					wait(reconnectInterval);
+				} catch (InterruptedException e) {
+					// Try again.
+				}
+			}
+		}
+	}
+
+	private void connect() throws IOException {
+		socketConnection = (SocketConnection) Connector.open("socket://"
+				+ host + ':' + port);
+		outputStream = socketConnection.openOutputStream();
+	}
+
+	private void disconnect() {
+		IOUtil.closeSilent(outputStream);
+		IOUtil.closeSilent(socketConnection);
+		outputStream = null;
+		socketConnection = null;
+	}
+
+	/**
+	 * Open the log and start the writer thread. The connection is made by the
+	 * writer thread, so the log is opened even if the server is not
+	 * reachable.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#open()
+	 */
+	public synchronized void open() throws IOException {
+		if (writerThread == null) {
+			stopping = false;
+			writerThread = new Thread(this);
+			writerThread.start();
+		}
+
+		logOpen = true;
+	}
+
+	/**
+	 * Close the log. The writer thread writes the pending messages before it
+	 * stops, unless the connection fails.
+	 * 
+	 * @see net.sf.microlog.core.appender.AbstractAppender#close()
+	 */
+	public void close() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			logOpen = false;
+			stopping = true;
+			thread = writerThread;
+			writerThread = null;
+			notify();
+		}
+
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				// Do not wait any longer.
+			}
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.appender.AbstractAppender#clear()
+	 */
+	public void clear() {
+		// Do nothing, since we are not able to clear the log on the serverside.
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getLogSize()
+	 */
+	public long getLogSize() {
+		return SIZE_UNDEFINED;
+	}
+
+	/**
+	 * Get the number of messages that have been dropped since the last time
+	 * the number was logged.
+	 * 
+	 * @return the number of dropped messages.
+	 */
+	public synchronized int getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Set the host of the syslog server. This is ignored if the log is open.
+	 * 
+	 * @param host
+	 *            the host to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>host</code> is <code>null</code>.
+	 */
+	public synchronized void setHost(String host)
+			throws IllegalArgumentException {
+		if (host == null) {
+			throw new IllegalArgumentException("The host must not be null.");
+		}
+
+		if (!logOpen) {
+			this.host = host;
+		}
+	}
+
+	/**
+	 * Set the port of the syslog server. This is ignored if the log is open.
+	 * 
+	 * @param port
+	 *            the port to set.
+	 */
+	public synchronized void setPort(int port) {
+		if (!logOpen) {
+			this.port = port;
+		}
+	}
+
+	/**
+	 * Set the hostname to use for the HOSTNAME field of the syslog message.
+	 * 
+	 * @param hostname
+	 *            the hostname to set.
+	 */
+	public synchronized void setHostname(String hostname) {
+		encoder.setHostname(hostname);
+	}
+
+	/**
+	 * Set the name of the application for the APP-NAME field of the syslog
+	 * message.
+	 * 
+	 * @param appName
+	 *            the name to set.
+	 */
+	public synchronized void setAppName(String appName) {
+		encoder.setAppName(appName);
+	}
+
+	/**
+	 * Set the facility that is used when sending messages.
+	 * 
+	 * @param facility
+	 *            the facility to set
+	 * @throws IllegalArgumentException
+	 *             if the facility is not a valid one.
+	 */
+	public synchronized void setFacility(byte facility)
+			throws IllegalArgumentException {
+		encoder.setFacility(facility);
+	}
+
+	/**
+	 * Set the SD-ID of the structured data element with the <code>MDC</code>
+	 * context.
+	 * 
+	 * @param structuredDataId
+	 *            the SD-ID to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>structuredDataId</code> is <code>null</code>.
+	 */
+	public synchronized void setStructuredDataId(String structuredDataId)
+			throws IllegalArgumentException {
+		encoder.setStructuredDataId(structuredDataId);
+	}
+
+	/**
+	 * Set the maximum number of bytes of messages that are waiting to be
+	 * written. The messages that do not fit are dropped.
+	 * 
+	 * @param maxPendingBytes
+	 *            the maximum number of bytes.
+	 * @throws IllegalArgumentException
+	 *             if the <code>maxPendingBytes</code> is less than 1.
+	 */
+	public synchronized void setMaxPendingBytes(int maxPendingBytes)
+			throws IllegalArgumentException {
+		if (maxPendingBytes < 1) {
+			throw new IllegalArgumentException(
+					"The maxPendingBytes must not be less than 1.");
+		}
+
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Set the time between the attempts to reconnect.
+	 * 
+	 * @param reconnectInterval
+	 *            the interval in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             if the <code>reconnectInterval</code> is less than 1.
+	 */
+	public synchronized void setReconnectInterval(long reconnectInterval)
+			throws IllegalArgumentException {
+		if (reconnectInterval < 1) {
+			throw new IllegalArgumentException(
+					"The reconnectInterval must not be less than 1.");
+		}
+
+		this.reconnectInterval = reconnectInterval;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.Appender#getPropertyNames()
+	 */
+	public String[] getPropertyNames() {
+		return PROPERTY_NAMES;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.appender.AbstractAppender#setProperty(java.lang.String,
+	 *      java.lang.String)
+	 */
+	public void setProperty(String name, String value)
+			throws IllegalArgumentException {
+		super.setProperty(name, value);
+
+		if (name.equals(HOST_PROPERTY)) {
+			setHost(value.trim());
+		} else if (name.equals(PORT_PROPERTY)) {
+			setPort(Integer.parseInt(value.trim()));
+		} else if (name.equals(HOSTNAME_PROPERTY)) {
+			setHostname(value.trim());
+		} else if (name.equals(APP_NAME_PROPERTY)) {
+			setAppName(value.trim());
+		} else if (name.equals(FACILITY_PROPERTY)) {
+			setFacility(Byte.parseByte(value.trim()));
+		} else if (name.equals(STRUCTURED_DATA_ID_PROPERTY)) {
+			setStructuredDataId(value.trim());
+		} else if (name.equals(MAX_PENDING_BYTES_PROPERTY)) {
+			setMaxPendingBytes(Integer.parseInt(value.trim()));
+		} else if (name.equals(RECONNECT_INTERVAL_PROPERTY)) {
+			setReconnectInterval(Long.parseLong(value.trim()));
+		}
+	}
+}
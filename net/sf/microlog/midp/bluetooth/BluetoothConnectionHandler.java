@@ -7,7 +7,9 @@ interface BluetoothConnectionHandler {
 	void findAndSetConnectionString(final BluetoothRemoteDevice remoteDevice);
 	void shutdownLoggingService() throws IOException;
 	void close() throws IOException;
-	void writeLogToStream(final String formattedLogStatement);
+	void writeLogToStream(final String formattedLogStatement) throws IOException;
+	void writeBytesToStream(final byte[] data, final int length) throws IOException;
+	boolean isConnected();
 	String getBluetoothClientID(final String clientID);
 	boolean openConnection();
 }
@@ -120,22 +120,64 @@ class BluetoothConnectionHandlerImpl implements BluetoothConnectionHandler {
 				System.err.println("Failed to close the log " + e);
 			}
 		}
+
+		dataOutputStream = null;
+		connection = null;
 	}
 
 	/**
-	 * Writes the formatted log statement to the output stream.
+	 * Writes the formatted log statement to the output stream. If the
+	 * connection is not open, a new connection is made. The connection is
+	 * closed if the writing fails.
+	 * 
+	 * @throws IOException
+	 *             if the log statement could not be written.
 	 */
-	public void writeLogToStream(final String formattedLogStatement) {
-		if (dataOutputStream != null) {
-			try {
-				dataOutputStream.writeUTF(formattedLogStatement);
-				dataOutputStream.flush();
-			} catch (IOException io) {
-				System.err.println("Unable to log to the output stream. " + io);
-			}
+	public void writeLogToStream(final String formattedLogStatement)
+			throws IOException {
+		if (dataOutputStream == null && !openOutputStream()) {
+			throw new IOException("Not connected to the Bluetooth log server.");
+		}
+
+		try {
+			dataOutputStream.writeUTF(formattedLogStatement);
+			dataOutputStream.flush();
+		} catch (IOException io) {
+			close();
+			throw io;
+		}
+	}
+
+	/**
+	 * Writes encoded log data to the output stream. If the connection is not
+	 * open, a new connection is made. The connection is closed if the writing
+	 * fails.
+	 * 
+	 * @throws IOException
+	 *             if the data could not be written.
+	 */
+	public void writeBytesToStream(final byte[] data, final int length)
+			throws IOException {
+		if (dataOutputStream == null && !openOutputStream()) {
+			throw new IOException("Not connected to the Bluetooth log server.");
+		}
+
+		try {
+			dataOutputStream.write(data, 0, length);
+			dataOutputStream.flush();
+		} catch (IOException io) {
+			close();
+			throw io;
 		}
 	}
 
+	/**
+	 * Returns true if the connection to the server is open.
+	 */
+	public boolean isConnected() {
+		return dataOutputStream != null;
+	}
+
 	/**
 	 * Returns the clientID that will be used to identify the connected client.
 	 * If the clientID is not set from the user it will try to use the Bluetooth
@@ -17,8 +17,14 @@ package net.sf.microlog.midp.bluetooth;
 import java.io.IOException;
 
 import net.sf.microlog.core.Appender;
+import net.sf.microlog.core.AppenderDispatcher;
 import net.sf.microlog.core.Level;
 import net.sf.microlog.core.appender.AbstractAppender;
+import net.sf.microlog.core.format.BinaryEventEncoder;
+import net.sf.microlog.core.spool.Spool;
+import net.sf.microlog.core.spool.SpoolForwarder;
+import net.sf.microlog.core.spool.SpoolTarget;
+import net.sf.microlog.midp.SpoolFactory;
 import net.sf.microproperties.Properties;
 
 /**
@@ -29,19 +35,35 @@ import net.sf.microproperties.Properties;
  * to lookup the server, for instance SonyEricsson P990i. If configured using a
  * property file the server url can be set using the property
  * <code>microlog.appender.BluetoothSerialAppender.serverUrl</code>
+ * <p>
+ * A <code>Spool</code> could be set to store the log entries while the server
+ * is unreachable. The spooled entries are sent in order when the connection is
+ * restored.
+ * <p>
+ * With the <code>binary</code> property set to <code>true</code>, the log
+ * entries are sent in the compact format of the <code>BinaryEventEncoder</code>
+ * instead, and no formatter is needed. Spooled log entries are then sent as
+ * text records.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @author Jarle Hansen (hansjar@gmail.com)
  * @since 0.6
  */
-public class BluetoothSerialAppender extends AbstractAppender {
+public class BluetoothSerialAppender extends AbstractAppender implements
+		SpoolTarget {
 	public static final String SERVER_URL_STRING = "microlog.appender.BluetoothSerialAppender.serverUrl";
 	
 	// Example of the complete BTADDRESS_PROPERTY: microlog.appender.BluetoothSerialAppender.btAddress=002608BDB48C
 	public static final String BTADDRESS_PROPERTY = "btAddress";
 
+	public static final String BINARY_PROPERTY = "binary";
+
 	private BluetoothConnectionHandler bluetoothConnectionHandler = new BluetoothConnectionHandlerImpl();
 
+	private SpoolForwarder spoolForwarder;
+
+	private BinaryEventEncoder encoder;
+
 	/**
 	 * Default constructor. If it is used with the
 	 * microlog.appender.BluetoothSerialAppender.btAddress property it will
@@ -105,7 +127,11 @@ public class BluetoothSerialAppender extends AbstractAppender {
 	 * Closes the Bluetooth connection. The Bluetooth server application will
 	 * continue to run and accept new connections.
 	 */
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		if (spoolForwarder != null) {
+			spoolForwarder.close();
+		}
+
 		bluetoothConnectionHandler.close();
 		logOpen = false;
 	}
@@ -116,7 +142,18 @@ public class BluetoothSerialAppender extends AbstractAppender {
 	 * @throws IOException
 	 */
 	public synchronized void shutdownLoggingService() throws IOException {
-		bluetoothConnectionHandler.shutdownLoggingService();
+		if (encoder != null) {
+			// The server reads records, so the stop command is sent as one.
+			try {
+				deliver("[STOP]");
+			} catch (IOException e) {
+				System.err.println("Failed to send [STOP] to the Bluetooth server, "
+						+ e);
+			}
+			bluetoothConnectionHandler.close();
+		} else {
+			bluetoothConnectionHandler.shutdownLoggingService();
+		}
 		logOpen = false;
 	}
 
@@ -125,18 +162,96 @@ public class BluetoothSerialAppender extends AbstractAppender {
 	 */
 	public synchronized void doLog(String clientID, String name, long time,
 			Level level, Object message, Throwable t) {
-		if (logOpen && formatter != null) {
-			bluetoothConnectionHandler.writeLogToStream(formatter.format(
-					bluetoothConnectionHandler.getBluetoothClientID(clientID),
-					"", time, level, message, t));
+		if (encoder != null && spoolForwarder == null) {
+			if (logOpen) {
+				try {
+					if (!bluetoothConnectionHandler.isConnected()) {
+						encoder.reset();
+					}
+					int length = encoder.encodeEvent(bluetoothConnectionHandler
+							.getBluetoothClientID(clientID), name,
+							AppenderDispatcher.getEventThreadName(), time,
+							level, message, t);
+					bluetoothConnectionHandler.writeBytesToStream(encoder
+							.getBuffer(), length);
+				} catch (IOException e) {
+					System.err.println("Unable to log to the output stream. "
+							+ e);
+				}
+			}
+		} else if (logOpen && formatter != null) {
+			if (spoolForwarder == null
+					&& !bluetoothConnectionHandler.isConnected()) {
+				resetThrowableRenderer();
+			}
+			String logString = formatter.format(bluetoothConnectionHandler
+					.getBluetoothClientID(clientID), "", time, level, message,
+					t);
+
+			if (spoolForwarder != null) {
+				spoolForwarder.forward(logString);
+			} else {
+				try {
+					deliver(logString);
+				} catch (IOException e) {
+					System.err.println("Unable to log to the output stream. "
+							+ e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.SpoolTarget#createEntry(String, String,
+	 *      long, Level, Object, Throwable)
+	 */
+	public synchronized String createEntry(String clientID, String name,
+			long time, Level level, Object message, Throwable t) {
+		if (formatter == null) {
+			return null;
 		}
+
+		return formatter.format(bluetoothConnectionHandler
+				.getBluetoothClientID(clientID), "", time, level, message, t);
+	}
+
+	/**
+	 * Write the log entry to the Bluetooth connection. A new connection is made
+	 * if the connection is not open.
+	 * 
+	 * @see net.sf.microlog.core.spool.SpoolTarget#deliver(java.lang.String)
+	 */
+	public synchronized void deliver(String entry) throws IOException {
+		if (encoder != null) {
+			if (!bluetoothConnectionHandler.isConnected()) {
+				encoder.reset();
+			}
+			bluetoothConnectionHandler.writeBytesToStream(encoder.getBuffer(),
+					encoder.encodeText(entry));
+			return;
+		}
+
+		bluetoothConnectionHandler.writeLogToStream(entry);
 	}
 
 	/**
-	 * Open the log, i.e. open the Bluetooth connection to the log server.
+	 * Open the log, i.e. open the Bluetooth connection to the log server. If a
+	 * <code>Spool</code> is set, the log is opened even if the server is not
+	 * reachable.
 	 */
 	public synchronized void open() throws IOException {
-		logOpen = bluetoothConnectionHandler.openConnection();
+		if (encoder != null) {
+			encoder.reset();
+		}
+		resetThrowableRenderer();
+
+		if (spoolForwarder != null) {
+			spoolForwarder.open();
+			bluetoothConnectionHandler.openConnection();
+			logOpen = true;
+		} else {
+			logOpen = bluetoothConnectionHandler.openConnection();
+		}
 	}
 
 	/**
@@ -168,11 +283,67 @@ public class BluetoothSerialAppender extends AbstractAppender {
 		}
 	}
 
+	/**
+	 * Check if the log entries are sent in the binary format.
+	 * 
+	 * @return <code>true</code> if the binary format is used.
+	 */
+	public synchronized boolean isBinary() {
+		return encoder != null;
+	}
+
+	/**
+	 * Set if the log entries are sent in the binary format of the
+	 * <code>BinaryEventEncoder</code>. This is ignored if the log is open.
+	 * 
+	 * @param binary
+	 *            <code>true</code> to use the binary format.
+	 */
+	public synchronized void setBinary(boolean binary) {
+		if (!logOpen) {
+			encoder = binary ? new BinaryEventEncoder() : null;
+		}
+	}
+
+	/**
+	 * Set the <code>Spool</code> that is used for storing the log entries
+	 * while the server is unreachable. This is ignored if the log is open.
+	 * 
+	 * @param spool
+	 *            the spool to set.
+	 * @throws IllegalArgumentException
+	 *             if the <code>spool</code> is <code>null</code>.
+	 */
+	public synchronized void setSpool(Spool spool)
+			throws IllegalArgumentException {
+		if (spool == null) {
+			throw new IllegalArgumentException("The spool must not be null.");
+		}
+
+		if (!logOpen) {
+			spoolForwarder = new SpoolForwarder(spool, this);
+		}
+	}
+
+	/**
+	 * Get the <code>SpoolForwarder</code> that is used, if a
+	 * <code>Spool</code> has been set.
+	 * 
+	 * @return the spoolForwarder or <code>null</code> if no spool is used.
+	 */
+	public synchronized SpoolForwarder getSpoolForwarder() {
+		return spoolForwarder;
+	}
+
 	/**
 	 * @see Appender#getPropertyNames()
 	 */
 	public String[] getPropertyNames() {
-		return new String[] { BTADDRESS_PROPERTY };
+		return new String[] { BTADDRESS_PROPERTY, BINARY_PROPERTY,
+				SpoolForwarder.SPOOL_PROPERTY,
+				SpoolForwarder.SPOOL_MAX_ENTRIES_PROPERTY,
+				SpoolForwarder.SPOOL_DROP_POLICY_PROPERTY,
+				SpoolForwarder.SPOOL_RETRY_INTERVAL_PROPERTY };
 	}
 
 	/**
@@ -184,6 +355,12 @@ public class BluetoothSerialAppender extends AbstractAppender {
 			bluetoothConnectionHandler
 					.findAndSetConnectionString(BluetoothRemoteDevice
 							.setAddress(value));
+		} else if (BINARY_PROPERTY.equals(name)) {
+			setBinary("true".equalsIgnoreCase(value.trim()));
+		} else if (SpoolForwarder.SPOOL_PROPERTY.equals(name)) {
+			setSpool(SpoolFactory.createSpool(value));
+		} else if (spoolForwarder != null) {
+			spoolForwarder.setProperty(name, value);
 		}
 	}
 }
@@ -16,6 +16,7 @@
 package net.sf.microlog.midp.bluetooth.server;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -29,13 +30,18 @@ import javax.microedition.io.StreamConnection;
 import javax.microedition.io.StreamConnectionNotifier;
 
 import net.sf.microlog.midp.bluetooth.BluetoothServerListener;
+import net.sf.microlog.server.ingest.IngestPipeline;
+import net.sf.microlog.server.ingest.IngestRecord;
+import net.sf.microlog.server.ingest.IngestSink;
 
 /**
  * The <code>BluetoothSerialServerThread</code> is used for receiving data from
  * a <code>BluetoothSerialAppender</code>. It is intended to be used for servers
  * implemented both in Java & in Java ME (CLDC). When a client connects it will
  * create a new <code>BluetoothStreamReaderThreadImpl</code> object, so each
- * client has its own thread.
+ * client has its own thread. The clients add the received log entries to an
+ * <code>IngestPipeline</code>, which hands them to the
+ * <code>BluetoothServerListener</code> on a thread of its own.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  * @author Jarle Hansen (hansjar@gmail.com)
@@ -51,6 +57,8 @@ public class BluetoothSerialServerThread implements Runnable {
 	private final LocalDevice local;
 	private BluetoothServerListener serverListener = new DefaultServerListenerImpl();
 
+	private IngestPipeline pipeline;
+
 	/**
 	 * Create a <code>BluetoothSerialServerThread</code> object.
 	 */
@@ -105,6 +113,17 @@ public class BluetoothSerialServerThread implements Runnable {
 	 * start a new thread.
 	 */
 	public void run() {
+		pipeline = IngestPipeline.createFromSystemProperties(new IngestSink() {
+			public void write(List<IngestRecord> batch) {
+				for (IngestRecord record : batch) {
+					serverListener.messageReceived(record.getLine());
+				}
+			}
+
+			public void close() {
+			}
+		});
+
 		while (true) {
 			StreamConnectionNotifier notifier = null;
 			StreamConnection connection = null;
@@ -118,8 +137,8 @@ public class BluetoothSerialServerThread implements Runnable {
 				final RemoteDevice remoteDevice = RemoteDevice
 						.getRemoteDevice(connection);
 				BluetoothStreamReaderThreadImpl bluetoothConnection = new BluetoothStreamReaderThreadImpl(
-						serverListener, connection.openDataInputStream(),
-						remoteDevice);
+						serverListener, pipeline, connection
+								.openDataInputStream(), remoteDevice);
 				BluetoothConnectionHandler.UTIL.addConnection(bluetoothConnection);
 
 				executor.execute(bluetoothConnection);
@@ -1,17 +1,22 @@
 package net.sf.microlog.midp.bluetooth.server;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.bluetooth.RemoteDevice;
 
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.BinaryEventDecoder;
 import net.sf.microlog.midp.bluetooth.BluetoothServerListener;
+import net.sf.microlog.server.ingest.IngestPipeline;
 
 /**
  * This object is created for each client connecting to the MicroLog Bluetooth
- * server. It reads from the stream and notifies the BluetoothServerListener
- * that a message has been received.
+ * server. It reads from the stream and adds the messages to the
+ * <code>IngestPipeline</code>, which notifies the BluetoothServerListener that
+ * a message has been received. When the pipeline is full, the reading waits.
  * 
  * @author Jarle Hansen (hansjar@gmail.com)
  * 
@@ -19,6 +24,7 @@ import net.sf.microlog.midp.bluetooth.BluetoothServerListener;
 public class BluetoothStreamReaderThreadImpl implements Runnable,
 		BluetoothStreamReaderThread {
 	private final BluetoothServerListener serverListener;
+	private final IngestPipeline pipeline;
 	private final DataInputStream input;
 	private final RemoteDevice remoteDevice;
 	private int connectionId;
@@ -29,8 +35,10 @@ public class BluetoothStreamReaderThreadImpl implements Runnable,
 
 	public BluetoothStreamReaderThreadImpl(
 			final BluetoothServerListener listener,
-			final DataInputStream input, final RemoteDevice remoteDevice) {
+			final IngestPipeline pipeline, final DataInputStream input,
+			final RemoteDevice remoteDevice) {
 		this.serverListener = listener;
+		this.pipeline = pipeline;
 		this.input = input;
 		this.remoteDevice = remoteDevice;
 	}
@@ -45,9 +53,9 @@ public class BluetoothStreamReaderThreadImpl implements Runnable,
 	}
 
 	/**
-	 * Reads from the stream and sends the result to the
-	 * <code>BluetoothServerListener</code> object. If the [STOP] command is
-	 * received it will call the
+	 * Reads from the stream and adds the result to the
+	 * <code>IngestPipeline</code>. If the [STOP] command is received it will
+	 * wait for the pipeline and then call the
 	 * <code>BluetoothConnectionsUtil.gracefulShutdown</code>, that will stop
 	 * the Bluetooth server.
 	 * 
@@ -62,27 +70,67 @@ public class BluetoothStreamReaderThreadImpl implements Runnable,
 
 			serverListener.clientAccepted(address, name);
 
+			BufferedInputStream bufferedInput = new BufferedInputStream(input);
+			if (BinaryEventDecoder.isBinaryStream(bufferedInput)) {
+				readBinary(bufferedInput);
+				return;
+			}
+
+			DataInputStream dataInput = new DataInputStream(bufferedInput);
+
 			boolean stopReading = false;
-			String message = input.readUTF();
+			String message = dataInput.readUTF();
 
 			while (!stopReading && message != null) {
 				if (message.compareTo("[STOP]") == 0) {
-					BluetoothConnectionHandler.UTIL.gracefulShutdown(serverListener);
+					stop();
 					break;
 				}
 
-				serverListener.messageReceived(message);
-				message = input.readUTF();
+				pipeline.put(address, BinaryEvent.createTextEvent(message));
+				message = dataInput.readUTF();
 			}
 		} catch (IOException io) {
 			System.err
 					.println("Failed data from the client. It is probably disconnected. "
 							+ io);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		} finally {
 			closeConnection();
 		}
 	}
 
+	/**
+	 * Reads the records of a binary stream, which are formatted by the
+	 * <code>IngestPipeline</code>. A text record with the [STOP] command stops
+	 * the server.
+	 */
+	private void readBinary(final BufferedInputStream bufferedInput)
+			throws IOException, InterruptedException {
+		BinaryEventDecoder decoder = new BinaryEventDecoder(bufferedInput);
+		BinaryEvent event = decoder.readEvent();
+
+		while (event != null) {
+			if (event.isText() && "[STOP]".equals(event.getMessage())) {
+				stop();
+				break;
+			}
+
+			pipeline.put(address, event);
+			event = decoder.readEvent();
+		}
+	}
+
+	/**
+	 * Stops the server, after the received messages have been handed to the
+	 * <code>BluetoothServerListener</code>.
+	 */
+	private void stop() throws InterruptedException {
+		pipeline.flush();
+		BluetoothConnectionHandler.UTIL.gracefulShutdown(serverListener);
+	}
+
 	/**
 	 * Closes the client connection and removes the connection from the
 	 * <code>BluetoothConnectionsUtil</code> list.
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.midp.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import net.sf.microlog.core.IOUtil;
+import net.sf.microlog.core.spool.AbstractSpool;
+
+/**
+ * A <code>Spool</code> that stores the entries in a file, using the
+ * FileConnection API from JSR-75.
+ * <p>
+ * The file starts with a header that contains the offset of the oldest entry.
+ * The entries follow the header, each written with <code>writeUTF()</code>.
+ * New entries are appended to the end of the file, and removing the oldest
+ * entry only moves the offset in the header. When the spool is empty, the file
+ * is truncated to the header. When the removed entries at the head take more
+ * than {@value #COMPACT_THRESHOLD} bytes, and more than the stored entries,
+ * the stored entries are copied to a new file that replaces the spool file,
+ * so that the file does not grow without bound.
+ * <p>
+ * An entry that was not completely written when the application stopped is
+ * cut off when the spool is opened.
+ * 
+ * @since 2.3
+ */
+public class FileSpool extends AbstractSpool {
+
+	/**
+	 * The size of the header, i.e. the offset of the oldest entry.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The size of the length field that <code>writeUTF()</code> writes before
+	 * the data.
+	 */
+	private static final int UTF_LENGTH_SIZE = 2;
+
+	/**
+	 * The number of bytes of removed entries at the head of the file that
+	 * makes the file compacted.
+	 */
+	public static final int COMPACT_THRESHOLD = 32 * 1024;
+
+	/**
+	 * The suffix of the file that the entries are copied to when the file is
+	 * compacted.
+	 */
+	private static final String COMPACT_SUFFIX = ".compact";
+
+	private static final int COPY_BUFFER_SIZE = 1024;
+
+	private final String fileURI;
+
+	private FileConnection fileConnection;
+
+	private long headOffset = HEADER_SIZE;
+
+	private long tailOffset = HEADER_SIZE;
+
+	private int size;
+
+	private String peekedEntry;
+
+	private int peekedLength;
+
+	/**
+	 * Create a <code>FileSpool</code>.
+	 * 
+	 * @param fileURI
+	 *            the URI of the spool file, for example
+	 *            "file:///root1/microlog.spool".
+	 * @throws IllegalArgumentException
+	 *             if the <code>fileURI</code> is <code>null</code>.
+	 */
+	public FileSpool(String fileURI) throws IllegalArgumentException {
+		if (fileURI == null) {
+			throw new IllegalArgumentException("The fileURI must not be null.");
+		}
+
+		this.fileURI = fileURI;
+	}
+
+	/**
+	 * Open the file and count the stored entries.
+	 * 
+	 * @see net.sf.microlog.core.spool.Spool#open()
+	 */
+	public synchronized void open() throws IOException {
+		if (fileConnection != null) {
+			return;
+		}
+
+		finishCompaction();
+
+		fileConnection = (FileConnection) Connector.open(fileURI,
+				Connector.READ_WRITE);
+		if (!fileConnection.exists()) {
+			fileConnection.create();
+		}
+
+		long fileSize = fileConnection.fileSize();
+		headOffset = HEADER_SIZE;
+		tailOffset = HEADER_SIZE;
+		size = 0;
+
+		if (fileSize >= HEADER_SIZE) {
+			DataInputStream dataInputStream = fileConnection
+					.openDataInputStream();
+			try {
+				long offset = dataInputStream.readLong();
+				if (offset >= HEADER_SIZE && offset <= fileSize) {
+					skipFully(dataInputStream, offset - HEADER_SIZE);
+					headOffset = offset;
+					tailOffset = offset;
+
+					while (fileSize - tailOffset >= UTF_LENGTH_SIZE) {
+						int length = dataInputStream.readUnsignedShort();
+						if (fileSize - tailOffset - UTF_LENGTH_SIZE < length) {
+							break;
+						}
+						skipFully(dataInputStream, length);
+						tailOffset += UTF_LENGTH_SIZE + length;
+						size++;
+					}
+				}
+			} finally {
+				IOUtil.closeSilent(dataInputStream);
+			}
+		}
+
+		if (tailOffset < fileSize) {
+			System.err.println("Cutting off a damaged entry at " + tailOffset
+					+ " of " + fileURI);
+			fileConnection.truncate(tailOffset);
+		}
+		if (size == 0) {
+			if (tailOffset > HEADER_SIZE) {
+				fileConnection.truncate(HEADER_SIZE);
+			}
+			headOffset = HEADER_SIZE;
+			tailOffset = HEADER_SIZE;
+			writeHeader();
+		}
+
+		// The bound could have been lowered since the last session.
+		while (size > maxEntries) {
+			remove();
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#close()
+	 */
+	public synchronized void close() throws IOException {
+		IOUtil.closeSilent(fileConnection);
+		fileConnection = null;
+		peekedEntry = null;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.AbstractSpool#store(java.lang.String)
+	 */
+	protected void store(String entry) throws IOException {
+		checkOpen();
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(
+				UTF_LENGTH_SIZE + entry.length());
+		new DataOutputStream(byteArrayOutputStream).writeUTF(entry);
+		byte[] data = byteArrayOutputStream.toByteArray();
+
+		OutputStream outputStream = fileConnection.openOutputStream(tailOffset);
+		try {
+			outputStream.write(data);
+			outputStream.flush();
+			tailOffset += data.length;
+			size++;
+		} finally {
+			IOUtil.closeSilent(outputStream);
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#peek()
+	 */
+	public synchronized String peek() throws IOException {
+		if (size == 0) {
+			return null;
+		}
+
+		if (peekedEntry == null) {
+			checkOpen();
+			DataInputStream dataInputStream = fileConnection
+					.openDataInputStream();
+			try {
+				skipFully(dataInputStream, headOffset);
+				peekedLength = dataInputStream.readUnsignedShort();
+
+				// Put the length back in front of the data, since readUTF()
+				// needs it.
+				byte[] data = new byte[UTF_LENGTH_SIZE + peekedLength];
+				data[0] = (byte) (peekedLength >> 8);
+				data[1] = (byte) peekedLength;
+				dataInputStream.readFully(data, UTF_LENGTH_SIZE, peekedLength);
+				peekedEntry = new DataInputStream(new ByteArrayInputStream(
+						data)).readUTF();
+			} finally {
+				IOUtil.closeSilent(dataInputStream);
+			}
+		}
+
+		return peekedEntry;
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#remove()
+	 */
+	public synchronized void remove() throws IOException {
+		if (size == 0) {
+			return;
+		}
+
+		if (peekedEntry == null) {
+			peek();
+		}
+
+		headOffset += UTF_LENGTH_SIZE + peekedLength;
+		peekedEntry = null;
+		size--;
+
+		if (size == 0) {
+			fileConnection.truncate(HEADER_SIZE);
+			headOffset = HEADER_SIZE;
+			tailOffset = HEADER_SIZE;
+		}
+
+		writeHeader();
+
+		long removedBytes = headOffset - HEADER_SIZE;
+		if (removedBytes > COMPACT_THRESHOLD
+				&& removedBytes > tailOffset - headOffset) {
+			compact();
+		}
+	}
+
+	/**
+	 * @see net.sf.microlog.core.spool.Spool#size()
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Get the URI of the spool file.
+	 * 
+	 * @return the file URI.
+	 */
+	public String getFileURI() {
+		return fileURI;
+	}
+
+	/**
+	 * Copy the stored entries to a new file, which then replaces the spool
+	 * file. The spool file is intact until the new file is complete, and
+	 * <code>finishCompaction()</code> completes the replacement if the
+	 * application stopped in between.
+	 */
+	private void compact() throws IOException {
+		FileConnection compactConnection = (FileConnection) Connector.open(
+				fileURI + COMPACT_SUFFIX, Connector.READ_WRITE);
+		try {
+			if (compactConnection.exists()) {
+				compactConnection.truncate(0);
+			} else {
+				compactConnection.create();
+			}
+
+			DataInputStream dataInputStream = fileConnection
+					.openDataInputStream();
+			DataOutputStream dataOutputStream = compactConnection
+					.openDataOutputStream();
+			try {
+				dataOutputStream.writeLong(HEADER_SIZE);
+				skipFully(dataInputStream, headOffset);
+
+				byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				long remaining = tailOffset - headOffset;
+				while (remaining > 0) {
+					int length = dataInputStream.read(buffer, 0, (int) Math
+							.min(buffer.length, remaining));
+					if (length < 0) {
+						throw new IOException(
+								"Unexpected end of the spool file.");
+					}
+					dataOutputStream.write(buffer, 0, length);
+					remaining -= length;
+				}
+				dataOutputStream.flush();
+			} finally {
+				IOUtil.closeSilent(dataInputStream);
+				IOUtil.closeSilent(dataOutputStream);
+			}
+
+			fileConnection.delete();
+			IOUtil.closeSilent(fileConnection);
+			fileConnection = null;
+			compactConnection.rename(getFileName());
+		} finally {
+			IOUtil.closeSilent(compactConnection);
+		}
+
+		fileConnection = (FileConnection) Connector.open(fileURI,
+				Connector.READ_WRITE);
+		tailOffset = HEADER_SIZE + tailOffset - headOffset;
+		headOffset = HEADER_SIZE;
+		peekedEntry = null;
+	}
+
+	/**
+	 * Finish a compaction that was interrupted. If the spool file is still
+	 * there the new file could be incomplete, and it is deleted, otherwise it
+	 * is complete and it replaces the spool file.
+	 */
+	private void finishCompaction() throws IOException {
+		FileConnection compactConnection = (FileConnection) Connector.open(
+				fileURI + COMPACT_SUFFIX, Connector.READ_WRITE);
+		try {
+			if (compactConnection.exists()) {
+				FileConnection spoolConnection = (FileConnection) Connector
+						.open(fileURI, Connector.READ);
+				boolean spoolExists;
+				try {
+					spoolExists = spoolConnection.exists();
+				} finally {
+					IOUtil.closeSilent(spoolConnection);
+				}
+
+				if (spoolExists) {
+					compactConnection.delete();
+				} else {
+					compactConnection.rename(getFileName());
+				}
+			}
+		} finally {
+			IOUtil.closeSilent(compactConnection);
+		}
+	}
+
+	/**
+	 * Get the name of the spool file, without the path.
+	 */
+	private String getFileName() {
+		return fileURI.substring(fileURI.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Write the offset of the oldest entry to the header.
+	 */
+	private void writeHeader() throws IOException {
+		OutputStream outputStream = fileConnection.openOutputStream(0);
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		try {
+			dataOutputStream.writeLong(headOffset);
+			dataOutputStream.flush();
+		} finally {
+			IOUtil.closeSilent(dataOutputStream);
+		}
+	}
+
+	private void skipFully(DataInputStream dataInputStream, long bytes)
+			throws IOException {
+		while (bytes > 0) {
+			long skipped = dataInputStream.skip(bytes);
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of the spool file.");
+			}
+			bytes -= skipped;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (fileConnection == null) {
+			throw new IOException("The spool is not open.");
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A <code>LogServlet</code> that reads the posts without blocking, with the
+ * asynchronous I/O of Servlet 3.1. A container thread is only used while data
+ * is available, so that many slow clients do not hold a thread each while they
+ * send.
+ * 
+ * The body is collected with a buffer of its own, of at most
+ * {@value #MAX_BODY_SIZE} bytes, and is decoded when all of it has arrived. A
+ * larger body is answered with 413 (Request Entity Too Large). The log entries
+ * are offered to the pipeline without waiting, and if it is full the servlet
+ * answers with 503 (Service Unavailable).
+ * 
+ * The servlet must be declared with <code>async-supported</code>; otherwise
+ * it works as a <code>LogServlet</code>.
+ * 
+ * @since 2.3
+ */
+public class AsyncLogServlet extends LogServlet {
+
+	private static final long serialVersionUID = -2170512470829614457L;
+
+	/**
+	 * The largest body that is accepted, in bytes.
+	 */
+	public static final int MAX_BODY_SIZE = 1024 * 1024;
+
+	/**
+	 * The longest time that a post could take, in milliseconds.
+	 */
+	public static final long ASYNC_TIMEOUT = 30000;
+
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		if (!req.isAsyncSupported()) {
+			super.doPost(req, resp);
+			return;
+		}
+
+		int contentLength = req.getContentLength();
+		if (contentLength > MAX_BODY_SIZE) {
+			resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+
+		AsyncContext asyncContext = req.startAsync();
+		asyncContext.setTimeout(ASYNC_TIMEOUT);
+
+		ServletInputStream input = req.getInputStream();
+		input.setReadListener(new BodyReader(asyncContext, input, resp, req
+				.getRemoteAddr(), req.getHeader("Content-Encoding"), req
+				.getCharacterEncoding(), contentLength));
+	}
+
+	/**
+	 * Reads a body while data is available, and decodes it when all of it has
+	 * arrived.
+	 */
+	private final class BodyReader implements ReadListener {
+
+		private final AsyncContext asyncContext;
+
+		private final ServletInputStream input;
+
+		private final HttpServletResponse resp;
+
+		private final String source;
+
+		private final String contentEncoding;
+
+		private final String charset;
+
+		private final BodyBuffer body;
+
+		private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+		private boolean completed;
+
+		BodyReader(AsyncContext asyncContext, ServletInputStream input,
+				HttpServletResponse resp, String source,
+				String contentEncoding, String charset, int contentLength) {
+			this.asyncContext = asyncContext;
+			this.input = input;
+			this.resp = resp;
+			this.source = source;
+			this.contentEncoding = contentEncoding;
+			this.charset = charset;
+			body = new BodyBuffer(contentLength > 0 ? contentLength
+					: READ_BUFFER_SIZE);
+		}
+
+		/**
+		 * @see javax.servlet.ReadListener#onDataAvailable()
+		 */
+		public void onDataAvailable() throws IOException {
+			int count;
+			while (!completed && input.isReady()
+					&& (count = input.read(readBuffer)) != -1) {
+				if (body.size() + count > MAX_BODY_SIZE) {
+					complete(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+					return;
+				}
+				body.write(readBuffer, 0, count);
+			}
+		}
+
+		/**
+		 * @see javax.servlet.ReadListener#onAllDataRead()
+		 */
+		public void onAllDataRead() throws IOException {
+			if (!completed) {
+				complete(ingest(source, contentEncoding, charset, body
+						.toInputStream(), 0));
+			}
+		}
+
+		/**
+		 * @see javax.servlet.ReadListener#onError(java.lang.Throwable)
+		 */
+		public void onError(Throwable t) {
+			System.err.println("Failed to read a post from " + source + ' ' + t);
+			if (!completed) {
+				completed = true;
+				asyncContext.complete();
+			}
+		}
+
+		private void complete(int status) throws IOException {
+			completed = true;
+			try {
+				if (status != HttpServletResponse.SC_OK) {
+					resp.sendError(status);
+				}
+			} finally {
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * A <code>ByteArrayOutputStream</code> that is read without a copy.
+	 */
+	private static final class BodyBuffer extends ByteArrayOutputStream {
+
+		BodyBuffer(int size) {
+			super(size);
+		}
+
+		InputStream toInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+}
@@ -1,34 +1,325 @@
 package net.sf.microlog.server.http;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.BinaryEventDecoder;
+import net.sf.microlog.server.ingest.IngestPipeline;
+import net.sf.microlog.server.ingest.IngestSink;
+import net.sf.microlog.server.ingest.PrintStreamSink;
+import net.sf.microlog.server.store.SegmentStore;
+
+/**
+ * A servlet that receives the log entries that are posted by the
+ * <code>HttpAppender</code>, and hands them to an <code>IngestPipeline</code>,
+ * which formats the binary log entries and prints them, or adds them to a
+ * <code>SegmentStore</code> if a store directory has been set. The pipeline
+ * and the store are configured with system properties.
+ * 
+ * The body of a post is read as a stream, with buffers of its own, and could
+ * be compressed with gzip. A chunked body is decoded by the container. A body
+ * in the binary format of the <code>BinaryEventEncoder</code> is recognized by
+ * its header, and could hold any number of records. A text body is split into
+ * log entries at the line breaks, except for the lines of a stack trace, which
+ * start with a tab or "Caused by: ". The text is decoded with the charset of
+ * the request, or UTF-8. A line must not be longer than
+ * {@value #MAX_LINE_LENGTH} characters.
+ * 
+ * If the queue of the pipeline stays full for {@value #OFFER_TIMEOUT}
+ * milliseconds, the servlet answers with 503 (Service Unavailable), and the
+ * rest of the post is not read; the log entries before it have been added. A
+ * body that could not be decoded is answered with 400 (Bad Request), a line
+ * that is too long with 413 (Request Entity Too Large), and an unknown content
+ * encoding with 415 (Unsupported Media Type).
+ * 
+ * @see AsyncLogServlet
+ */
 public class LogServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 7972650316464534386L;
 
-	private byte[] buffer = new byte[1024];
+	/**
+	 * The longest time to wait for room in the pipeline, in milliseconds.
+	 */
+	public static final long OFFER_TIMEOUT = 1000;
+
+	/**
+	 * The largest number of characters of a text log entry. The rest is cut
+	 * off.
+	 */
+	public static final int MAX_ENTRY_LENGTH = 64 * 1024;
+
+	/**
+	 * The largest number of characters of a line of a text body, which is the
+	 * same as the largest record of the <code>SocketLogServer</code>. A longer
+	 * line means that the body is not a log, and the post is rejected without
+	 * reading the rest of the line into memory.
+	 */
+	public static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private static final String CAUSE_PREFIX = "Caused by: ";
+
+	private IngestPipeline pipeline;
+
+	public void init() throws ServletException {
+		IngestSink sink;
+		try {
+			sink = SegmentStore.createFromSystemProperties();
+		} catch (IOException e) {
+			throw new ServletException("Could not open the store: "
+					+ e.getMessage());
+		}
+		if (sink == null) {
+			sink = new PrintStreamSink(System.out);
+		}
+
+		pipeline = IngestPipeline.createFromSystemProperties(sink);
+	}
+
+	public void destroy() {
+		if (pipeline != null) {
+			pipeline.close();
+		}
+	}
+
+	/**
+	 * Get the <code>IngestPipeline</code>, e.g. for its metrics.
+	 * 
+	 * @return the pipeline.
+	 */
+	public IngestPipeline getPipeline() {
+		return pipeline;
+	}
 
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
+		int status = ingest(req.getRemoteAddr(), req
+				.getHeader("Content-Encoding"), req.getCharacterEncoding(), req
+				.getInputStream(), OFFER_TIMEOUT);
+
+		if (status != HttpServletResponse.SC_OK) {
+			resp.sendError(status);
+		}
+	}
+
+	/**
+	 * Decode the body of a post, and add its log entries to the pipeline.
+	 * 
+	 * @param source
+	 *            the client that posted the body.
+	 * @param contentEncoding
+	 *            the content encoding of the body, or <code>null</code>.
+	 * @param charset
+	 *            the charset of a text body, or <code>null</code> for UTF-8.
+	 * @param body
+	 *            the body.
+	 * @param timeout
+	 *            the longest time to wait for room in the pipeline, in
+	 *            milliseconds, or 0 to not wait.
+	 * @return the HTTP status of the response.
+	 */
+	protected int ingest(String source, String contentEncoding,
+			String charset, InputStream body, long timeout) {
+		try {
+			InputStream input = decompress(contentEncoding, body);
+			if (input == null) {
+				return HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+			}
+
+			input = new BufferedInputStream(input);
+			boolean added;
+			if (BinaryEventDecoder.isBinaryStream(input)) {
+				added = addBinary(source, input, timeout);
+			} else {
+				added = addText(source, new LineReader(new InputStreamReader(
+						input, charset != null ? charset : DEFAULT_CHARSET)),
+						timeout);
+			}
+
+			return added ? HttpServletResponse.SC_OK
+					: HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+		} catch (UnsupportedEncodingException e) {
+			return HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE;
+		} catch (LineTooLongException e) {
+			System.err.println("Rejected a post from " + source + ' '
+					+ e.getMessage());
+			return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+		} catch (IOException e) {
+			System.err.println("Failed to read a post from " + source + ' '
+					+ e);
+			return HttpServletResponse.SC_BAD_REQUEST;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+		}
+	}
+
+	/**
+	 * @return the decompressed body, or <code>null</code> if the content
+	 *         encoding is not supported.
+	 */
+	private static InputStream decompress(String contentEncoding,
+			InputStream body) throws IOException {
+		if (contentEncoding == null
+				|| contentEncoding.equalsIgnoreCase("identity")) {
+			return body;
+		} else if (contentEncoding.equalsIgnoreCase("gzip")
+				|| contentEncoding.equalsIgnoreCase("x-gzip")) {
+			return new GZIPInputStream(body);
+		}
+
+		return null;
+	}
 
-		InputStream is = req.getInputStream();
+	/**
+	 * Add the records of a binary body to the pipeline.
+	 * 
+	 * @return <code>false</code> if there was no room in the pipeline.
+	 */
+	private boolean addBinary(String source, InputStream input, long timeout)
+			throws IOException, InterruptedException {
+		BinaryEventDecoder decoder = new BinaryEventDecoder(input);
 
-		int contentLength = req.getContentLength();
-		if (contentLength > buffer.length) {
-			buffer = new byte[contentLength + 1024];
+		BinaryEvent event;
+		while ((event = decoder.readEvent()) != null) {
+			if (!add(source, event, timeout)) {
+				return false;
+			}
 		}
 
-		for (int index = 0; index < contentLength; index++) {
-			is.read(buffer);
+		return true;
+	}
+
+	/**
+	 * Add the log entries of a text body to the pipeline. The lines of a stack
+	 * trace belong to the log entry before them.
+	 * 
+	 * @return <code>false</code> if there was no room in the pipeline.
+	 */
+	private boolean addText(String source, LineReader reader, long timeout)
+			throws IOException, InterruptedException {
+		StringBuilder entry = new StringBuilder(128);
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			boolean continuation = line.startsWith("\t")
+					|| line.startsWith(CAUSE_PREFIX);
+			if (entry.length() > 0 && !continuation) {
+				if (!add(source, BinaryEvent.createTextEvent(entry.toString()),
+						timeout)) {
+					return false;
+				}
+				entry.setLength(0);
+			}
+
+			if (entry.length() > 0) {
+				entry.append('\n');
+			}
+			entry.append(line, 0, Math.min(line.length(), Math.max(0,
+					MAX_ENTRY_LENGTH - entry.length())));
+		}
+
+		return entry.length() == 0
+				|| add(source, BinaryEvent.createTextEvent(entry.toString()),
+						timeout);
+	}
+
+	private boolean add(String source, BinaryEvent event, long timeout)
+			throws InterruptedException {
+		if (timeout > 0) {
+			return pipeline.offer(source, event, timeout,
+					TimeUnit.MILLISECONDS);
+		}
+
+		return pipeline.offer(source, event);
+	}
+
+	/**
+	 * Thrown when a line of a text body is longer than
+	 * {@value LogServlet#MAX_LINE_LENGTH} characters.
+	 */
+	private static final class LineTooLongException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		LineTooLongException() {
+			super("A line is longer than " + MAX_LINE_LENGTH + " characters");
 		}
+	}
+
+	/**
+	 * Reads the lines of a text body, like <code>BufferedReader</code>, but
+	 * stops at a line that is longer than {@value LogServlet#MAX_LINE_LENGTH}
+	 * characters. A line ends with a line feed, a carriage return, or both.
+	 */
+	private static final class LineReader {
+
+		private final Reader reader;
+
+		private final char[] buffer = new char[8192];
+
+		private final StringBuilder line = new StringBuilder(128);
+
+		private int position;
+
+		private int count;
 
-		System.out.println(new String(buffer, 0, contentLength));
+		private boolean skipLineFeed;
+
+		LineReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		/**
+		 * @return the next line without the line break, or <code>null</code>
+		 *         at the end of the body.
+		 * @throws LineTooLongException
+		 *             if the line is too long.
+		 */
+		String readLine() throws IOException {
+			line.setLength(0);
+
+			while (true) {
+				if (position == count) {
+					count = reader.read(buffer, 0, buffer.length);
+					position = 0;
+					if (count <= 0) {
+						count = 0;
+						return line.length() > 0 ? line.toString() : null;
+					}
+				}
+
+				char character = buffer[position++];
+				if (skipLineFeed) {
+					skipLineFeed = false;
+					if (character == '\n') {
+						continue;
+					}
+				}
+
+				if (character == '\n' || character == '\r') {
+					skipLineFeed = character == '\r';
+					return line.toString();
+				} else if (line.length() == MAX_LINE_LENGTH) {
+					throw new LineTooLongException();
+				}
+				line.append(character);
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.ingest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.server.render.ServerRenderer;
+
+/**
+ * The <code>IngestPipeline</code> takes the log entries that the network
+ * threads of the servers have decoded, and hands them to an
+ * <code>IngestSink</code> in batches, so that a slow sink does not stall the
+ * network threads. It has three stages:
+ * <ol>
+ * <li>The network threads add the log entries to a bounded queue, with the
+ * source and the time of arrival.</li>
+ * <li>The render thread takes up to a batch of log entries at a time, and
+ * formats them in parallel with a <code>ServerRenderer</code>.</li>
+ * <li>The store thread writes each batch to the sink.</li>
+ * </ol>
+ * The log entries reach the sink in the order that they were added. A log
+ * entry that could not be formatted is dropped, and the pipeline goes on with
+ * the next one.
+ * 
+ * When the queue is full, <code>offer()</code> returns <code>false</code>,
+ * which tells the transport to back off, e.g. to stop reading from a
+ * connection for a while. <code>put()</code> waits for room instead. Once
+ * <code>close()</code> has been called, adding a log entry throws an
+ * <code>IllegalStateException</code>; the log entries that were added before
+ * are written to the sink. The pipeline is configured with system properties:
+ * 
+ * <pre>
+ * microlog.server.queueCapacity=8192
+ * microlog.server.batchSize=256
+ * </pre>
+ * 
+ * @since 2.3
+ */
+public class IngestPipeline {
+
+	public static final String QUEUE_CAPACITY_KEY = "microlog.server.queueCapacity";
+
+	public static final String BATCH_SIZE_KEY = "microlog.server.batchSize";
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * The number of formatted batches that could wait for the sink.
+	 */
+	private static final int STORE_QUEUE_CAPACITY = 4;
+
+	/**
+	 * Marks the end of the queue.
+	 */
+	private static final IngestRecord END = new IngestRecord(null, 0, null);
+
+	/**
+	 * Marks the end of the store queue.
+	 */
+	private static final List<IngestRecord> END_BATCH = new ArrayList<IngestRecord>(
+			0);
+
+	private final ServerRenderer renderer;
+
+	private final IngestSink sink;
+
+	private final int capacity;
+
+	private final int batchSize;
+
+	private final BlockingQueue<IngestRecord> queue;
+
+	private final BlockingQueue<List<IngestRecord>> storeQueue = new ArrayBlockingQueue<List<IngestRecord>>(
+			STORE_QUEUE_CAPACITY);
+
+	private final Thread renderThread;
+
+	private final Thread storeThread;
+
+	private final AtomicLong acceptedCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private final AtomicLong storedCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final Object processedLock = new Object();
+
+	private long processedCount;
+
+	/**
+	 * The threads that add log entries hold the read lock, and
+	 * <code>close()</code> takes the write lock. This way no log entry is
+	 * added after the end of the queue, where it would never be taken.
+	 */
+	private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+	private boolean closed;
+
+	/**
+	 * Create and start an <code>IngestPipeline</code>.
+	 * 
+	 * @param renderer
+	 *            the <code>ServerRenderer</code> that formats the log
+	 *            entries, which is shut down when the pipeline is closed.
+	 * @param sink
+	 *            the sink of the log entries.
+	 * @param capacity
+	 *            the number of log entries that the queue holds.
+	 * @param batchSize
+	 *            the largest number of log entries in a batch.
+	 * @throws IllegalArgumentException
+	 *             if the <code>renderer</code> or the <code>sink</code> is
+	 *             <code>null</code>, or the <code>capacity</code> or the
+	 *             <code>batchSize</code> is less than 1.
+	 */
+	public IngestPipeline(ServerRenderer renderer, IngestSink sink,
+			int capacity, int batchSize) throws IllegalArgumentException {
+		if (renderer == null || sink == null || capacity < 1 || batchSize < 1) {
+			throw new IllegalArgumentException(
+					"The renderer and the sink must not be null, and the capacity and the batchSize > 0");
+		}
+
+		this.renderer = renderer;
+		this.sink = sink;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<IngestRecord>(capacity);
+
+		renderThread = new Thread(new Runnable() {
+			public void run() {
+				render();
+			}
+		}, "IngestPipeline-render");
+		renderThread.setDaemon(true);
+
+		storeThread = new Thread(new Runnable() {
+			public void run() {
+				store();
+			}
+		}, "IngestPipeline-store");
+		storeThread.setDaemon(true);
+
+		renderThread.start();
+		storeThread.start();
+	}
+
+	/**
+	 * Create an <code>IngestPipeline</code> that is configured with the
+	 * system properties, and with a <code>ServerRenderer</code> that is
+	 * configured with the system properties.
+	 * 
+	 * @param sink
+	 *            the sink of the log entries.
+	 * @return the created <code>IngestPipeline</code>.
+	 */
+	public static IngestPipeline createFromSystemProperties(IngestSink sink) {
+		int capacity = Integer.getInteger(QUEUE_CAPACITY_KEY,
+				DEFAULT_QUEUE_CAPACITY);
+		int batchSize = Integer.getInteger(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE);
+
+		return new IngestPipeline(ServerRenderer.createFromSystemProperties(),
+				sink, Math.max(1, capacity), Math.max(1, batchSize));
+	}
+
+	/**
+	 * Add a log entry, if there is room in the queue.
+	 * 
+	 * @param source
+	 *            the client that sent the log entry.
+	 * @param event
+	 *            the log entry.
+	 * @return <code>false</code> if the queue is full.
+	 * @throws IllegalStateException
+	 *             if the pipeline has been closed.
+	 */
+	public boolean offer(String source, BinaryEvent event)
+			throws IllegalStateException {
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			checkOpen();
+			return accepted(queue.offer(new IngestRecord(source, System
+					.currentTimeMillis(), event)));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add a log entry, and wait for room in the queue for a limited time.
+	 * 
+	 * @param source
+	 *            the client that sent the log entry.
+	 * @param event
+	 *            the log entry.
+	 * @param timeout
+	 *            the longest time to wait.
+	 * @param unit
+	 *            the unit of the <code>timeout</code>.
+	 * @return <code>false</code> if the queue was still full.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 * @throws IllegalStateException
+	 *             if the pipeline has been closed.
+	 */
+	public boolean offer(String source, BinaryEvent event, long timeout,
+			TimeUnit unit) throws InterruptedException, IllegalStateException {
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			checkOpen();
+			return accepted(queue.offer(new IngestRecord(source, System
+					.currentTimeMillis(), event), timeout, unit));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add a log entry, and wait until there is room in the queue.
+	 * 
+	 * @param source
+	 *            the client that sent the log entry.
+	 * @param event
+	 *            the log entry.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 * @throws IllegalStateException
+	 *             if the pipeline has been closed.
+	 */
+	public void put(String source, BinaryEvent event)
+			throws InterruptedException, IllegalStateException {
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			checkOpen();
+			queue.put(new IngestRecord(source, System.currentTimeMillis(),
+					event));
+			acceptedCount.incrementAndGet();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the log entries that have been added so far have been
+	 * written to the sink, or dropped.
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		long target = acceptedCount.get();
+		synchronized (processedLock) {
+			while (processedCount < target && storeThread.isAlive()) {
+				processedLock.wait(100);
+			}
+		}
+	}
+
+	/**
+	 * Close the pipeline. This waits for the threads that are adding log
+	 * entries, and the log entries in the queue are written to the sink
+	 * before the sink and the renderer are closed.
+	 */
+	public void close() {
+		Lock lock = closeLock.writeLock();
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			queue.put(END);
+			renderThread.join();
+			storeThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			sink.close();
+		} catch (IOException e) {
+			System.err.println("Failed to close the sink " + e);
+		}
+		renderer.shutdown();
+	}
+
+	/**
+	 * @return the number of log entries in the queue.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of log entries that the queue holds.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of log entries that have been added.
+	 */
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	/**
+	 * @return the number of times that <code>offer()</code> found the queue
+	 *         full.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return the number of log entries that have been written to the sink.
+	 */
+	public long getStoredCount() {
+		return storedCount.get();
+	}
+
+	/**
+	 * @return the number of log entries that could not be formatted or
+	 *         written to the sink.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "IngestPipeline[depth=" + getQueueDepth() + '/' + capacity
+				+ ", accepted=" + getAcceptedCount() + ", rejected="
+				+ getRejectedCount() + ", stored=" + getStoredCount()
+				+ ", dropped=" + getDroppedCount() + ']';
+	}
+
+	private void checkOpen() throws IllegalStateException {
+		if (closed) {
+			throw new IllegalStateException("The pipeline is closed.");
+		}
+	}
+
+	private boolean accepted(boolean added) {
+		if (added) {
+			acceptedCount.incrementAndGet();
+		} else {
+			rejectedCount.incrementAndGet();
+		}
+		return added;
+	}
+
+	/**
+	 * Take the batches from the queue, and format them on the rendering
+	 * threads. The text records, which were formatted on the client, are not
+	 * handed to the renderer.
+	 */
+	private void render() {
+		List<IngestRecord> records = new ArrayList<IngestRecord>(batchSize);
+		List<Future<String>> lines = new ArrayList<Future<String>>(batchSize);
+
+		try {
+			boolean end = false;
+			while (!end) {
+				records.add(queue.take());
+				queue.drainTo(records, batchSize - 1);
+
+				for (IngestRecord record : records) {
+					if (record == END) {
+						end = true;
+						break;
+					}
+
+					BinaryEvent event = record.getEvent();
+					lines.add(event.isText() ? null : submit(event));
+				}
+
+				List<IngestRecord> batch = new ArrayList<IngestRecord>(lines
+						.size());
+				for (int index = 0; index < lines.size(); index++) {
+					IngestRecord record = records.get(index);
+					Future<String> line = lines.get(index);
+					if (line == null) {
+						record.setLine(String.valueOf(record.getEvent()
+								.getMessage()));
+						batch.add(record);
+						continue;
+					}
+
+					try {
+						record.setLine(line.get());
+						batch.add(record);
+					} catch (ExecutionException e) {
+						dropped(e.getCause());
+					} catch (RuntimeException e) {
+						dropped(e);
+					}
+				}
+
+				if (!batch.isEmpty()) {
+					storeQueue.put(batch);
+				}
+				records.clear();
+				lines.clear();
+			}
+		} catch (InterruptedException e) {
+			// The pipeline is stopping.
+		} finally {
+			try {
+				storeQueue.put(END_BATCH);
+			} catch (InterruptedException e) {
+				storeThread.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Hand a log entry to the renderer. If the renderer fails, e.g. because
+	 * it has been shut down, the failure is returned as the result, so that
+	 * the log entry is dropped like one that could not be formatted.
+	 */
+	private Future<String> submit(BinaryEvent event) {
+		try {
+			return renderer.submit(event);
+		} catch (final RuntimeException e) {
+			FutureTask<String> failure = new FutureTask<String>(
+					new Callable<String>() {
+						public String call() {
+							throw e;
+						}
+					});
+			failure.run();
+			return failure;
+		}
+	}
+
+	private void dropped(Throwable cause) {
+		System.err.println("Failed to format a log entry " + cause);
+		droppedCount.incrementAndGet();
+		processed(1);
+	}
+
+	/**
+	 * Write the formatted batches to the sink.
+	 */
+	private void store() {
+		try {
+			List<IngestRecord> batch;
+			while ((batch = storeQueue.take()) != END_BATCH) {
+				try {
+					sink.write(batch);
+					storedCount.addAndGet(batch.size());
+				} catch (Exception e) {
+					System.err.println("Failed to store " + batch.size()
+							+ " log entries " + e);
+					droppedCount.addAndGet(batch.size());
+				}
+				processed(batch.size());
+			}
+		} catch (InterruptedException e) {
+			// The pipeline is stopping.
+		}
+	}
+
+	private void processed(int count) {
+		synchronized (processedLock) {
+			processedCount += count;
+			processedLock.notifyAll();
+		}
+	}
+}
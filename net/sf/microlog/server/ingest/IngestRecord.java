@@ -0,0 +1,74 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.ingest;
+
+import net.sf.microlog.core.format.BinaryEvent;
+
+/**
+ * A log entry that has been received by a server. The
+ * <code>IngestPipeline</code> adds the formatted line before the record is
+ * handed to the <code>IngestSink</code>.
+ * 
+ * @since 2.3
+ */
+public final class IngestRecord {
+
+	private final String source;
+
+	private final long receivedTime;
+
+	private final BinaryEvent event;
+
+	private String line;
+
+	IngestRecord(String source, long receivedTime, BinaryEvent event) {
+		this.source = source;
+		this.receivedTime = receivedTime;
+		this.event = event;
+	}
+
+	/**
+	 * @return the client that sent the log entry, e.g. its address.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the time that the server received the log entry, in
+	 *         milliseconds since the epoch.
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * @return the decoded log entry.
+	 */
+	public BinaryEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the formatted log entry.
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	void setLine(String line) {
+		this.line = line;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.ingest;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The last stage of an <code>IngestPipeline</code>, which stores or prints
+ * the log entries. It is only called by the store thread of the pipeline.
+ * 
+ * @since 2.3
+ */
+public interface IngestSink {
+
+	/**
+	 * Write a batch of log entries, in the order that they were received.
+	 * 
+	 * @param batch
+	 *            the log entries, which are formatted.
+	 * @throws IOException
+	 *             if the log entries could not be written. They are dropped.
+	 */
+	void write(List<IngestRecord> batch) throws IOException;
+
+	/**
+	 * Close the sink, after the last batch.
+	 * 
+	 * @throws IOException
+	 *             if the sink could not be closed.
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.ingest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * An <code>IngestSink</code> that prints the formatted log entries, e.g. to
+ * <code>System.out</code>. Each batch is printed with one write.
+ * 
+ * @since 2.3
+ */
+public class PrintStreamSink implements IngestSink {
+
+	private static final String LINE_SEPARATOR = System.getProperty(
+			"line.separator", "\n");
+
+	private final PrintStream printStream;
+
+	private final StringBuilder builder = new StringBuilder(4096);
+
+	/**
+	 * Create a <code>PrintStreamSink</code>.
+	 * 
+	 * @param printStream
+	 *            the stream to print to.
+	 * @throws IllegalArgumentException
+	 *             if the <code>printStream</code> is <code>null</code>.
+	 */
+	public PrintStreamSink(PrintStream printStream)
+			throws IllegalArgumentException {
+		if (printStream == null) {
+			throw new IllegalArgumentException(
+					"The printStream must not be null.");
+		}
+
+		this.printStream = printStream;
+	}
+
+	/**
+	 * @see net.sf.microlog.server.ingest.IngestSink#write(java.util.List)
+	 */
+	public void write(List<IngestRecord> batch) throws IOException {
+		builder.setLength(0);
+		for (IngestRecord record : batch) {
+			builder.append(record.getLine()).append(LINE_SEPARATOR);
+		}
+
+		printStream.print(builder);
+		if (printStream.checkError()) {
+			throw new IOException("Could not print the log entries.");
+		}
+	}
+
+	/**
+	 * Flush the stream, which is not closed.
+	 * 
+	 * @see net.sf.microlog.server.ingest.IngestSink#close()
+	 */
+	public void close() {
+		printStream.flush();
+	}
+}
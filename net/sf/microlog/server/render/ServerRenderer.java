@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.render;
+
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.microlog.core.AppenderDispatcher;
+import net.sf.microlog.core.Formatter;
+import net.sf.microlog.core.PropertyConfigurator;
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.ThrowableRenderer;
+
+/**
+ * The <code>ServerRenderer</code> formats the log entries that clients have
+ * sent in the binary format, so that the clients do not have to format them.
+ * The log entries are formatted by a pool of threads, each with a
+ * <code>Formatter</code> of its own, so the formatting uses all the cores.
+ * 
+ * The formatter is configured with system properties:
+ * 
+ * <pre>
+ * microlog.server.formatter=JsonFormatter
+ * microlog.server.formatter.levelField=severity
+ * microlog.server.renderThreads=4
+ * </pre>
+ * 
+ * The formatter is an alias or a class name, and the default is the
+ * <code>PatternFormatter</code>. The number of threads defaults to the
+ * number of processors. The stack traces are not deduplicated, since the
+ * entries are formatted by several formatters.
+ * 
+ * @since 2.3
+ */
+public class ServerRenderer {
+
+	public static final String FORMATTER_KEY = "microlog.server.formatter";
+
+	public static final String RENDER_THREADS_KEY = "microlog.server.renderThreads";
+
+	public static final String DEFAULT_FORMATTER = "PatternFormatter";
+
+	private final String formatterClassName;
+
+	private final Properties formatterProperties;
+
+	private final ExecutorService executor;
+
+	private final ThreadLocal<Formatter> formatters = new ThreadLocal<Formatter>() {
+		protected Formatter initialValue() {
+			return createFormatter();
+		}
+	};
+
+	/**
+	 * Create a <code>ServerRenderer</code>.
+	 * 
+	 * @param formatterName
+	 *            the alias or the class name of the formatter.
+	 * @param formatterProperties
+	 *            the properties of the formatter, by property name.
+	 * @param threads
+	 *            the number of rendering threads.
+	 * @throws IllegalArgumentException
+	 *             if the formatter could not be created, or
+	 *             <code>threads</code> is less than 1.
+	 */
+	public ServerRenderer(String formatterName, Properties formatterProperties,
+			int threads) throws IllegalArgumentException {
+		if (formatterName == null || threads < 1) {
+			throw new IllegalArgumentException(
+					"The formatterName must not be null and the threads > 0");
+		}
+
+		this.formatterClassName = toClassName(formatterName);
+		this.formatterProperties = formatterProperties != null ? formatterProperties
+				: new Properties();
+
+		// Fail here rather than on the rendering threads.
+		createFormatter();
+
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int threadNumber;
+
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ServerRenderer-"
+						+ (++threadNumber));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Create a <code>ServerRenderer</code> that is configured with the system
+	 * properties.
+	 * 
+	 * @return the created <code>ServerRenderer</code>.
+	 */
+	public static ServerRenderer createFromSystemProperties() {
+		String formatterName = System.getProperty(FORMATTER_KEY,
+				DEFAULT_FORMATTER);
+
+		Properties formatterProperties = new Properties();
+		String prefix = FORMATTER_KEY + '.';
+		Enumeration<?> keys = System.getProperties().propertyNames();
+		while (keys.hasMoreElements()) {
+			String key = (String) keys.nextElement();
+			if (key.startsWith(prefix)) {
+				formatterProperties.setProperty(key.substring(prefix.length()),
+						System.getProperty(key));
+			}
+		}
+
+		int threads = Integer.getInteger(RENDER_THREADS_KEY, Runtime
+				.getRuntime().availableProcessors());
+
+		return new ServerRenderer(formatterName, formatterProperties, Math.max(
+				1, threads));
+	}
+
+	/**
+	 * Format the log entry on the calling thread. A text record, which was
+	 * formatted on the client, is returned as it is.
+	 * 
+	 * @param event
+	 *            the log entry to format.
+	 * @return the formatted log entry.
+	 */
+	public String render(BinaryEvent event) {
+		if (event.isText()) {
+			return String.valueOf(event.getMessage());
+		}
+
+		return AppenderDispatcher.formatEvent(event.toLoggingEvent(),
+				formatters.get());
+	}
+
+	/**
+	 * Format the log entry on one of the rendering threads.
+	 * 
+	 * @param event
+	 *            the log entry to format.
+	 * @return the <code>Future</code> of the formatted log entry.
+	 */
+	public Future<String> submit(final BinaryEvent event) {
+		return executor.submit(new Callable<String>() {
+			public String call() {
+				return render(event);
+			}
+		});
+	}
+
+	/**
+	 * Stop the rendering threads, after the submitted log entries have been
+	 * formatted.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private Formatter createFormatter() throws IllegalArgumentException {
+		Formatter formatter;
+		try {
+			formatter = (Formatter) Class.forName(formatterClassName)
+					.newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Could not create the formatter "
+					+ formatterClassName + ' ' + e);
+		}
+
+		Enumeration<?> names = formatterProperties.propertyNames();
+		while (names.hasMoreElements()) {
+			String name = (String) names.nextElement();
+			formatter.setProperty(name, formatterProperties.getProperty(name));
+		}
+
+		// The entries of a client are formatted by any of the threads, so
+		// the trace ids of one formatter would refer to traces that another
+		// thread has printed.
+		ThrowableRenderer renderer = ThrowableRenderer.getRenderer(formatter);
+		if (renderer != null) {
+			renderer.setDeduplicate(false);
+		}
+
+		return formatter;
+	}
+
+	private static String toClassName(String formatterName) {
+		String[] aliases = PropertyConfigurator.FORMATTER_ALIASES;
+		for (int index = 0; index < aliases.length; index++) {
+			if (aliases[index].equals(formatterName)) {
+				return PropertyConfigurator.FORMATTER_CLASS_NAMES[index];
+			}
+		}
+
+		return formatterName;
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.socket;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.core.format.BinaryEventDecoder;
+import net.sf.microlog.core.format.BinaryEventEncoder;
+import net.sf.microlog.server.ingest.IngestPipeline;
+
+/**
+ * One client of a <code>SocketLogServer</code>. The bytes that have been read
+ * without blocking are kept in a <code>ByteBuffer</code>, and the complete
+ * records in it are decoded. The rest stays in the buffer until more has
+ * arrived. The first bytes tell if the client sends the binary format, or
+ * text that was written with <code>writeUTF()</code>.
+ * 
+ * The decoded log entries are offered to an <code>IngestPipeline</code>. If
+ * the queue of the pipeline is full, the connection is paused: the record
+ * stays in the buffer, and the server stops reading from the connection until
+ * the rest of the buffer has been decoded.
+ * 
+ * A <code>ClientConnection</code> is only used by the selector thread of the
+ * server, but the statistics could be read by any thread.
+ * 
+ * @since 2.3
+ */
+final class ClientConnection {
+
+	static final int INITIAL_BUFFER_SIZE = 2048;
+
+	/**
+	 * The largest record that is accepted. The length of a text record is at
+	 * most 65535 bytes, so this is only reached by a binary record.
+	 */
+	static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int UNKNOWN = 0;
+
+	private static final int TEXT = 1;
+
+	private static final int BINARY = 2;
+
+	private final SocketChannel channel;
+
+	private final String remoteAddress;
+
+	private final long connectedTime = System.currentTimeMillis();
+
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	private int protocol = UNKNOWN;
+
+	private BinaryEventDecoder decoder;
+
+	private boolean paused;
+
+	private volatile long bytesRead;
+
+	private volatile long eventsRead;
+
+	ClientConnection(SocketChannel channel) {
+		this.channel = channel;
+		this.remoteAddress = String.valueOf(channel.socket()
+				.getRemoteSocketAddress());
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Read the bytes that are available, and add the complete records to the
+	 * pipeline. The connection is paused if the pipeline is full.
+	 * 
+	 * @return <code>false</code> if the client has closed the connection.
+	 * @throws IOException
+	 *             if the connection failed or the data is not valid.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted.
+	 */
+	boolean read(IngestPipeline pipeline) throws IOException,
+			InterruptedException {
+		if (!buffer.hasRemaining()) {
+			growBuffer();
+		}
+
+		int count = channel.read(buffer);
+		if (count > 0) {
+			bytesRead += count;
+			decode(pipeline, false);
+		}
+
+		return count != -1;
+	}
+
+	/**
+	 * Add the complete records in the buffer to the pipeline.
+	 * 
+	 * @param wait
+	 *            <code>true</code> to wait for room in the pipeline, instead
+	 *            of pausing the connection.
+	 * @return <code>false</code> if the connection has been paused.
+	 * @throws IOException
+	 *             if the data is not valid.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for room in the
+	 *             pipeline.
+	 */
+	boolean decode(IngestPipeline pipeline, boolean wait) throws IOException,
+			InterruptedException {
+		paused = false;
+		buffer.flip();
+		try {
+			if (protocol == UNKNOWN) {
+				detectProtocol();
+			}
+
+			if (protocol == BINARY) {
+				decodeBinary(pipeline, wait);
+			} else if (protocol == TEXT) {
+				decodeText(pipeline, wait);
+			}
+		} finally {
+			buffer.compact();
+		}
+
+		return !paused;
+	}
+
+	/**
+	 * Add the rest of the buffer and everything that the client has already
+	 * sent to the pipeline, waiting for room. This is done when the server
+	 * stops.
+	 * 
+	 * @throws IOException
+	 *             if the connection failed or the data is not valid.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for room in the
+	 *             pipeline.
+	 */
+	void drain(IngestPipeline pipeline) throws IOException,
+			InterruptedException {
+		decode(pipeline, true);
+
+		while (true) {
+			if (!buffer.hasRemaining()) {
+				growBuffer();
+			}
+
+			int count = channel.read(buffer);
+			if (count <= 0) {
+				return;
+			}
+
+			bytesRead += count;
+			decode(pipeline, true);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the pipeline was full.
+	 */
+	boolean isPaused() {
+		return paused;
+	}
+
+	ConnectionStatistics getStatistics() {
+		return new ConnectionStatistics(remoteAddress, connectedTime,
+				bytesRead, eventsRead, protocol == BINARY);
+	}
+
+	/**
+	 * Compare the first bytes with the header of the binary format. The
+	 * protocol is unknown until the header has arrived, or a byte differs.
+	 */
+	private void detectProtocol() {
+		byte[] header = BinaryEventEncoder.HEADER;
+		int headerLength = header.length - 1;
+		int position = buffer.position();
+
+		for (int index = 0; index < headerLength; index++) {
+			if (index == buffer.remaining()) {
+				return;
+			} else if (buffer.get(position + index) != header[index]) {
+				protocol = TEXT;
+				return;
+			}
+		}
+
+		protocol = BINARY;
+		decoder = new BinaryEventDecoder(new BufferInputStream());
+	}
+
+	private void decodeBinary(IngestPipeline pipeline, boolean wait)
+			throws IOException, InterruptedException {
+		while (buffer.hasRemaining()) {
+			int position = buffer.position();
+			decoder.mark();
+
+			BinaryEvent event;
+			try {
+				event = decoder.readEvent();
+			} catch (EOFException e) {
+				// Wait for the rest of the record.
+				buffer.position(position);
+				decoder.reset();
+				return;
+			} catch (RuntimeException e) {
+				throw new IOException("Invalid record: " + e);
+			}
+
+			if (event == null) {
+				// Only the header has arrived.
+				return;
+			}
+
+			if (!add(pipeline, event, wait)) {
+				buffer.position(position);
+				decoder.reset();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decode the records that were written with <code>writeUTF()</code>, i.e.
+	 * the length in two bytes followed by modified UTF-8.
+	 */
+	private void decodeText(IngestPipeline pipeline, boolean wait)
+			throws IOException, InterruptedException {
+		while (buffer.remaining() >= 2) {
+			int position = buffer.position();
+			int recordLength = 2 + (buffer.getShort(position) & 0xFFFF);
+			if (buffer.remaining() < recordLength) {
+				return;
+			}
+
+			String line = DataInputStream.readUTF(new DataInputStream(
+					new ByteArrayInputStream(buffer.array(), buffer
+							.arrayOffset()
+							+ position, recordLength)));
+			if (!add(pipeline, BinaryEvent.createTextEvent(line), wait)) {
+				return;
+			}
+			buffer.position(position + recordLength);
+		}
+	}
+
+	/**
+	 * Add the log entry to the pipeline, or pause the connection if the
+	 * pipeline is full.
+	 */
+	private boolean add(IngestPipeline pipeline, BinaryEvent event,
+			boolean wait) throws InterruptedException {
+		if (wait) {
+			pipeline.put(remoteAddress, event);
+		} else if (!pipeline.offer(remoteAddress, event)) {
+			paused = true;
+			return false;
+		}
+
+		eventsRead++;
+		return true;
+	}
+
+	private void growBuffer() throws IOException {
+		if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+			throw new IOException("A record is larger than " + MAX_BUFFER_SIZE
+					+ " bytes");
+		}
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(MAX_BUFFER_SIZE,
+				buffer.capacity() * 2));
+		buffer.flip();
+		newBuffer.put(buffer);
+		buffer = newBuffer;
+	}
+
+	/**
+	 * Reads the bytes that are left in the buffer, and then ends.
+	 */
+	private class BufferInputStream extends InputStream {
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+	}
+}
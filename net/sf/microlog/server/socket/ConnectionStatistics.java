@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.socket;
+
+/**
+ * The statistics of one client connection of a <code>SocketLogServer</code>,
+ * at the time that they were taken.
+ * 
+ * @since 2.3
+ */
+public final class ConnectionStatistics {
+
+	private final String remoteAddress;
+
+	private final long connectedTime;
+
+	private final long bytesRead;
+
+	private final long eventsRead;
+
+	private final boolean binary;
+
+	ConnectionStatistics(String remoteAddress, long connectedTime,
+			long bytesRead, long eventsRead, boolean binary) {
+		this.remoteAddress = remoteAddress;
+		this.connectedTime = connectedTime;
+		this.bytesRead = bytesRead;
+		this.eventsRead = eventsRead;
+		this.binary = binary;
+	}
+
+	/**
+	 * @return the address and the port of the client.
+	 */
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * @return the time that the client connected, in milliseconds since the
+	 *         epoch.
+	 */
+	public long getConnectedTime() {
+		return connectedTime;
+	}
+
+	/**
+	 * @return the number of bytes that have been read from the client.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the number of log entries that have been decoded.
+	 */
+	public long getEventsRead() {
+		return eventsRead;
+	}
+
+	/**
+	 * @return <code>true</code> if the client sends the binary format.
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return remoteAddress + " (" + (binary ? "binary" : "text") + ", "
+				+ eventsRead + " entries, " + bytesRead + " bytes, "
+				+ (System.currentTimeMillis() - connectedTime) + " ms)";
+	}
+}
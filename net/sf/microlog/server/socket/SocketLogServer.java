@@ -1,81 +1,347 @@
 package net.sf.microlog.server.socket;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.microlog.server.ingest.IngestPipeline;
+import net.sf.microlog.server.ingest.IngestSink;
+import net.sf.microlog.server.ingest.PrintStreamSink;
+import net.sf.microlog.server.store.SegmentStore;
 
 /**
+ * A log server for the <code>SocketAppender</code>. It reads the text
+ * written with <code>writeUTF()</code>, or the binary format of the
+ * <code>BinaryEventEncoder</code>, which is recognized by its header. The
+ * log entries are handed to an <code>IngestPipeline</code>, which formats
+ * the binary log entries and prints them, or adds them to a
+ * <code>SegmentStore</code> if a store directory has been set. The pipeline
+ * and the store are configured with system properties.
  * 
+ * Any number of clients could be connected at the same time. All the
+ * connections are handled by one thread, with a <code>Selector</code>, and
+ * each connection decodes the records as they arrive. The log entries are
+ * printed in the order that they were received. When the queue of the
+ * pipeline is full, the server stops reading from the connections that have
+ * more to add, until there is room again. The port is given as the
+ * first argument, or with the system property
+ * <code>microlog.server.port</code>, and defaults to 1234.
  * 
  * @author Johan Karlsson (johan.karlsson@jayway.se)
  */
 public class SocketLogServer implements Runnable {
 
+	public static final String PORT_KEY = "microlog.server.port";
+
+	public static final int DEFAULT_PORT = 1234;
+
+	/**
+	 * The time between the attempts to resume the paused connections, in
+	 * milliseconds.
+	 */
+	private static final long RESUME_INTERVAL = 10;
+
+	private final int port;
+
+	private final Map<SocketChannel, ClientConnection> connections = new ConcurrentHashMap<SocketChannel, ClientConnection>();
+
+	/**
+	 * The connections that wait for room in the pipeline, in the order that
+	 * they were paused. Only used by the server thread.
+	 */
+	private final List<ClientConnection> pausedConnections = new ArrayList<ClientConnection>();
+
 	private Thread serverThread;
 
+	private volatile boolean stopping;
+
+	private volatile Selector selector;
+
+	private volatile IngestPipeline pipeline;
+
+	/**
+	 * Create a <code>SocketLogServer</code> for the port that is set with the
+	 * system property <code>microlog.server.port</code>, or the default port.
+	 */
+	public SocketLogServer() {
+		this(Integer.getInteger(PORT_KEY, DEFAULT_PORT).intValue());
+	}
+
+	/**
+	 * Create a <code>SocketLogServer</code>.
+	 * 
+	 * @param port
+	 *            the port to listen on.
+	 */
+	public SocketLogServer(int port) {
+		this.port = port;
+	}
+
 	/**
 	 * @param args
+	 *            the port, which is optional.
 	 */
 	public static void main(String[] args) {
-		SocketLogServer logServer = new SocketLogServer();
+		final SocketLogServer logServer = args.length > 0 ? new SocketLogServer(
+				Integer.parseInt(args[0]))
+				: new SocketLogServer();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				logServer.stopServer();
+			}
+		});
+
 		logServer.startServer();
 	}
 
 	/**
 	 * Start the server.
 	 */
-	public void startServer() {
+	public synchronized void startServer() {
 		if (serverThread == null) {
-			serverThread = new Thread(this);
+			serverThread = new Thread(this, "SocketLogServer");
 		}
 
 		if (!serverThread.isAlive()) {
+			stopping = false;
 			serverThread.start();
 		}
 	}
 
+	/**
+	 * Stop the server, and wait until the log entries that have been received
+	 * are printed.
+	 */
+	public void stopServer() {
+		Thread thread;
+		synchronized (this) {
+			stopping = true;
+			thread = serverThread;
+			serverThread = null;
+		}
+
+		Selector currentSelector = selector;
+		if (currentSelector != null) {
+			currentSelector.wakeup();
+		}
+
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Get the statistics of the clients that are connected.
+	 * 
+	 * @return the statistics of each connection.
+	 */
+	public List<ConnectionStatistics> getConnectionStatistics() {
+		List<ConnectionStatistics> statistics = new ArrayList<ConnectionStatistics>(
+				connections.size());
+		for (ClientConnection connection : connections.values()) {
+			statistics.add(connection.getStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Get the <code>IngestPipeline</code>, e.g. for its metrics.
+	 * 
+	 * @return the pipeline, or <code>null</code> if the server is not
+	 *         running.
+	 */
+	public IngestPipeline getPipeline() {
+		return pipeline;
+	}
+
 	public void run() {
-		ServerSocket serverSocket = null;
+		ServerSocketChannel serverChannel;
 		try {
-			System.out.println("Creating server socket.");
-			serverSocket = new ServerSocket(1234);
-			System.out.println("ServerSocket is created.");
-//			int port = 443;
-//	        ServerSocketFactory ssocketFactory = SSLServerSocketFactory.getDefault();
-//	        serverSocket = ssocketFactory.createServerSocket(port);
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			System.out.println("Listening on port " + port + '.');
 		} catch (IOException e) {
-			System.err.println("Could not listen on port: "+e.getMessage());
-			throw new RuntimeException("Could not listen on port: "+e.getMessage());
+			System.err.println("Could not listen on port: " + e.getMessage());
+			throw new RuntimeException("Could not listen on port: "
+					+ e.getMessage());
 		}
 
-		Socket clientSocket = null;
+		IngestSink sink;
 		try {
-			System.err.println("Waiting for client to connect.");
-			clientSocket = serverSocket.accept();
-			System.err.println("Client is now connected.");
+			sink = SegmentStore.createFromSystemProperties();
 		} catch (IOException e) {
-			System.err.println("Accept failed: "+e.getMessage());
-			throw new RuntimeException("Failed to connect to the client");
+			System.err.println("Could not open the store: " + e.getMessage());
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException closeException) {
+				System.err.println("Failed to close the server "
+						+ closeException);
+			}
+			throw new RuntimeException("Could not open the store: "
+					+ e.getMessage());
+		}
+		if (sink == null) {
+			sink = new PrintStreamSink(System.out);
 		}
 
+		pipeline = IngestPipeline.createFromSystemProperties(sink);
+
 		try {
-			DataInputStream dataInputStream = new DataInputStream(clientSocket
-					.getInputStream());
+			while (!stopping && !Thread.currentThread().isInterrupted()) {
+				if (pausedConnections.isEmpty()) {
+					selector.select();
+				} else {
+					selector.select(RESUME_INTERVAL);
+					resumePausedConnections();
+				}
 
-			String inputLine = dataInputStream.readUTF();
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
 
-			System.out.println("Start to read the input from the client.");
-			while ((inputLine = dataInputStream.readUTF()) != null) {
-				System.out.println(inputLine);
+					if (!key.isValid()) {
+						continue;
+					} else if (key.isAcceptable()) {
+						accept(serverChannel);
+					} else if (key.isReadable()) {
+						read((ClientConnection) key.attachment());
+					}
+				}
 			}
+		} catch (IOException e) {
+			System.err.println("The server failed: " + e);
+		} finally {
+			closeSilent(serverChannel);
+
+			// Add what the clients have already sent before closing them.
+			for (ClientConnection connection : connections.values()) {
+				try {
+					connection.drain(pipeline);
+					close(connection, "server stopped");
+				} catch (IOException e) {
+					close(connection, "failed: " + e);
+				} catch (RuntimeException e) {
+					close(connection, "failed: " + e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close(connection, "interrupted");
+				}
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+
+			pipeline.close();
+			System.out.println("The server has stopped: " + pipeline);
+			pipeline = null;
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			ClientConnection connection = new ClientConnection(channel);
+			connections.put(channel, connection);
+			channel.register(selector, SelectionKey.OP_READ, connection);
+			System.out.println("Client " + connection.getStatistics()
+					.getRemoteAddress() + " is now connected.");
+		}
+	}
 
+	/**
+	 * Read from the client, and close the connection if the client has
+	 * disconnected or sent data that is not valid. The connection is paused if
+	 * the pipeline is full. Any failure only closes this connection, so that
+	 * the selector thread keeps serving the other clients.
+	 */
+	private void read(ClientConnection connection) {
+		try {
+			if (!connection.read(pipeline)) {
+				close(connection, "disconnected");
+			} else if (connection.isPaused()) {
+				connection.getChannel().keyFor(selector).interestOps(0);
+				pausedConnections.add(connection);
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
-			System.out
-					.println("Client has disconnected. Closing down the server.");
+			close(connection, "failed: " + e);
+		} catch (RuntimeException e) {
+			// Only this client is affected.
+			close(connection, "failed: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close(connection, "interrupted");
 		}
+	}
 
+	/**
+	 * Decode the rest of the buffers of the paused connections, in the order
+	 * that they were paused, while there is room in the pipeline. A connection
+	 * that has been decoded is read from again.
+	 */
+	private void resumePausedConnections() {
+		Iterator<ClientConnection> iterator = pausedConnections.iterator();
+		while (iterator.hasNext()) {
+			ClientConnection connection = iterator.next();
+			try {
+				if (!connection.decode(pipeline, false)) {
+					return;
+				}
+
+				iterator.remove();
+				connection.getChannel().keyFor(selector).interestOps(
+						SelectionKey.OP_READ);
+			} catch (IOException e) {
+				iterator.remove();
+				close(connection, "failed: " + e);
+			} catch (RuntimeException e) {
+				iterator.remove();
+				close(connection, "failed: " + e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
 	}
-}
 
+	private void close(ClientConnection connection, String reason) {
+		pausedConnections.remove(connection);
+		if (connections.remove(connection.getChannel()) != null) {
+			closeSilent(connection.getChannel());
+			System.out.println("Client " + connection.getStatistics() + ' '
+					+ reason + '.');
+		}
+	}
+
+	private static void closeSilent(Channel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A bloom filter of strings, e.g. the client ids of a segment. It answers
+ * whether a string might have been added, so that a query could skip a segment
+ * that does not have it. The filter has a fixed size, and is saved with the
+ * index of the segment.
+ * 
+ * @since 2.3
+ */
+final class BloomFilter {
+
+	/**
+	 * The number of bits, which is a power of 2. With 1000 different strings
+	 * about one lookup in 800 is a false positive.
+	 */
+	static final int BIT_COUNT = 16384;
+
+	private static final int HASH_COUNT = 5;
+
+	private static final int MASK = BIT_COUNT - 1;
+
+	private final long[] words;
+
+	BloomFilter() {
+		words = new long[BIT_COUNT / 64];
+	}
+
+	private BloomFilter(long[] words) {
+		this.words = words;
+	}
+
+	void add(String value) {
+		int hash1 = value.hashCode();
+		int hash2 = secondHash(value);
+		for (int index = 0; index < HASH_COUNT; index++) {
+			int bit = (hash1 + index * hash2) & MASK;
+			words[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the value has not been added.
+	 */
+	boolean mightContain(String value) {
+		int hash1 = value.hashCode();
+		int hash2 = secondHash(value);
+		for (int index = 0; index < HASH_COUNT; index++) {
+			int bit = (hash1 + index * hash2) & MASK;
+			if ((words[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	BloomFilter copy() {
+		return new BloomFilter(words.clone());
+	}
+
+	void write(DataOutput output) throws IOException {
+		for (int index = 0; index < words.length; index++) {
+			output.writeLong(words[index]);
+		}
+	}
+
+	static BloomFilter read(DataInput input) throws IOException {
+		long[] words = new long[BIT_COUNT / 64];
+		for (int index = 0; index < words.length; index++) {
+			words[index] = input.readLong();
+		}
+		return new BloomFilter(words);
+	}
+
+	/**
+	 * An FNV-1a hash, which is odd so that the probes visit different bits.
+	 */
+	private static int secondHash(String value) {
+		int hash = 0x811C9DC5;
+		for (int index = 0; index < value.length(); index++) {
+			hash ^= value.charAt(index);
+			hash *= 0x01000193;
+		}
+		return hash | 1;
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.util.regex.Pattern;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A query for the log entries of a <code>SegmentStore</code>, which is run by
+ * a <code>SegmentScanner</code>. A log entry matches if it matches all the
+ * criteria that have been set. The matches are returned in order of the time
+ * that they were received, a page at a time. The cursor of a result is set on
+ * the query to get the next page.
+ * 
+ * @since 2.3
+ */
+public final class LogQuery {
+
+	public static final int DEFAULT_LIMIT = 100;
+
+	/**
+	 * The largest limit. A page is kept in memory, and the scanner keeps one
+	 * more match than the limit to know if there is a next page.
+	 */
+	public static final int MAX_LIMIT = 10000;
+
+	private long fromTime = Long.MIN_VALUE;
+
+	private long toTime = Long.MAX_VALUE;
+
+	private Level level;
+
+	private String loggerPrefix;
+
+	private String clientID;
+
+	private String text;
+
+	private Pattern pattern;
+
+	private int limit = DEFAULT_LIMIT;
+
+	private String cursor;
+
+	private long cursorTime = Long.MIN_VALUE;
+
+	private long cursorSegmentId;
+
+	private long cursorOffset = -1;
+
+	/**
+	 * @return the earliest time that a log entry was received.
+	 */
+	public long getFromTime() {
+		return fromTime;
+	}
+
+	/**
+	 * Set the earliest time that a log entry was received, which is included.
+	 * 
+	 * @param fromTime
+	 *            the time, in milliseconds since the epoch.
+	 */
+	public void setFromTime(long fromTime) {
+		this.fromTime = fromTime;
+	}
+
+	/**
+	 * @return the latest time that a log entry was received.
+	 */
+	public long getToTime() {
+		return toTime;
+	}
+
+	/**
+	 * Set the latest time that a log entry was received, which is not
+	 * included.
+	 * 
+	 * @param toTime
+	 *            the time, in milliseconds since the epoch.
+	 */
+	public void setToTime(long toTime) {
+		this.toTime = toTime;
+	}
+
+	/**
+	 * @return the lowest level, or <code>null</code> for any level.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Set the lowest level. The log entries without a level do not match.
+	 * 
+	 * @param level
+	 *            the level, or <code>null</code> for any level.
+	 */
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	/**
+	 * @return the start of the logger name, or <code>null</code> for any
+	 *         logger.
+	 */
+	public String getLoggerPrefix() {
+		return loggerPrefix;
+	}
+
+	/**
+	 * Set the start of the logger name, e.g. a package name.
+	 * 
+	 * @param loggerPrefix
+	 *            the start of the name, or <code>null</code> for any logger.
+	 */
+	public void setLoggerPrefix(String loggerPrefix) {
+		this.loggerPrefix = loggerPrefix;
+	}
+
+	/**
+	 * @return the id of the client, or <code>null</code> for any client.
+	 */
+	public String getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * Set the id of the client.
+	 * 
+	 * @param clientID
+	 *            the id, or <code>null</code> for any client.
+	 */
+	public void setClientID(String clientID) {
+		this.clientID = clientID;
+	}
+
+	/**
+	 * @return the text that the log entry contains, or <code>null</code>.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Set a text that the formatted log entry must contain.
+	 * 
+	 * @param text
+	 *            the text, or <code>null</code> for any log entry.
+	 */
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @return the regular expression, or <code>null</code>.
+	 */
+	public String getRegex() {
+		return pattern != null ? pattern.pattern() : null;
+	}
+
+	/**
+	 * Set a regular expression that must be found in the formatted log entry.
+	 * 
+	 * @param regex
+	 *            the regular expression, or <code>null</code> for any log
+	 *            entry.
+	 * @throws IllegalArgumentException
+	 *             if the regular expression is not valid.
+	 */
+	public void setRegex(String regex) throws IllegalArgumentException {
+		pattern = regex != null ? Pattern.compile(regex) : null;
+	}
+
+	/**
+	 * @return the largest number of log entries of a page.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Set the largest number of log entries of a page. A limit above
+	 * {@value #MAX_LIMIT} is lowered to it.
+	 * 
+	 * @param limit
+	 *            the number of log entries.
+	 * @throws IllegalArgumentException
+	 *             if the <code>limit</code> is not positive.
+	 */
+	public void setLimit(int limit) throws IllegalArgumentException {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("The limit must be positive.");
+		}
+		this.limit = Math.min(limit, MAX_LIMIT);
+	}
+
+	/**
+	 * @return the cursor, or <code>null</code> for the first page.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Set the cursor of a <code>QueryResult</code>, to get the page after
+	 * it.
+	 * 
+	 * @param cursor
+	 *            the cursor, or <code>null</code> for the first page.
+	 * @throws IllegalArgumentException
+	 *             if the cursor is not valid.
+	 */
+	public void setCursor(String cursor) throws IllegalArgumentException {
+		if (cursor == null) {
+			cursorTime = Long.MIN_VALUE;
+			cursorSegmentId = 0;
+			cursorOffset = -1;
+		} else {
+			String[] parts = cursor.split(":");
+			if (parts.length != 3) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+			try {
+				cursorTime = Long.parseLong(parts[0]);
+				cursorSegmentId = Long.parseLong(parts[1]);
+				cursorOffset = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+		}
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Check if a log entry matches the criteria, except for the time and the
+	 * cursor.
+	 * 
+	 * @param record
+	 *            the log entry.
+	 * @return <code>true</code> if it matches.
+	 */
+	public boolean matches(StoredRecord record) {
+		if (level != null
+				&& (record.getLevel() == null || record.getLevel().toInt() < level
+						.toInt())) {
+			return false;
+		}
+		if (loggerPrefix != null
+				&& (record.getLoggerName() == null || !record.getLoggerName()
+						.startsWith(loggerPrefix))) {
+			return false;
+		}
+		if (clientID != null && !clientID.equals(record.getClientID())) {
+			return false;
+		}
+
+		String line = record.getLine();
+		if (text != null && (line == null || line.indexOf(text) == -1)) {
+			return false;
+		}
+		if (pattern != null
+				&& (line == null || !pattern.matcher(line).find())) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the earliest time that a log entry of the page could have been
+	 *         received.
+	 */
+	long getStartTime() {
+		return Math.max(fromTime, cursorTime);
+	}
+
+	/**
+	 * Check if a log entry comes after the cursor, in the order of the
+	 * results.
+	 */
+	boolean isAfterCursor(long time, long segmentId, long offset) {
+		if (time != cursorTime) {
+			return time > cursorTime;
+		} else if (segmentId != cursorSegmentId) {
+			return segmentId > cursorSegmentId;
+		}
+		return offset > cursorOffset;
+	}
+
+	static String createCursor(long time, long segmentId, long offset) {
+		return time + ":" + segmentId + ':' + offset;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A command line tool that queries the segments of a
+ * <code>SegmentStore</code>, e.g. the store that a server is using. The
+ * matching log entries are printed in order of time, a page at a time. If
+ * there are more, the cursor of the next page is printed to
+ * <code>System.err</code>.
+ * 
+ * <pre>
+ * java net.sf.microlog.server.store.LogQueryTool [options] directory
+ *   -from time      the earliest time, included
+ *   -to time        the latest time, not included
+ *   -level level    the lowest level, e.g. ERROR
+ *   -logger prefix  the start of the logger name
+ *   -client id      the id of the client
+ *   -text text      a text that the log entry contains
+ *   -regex regex    a regular expression that is found in the log entry
+ *   -limit count    the size of a page, 100 by default
+ *   -cursor cursor  the cursor of the page to print
+ *   -threads count  the number of threads, one for each processor by default
+ * </pre>
+ * 
+ * A time is given as milliseconds since the epoch, as
+ * <code>yyyy-MM-dd'T'HH:mm:ss</code>, or as <code>yyyy-MM-dd</code>, in local
+ * time.
+ * 
+ * @since 2.3
+ */
+public class LogQueryTool {
+
+	private static final String[] TIME_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss",
+			"yyyy-MM-dd" };
+
+	private LogQueryTool() {
+	}
+
+	/**
+	 * @param args
+	 *            the options and the directory of the store.
+	 */
+	public static void main(String[] args) {
+		LogQuery query = new LogQuery();
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		String directory = null;
+
+		try {
+			for (int index = 0; index < args.length; index++) {
+				String arg = args[index];
+				if (!arg.startsWith("-")) {
+					directory = arg;
+					continue;
+				} else if (index + 1 == args.length) {
+					throw new IllegalArgumentException("Missing value of "
+							+ arg);
+				}
+
+				String value = args[++index];
+				if (arg.equals("-from")) {
+					query.setFromTime(parseTime(value));
+				} else if (arg.equals("-to")) {
+					query.setToTime(parseTime(value));
+				} else if (arg.equals("-level")) {
+					Level level = Level.toLevel(value.toUpperCase());
+					if (level == null) {
+						throw new IllegalArgumentException("Unknown level "
+								+ value);
+					}
+					query.setLevel(level);
+				} else if (arg.equals("-logger")) {
+					query.setLoggerPrefix(value);
+				} else if (arg.equals("-client")) {
+					query.setClientID(value);
+				} else if (arg.equals("-text")) {
+					query.setText(value);
+				} else if (arg.equals("-regex")) {
+					query.setRegex(value);
+				} else if (arg.equals("-limit")) {
+					query.setLimit(Integer.parseInt(value));
+				} else if (arg.equals("-cursor")) {
+					query.setCursor(value);
+				} else if (arg.equals("-threads")) {
+					threadCount = Integer.parseInt(value);
+					if (threadCount < 1) {
+						throw new IllegalArgumentException(
+								"The number of threads must be positive");
+					}
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (directory == null) {
+				throw new IllegalArgumentException("Missing directory");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: LogQueryTool [-from time] [-to time]"
+					+ " [-level level] [-logger prefix] [-client id]"
+					+ " [-text text] [-regex regex] [-limit count]"
+					+ " [-cursor cursor] [-threads count] directory");
+			System.exit(1);
+			return;
+		}
+
+		SegmentScanner scanner = new SegmentScanner(threadCount);
+		try {
+			List<Segment> segments = SegmentStore.loadSegments(new File(
+					directory));
+			QueryResult result = scanner.scan(segments, query);
+			for (StoredRecord record : result.getRecords()) {
+				System.out.println(record.getLine());
+			}
+			System.out.flush();
+
+			if (result.getCursor() != null) {
+				System.err.println("More entries: -cursor "
+						+ result.getCursor());
+			}
+		} catch (IOException e) {
+			System.err.println("Could not query " + directory + ": "
+					+ e.getMessage());
+			System.exit(1);
+		} finally {
+			scanner.close();
+		}
+	}
+
+	private static long parseTime(String value)
+			throws IllegalArgumentException {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// Try the date formats.
+		}
+
+		for (int index = 0; index < TIME_FORMATS.length; index++) {
+			SimpleDateFormat format = new SimpleDateFormat(TIME_FORMATS[index]);
+			format.setLenient(false);
+			ParsePosition position = new ParsePosition(0);
+			Date date = format.parse(value, position);
+			if (date != null && position.getIndex() == value.length()) {
+				return date.getTime();
+			}
+		}
+
+		throw new IllegalArgumentException("Invalid time " + value);
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.util.List;
+
+/**
+ * A page of the log entries that match a <code>LogQuery</code>, in order of
+ * the time that they were received.
+ * 
+ * @since 2.3
+ */
+public final class QueryResult {
+
+	private final List<StoredRecord> records;
+
+	private final String cursor;
+
+	private final long scannedCount;
+
+	QueryResult(List<StoredRecord> records, String cursor, long scannedCount) {
+		this.records = records;
+		this.cursor = cursor;
+		this.scannedCount = scannedCount;
+	}
+
+	/**
+	 * @return the log entries of the page.
+	 */
+	public List<StoredRecord> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the cursor of the next page, or <code>null</code> if this is
+	 *         the last page.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return the number of log entries that were read to find the page.
+	 */
+	public long getScannedCount() {
+		return scannedCount;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.server.ingest.IngestRecord;
+
+/**
+ * Encodes and decodes the records of a segment. Each record stands on its own,
+ * so that reading could start at any record:
+ * 
+ * <pre>
+ * int length        the number of bytes after the checksum
+ * int crc           the CRC-32 of these bytes
+ * long receivedTime
+ * long eventTime
+ * byte level        0xFF if it is not known
+ * string source
+ * string clientID
+ * string loggerName
+ * string line
+ * </pre>
+ * 
+ * A string is its length in UTF-8 bytes as an int, or -1 for
+ * <code>null</code>, followed by the bytes.
+ * 
+ * @since 2.3
+ */
+final class RecordCodec {
+
+	static final int HEADER_SIZE = 8;
+
+	/**
+	 * The largest record that is read, so that a damaged length is not
+	 * trusted.
+	 */
+	static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The times, the level and the lengths of the four strings.
+	 */
+	private static final int MIN_PAYLOAD_SIZE = 8 + 8 + 1 + 4 * 4;
+
+	private static final int NO_LEVEL = 0xFF;
+
+	private static final String ENCODING = "UTF-8";
+
+	private final CRC32 crc = new CRC32();
+
+	private byte[] scratch = new byte[256];
+
+	private int position;
+
+	private int limit;
+
+	/**
+	 * Encode a record at the end of a buffer.
+	 * 
+	 * @param record
+	 *            the log entry.
+	 * @param buffer
+	 *            the buffer to add the record to.
+	 */
+	void encode(IngestRecord record, Buffer buffer) {
+		BinaryEvent event = record.getEvent();
+		int start = buffer.size();
+		buffer.writeInt(0);
+		buffer.writeInt(0);
+		buffer.writeLong(record.getReceivedTime());
+		buffer.writeLong(event.getTime());
+		Level level = event.getLevel();
+		buffer.write(level != null ? level.toInt() : NO_LEVEL);
+		buffer.writeString(record.getSource());
+		buffer.writeString(event.getClientID());
+		buffer.writeString(event.getName());
+		buffer.writeString(record.getLine());
+
+		int length = buffer.size() - start - HEADER_SIZE;
+		crc.reset();
+		crc.update(buffer.getBytes(), start + HEADER_SIZE, length);
+		buffer.putInt(start, length);
+		buffer.putInt(start + 4, (int) crc.getValue());
+	}
+
+	/**
+	 * Decode the record at the position of a buffer, and move the position to
+	 * the next record.
+	 * 
+	 * @param buffer
+	 *            the buffer to read from.
+	 * @return the record, or <code>null</code> if the buffer does not hold all
+	 *         of it. The position is not moved then.
+	 * @throws IOException
+	 *             if the record is damaged.
+	 */
+	StoredRecord decode(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+
+		int start = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length < MIN_PAYLOAD_SIZE || length > MAX_RECORD_SIZE) {
+			throw new IOException("Invalid record length " + length);
+		}
+		if (buffer.remaining() < length) {
+			buffer.position(start);
+			return null;
+		}
+
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		buffer.get(scratch, 0, length);
+		crc.reset();
+		crc.update(scratch, 0, length);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Invalid record checksum");
+		}
+
+		position = 0;
+		limit = length;
+		long receivedTime = readLong();
+		long eventTime = readLong();
+		int levelValue = scratch[position++] & 0xFF;
+		Level level = levelValue != NO_LEVEL ? Level.toLevel(levelValue) : null;
+		return new StoredRecord(receivedTime, eventTime, level, readString(),
+				readString(), readString(), readString());
+	}
+
+	private int readInt() {
+		int value = 0;
+		for (int index = 0; index < 4; index++) {
+			value = (value << 8) | (scratch[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	private long readLong() {
+		return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+
+	private String readString() throws IOException {
+		int length = readInt();
+		if (length == -1) {
+			return null;
+		} else if (length < 0 || length > limit - position) {
+			throw new IOException("Invalid string length " + length);
+		}
+
+		String value = new String(scratch, position, length, ENCODING);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * A byte array that the records are encoded into, e.g. a batch for one
+	 * write.
+	 */
+	static final class Buffer extends ByteArrayOutputStream {
+
+		Buffer(int size) {
+			super(size);
+		}
+
+		byte[] getBytes() {
+			return buf;
+		}
+
+		void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >>> 32));
+			writeInt((int) value);
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				writeInt(-1);
+				return;
+			}
+
+			try {
+				byte[] bytes = value.getBytes(ENCODING);
+				writeInt(bytes.length);
+				write(bytes, 0, bytes.length);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.toString());
+			}
+		}
+
+		void putInt(int index, int value) {
+			buf[index] = (byte) (value >>> 24);
+			buf[index + 1] = (byte) (value >>> 16);
+			buf[index + 2] = (byte) (value >>> 8);
+			buf[index + 3] = (byte) value;
+		}
+	}
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A segment of a <code>SegmentStore</code>: a file that the records are
+ * appended to, and what is known about them. This is the time range, the
+ * number of records, a sparse index from time to file offset, and bloom
+ * filters of the client ids and the logger names. A query uses them to skip
+ * the segments, or the part of a segment, that could not match.
+ * 
+ * The sparse index has an entry for about every {@value #INDEX_INTERVAL}
+ * bytes. Its key is the latest time of the records before the offset, so that
+ * it is right even if the records are not quite in order of time.
+ * 
+ * When a segment is rolled, the index is saved in a file of its own. The
+ * segments that the <code>SegmentStore</code> returns do not change when
+ * more records are added.
+ * 
+ * @since 2.3
+ */
+public final class Segment {
+
+	static final String DATA_SUFFIX = ".seg";
+
+	static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * The number of bytes between the entries of the sparse index.
+	 */
+	static final int INDEX_INTERVAL = 4096;
+
+	private static final int INDEX_MAGIC = 0x4D4C5349;
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final int INITIAL_INDEX_SIZE = 64;
+
+	private final long id;
+
+	private final File file;
+
+	private long size;
+
+	private int recordCount;
+
+	private long minTime = Long.MAX_VALUE;
+
+	private long maxTime = Long.MIN_VALUE;
+
+	private long[] indexTimes;
+
+	private long[] indexOffsets;
+
+	private int indexCount;
+
+	private long lastIndexedOffset;
+
+	private BloomFilter clientIDs;
+
+	private BloomFilter loggerNames;
+
+	private boolean sealed;
+
+	Segment(long id, File directory) {
+		this.id = id;
+		this.file = new File(directory, getFileName(id, DATA_SUFFIX));
+		indexTimes = new long[INITIAL_INDEX_SIZE];
+		indexOffsets = new long[INITIAL_INDEX_SIZE];
+		clientIDs = new BloomFilter();
+		loggerNames = new BloomFilter();
+	}
+
+	private Segment(Segment segment) {
+		id = segment.id;
+		file = segment.file;
+		size = segment.size;
+		recordCount = segment.recordCount;
+		minTime = segment.minTime;
+		maxTime = segment.maxTime;
+		indexCount = segment.indexCount;
+		lastIndexedOffset = segment.lastIndexedOffset;
+		sealed = segment.sealed;
+		if (sealed) {
+			indexTimes = segment.indexTimes;
+			indexOffsets = segment.indexOffsets;
+			clientIDs = segment.clientIDs;
+			loggerNames = segment.loggerNames;
+		} else {
+			indexTimes = segment.indexTimes.clone();
+			indexOffsets = segment.indexOffsets.clone();
+			clientIDs = segment.clientIDs.copy();
+			loggerNames = segment.loggerNames.copy();
+		}
+	}
+
+	/**
+	 * @return the id, which grows with each segment.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the file with the records.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of bytes of records.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of records.
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the earliest time that a record was received, in milliseconds
+	 *         since the epoch.
+	 */
+	public long getMinTime() {
+		return minTime;
+	}
+
+	/**
+	 * @return the latest time that a record was received, in milliseconds
+	 *         since the epoch.
+	 */
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * @return <code>true</code> if the segment has been rolled, and no more
+	 *         records are added to it.
+	 */
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Check if the segment could have records that were received in a time
+	 * range.
+	 * 
+	 * @param fromTime
+	 *            the start of the range, which is included.
+	 * @param toTime
+	 *            the end of the range, which is not included.
+	 * @return <code>false</code> if there are no such records.
+	 */
+	public boolean overlaps(long fromTime, long toTime) {
+		return recordCount > 0 && minTime < toTime && maxTime >= fromTime;
+	}
+
+	/**
+	 * Check if the segment could have records of a client.
+	 * 
+	 * @param clientID
+	 *            the id of the client.
+	 * @return <code>false</code> if there are no such records.
+	 */
+	public boolean mightContainClientID(String clientID) {
+		return clientIDs.mightContain(clientID);
+	}
+
+	/**
+	 * Check if the segment could have records of a logger.
+	 * 
+	 * @param loggerName
+	 *            the name of the logger.
+	 * @return <code>false</code> if there are no such records.
+	 */
+	public boolean mightContainLoggerName(String loggerName) {
+		return loggerNames.mightContain(loggerName);
+	}
+
+	/**
+	 * Get the offset to start reading at, to find the records that were
+	 * received at or after a time. The records before it are all earlier.
+	 * 
+	 * @param fromTime
+	 *            the time, in milliseconds since the epoch.
+	 * @return the offset of a record.
+	 */
+	public long getStartOffset(long fromTime) {
+		int low = 0;
+		int high = indexCount - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (indexTimes[middle] < fromTime) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return found >= 0 ? indexOffsets[found] : 0;
+	}
+
+	/**
+	 * Get the first record at or after an offset that is in the sparse index,
+	 * e.g. to split the segment into chunks.
+	 * 
+	 * @param offset
+	 *            the offset.
+	 * @return the offset of the record, or the size if there is none.
+	 */
+	long getIndexedOffset(long offset) {
+		int low = 0;
+		int high = indexCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (indexOffsets[middle] < offset) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return low < indexCount ? indexOffsets[low] : size;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "Segment[id=" + id + ", records=" + recordCount + ", size="
+				+ size + ", time=" + minTime + ".." + maxTime + ", sealed="
+				+ sealed + ']';
+	}
+
+	/**
+	 * Add a record that has been written at the end of the file.
+	 */
+	void add(long time, String clientID, String loggerName, long offset,
+			int length) {
+		if (recordCount == 0 || offset - lastIndexedOffset >= INDEX_INTERVAL) {
+			if (indexCount == indexTimes.length) {
+				long[] times = new long[indexCount * 2];
+				long[] offsets = new long[indexCount * 2];
+				System.arraycopy(indexTimes, 0, times, 0, indexCount);
+				System.arraycopy(indexOffsets, 0, offsets, 0, indexCount);
+				indexTimes = times;
+				indexOffsets = offsets;
+			}
+
+			indexTimes[indexCount] = maxTime;
+			indexOffsets[indexCount] = offset;
+			indexCount++;
+			lastIndexedOffset = offset;
+		}
+
+		if (time < minTime) {
+			minTime = time;
+		}
+		if (time > maxTime) {
+			maxTime = time;
+		}
+		if (clientID != null) {
+			clientIDs.add(clientID);
+		}
+		if (loggerName != null) {
+			loggerNames.add(loggerName);
+		}
+
+		recordCount++;
+		size = offset + length;
+	}
+
+	/**
+	 * @return a copy, which does not change when records are added.
+	 */
+	Segment copy() {
+		return new Segment(this);
+	}
+
+	File getIndexFile() {
+		return new File(file.getParentFile(), getFileName(id, INDEX_SUFFIX));
+	}
+
+	/**
+	 * Save the index, after the last record has been added.
+	 * 
+	 * @throws IOException
+	 *             if the index could not be saved.
+	 */
+	void seal() throws IOException {
+		File indexFile = getIndexFile();
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		FileOutputStream fileOutput = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(fileOutput));
+			output.writeInt(INDEX_MAGIC);
+			output.writeInt(INDEX_VERSION);
+			output.writeLong(size);
+			output.writeInt(recordCount);
+			output.writeLong(minTime);
+			output.writeLong(maxTime);
+			output.writeInt(indexCount);
+			for (int index = 0; index < indexCount; index++) {
+				output.writeLong(indexTimes[index]);
+				output.writeLong(indexOffsets[index]);
+			}
+			clientIDs.write(output);
+			loggerNames.write(output);
+			output.flush();
+			fileOutput.getFD().sync();
+		} finally {
+			fileOutput.close();
+		}
+
+		if (!tempFile.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!tempFile.renameTo(indexFile)) {
+				throw new IOException("Could not rename " + tempFile);
+			}
+		}
+		sealed = true;
+	}
+
+	/**
+	 * Load a segment from its saved index. If there is no index that matches
+	 * the file, the file is read to build the index, and the segment is not
+	 * sealed. It then ends at the last record that could be read.
+	 * 
+	 * @param file
+	 *            the file with the records.
+	 * @return the segment.
+	 * @throws IOException
+	 *             if the files could not be read.
+	 */
+	static Segment load(File file) throws IOException {
+		String name = file.getName();
+		long id;
+		try {
+			id = Long.parseLong(name.substring(0, name.length()
+					- DATA_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Not a segment: " + file);
+		}
+
+		Segment segment = new Segment(id, file.getParentFile());
+		if (!segment.readIndex()) {
+			segment.scan();
+		}
+		return segment;
+	}
+
+	/**
+	 * @return <code>false</code> if there is no saved index that matches the
+	 *         file.
+	 */
+	private boolean readIndex() throws IOException {
+		File indexFile = getIndexFile();
+		if (!indexFile.isFile()) {
+			return false;
+		}
+
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		try {
+			if (input.readInt() != INDEX_MAGIC
+					|| input.readInt() != INDEX_VERSION) {
+				return false;
+			}
+
+			size = input.readLong();
+			if (size != file.length()) {
+				return false;
+			}
+			recordCount = input.readInt();
+			minTime = input.readLong();
+			maxTime = input.readLong();
+			indexCount = input.readInt();
+			indexTimes = new long[indexCount];
+			indexOffsets = new long[indexCount];
+			for (int index = 0; index < indexCount; index++) {
+				indexTimes[index] = input.readLong();
+				indexOffsets[index] = input.readLong();
+			}
+			clientIDs = BloomFilter.read(input);
+			loggerNames = BloomFilter.read(input);
+			sealed = true;
+			return true;
+		} catch (IOException e) {
+			System.err.println("Could not read " + indexFile + ' ' + e);
+			return false;
+		} finally {
+			input.close();
+		}
+	}
+
+	private void scan() throws IOException {
+		size = 0;
+		recordCount = 0;
+		minTime = Long.MAX_VALUE;
+		maxTime = Long.MIN_VALUE;
+		indexCount = 0;
+		indexTimes = new long[INITIAL_INDEX_SIZE];
+		indexOffsets = new long[INITIAL_INDEX_SIZE];
+		clientIDs = new BloomFilter();
+		loggerNames = new BloomFilter();
+
+		SegmentReader reader = new SegmentReader(file, 0, file.length());
+		try {
+			long offset = 0;
+			StoredRecord record;
+			while ((record = reader.next()) != null) {
+				long nextOffset = reader.getOffset();
+				add(record.getReceivedTime(), record.getClientID(), record
+						.getLoggerName(), offset, (int) (nextOffset - offset));
+				offset = nextOffset;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	static String getFileName(long id, String suffix) {
+		String number = Long.toString(id);
+		StringBuilder name = new StringBuilder(20 + suffix.length());
+		for (int index = number.length(); index < 20; index++) {
+			name.append('0');
+		}
+		return name.append(number).append(suffix).toString();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records of a segment in the order that they were written,
+ * starting at an offset of the segment. Reading stops at the size that the
+ * segment had when it was returned by the store, so the records that are
+ * added later are not read.
+ * 
+ * A record that is damaged, e.g. the last record of a file that was not
+ * closed, ends the reading, and <code>isDamaged()</code> returns
+ * <code>true</code>.
+ * 
+ * @since 2.3
+ */
+public final class SegmentReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final RandomAccessFile randomAccessFile;
+
+	private final FileChannel channel;
+
+	private long limit;
+
+	private final RecordCodec codec = new RecordCodec();
+
+	private ByteBuffer buffer;
+
+	/**
+	 * The offset in the file of the end of the buffer.
+	 */
+	private long position;
+
+	private boolean damaged;
+
+	/**
+	 * Create a <code>SegmentReader</code>.
+	 * 
+	 * @param segment
+	 *            the segment to read.
+	 * @param offset
+	 *            the offset of the first record to read, e.g. from
+	 *            <code>getStartOffset()</code>.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public SegmentReader(Segment segment, long offset) throws IOException {
+		this(segment.getFile(), offset, segment.getSize());
+	}
+
+	SegmentReader(File file, long offset, long limit) throws IOException {
+		randomAccessFile = new RandomAccessFile(file, "r");
+		channel = randomAccessFile.getChannel();
+		this.limit = limit;
+		position = offset;
+		buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(
+				RecordCodec.HEADER_SIZE, limit - offset)));
+		buffer.flip();
+	}
+
+	/**
+	 * Read the next record.
+	 * 
+	 * @return the record, or <code>null</code> if there are no more records.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public StoredRecord next() throws IOException {
+		while (!damaged) {
+			StoredRecord record;
+			try {
+				record = codec.decode(buffer);
+			} catch (IOException e) {
+				damaged = true;
+				return null;
+			}
+
+			if (record != null) {
+				return record;
+			} else if (position >= limit) {
+				damaged = buffer.hasRemaining();
+				return null;
+			}
+
+			fill();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the offset in the file after the last record that was read.
+	 */
+	public long getOffset() {
+		return position - buffer.remaining();
+	}
+
+	/**
+	 * @return <code>true</code> if the reading was stopped by a damaged
+	 *         record.
+	 */
+	public boolean isDamaged() {
+		return damaged;
+	}
+
+	/**
+	 * Close the file.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		randomAccessFile.close();
+	}
+
+	private void fill() throws IOException {
+		buffer.compact();
+		if (!buffer.hasRemaining()) {
+			if (buffer.capacity() >= RecordCodec.HEADER_SIZE
+					+ RecordCodec.MAX_RECORD_SIZE) {
+				damaged = true;
+				return;
+			}
+
+			ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+
+		if (buffer.remaining() > limit - position) {
+			buffer.limit(buffer.position() + (int) (limit - position));
+		}
+		int count = channel.read(buffer, position);
+		buffer.flip();
+		if (count == -1) {
+			limit = position;
+		} else {
+			position += count;
+		}
+	}
+}
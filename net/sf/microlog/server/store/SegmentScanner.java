@@ -0,0 +1,416 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a <code>LogQuery</code> over the segments of a
+ * <code>SegmentStore</code>, with a <code>ForkJoinPool</code>. The segments
+ * that could not match are skipped by their time range and bloom filters, and
+ * the sparse index of each segment gives where to start. The rest of each
+ * segment is split at its index into chunks of about {@value #CHUNK_SIZE}
+ * bytes. The list of chunks is split in halves until each task has one chunk,
+ * which is memory-mapped and read. Each task keeps the earliest matches, up to
+ * one more than the limit of the query, and the results of two halves are
+ * merged in order of time as they are joined.
+ * 
+ * The matches are ordered by the time that they were received, then by
+ * segment and offset, so that the cursor of a page gives exactly where the
+ * next page starts.
+ * 
+ * @since 2.3
+ */
+public class SegmentScanner {
+
+	/**
+	 * The number of bytes of a segment that a task reads.
+	 */
+	public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create a <code>SegmentScanner</code> with a thread for each processor.
+	 */
+	public SegmentScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a <code>SegmentScanner</code>.
+	 * 
+	 * @param threadCount
+	 *            the number of threads that read the chunks.
+	 * @throws IllegalArgumentException
+	 *             if the <code>threadCount</code> is not positive.
+	 */
+	public SegmentScanner(int threadCount) throws IllegalArgumentException {
+		if (threadCount <= 0) {
+			throw new IllegalArgumentException(
+					"The threadCount must be positive.");
+		}
+
+		pool = new ForkJoinPool(threadCount,
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+					public ForkJoinWorkerThread newThread(
+							ForkJoinPool forkJoinPool) {
+						ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+								.newThread(forkJoinPool);
+						thread.setName("SegmentScanner-"
+								+ thread.getPoolIndex());
+						return thread;
+					}
+				}, null, false);
+	}
+
+	/**
+	 * Run a query over the segments of a store.
+	 * 
+	 * @param store
+	 *            the store.
+	 * @param query
+	 *            the query.
+	 * @return a page of the matches.
+	 * @throws IOException
+	 *             if a segment could not be read.
+	 */
+	public QueryResult scan(SegmentStore store, LogQuery query)
+			throws IOException {
+		return scan(store.getSegments(), query);
+	}
+
+	/**
+	 * Run a query over some segments, e.g. from
+	 * <code>SegmentStore.loadSegments()</code>.
+	 * 
+	 * @param segments
+	 *            the segments.
+	 * @param query
+	 *            the query.
+	 * @return a page of the matches.
+	 * @throws IOException
+	 *             if a segment could not be read.
+	 */
+	public QueryResult scan(List<Segment> segments, LogQuery query)
+			throws IOException {
+		long startTime = query.getStartTime();
+		String clientID = query.getClientID();
+
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (Segment segment : segments) {
+			if (!segment.overlaps(startTime, query.getToTime())
+					|| (clientID != null && !segment
+							.mightContainClientID(clientID))) {
+				continue;
+			}
+
+			long start = segment.getStartOffset(startTime);
+			while (start < segment.getSize()) {
+				long end = segment.getIndexedOffset(start + CHUNK_SIZE);
+				chunks.add(new Chunk(segment, start, end));
+				start = end;
+			}
+		}
+
+		int limit = query.getLimit();
+		ScanResult result;
+		if (chunks.isEmpty()) {
+			result = new ScanResult(new ArrayList<Match>(0), 0);
+		} else {
+			try {
+				result = pool.submit(
+						new ScanTask(chunks, 0, chunks.size(), query)).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("The scan was interrupted.");
+			} catch (ExecutionException e) {
+				// The exception could have been copied by the pool, with the
+				// original as the cause.
+				for (Throwable cause = e.getCause(); cause != null; cause = cause
+						.getCause()) {
+					if (cause instanceof ScanException) {
+						throw ((ScanException) cause).getIOException();
+					}
+				}
+				throw new IllegalStateException("The scan failed: "
+						+ e.getCause());
+			}
+		}
+
+		List<Match> matches = result.matches;
+		int count = Math.min(limit, matches.size());
+		List<StoredRecord> records = new ArrayList<StoredRecord>(count);
+		for (int index = 0; index < count; index++) {
+			records.add(matches.get(index).record);
+		}
+
+		String cursor = null;
+		if (matches.size() > limit && count > 0) {
+			Match last = matches.get(count - 1);
+			cursor = LogQuery.createCursor(last.record.getReceivedTime(),
+					last.segmentId, last.offset);
+		}
+		return new QueryResult(records, cursor, result.scannedCount);
+	}
+
+	/**
+	 * Stop the threads.
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * A matching log entry, and where it is.
+	 */
+	private static final class Match implements Comparable<Match> {
+
+		final StoredRecord record;
+
+		final long segmentId;
+
+		final long offset;
+
+		Match(StoredRecord record, long segmentId, long offset) {
+			this.record = record;
+			this.segmentId = segmentId;
+			this.offset = offset;
+		}
+
+		public int compareTo(Match match) {
+			long time = record.getReceivedTime();
+			long otherTime = match.record.getReceivedTime();
+			if (time != otherTime) {
+				return time < otherTime ? -1 : 1;
+			} else if (segmentId != match.segmentId) {
+				return segmentId < match.segmentId ? -1 : 1;
+			} else if (offset != match.offset) {
+				return offset < match.offset ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * A part of a segment that is read by one task.
+	 */
+	private static final class Chunk {
+
+		final Segment segment;
+
+		final long start;
+
+		final long end;
+
+		Chunk(Segment segment, long start, long end) {
+			this.segment = segment;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * The earliest matches of some chunks, sorted, and the number of log
+	 * entries that were read.
+	 */
+	private static final class ScanResult {
+
+		final List<Match> matches;
+
+		final long scannedCount;
+
+		ScanResult(List<Match> matches, long scannedCount) {
+			this.matches = matches;
+			this.scannedCount = scannedCount;
+		}
+	}
+
+	/**
+	 * Carries an <code>IOException</code> out of a task, since
+	 * <code>compute()</code> could not throw it.
+	 */
+	private static final class ScanException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ScanException(IOException cause) {
+			super(cause);
+		}
+
+		IOException getIOException() {
+			return (IOException) getCause();
+		}
+	}
+
+	/**
+	 * Reads a range of the chunks. A range of more than one chunk is split in
+	 * halves, and the matches of the halves are merged. A chunk is read by
+	 * keeping the earliest matches, up to one more than the limit, so that
+	 * the caller knows if there is a next page.
+	 */
+	private static final class ScanTask extends RecursiveTask<ScanResult> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Chunk> chunks;
+
+		private final int from;
+
+		private final int to;
+
+		private final LogQuery query;
+
+		ScanTask(List<Chunk> chunks, int from, int to, LogQuery query) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.query = query;
+		}
+
+		protected ScanResult compute() {
+			if (to - from == 1) {
+				try {
+					return scan(chunks.get(from));
+				} catch (IOException e) {
+					throw new ScanException(e);
+				}
+			}
+
+			int middle = (from + to) >>> 1;
+			ScanTask second = new ScanTask(chunks, middle, to, query);
+			second.fork();
+			ScanResult first = new ScanTask(chunks, from, middle, query)
+					.compute();
+			return merge(first, second.join(), query.getLimit() + 1);
+		}
+
+		/**
+		 * Merge two sorted lists of matches, up to the capacity.
+		 */
+		private static ScanResult merge(ScanResult first, ScanResult second,
+				int capacity) {
+			List<Match> firstMatches = first.matches;
+			List<Match> secondMatches = second.matches;
+			int count = Math.min(capacity, firstMatches.size()
+					+ secondMatches.size());
+			List<Match> matches = new ArrayList<Match>(count);
+
+			int firstIndex = 0;
+			int secondIndex = 0;
+			while (matches.size() < count) {
+				if (firstIndex == firstMatches.size()) {
+					matches.add(secondMatches.get(secondIndex++));
+				} else if (secondIndex == secondMatches.size()) {
+					matches.add(firstMatches.get(firstIndex++));
+				} else {
+					Match firstMatch = firstMatches.get(firstIndex);
+					Match secondMatch = secondMatches.get(secondIndex);
+					if (firstMatch.compareTo(secondMatch) <= 0) {
+						matches.add(firstMatch);
+						firstIndex++;
+					} else {
+						matches.add(secondMatch);
+						secondIndex++;
+					}
+				}
+			}
+
+			return new ScanResult(matches, first.scannedCount
+					+ second.scannedCount);
+		}
+
+		private ScanResult scan(Chunk chunk) throws IOException {
+			Segment segment = chunk.segment;
+			long start = chunk.start;
+			MappedByteBuffer buffer = map(segment.getFile(), start, chunk.end
+					- start);
+			RecordCodec codec = new RecordCodec();
+			int capacity = query.getLimit() + 1;
+			// The latest of the kept matches is at the head.
+			PriorityQueue<Match> kept = new PriorityQueue<Match>(Math.min(
+					capacity, 1024), Collections.reverseOrder());
+			long segmentId = segment.getId();
+			long fromTime = query.getFromTime();
+			long toTime = query.getToTime();
+			long scannedCount = 0;
+
+			while (buffer.hasRemaining()) {
+				long offset = start + buffer.position();
+				StoredRecord record;
+				try {
+					record = codec.decode(buffer);
+				} catch (IOException e) {
+					System.err.println("Stopped reading " + segment.getFile()
+							+ " at " + offset + ' ' + e.getMessage());
+					break;
+				}
+				if (record == null) {
+					break;
+				}
+				scannedCount++;
+
+				long time = record.getReceivedTime();
+				if (time < fromTime || time >= toTime
+						|| !query.isAfterCursor(time, segmentId, offset)) {
+					continue;
+				}
+				if (kept.size() == capacity
+						&& time > kept.peek().record.getReceivedTime()) {
+					continue;
+				}
+				if (!query.matches(record)) {
+					continue;
+				}
+
+				Match match = new Match(record, segmentId, offset);
+				if (kept.size() < capacity) {
+					kept.add(match);
+				} else if (match.compareTo(kept.peek()) < 0) {
+					kept.poll();
+					kept.add(match);
+				}
+			}
+
+			List<Match> matches = new ArrayList<Match>(kept);
+			Collections.sort(matches);
+			return new ScanResult(matches, scannedCount);
+		}
+
+		private static MappedByteBuffer map(File file, long position,
+				long size) throws IOException {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				return randomAccessFile.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, position, size);
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+	}
+}
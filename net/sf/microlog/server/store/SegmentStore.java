@@ -0,0 +1,514 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.sf.microlog.core.format.BinaryEvent;
+import net.sf.microlog.server.ingest.IngestRecord;
+import net.sf.microlog.server.ingest.IngestSink;
+
+/**
+ * An <code>IngestSink</code> that stores the log entries in a directory, as
+ * append-only segment files. Each batch is added to the current segment with
+ * one write. A new segment is started when the current one has reached its
+ * size, or has spanned its duration. The segments that have become too old,
+ * or that make the store too large, are deleted, oldest first, when a segment
+ * is rolled and when the store is opened.
+ * 
+ * Each <code>Segment</code> knows its time range, and has a sparse time index
+ * and bloom filters of the client ids and the logger names, so that a query
+ * could skip the segments that do not match. The times are the times that the
+ * server received the log entries.
+ * 
+ * When the store is opened, the index of a segment that was not rolled is
+ * built by reading the file, and a damaged record at its end is cut off.
+ * Only one store could use a directory at a time. The store is configured
+ * with system properties, where the sizes are in bytes, the times are in
+ * milliseconds, and 0 means no limit:
+ * 
+ * <pre>
+ * microlog.server.store.directory=logs
+ * microlog.server.store.segmentSize=67108864
+ * microlog.server.store.segmentDuration=3600000
+ * microlog.server.store.maxAge=604800000
+ * microlog.server.store.maxSize=1073741824
+ * </pre>
+ * 
+ * @since 2.3
+ */
+public class SegmentStore implements IngestSink {
+
+	public static final String DIRECTORY_KEY = "microlog.server.store.directory";
+
+	public static final String SEGMENT_SIZE_KEY = "microlog.server.store.segmentSize";
+
+	public static final String SEGMENT_DURATION_KEY = "microlog.server.store.segmentDuration";
+
+	public static final String MAX_AGE_KEY = "microlog.server.store.maxAge";
+
+	public static final String MAX_SIZE_KEY = "microlog.server.store.maxSize";
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	public static final long DEFAULT_SEGMENT_DURATION = 60 * 60 * 1000;
+
+	public static final long DEFAULT_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	public static final long DEFAULT_MAX_SIZE = 1024 * 1024 * 1024;
+
+	private static final String LOCK_FILE_NAME = "store.lock";
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+
+	private final long segmentSize;
+
+	private final long segmentDuration;
+
+	private final long maxAge;
+
+	private final long maxSize;
+
+	private final LinkedList<Segment> sealedSegments = new LinkedList<Segment>();
+
+	private long sealedSize;
+
+	private Segment segment;
+
+	private RandomAccessFile segmentFile;
+
+	private final RecordCodec codec = new RecordCodec();
+
+	private final RecordCodec.Buffer buffer = new RecordCodec.Buffer(
+			INITIAL_BUFFER_SIZE);
+
+	private int[] recordOffsets = new int[256];
+
+	private final RandomAccessFile lockFile;
+
+	private final FileLock lock;
+
+	private boolean closed;
+
+	/**
+	 * Open a <code>SegmentStore</code>.
+	 * 
+	 * @param directory
+	 *            the directory of the segments, which is created if needed.
+	 * @param segmentSize
+	 *            the size of a segment, in bytes, or 0 for no limit.
+	 * @param segmentDuration
+	 *            the time that a segment spans, in milliseconds, or 0 for no
+	 *            limit.
+	 * @param maxAge
+	 *            the age at which a segment is deleted, in milliseconds, or 0
+	 *            for no limit.
+	 * @param maxSize
+	 *            the size of the store at which the oldest segments are
+	 *            deleted, in bytes, or 0 for no limit.
+	 * @throws IllegalArgumentException
+	 *             if the <code>directory</code> is <code>null</code>, or a
+	 *             limit is negative.
+	 * @throws IOException
+	 *             if the store could not be opened, e.g. if it is used by
+	 *             another store.
+	 */
+	public SegmentStore(File directory, long segmentSize,
+			long segmentDuration, long maxAge, long maxSize)
+			throws IllegalArgumentException, IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException(
+					"The directory must not be null.");
+		}
+		if (segmentSize < 0 || segmentDuration < 0 || maxAge < 0
+				|| maxSize < 0) {
+			throw new IllegalArgumentException(
+					"The limits must not be negative.");
+		}
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segmentDuration = segmentDuration;
+		this.maxAge = maxAge;
+		this.maxSize = maxSize;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+
+		lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME),
+				"rw");
+		FileLock directoryLock;
+		try {
+			directoryLock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			directoryLock = null;
+		}
+		lock = directoryLock;
+		if (lock == null) {
+			lockFile.close();
+			throw new IOException(directory + " is used by another store.");
+		}
+
+		try {
+			open();
+		} catch (IOException e) {
+			lock.release();
+			lockFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open a <code>SegmentStore</code> that is configured with system
+	 * properties.
+	 * 
+	 * @return the store, or <code>null</code> if no directory has been set.
+	 * @throws IOException
+	 *             if the store could not be opened.
+	 */
+	public static SegmentStore createFromSystemProperties() throws IOException {
+		String directory = System.getProperty(DIRECTORY_KEY);
+		if (directory == null) {
+			return null;
+		}
+
+		return new SegmentStore(new File(directory), Long.getLong(
+				SEGMENT_SIZE_KEY, DEFAULT_SEGMENT_SIZE).longValue(), Long
+				.getLong(SEGMENT_DURATION_KEY, DEFAULT_SEGMENT_DURATION)
+				.longValue(), Long.getLong(MAX_AGE_KEY, DEFAULT_MAX_AGE)
+				.longValue(), Long.getLong(MAX_SIZE_KEY, DEFAULT_MAX_SIZE)
+				.longValue());
+	}
+
+	/**
+	 * Load the segments of a directory without opening the store, e.g. to
+	 * query a store that is used by a server. The files are not changed.
+	 * 
+	 * @param directory
+	 *            the directory of the segments.
+	 * @return the segments that have records, oldest first.
+	 * @throws IOException
+	 *             if the segments could not be loaded.
+	 */
+	public static List<Segment> loadSegments(File directory)
+			throws IOException {
+		File[] files = listSegmentFiles(directory);
+		List<Segment> segments = new ArrayList<Segment>(files.length);
+		for (int index = 0; index < files.length; index++) {
+			Segment loaded;
+			try {
+				loaded = Segment.load(files[index]);
+			} catch (FileNotFoundException e) {
+				// Deleted by the retention of the store.
+				continue;
+			}
+			if (loaded.getRecordCount() > 0) {
+				segments.add(loaded);
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * @return the directory of the segments.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the segments, oldest first.
+	 * 
+	 * @return the segments that have records, which do not change when more
+	 *         records are added.
+	 */
+	public synchronized List<Segment> getSegments() {
+		List<Segment> segments = new ArrayList<Segment>(
+				sealedSegments.size() + 1);
+		segments.addAll(sealedSegments);
+		if (segment != null && segment.getRecordCount() > 0) {
+			segments.add(segment.copy());
+		}
+		return segments;
+	}
+
+	/**
+	 * Get the segments that could have matching records, oldest first. The
+	 * other segments are skipped without reading them.
+	 * 
+	 * @param fromTime
+	 *            the earliest time that a record was received, which is
+	 *            included.
+	 * @param toTime
+	 *            the latest time that a record was received, which is not
+	 *            included.
+	 * @param clientID
+	 *            the id of the client, or <code>null</code> for any client.
+	 * @param loggerName
+	 *            the name of the logger, or <code>null</code> for any logger.
+	 * @return the segments, which do not change when more records are added.
+	 */
+	public List<Segment> getSegments(long fromTime, long toTime,
+			String clientID, String loggerName) {
+		List<Segment> segments = getSegments();
+		List<Segment> selected = new ArrayList<Segment>(segments.size());
+		for (Segment candidate : segments) {
+			if (candidate.overlaps(fromTime, toTime)
+					&& (clientID == null || candidate
+							.mightContainClientID(clientID))
+					&& (loggerName == null || candidate
+							.mightContainLoggerName(loggerName))) {
+				selected.add(candidate);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Add a batch to the current segment, and roll the segment when it is
+	 * full. If the batch could not be written, the segment is cut back to
+	 * where it was.
+	 * 
+	 * @see net.sf.microlog.server.ingest.IngestSink#write(java.util.List)
+	 */
+	public synchronized void write(List<IngestRecord> batch)
+			throws IOException {
+		if (closed) {
+			throw new IOException("The store is closed.");
+		}
+
+		int size = batch.size();
+		if (recordOffsets.length < size) {
+			recordOffsets = new int[size];
+		}
+
+		int index = 0;
+		while (index < size) {
+			if (segment.getRecordCount() > 0
+					&& isFull(segment.getSize(), segment.getMinTime(), batch
+							.get(index).getReceivedTime())) {
+				roll();
+			}
+
+			int first = index;
+			long startTime = segment.getRecordCount() > 0 ? segment
+					.getMinTime() : batch.get(first).getReceivedTime();
+			buffer.reset();
+			do {
+				recordOffsets[index] = buffer.size();
+				codec.encode(batch.get(index), buffer);
+				index++;
+			} while (index < size
+					&& !isFull(segment.getSize() + buffer.size(), startTime,
+							batch.get(index).getReceivedTime()));
+
+			long offset = segment.getSize();
+			append(offset);
+
+			for (int added = first; added < index; added++) {
+				IngestRecord record = batch.get(added);
+				BinaryEvent event = record.getEvent();
+				int end = added + 1 < index ? recordOffsets[added + 1]
+						: buffer.size();
+				segment.add(record.getReceivedTime(), event.getClientID(),
+						event.getName(), offset + recordOffsets[added], end
+								- recordOffsets[added]);
+			}
+		}
+	}
+
+	/**
+	 * Roll the current segment, and close the store.
+	 * 
+	 * @see net.sf.microlog.server.ingest.IngestSink#close()
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if (segment.getRecordCount() > 0) {
+				segmentFile.getChannel().force(false);
+				segment.seal();
+				segmentFile.close();
+			} else {
+				segmentFile.close();
+				segment.getFile().delete();
+			}
+		} finally {
+			lock.release();
+			lockFile.close();
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "SegmentStore[directory=" + directory + ", segments="
+				+ (sealedSegments.size() + 1) + ", size="
+				+ (sealedSize + segment.getSize()) + ']';
+	}
+
+	private boolean isFull(long size, long startTime, long time) {
+		return (segmentSize > 0 && size >= segmentSize)
+				|| (segmentDuration > 0 && time - startTime >= segmentDuration);
+	}
+
+	private void append(long offset) throws IOException {
+		FileChannel channel = segmentFile.getChannel();
+		ByteBuffer bytes = ByteBuffer.wrap(buffer.getBytes(), 0, buffer
+				.size());
+		try {
+			long position = offset;
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+		} catch (IOException e) {
+			try {
+				channel.truncate(offset);
+			} catch (IOException truncateException) {
+				System.err.println("Could not truncate "
+						+ segment.getFile() + ' ' + truncateException);
+			}
+			throw e;
+		}
+	}
+
+	private void open() throws IOException {
+		File[] files = listSegmentFiles(directory);
+		long nextId = 1;
+		for (int index = 0; index < files.length; index++) {
+			Segment loaded = Segment.load(files[index]);
+			nextId = loaded.getId() + 1;
+			if (!loaded.isSealed()) {
+				truncate(loaded);
+				if (index == files.length - 1) {
+					segment = loaded;
+					break;
+				} else if (loaded.getRecordCount() == 0) {
+					loaded.getFile().delete();
+					continue;
+				}
+				loaded.seal();
+			}
+			addSealed(loaded);
+		}
+
+		if (segment == null) {
+			segment = new Segment(nextId, directory);
+		}
+		segmentFile = new RandomAccessFile(segment.getFile(), "rw");
+
+		applyRetention();
+	}
+
+	/**
+	 * @return the segment files of a directory, oldest first.
+	 */
+	private static File[] listSegmentFiles(File directory) throws IOException {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile()
+						&& file.getName().endsWith(Segment.DATA_SUFFIX);
+			}
+		});
+		if (files == null) {
+			throw new IOException("Could not list " + directory);
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				return file1.getName().compareTo(file2.getName());
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Cut off a damaged record at the end of a segment.
+	 */
+	private static void truncate(Segment loaded) throws IOException {
+		File file = loaded.getFile();
+		if (file.length() > loaded.getSize()) {
+			System.err.println("Cutting off a damaged record at "
+					+ loaded.getSize() + " of " + file);
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				randomAccessFile.setLength(loaded.getSize());
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+	}
+
+	private void roll() throws IOException {
+		segmentFile.getChannel().force(false);
+		segment.seal();
+		segmentFile.close();
+		addSealed(segment);
+
+		segment = new Segment(segment.getId() + 1, directory);
+		segmentFile = new RandomAccessFile(segment.getFile(), "rw");
+
+		applyRetention();
+	}
+
+	private void addSealed(Segment sealed) {
+		sealedSegments.add(sealed);
+		sealedSize += sealed.getSize();
+	}
+
+	/**
+	 * Delete the oldest segments while they are too old, or the store is too
+	 * large. The current segment is kept.
+	 */
+	private void applyRetention() {
+		long now = System.currentTimeMillis();
+		while (!sealedSegments.isEmpty()) {
+			Segment oldest = sealedSegments.getFirst();
+			boolean expired = maxAge > 0 && oldest.getMaxTime() < now - maxAge;
+			boolean tooLarge = maxSize > 0
+					&& sealedSize + segment.getSize() > maxSize;
+			if (!expired && !tooLarge) {
+				break;
+			}
+
+			sealedSegments.removeFirst();
+			sealedSize -= oldest.getSize();
+			oldest.getIndexFile().delete();
+			if (!oldest.getFile().delete()) {
+				System.err.println("Could not delete " + oldest.getFile());
+			}
+		}
+	}
+}
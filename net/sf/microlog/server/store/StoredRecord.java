@@ -0,0 +1,108 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.server.store;
+
+import net.sf.microlog.core.Level;
+
+/**
+ * A log entry that has been read from a <code>SegmentStore</code>.
+ * 
+ * @since 2.3
+ */
+public final class StoredRecord {
+
+	private final long receivedTime;
+
+	private final long eventTime;
+
+	private final Level level;
+
+	private final String source;
+
+	private final String clientID;
+
+	private final String loggerName;
+
+	private final String line;
+
+	StoredRecord(long receivedTime, long eventTime, Level level,
+			String source, String clientID, String loggerName, String line) {
+		this.receivedTime = receivedTime;
+		this.eventTime = eventTime;
+		this.level = level;
+		this.source = source;
+		this.clientID = clientID;
+		this.loggerName = loggerName;
+		this.line = line;
+	}
+
+	/**
+	 * @return the time that the server received the log entry, in
+	 *         milliseconds since the epoch.
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * @return the time of the log entry on the client, or 0 for a text line.
+	 */
+	public long getEventTime() {
+		return eventTime;
+	}
+
+	/**
+	 * @return the level, or <code>null</code> if it is not known.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the client that sent the log entry, e.g. its address.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the id of the client, or <code>null</code> if it is not known.
+	 */
+	public String getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * @return the name of the logger, or <code>null</code> if it is not
+	 *         known.
+	 */
+	public String getLoggerName() {
+		return loggerName;
+	}
+
+	/**
+	 * @return the formatted log entry.
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return line;
+	}
+}
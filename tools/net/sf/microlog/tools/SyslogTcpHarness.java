@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009 The Microlog project @sourceforge.net
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.microlog.tools;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import net.sf.microlog.core.Level;
+import net.sf.microlog.core.MDC;
+import net.sf.microlog.core.format.PatternFormatter;
+import net.sf.microlog.midp.appender.SyslogTcpAppender;
+
+/**
+ * A local stand-in for a TCP syslog server, which checks a
+ * <code>SyslogTcpAppender</code> end to end. It listens on a free port of
+ * the loopback interface, so it could be run again at any time, and checks
+ * that:
+ * <ul>
+ * <li>each message is framed with its length in bytes, also when it has
+ * characters that take more than one byte, so that the frames follow each
+ * other exactly;</li>
+ * <li>the '"', '\' and ']' characters of an <code>MDC</code> value are
+ * escaped in the structured data;</li>
+ * <li>the appender connects again when the server drops the connection, and
+ * the messages after that arrive on the new connection.</li>
+ * </ul>
+ * 
+ * The appender uses the <code>Connector</code> of the Generic Connection
+ * Framework, so an implementation of it for Java SE, e.g. the one of
+ * MicroEmulator, has to be on the class path. The harness prints each check,
+ * and exits with the status 1 if one of them fails.
+ * 
+ * @since 2.3
+ */
+public final class SyslogTcpHarness {
+
+	/**
+	 * The time to wait for a connection or a message, in milliseconds.
+	 */
+	static final int TIMEOUT = 10000;
+
+	/**
+	 * The reconnect interval of the appender, in milliseconds.
+	 */
+	static final long RECONNECT_INTERVAL = 100;
+
+	private static final String MDC_KEY = "harness";
+
+	private static final String MDC_VALUE = "a\"b\\c]d";
+
+	private static final String ESCAPED_MDC_VALUE = "a\\\"b\\\\c\\]d";
+
+	private static final String BOM = "\uFEFF";
+
+	private final ServerSocket serverSocket;
+
+	private final SyslogTcpAppender appender = new SyslogTcpAppender();
+
+	private Socket socket;
+
+	private DataInputStream input;
+
+	private int failures;
+
+	private SyslogTcpHarness() throws IOException {
+		serverSocket = new ServerSocket(0, 1, InetAddress.getByName(null));
+		serverSocket.setSoTimeout(TIMEOUT);
+
+		PatternFormatter formatter = new PatternFormatter();
+		formatter.setPattern("%m");
+		appender.setFormatter(formatter);
+		appender.setHost("127.0.0.1");
+		appender.setPort(serverSocket.getLocalPort());
+		appender.setReconnectInterval(RECONNECT_INTERVAL);
+	}
+
+	public static void main(String[] args) throws IOException {
+		SyslogTcpHarness harness = new SyslogTcpHarness();
+		try {
+			harness.run();
+		} finally {
+			harness.close();
+		}
+
+		if (harness.failures > 0) {
+			System.out.println(harness.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	private void run() throws IOException {
+		appender.open();
+
+		checkFraming();
+		checkEscaping();
+		checkReconnect();
+	}
+
+	/**
+	 * Send two messages, one with characters that take two and three bytes in
+	 * UTF-8, and read them as two frames. The appender connects when it has
+	 * the first message to write.
+	 */
+	private void checkFraming() throws IOException {
+		log("framing \u00E9\u20AC");
+		log("framing second");
+		accept();
+
+		check("the octet count covers the UTF-8 bytes",
+				readFrame().endsWith(BOM + "framing \u00E9\u20AC"));
+		check("the next frame starts right after the previous one",
+				readFrame().endsWith(BOM + "framing second"));
+	}
+
+	private void checkEscaping() throws IOException {
+		MDC.put(MDC_KEY, MDC_VALUE);
+		try {
+			log("escaping");
+		} finally {
+			MDC.remove(MDC_KEY);
+		}
+
+		String frame = readFrame();
+		check("the MDC value is escaped in the structured data", frame
+				.indexOf(' ' + MDC_KEY + "=\"" + ESCAPED_MDC_VALUE + "\"]") > 0);
+	}
+
+	/**
+	 * Drop the connection, and log until the appender has connected again.
+	 * The messages that were written before the appender saw that the
+	 * connection was gone are lost, so only the messages after the new
+	 * connection are checked.
+	 */
+	private void checkReconnect() throws IOException {
+		socket.close();
+		serverSocket.setSoTimeout((int) RECONNECT_INTERVAL);
+
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		socket = null;
+		for (int index = 0; socket == null
+				&& System.currentTimeMillis() < deadline; index++) {
+			log("reconnect probe " + index);
+			try {
+				accept();
+			} catch (SocketTimeoutException e) {
+				// Log again, so that the appender notices the closed
+				// connection.
+			}
+		}
+
+		if (socket == null) {
+			check("the appender connects again", false);
+			return;
+		}
+		check("the appender connects again", true);
+
+		log("after reconnect");
+		String frame;
+		do {
+			frame = readFrame();
+		} while (frame.indexOf("reconnect probe") > 0);
+		check("the messages arrive on the new connection", frame
+				.endsWith(BOM + "after reconnect"));
+	}
+
+	private void accept() throws IOException {
+		socket = serverSocket.accept();
+		socket.setSoTimeout(TIMEOUT);
+		input = new DataInputStream(socket.getInputStream());
+	}
+
+	private void log(String message) {
+		appender.doLog(null, "harness", 0, Level.INFO, message, null);
+	}
+
+	/**
+	 * Read a frame of the RFC 6587 octet counting framing, i.e. the length in
+	 * bytes, a space and the message.
+	 */
+	private String readFrame() throws IOException {
+		int length = 0;
+		int b = input.read();
+		if (b < '1' || b > '9') {
+			throw new IOException("The frame does not start with a length: "
+					+ b);
+		}
+
+		while (b != ' ') {
+			if (b < '0' || b > '9') {
+				throw new IOException("Invalid character in the length: " + b);
+			}
+			length = length * 10 + b - '0';
+			b = input.read();
+			if (b == -1) {
+				throw new EOFException();
+			}
+		}
+
+		byte[] message = new byte[length];
+		input.readFully(message);
+
+		String frame = new String(message, "UTF-8");
+		System.out.println("Received " + length + " bytes: " + frame);
+		return frame;
+	}
+
+	private void check(String description, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + description);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	private void close() throws IOException {
+		appender.close();
+		if (socket != null) {
+			socket.close();
+		}
+		serverSocket.close();
+	}
+}